@@ -144,6 +144,11 @@ public abstract class AbstractCollection
             wrapped.forEach(action);
         }
 
+        @Override
+        public Object[] toArray() {
+            return wrapped.toArray();
+        }
+
         @Override
         public Spliterator<E> spliterator() {
             return wrapped.spliterator();
@@ -185,6 +185,11 @@ public abstract class AbstractList<E, This extends AbstractList<E, This>>
             wrapped.forEach(action);
         }
 
+        @Override
+        public Object[] toArray() {
+            return wrapped.toArray();
+        }
+
         @Override
         public Spliterator<E> spliterator() {
             return wrapped.spliterator();
@@ -97,6 +97,22 @@ public interface Collection<E> extends Iterable<E> {
      */
     Collection<E> addAll(Collection<? extends E> c);
 
+    /**
+     * Copies the elements of this collection into a new array, in iteration
+     * order.
+     *
+     * @return an array containing the elements of this collection
+     * @see java.util.Collection#toArray()
+     */
+    default Object[] toArray() {
+        Object[] result = new Object[size()];
+        int i = 0;
+        for (E e : this) {
+            result[i++] = e;
+        }
+        return result;
+    }
+
     /**
      * Returns a view of this collection as an immutable instance of the
      * corresponding standard Java collection type.
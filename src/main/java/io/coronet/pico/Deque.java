@@ -0,0 +1,115 @@
+package io.coronet.pico;
+
+/**
+ * A persistent double-ended queue: a {@code List} that can be "added" to and
+ * "removed" from at either end. {@link #add(Object)} appends to the end of
+ * the list like a {@link Vector}, {@link #addFirst(Object)} prepends to the
+ * beginning like a {@link LinkedList}, and elements can be removed from
+ * either end with {@link #removeFirst()} and {@link #removeLast()}.
+ * <p>
+ * Adding at either end takes amortized constant time. Everything else -
+ * removing from or peeking at either end, {@link #get(int)} and
+ * {@link #set(int, Object)} by index, and slicing with {@link #first(int)}
+ * and {@link #last(int)} - takes O(log n) time, which is effectively
+ * constant.
+ */
+public interface Deque<E> extends List<E> {
+
+    /**
+     * Returns the empty deque.
+     *
+     * @return the empty deque
+     */
+    public static <E> Deque<E> empty() {
+        return DequeImpl.empty();
+    }
+
+    @Override
+    Deque<E> first(int n);
+
+    @Override
+    Deque<E> last(int n);
+
+    /**
+     * "Adds" an element to the end of this deque, returning a new deque with
+     * the element appended.
+     *
+     * @see #addLast(Object)
+     */
+    @Override
+    Deque<E> add(E e);
+
+    /**
+     * "Adds" all of the elements in the given collection to the end of this
+     * deque, returning a new deque with the elements appended. Elements are
+     * appended in the order returned by the collection's iterator (so the
+     * last element returned by the iterator is the last element in the
+     * combined deque).
+     */
+    @Override
+    Deque<E> addAll(java.util.Collection<? extends E> c);
+
+    /**
+     * "Adds" all of the elements in the given collection to the end of this
+     * deque, returning a new deque with the elements appended. Elements are
+     * appended in the order returned by the collection's iterator (so the
+     * last element returned by the iterator is the last element in the
+     * combined deque).
+     */
+    @Override
+    Deque<E> addAll(Collection<? extends E> c);
+
+    /**
+     * "Adds" an element to the beginning of this deque, returning a new
+     * deque with the element prepended.
+     *
+     * @param e the element to prepend
+     * @return a new deque with the element at the beginning
+     */
+    Deque<E> addFirst(E e);
+
+    /**
+     * "Adds" an element to the end of this deque, returning a new deque with
+     * the element appended.
+     *
+     * @param e the element to append
+     * @return a new deque with the element at the end
+     * @see #add(Object)
+     */
+    default Deque<E> addLast(E e) {
+        return add(e);
+    }
+
+    @Override
+    Deque<E> set(int index, E e);
+
+    @Override
+    Deque<E> remove();
+
+    @Override
+    Deque<E> remove(int n);
+
+    /**
+     * "Removes" the first element of this deque, returning a new deque
+     * containing the remaining elements.
+     *
+     * @return a new deque with the first element removed
+     * @throws IndexOutOfBoundsException if the deque is empty
+     * @see #remove()
+     */
+    default Deque<E> removeFirst() {
+        return remove();
+    }
+
+    /**
+     * "Removes" the last element of this deque, returning a new deque
+     * containing the remaining elements. It's precisely equivalent to
+     * calling {@code deque.first(deque.size() - 1)}, just a little more
+     * convenient.
+     *
+     * @return a new deque with the last element removed
+     * @throws IndexOutOfBoundsException if the deque is empty
+     * @see #first(int)
+     */
+    Deque<E> removeLast();
+}
@@ -0,0 +1,167 @@
+package io.coronet.pico;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A persistent double-ended queue, backed by a {@link VectorImpl}. The
+ * vector appends into a tail array and prepends into a head array, each
+ * shared between versions and filled in place, and only touches its tree
+ * once every 32 elements; so adding at either end is amortized O(1).
+ * Removing from either end shrinks the head or tail when the element is in
+ * one, and otherwise slices the tree, which is O(log n) - effectively
+ * constant, since the tree is never more than seven levels deep.
+ * <p>
+ * Unlike a deque made of two linked lists, none of these bounds depend on
+ * the deque being used in a single-threaded, "linear" fashion, and indexed
+ * access is no worse than at the ends: {@link #get(int)},
+ * {@link #set(int, Object)}, {@link #first(int)} and {@link #last(int)}
+ * are all O(log n).
+ */
+final class DequeImpl<E> extends AbstractList<E, DequeImpl<E>>
+        implements Deque<E> {
+
+    private static final DequeImpl<Object> EMPTY =
+            new DequeImpl<>(VectorImpl.empty());
+
+    /**
+     * @return the empty deque
+     */
+    public static <T> DequeImpl<T> empty() {
+        @SuppressWarnings("unchecked")
+        DequeImpl<T> cast = (DequeImpl<T>) EMPTY;
+        return cast;
+    }
+
+    private final VectorImpl<E> vector;
+
+    /**
+     * @param vector the elements of the deque, first to last
+     */
+    private DequeImpl(VectorImpl<E> vector) {
+        this.vector = vector;
+    }
+
+    /**
+     * Wraps the given vector, reusing this deque if it's the same one.
+     *
+     * @param newVector the elements of the new deque
+     * @return a deque containing the given elements
+     */
+    private DequeImpl<E> with(VectorImpl<E> newVector) {
+        if (newVector == vector) {
+            return this;
+        }
+        if (newVector.isEmpty()) {
+            return empty();
+        }
+        return new DequeImpl<>(newVector);
+    }
+
+    @Override
+    public int size() {
+        return vector.size();
+    }
+
+    @Override
+    public E get(int index) {
+        return vector.get(index);
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        return vector.indexOf(o);
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return vector.lastIndexOf(o);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return vector.contains(o);
+    }
+
+    @Override
+    public DequeImpl<E> first(int n) {
+        return with(vector.first(n));
+    }
+
+    @Override
+    public DequeImpl<E> last(int n) {
+        return with(vector.last(n));
+    }
+
+    @Override
+    public DequeImpl<E> add(E e) {
+        return with(vector.add(e));
+    }
+
+    @Override
+    public DequeImpl<E> addAll(java.util.Collection<? extends E> c) {
+        return with(vector.addAll(c));
+    }
+
+    @Override
+    public DequeImpl<E> addAll(Collection<? extends E> c) {
+        return with(vector.addAll(c));
+    }
+
+    @Override
+    public DequeImpl<E> addFirst(E e) {
+        return with(vector.prepend(e));
+    }
+
+    @Override
+    public DequeImpl<E> set(int index, E e) {
+        if (index < 0 || index >= size()) {
+            // The vector would treat set(size(), e) as an add.
+            throw new IndexOutOfBoundsException();
+        }
+        return with(vector.set(index, e));
+    }
+
+    @Override
+    public DequeImpl<E> removeLast() {
+        int size = size();
+        if (size == 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        return first(size - 1);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return vector.iterator();
+    }
+
+    @Override
+    public void forEach(Consumer<? super E> action) {
+        vector.forEach(action);
+    }
+
+    @Override
+    public Object[] toArray() {
+        return vector.toArray();
+    }
+
+    @Override
+    public Spliterator<E> spliterator() {
+        return vector.spliterator();
+    }
+
+    @Override
+    public int hashCode() {
+        return vector.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof DequeImpl<?>) {
+            obj = ((DequeImpl<?>) obj).vector;
+        }
+        return vector.equals(obj);
+    }
+}
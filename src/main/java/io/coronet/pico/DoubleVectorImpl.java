@@ -0,0 +1,290 @@
+package io.coronet.pico;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.function.DoubleConsumer;
+import java.util.stream.DoubleStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A persistent vector of {@code double}s, with {@code double[]} leaves and tail.
+ *
+ * @see PrimitiveVectorImpl
+ */
+final class DoubleVectorImpl
+        extends PrimitiveVectorImpl<double[], DoubleVectorImpl>
+        implements DoubleVector {
+
+    private static final DoubleVectorImpl EMPTY =
+            new DoubleVectorImpl(0, null, 0, new double[0]);
+
+    /**
+     * @return the empty vector
+     */
+    public static DoubleVectorImpl empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @param size the number of elements in this vector
+     * @param root the root of the tree
+     * @param depth the depth of the tree
+     * @param tail the tail of this vector
+     */
+    private DoubleVectorImpl(int size, Object root, int depth, double[] tail) {
+        super(size, root, depth, tail);
+    }
+
+    @Override
+    protected DoubleVectorImpl create(
+            int size,
+            Object root,
+            int depth,
+            double[] tail) {
+
+        return new DoubleVectorImpl(size, root, depth, tail);
+    }
+
+    @Override
+    protected double[] newArray(int length) {
+        return new double[length];
+    }
+
+    @Override
+    protected int length(double[] array) {
+        return array.length;
+    }
+
+    @Override
+    public double get(int index) {
+        checkIndex(index);
+        return getArray(index)[index & 0x1F];
+    }
+
+    @Override
+    public DoubleVectorImpl add(double e) {
+        if (size == Integer.MAX_VALUE) {
+            // Can't grow the underlying data structure any more.
+            throw new OutOfMemoryError();
+        }
+
+        if (tail.length < 32) {
+            // Easy case - there's room in the tail.
+            double[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = e;
+            return new DoubleVectorImpl(size + 1, root, depth, newTail);
+        }
+
+        return pushTail(new double[] { e });
+    }
+
+    @Override
+    public DoubleVectorImpl addAll(double... values) {
+        return appendAll(values, 0, values.length);
+    }
+
+    @Override
+    public DoubleVectorImpl set(int index, double e) {
+        checkIndex(index);
+
+        double[] array = getArray(index).clone();
+        array[index & 0x1F] = e;
+        return withArray(index, array);
+    }
+
+    @Override
+    public void forEach(DoubleConsumer action) {
+        for (int i = 0; i < size; i += 32) {
+            double[] leaf = getArray(i);
+            int length = Math.min(32, size - i);
+            for (int j = 0; j < length; ++j) {
+                action.accept(leaf[j]);
+            }
+        }
+    }
+
+    @Override
+    public PrimitiveIterator.OfDouble iterator() {
+        return new PrimitiveIterator.OfDouble() {
+
+            private int index;
+            private double[] array;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public double nextDouble() {
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+
+                // Roll over to the next array.
+                if ((index & 0x1F) == 0) {
+                    array = getArray(index);
+                }
+
+                double e = array[index & 0x1F];
+                index += 1;
+                return e;
+            }
+        };
+    }
+
+    @Override
+    public Spliterator.OfDouble spliterator() {
+        return new DoubleVectorSpliterator(0, size);
+    }
+
+    @Override
+    public DoubleStream stream() {
+        return StreamSupport.doubleStream(spliterator(), false);
+    }
+
+    @Override
+    public DoubleStream parallelStream() {
+        return StreamSupport.doubleStream(spliterator(), true);
+    }
+
+    @Override
+    public double[] toArray() {
+        return copyInto(new double[size]);
+    }
+
+    @Override
+    public int hashCode() {
+        // Same as a java.util.List of the boxed values.
+        int hash = 1;
+        for (int i = 0; i < size; i += 32) {
+            double[] leaf = getArray(i);
+            int length = Math.min(32, size - i);
+            for (int j = 0; j < length; ++j) {
+                hash = 31 * hash + Double.hashCode(leaf[j]);
+            }
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof DoubleVectorImpl)) {
+            return false;
+        }
+
+        DoubleVectorImpl that = (DoubleVectorImpl) obj;
+        if (this.size != that.size) {
+            return false;
+        }
+
+        for (int i = 0; i < size; i += 32) {
+            double[] mine = this.getArray(i);
+            double[] theirs = that.getArray(i);
+            if (mine != theirs && !Arrays.equals(mine, theirs)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        if (size == 0) {
+            return "[]";
+        }
+
+        StringBuilder builder = new StringBuilder();
+        builder.append('[');
+
+        PrimitiveIterator.OfDouble iter = iterator();
+        builder.append(iter.nextDouble());
+        while (iter.hasNext()) {
+            builder.append(',').append(' ').append(iter.nextDouble());
+        }
+
+        return builder.append(']').toString();
+    }
+
+    /**
+     * A {@code Spliterator} over a range of this vector, which splits on
+     * leaf boundaries.
+     */
+    private final class DoubleVectorSpliterator
+            implements Spliterator.OfDouble {
+
+        private int index;
+        private final int end;
+
+        /**
+         * @param index the index of the first element to traverse
+         * @param end the index after the last element to traverse
+         */
+        public DoubleVectorSpliterator(int index, int end) {
+            this.index = index;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(DoubleConsumer action) {
+            if (index >= end) {
+                return false;
+            }
+
+            action.accept(getArray(index)[index & 0x1F]);
+            index += 1;
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(DoubleConsumer action) {
+            int i = index;
+            index = end;
+
+            while (i < end) {
+                double[] leaf = getArray(i);
+                int from = i & 0x1F;
+                int to = Math.min(32, from + (end - i));
+
+                for (int j = from; j < to; ++j) {
+                    action.accept(leaf[j]);
+                }
+
+                i += (to - from);
+            }
+        }
+
+        @Override
+        public Spliterator.OfDouble trySplit() {
+            int split = getSplitPoint(index, end);
+            if (split < 0) {
+                return null;
+            }
+
+            Spliterator.OfDouble prefix =
+                    new DoubleVectorSpliterator(index, split);
+            index = split;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return (end - index);
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.SIZED
+                    | Spliterator.SUBSIZED
+                    | Spliterator.ORDERED
+                    | Spliterator.NONNULL
+                    | Spliterator.IMMUTABLE;
+        }
+    }
+}
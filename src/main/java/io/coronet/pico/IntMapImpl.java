@@ -0,0 +1,143 @@
+package io.coronet.pico;
+
+import java.util.PrimitiveIterator;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * An implementation of the {@code IntMap} interface that stores its entries
+ * in a {@link LongMapImpl}, widening each key to a {@code long} on the way
+ * in and narrowing it back on the way out. Widening is a plain sign
+ * extension - nothing is boxed - and preserves the order of the keys, so
+ * the entries are still visited in ascending order of their {@code int}
+ * keys. The only thing that has to be done differently is hashing, which
+ * must hash the keys as {@code Integer}s to match a
+ * {@code java.util.Map<Integer, V>}.
+ */
+final class IntMapImpl<V> implements IntMap<V> {
+
+    private static final IntMapImpl<Object> EMPTY =
+            new IntMapImpl<>(LongMapImpl.empty());
+
+    /**
+     * @return the empty map
+     */
+    public static <V> IntMapImpl<V> empty() {
+        @SuppressWarnings("unchecked")
+        IntMapImpl<V> cast = (IntMapImpl<V>) EMPTY;
+        return cast;
+    }
+
+    private final LongMapImpl<V> map;
+
+    /**
+     * @param map the entries of this map, with their keys widened
+     */
+    private IntMapImpl(LongMapImpl<V> map) {
+        this.map = map;
+    }
+
+    /**
+     * Wraps the given map, reusing this one if it's the same map.
+     *
+     * @param newMap the entries of the new map
+     * @return a map containing the given entries
+     */
+    private IntMapImpl<V> with(LongMapImpl<V> newMap) {
+        if (newMap == map) {
+            return this;
+        }
+        if (newMap.isEmpty()) {
+            return empty();
+        }
+        return new IntMapImpl<>(newMap);
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(int key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public V get(int key) {
+        return map.get(key);
+    }
+
+    @Override
+    public V getOrDefault(int key, V defaultValue) {
+        return map.getOrDefault(key, defaultValue);
+    }
+
+    @Override
+    public IntMapImpl<V> put(int key, V value) {
+        return with(map.put(key, value));
+    }
+
+    @Override
+    public IntMapImpl<V> remove(int key) {
+        return with(map.remove(key));
+    }
+
+    @Override
+    public void forEach(EntryConsumer<? super V> action) {
+        map.forEach((key, value) -> action.accept((int) key, value));
+    }
+
+    @Override
+    public void forEachKey(IntConsumer action) {
+        map.forEachKey((key) -> action.accept((int) key));
+    }
+
+    @Override
+    public void forEachValue(Consumer<? super V> action) {
+        map.forEachValue(action);
+    }
+
+    @Override
+    public PrimitiveIterator.OfInt keyIterator() {
+        PrimitiveIterator.OfLong iterator = map.keyIterator();
+        return new PrimitiveIterator.OfInt() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public int nextInt() {
+                return (int) iterator.nextLong();
+            }
+        };
+    }
+
+    @Override
+    public int hashCode() {
+        // Same as a java.util.Map of the boxed keys.
+        return map.hashCode((key) -> Integer.hashCode((int) key));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof IntMapImpl<?>)) {
+            return false;
+        }
+        return map.equals(((IntMapImpl<?>) obj).map);
+    }
+
+    @Override
+    public String toString() {
+        return map.toString();
+    }
+}
@@ -0,0 +1,288 @@
+package io.coronet.pico;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A persistent vector of {@code int}s, with {@code int[]} leaves and tail.
+ *
+ * @see PrimitiveVectorImpl
+ */
+final class IntVectorImpl
+        extends PrimitiveVectorImpl<int[], IntVectorImpl>
+        implements IntVector {
+
+    private static final IntVectorImpl EMPTY =
+            new IntVectorImpl(0, null, 0, new int[0]);
+
+    /**
+     * @return the empty vector
+     */
+    public static IntVectorImpl empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @param size the number of elements in this vector
+     * @param root the root of the tree
+     * @param depth the depth of the tree
+     * @param tail the tail of this vector
+     */
+    private IntVectorImpl(int size, Object root, int depth, int[] tail) {
+        super(size, root, depth, tail);
+    }
+
+    @Override
+    protected IntVectorImpl create(
+            int size,
+            Object root,
+            int depth,
+            int[] tail) {
+
+        return new IntVectorImpl(size, root, depth, tail);
+    }
+
+    @Override
+    protected int[] newArray(int length) {
+        return new int[length];
+    }
+
+    @Override
+    protected int length(int[] array) {
+        return array.length;
+    }
+
+    @Override
+    public int get(int index) {
+        checkIndex(index);
+        return getArray(index)[index & 0x1F];
+    }
+
+    @Override
+    public IntVectorImpl add(int e) {
+        if (size == Integer.MAX_VALUE) {
+            // Can't grow the underlying data structure any more.
+            throw new OutOfMemoryError();
+        }
+
+        if (tail.length < 32) {
+            // Easy case - there's room in the tail.
+            int[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = e;
+            return new IntVectorImpl(size + 1, root, depth, newTail);
+        }
+
+        return pushTail(new int[] { e });
+    }
+
+    @Override
+    public IntVectorImpl addAll(int... values) {
+        return appendAll(values, 0, values.length);
+    }
+
+    @Override
+    public IntVectorImpl set(int index, int e) {
+        checkIndex(index);
+
+        int[] array = getArray(index).clone();
+        array[index & 0x1F] = e;
+        return withArray(index, array);
+    }
+
+    @Override
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i += 32) {
+            int[] leaf = getArray(i);
+            int length = Math.min(32, size - i);
+            for (int j = 0; j < length; ++j) {
+                action.accept(leaf[j]);
+            }
+        }
+    }
+
+    @Override
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+
+            private int index;
+            private int[] array;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public int nextInt() {
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+
+                // Roll over to the next array.
+                if ((index & 0x1F) == 0) {
+                    array = getArray(index);
+                }
+
+                int e = array[index & 0x1F];
+                index += 1;
+                return e;
+            }
+        };
+    }
+
+    @Override
+    public Spliterator.OfInt spliterator() {
+        return new IntVectorSpliterator(0, size);
+    }
+
+    @Override
+    public IntStream stream() {
+        return StreamSupport.intStream(spliterator(), false);
+    }
+
+    @Override
+    public IntStream parallelStream() {
+        return StreamSupport.intStream(spliterator(), true);
+    }
+
+    @Override
+    public int[] toArray() {
+        return copyInto(new int[size]);
+    }
+
+    @Override
+    public int hashCode() {
+        // Same as a java.util.List of the boxed values.
+        int hash = 1;
+        for (int i = 0; i < size; i += 32) {
+            int[] leaf = getArray(i);
+            int length = Math.min(32, size - i);
+            for (int j = 0; j < length; ++j) {
+                hash = 31 * hash + Integer.hashCode(leaf[j]);
+            }
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof IntVectorImpl)) {
+            return false;
+        }
+
+        IntVectorImpl that = (IntVectorImpl) obj;
+        if (this.size != that.size) {
+            return false;
+        }
+
+        for (int i = 0; i < size; i += 32) {
+            int[] mine = this.getArray(i);
+            int[] theirs = that.getArray(i);
+            if (mine != theirs && !Arrays.equals(mine, theirs)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        if (size == 0) {
+            return "[]";
+        }
+
+        StringBuilder builder = new StringBuilder();
+        builder.append('[');
+
+        PrimitiveIterator.OfInt iter = iterator();
+        builder.append(iter.nextInt());
+        while (iter.hasNext()) {
+            builder.append(',').append(' ').append(iter.nextInt());
+        }
+
+        return builder.append(']').toString();
+    }
+
+    /**
+     * A {@code Spliterator} over a range of this vector, which splits on
+     * leaf boundaries.
+     */
+    private final class IntVectorSpliterator implements Spliterator.OfInt {
+
+        private int index;
+        private final int end;
+
+        /**
+         * @param index the index of the first element to traverse
+         * @param end the index after the last element to traverse
+         */
+        public IntVectorSpliterator(int index, int end) {
+            this.index = index;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(IntConsumer action) {
+            if (index >= end) {
+                return false;
+            }
+
+            action.accept(getArray(index)[index & 0x1F]);
+            index += 1;
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(IntConsumer action) {
+            int i = index;
+            index = end;
+
+            while (i < end) {
+                int[] leaf = getArray(i);
+                int from = i & 0x1F;
+                int to = Math.min(32, from + (end - i));
+
+                for (int j = from; j < to; ++j) {
+                    action.accept(leaf[j]);
+                }
+
+                i += (to - from);
+            }
+        }
+
+        @Override
+        public Spliterator.OfInt trySplit() {
+            int split = getSplitPoint(index, end);
+            if (split < 0) {
+                return null;
+            }
+
+            Spliterator.OfInt prefix = new IntVectorSpliterator(index, split);
+            index = split;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return (end - index);
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.SIZED
+                    | Spliterator.SUBSIZED
+                    | Spliterator.ORDERED
+                    | Spliterator.NONNULL
+                    | Spliterator.IMMUTABLE;
+        }
+    }
+}
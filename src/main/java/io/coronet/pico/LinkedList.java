@@ -6,6 +6,15 @@ package io.coronet.pico;
  */
 public interface LinkedList<E> extends List<E> {
 
+    /**
+     * Returns the empty list.
+     *
+     * @return the empty list
+     */
+    public static <E> LinkedList<E> empty() {
+        return LinkedListImpl.empty();
+    }
+
     /**
      * Peeks at the top of the stack (aka the first element of the list).
      *
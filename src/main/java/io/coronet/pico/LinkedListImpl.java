@@ -0,0 +1,344 @@
+package io.coronet.pico;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A persistent singly-linked list, AKA a cons list. Each list is a cell
+ * holding its first element and a reference to the list of the remaining
+ * elements, which is shared with any other lists built on top of it.
+ * Pushing, popping and peeking at the head are O(1); anything that needs to
+ * find the n'th element walks the list to get there.
+ */
+final class LinkedListImpl<E> extends AbstractList<E, LinkedListImpl<E>>
+        implements LinkedList<E> {
+
+    private static final LinkedListImpl<Object> EMPTY =
+            new LinkedListImpl<>(null, null, 0);
+
+    /**
+     * @return the empty list
+     */
+    public static <T> LinkedListImpl<T> empty() {
+        @SuppressWarnings("unchecked")
+        LinkedListImpl<T> cast = (LinkedListImpl<T>) EMPTY;
+        return cast;
+    }
+
+    private final E head;
+    private final LinkedListImpl<E> rest;
+    private final int size;
+
+    /**
+     * @param head the first element of the list
+     * @param rest the rest of the list
+     * @param size the size of the list
+     */
+    private LinkedListImpl(E head, LinkedListImpl<E> rest, int size) {
+        this.head = head;
+        this.rest = rest;
+        this.size = size;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public E get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+        return drop(index).head;
+    }
+
+    @Override
+    public E first() {
+        if (size == 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        return head;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        int index = 0;
+        for (LinkedListImpl<E> l = this; l.size > 0; l = l.rest) {
+            if (o == null ? l.head == null : o.equals(l.head)) {
+                return index;
+            }
+            index += 1;
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        int result = -1;
+        int index = 0;
+        for (LinkedListImpl<E> l = this; l.size > 0; l = l.rest) {
+            if (o == null ? l.head == null : o.equals(l.head)) {
+                result = index;
+            }
+            index += 1;
+        }
+        return result;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return (indexOf(o) >= 0);
+    }
+
+    @Override
+    public LinkedListImpl<E> first(int n) {
+        if (n < 0 || n > size) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (n == 0) {
+            return empty();
+        }
+        if (n == size) {
+            return this;
+        }
+
+        // Have to copy the first n cells; the rest of the list can't be
+        // shared since it's changing.
+        return prepend(copyHead(n), n, empty());
+    }
+
+    @Override
+    public LinkedListImpl<E> last(int n) {
+        if (n < 0 || n > size) {
+            throw new IndexOutOfBoundsException();
+        }
+        return drop(size - n);
+    }
+
+    @Override
+    public LinkedListImpl<E> add(E e) {
+        if (size == Integer.MAX_VALUE) {
+            // Can't grow the underlying data structure any more.
+            throw new OutOfMemoryError();
+        }
+        return new LinkedListImpl<>(e, this, size + 1);
+    }
+
+    @Override
+    public LinkedListImpl<E> addAll(java.util.Collection<? extends E> c) {
+        Object[] array = c.toArray();
+        return prepend(array, array.length, this);
+    }
+
+    @Override
+    public LinkedListImpl<E> addAll(Collection<? extends E> c) {
+        Object[] array = new Object[c.size()];
+        int i = 0;
+        for (E e : c) {
+            array[i++] = e;
+        }
+        return prepend(array, i, this);
+    }
+
+    @Override
+    public LinkedListImpl<E> set(int index, E e) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        // Copy the cells before the one being replaced, and share the rest.
+        LinkedListImpl<E> target = drop(index);
+        LinkedListImpl<E> result = target.rest.add(e);
+        return prepend(copyHead(index), index, result);
+    }
+
+    @Override
+    public LinkedListImpl<E> remove() {
+        if (size == 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        return rest;
+    }
+
+    @Override
+    public LinkedListImpl<E> remove(int n) {
+        if (n < 0 || n > size) {
+            throw new IndexOutOfBoundsException();
+        }
+        return drop(n);
+    }
+
+    /**
+     * Walks past the first {@code n} cells of this list.
+     *
+     * @param n the number of cells to skip; must be in range
+     * @return the list starting at the n'th cell
+     */
+    private LinkedListImpl<E> drop(int n) {
+        LinkedListImpl<E> l = this;
+        for (int i = 0; i < n; ++i) {
+            l = l.rest;
+        }
+        return l;
+    }
+
+    /**
+     * Copies the first {@code n} elements of this list into an array.
+     *
+     * @param n the number of elements to copy; must be in range
+     * @return an array containing them
+     */
+    private Object[] copyHead(int n) {
+        Object[] array = new Object[n];
+        LinkedListImpl<E> l = this;
+        for (int i = 0; i < n; ++i) {
+            array[i] = l.head;
+            l = l.rest;
+        }
+        return array;
+    }
+
+    /**
+     * Prepends the first {@code n} elements of the given array on to the
+     * given list, in order, such that {@code array[0]} ends up at the head.
+     *
+     * @param array the elements to prepend
+     * @param n the number of elements to prepend
+     * @param list the list to prepend them to
+     * @return the new list
+     */
+    private static <E> LinkedListImpl<E> prepend(
+            Object[] array,
+            int n,
+            LinkedListImpl<E> list) {
+
+        if (n > Integer.MAX_VALUE - list.size) {
+            // Can't grow the underlying data structure any more.
+            throw new OutOfMemoryError();
+        }
+
+        LinkedListImpl<E> result = list;
+        for (int i = n - 1; i >= 0; --i) {
+            @SuppressWarnings("unchecked")
+            E e = (E) array[i];
+            result = new LinkedListImpl<>(e, result, result.size + 1);
+        }
+        return result;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+
+            private LinkedListImpl<E> next = LinkedListImpl.this;
+
+            @Override
+            public boolean hasNext() {
+                return next.size > 0;
+            }
+
+            @Override
+            public E next() {
+                if (next.size == 0) {
+                    throw new NoSuchElementException();
+                }
+
+                E e = next.head;
+                next = next.rest;
+                return e;
+            }
+        };
+    }
+
+    @Override
+    public void forEach(Consumer<? super E> action) {
+        for (LinkedListImpl<E> l = this; l.size > 0; l = l.rest) {
+            action.accept(l.head);
+        }
+    }
+
+    @Override
+    public Spliterator<E> spliterator() {
+        return new LinkedListSpliterator<>(this, size);
+    }
+
+    /**
+     * A {@code Spliterator} over a run of cells. Since every cell knows the
+     * size of the list it starts, splitting only needs to walk to the
+     * midpoint of the run - no copying into intermediate arrays.
+     */
+    private static final class LinkedListSpliterator<E>
+            implements Spliterator<E> {
+
+        /**
+         * Runs shorter than this aren't worth splitting.
+         */
+        private static final int MIN_SPLIT = 64;
+
+        private LinkedListImpl<E> next;
+        private int remaining;
+
+        /**
+         * @param next the first cell to traverse
+         * @param remaining the number of cells to traverse
+         */
+        public LinkedListSpliterator(LinkedListImpl<E> next, int remaining) {
+            this.next = next;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super E> action) {
+            if (remaining == 0) {
+                return false;
+            }
+
+            action.accept(next.head);
+            next = next.rest;
+            remaining -= 1;
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super E> action) {
+            LinkedListImpl<E> l = next;
+            for (int i = remaining; i > 0; --i) {
+                action.accept(l.head);
+                l = l.rest;
+            }
+            next = l;
+            remaining = 0;
+        }
+
+        @Override
+        public Spliterator<E> trySplit() {
+            if (remaining < MIN_SPLIT) {
+                return null;
+            }
+
+            int half = (remaining >>> 1);
+            Spliterator<E> prefix = new LinkedListSpliterator<>(next, half);
+
+            next = next.drop(half);
+            remaining -= half;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return remaining;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.SIZED
+                    | Spliterator.SUBSIZED
+                    | Spliterator.ORDERED
+                    | Spliterator.IMMUTABLE;
+        }
+    }
+}
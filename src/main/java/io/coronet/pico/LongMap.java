@@ -0,0 +1,130 @@
+package io.coronet.pico;
+
+import java.util.PrimitiveIterator;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * A persistent map from primitive {@code long} keys to values. Works like a
+ * {@link Map Map&lt;Long, V&gt;}, but stores its keys unboxed and finds
+ * them with bit tests rather than {@code hashCode} and {@code equals}, so
+ * nothing on the lookup path boxes. Keys are iterated in ascending order.
+ */
+public interface LongMap<V> {
+
+    /**
+     * Returns the empty map.
+     *
+     * @return the empty map
+     */
+    public static <V> LongMap<V> empty() {
+        return LongMapImpl.empty();
+    }
+
+    /**
+     * Returns the number of entries in this map.
+     *
+     * @return the number of entries in this map
+     */
+    int size();
+
+    /**
+     * Checks whether this is the empty map.
+     *
+     * @return true if this is the empty map, false otherwise
+     */
+    boolean isEmpty();
+
+    /**
+     * Returns true if this map contains a mapping for the specified key.
+     *
+     * @param key the key to look for
+     * @return true if we have a mapping for the given key
+     */
+    boolean containsKey(long key);
+
+    /**
+     * Returns the value mapped to the given key, or null if this map does
+     * not contain a mapping for the given key.
+     *
+     * @param key the key to look up
+     * @return the value mapped to the key, or null
+     */
+    V get(long key);
+
+    /**
+     * Returns the value mapped to the given key, or the given default if this
+     * map does not contain a mapping for the given key.
+     *
+     * @param key the key to look up
+     * @param defaultValue the value to return if no mapping is found
+     * @return the value mapped to the key, or the default value
+     */
+    V getOrDefault(long key, V defaultValue);
+
+    /**
+     * Creates a new map with the given mapping added (or replaced, if this
+     * map already contains a mapping for the given key). If the key is
+     * already mapped to the given value, returns this map.
+     *
+     * @param key the key to add a mapping for
+     * @param value the value to map it to
+     * @return the new map
+     */
+    LongMap<V> put(long key, V value);
+
+    /**
+     * Creates a new map with any mapping for the given key removed. If there
+     * is no such mapping, returns this map.
+     *
+     * @param key the key to remove
+     * @return the new map
+     */
+    LongMap<V> remove(long key);
+
+    /**
+     * Executes the given action for each entry in this map, in ascending
+     * order of keys.
+     *
+     * @param action the action to execute
+     */
+    void forEach(EntryConsumer<? super V> action);
+
+    /**
+     * Executes the given action for each key in this map, in ascending order.
+     *
+     * @param action the action to execute
+     */
+    void forEachKey(LongConsumer action);
+
+    /**
+     * Executes the given action for each value in this map, in ascending
+     * order of keys.
+     *
+     * @param action the action to execute
+     */
+    void forEachValue(Consumer<? super V> action);
+
+    /**
+     * Returns an iterator over the keys of this map, in ascending order. Use
+     * {@link PrimitiveIterator.OfLong#nextLong()} to avoid boxing.
+     *
+     * @return an iterator over the keys of this map
+     */
+    PrimitiveIterator.OfLong keyIterator();
+
+    /**
+     * An action on an entry of an {@code LongMap}, taking the key unboxed.
+     */
+    @FunctionalInterface
+    public static interface EntryConsumer<V> {
+
+        /**
+         * Performs this action on the given entry.
+         *
+         * @param key the key of the entry
+         * @param value the value of the entry
+         */
+        void accept(long key, V value);
+    }
+}
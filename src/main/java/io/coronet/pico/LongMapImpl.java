@@ -0,0 +1,523 @@
+package io.coronet.pico;
+
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongToIntFunction;
+
+/**
+ * An implementation of the {@code LongMap} interface based on a big-endian
+ * Patricia trie, as described in Okasaki and Gill's "Fast Mergeable Integer
+ * Maps". Each branch splits its keys on the highest bit at which they
+ * differ, so the shape of the trie depends only on the keys it holds, no
+ * path is longer than the width of a key, and an in-order walk visits the
+ * keys in ascending order.
+ * <p>
+ * Branching is done on the keys with their sign bit flipped, which sort the
+ * same way unsigned as the original keys do signed; that puts negative keys
+ * to the left of positive ones. Each node also records the number of
+ * entries below it, which the map uses as its size.
+ */
+final class LongMapImpl<V> implements LongMap<V> {
+
+    private static final LongMapImpl<Object> EMPTY = new LongMapImpl<>(null);
+
+    /**
+     * @return the empty map
+     */
+    public static <V> LongMapImpl<V> empty() {
+        @SuppressWarnings("unchecked")
+        LongMapImpl<V> cast = (LongMapImpl<V>) EMPTY;
+        return cast;
+    }
+
+    private final Node<V> root;
+
+    /**
+     * @param root the root of the trie, or null if this map is empty
+     */
+    private LongMapImpl(Node<V> root) {
+        this.root = root;
+    }
+
+    @Override
+    public int size() {
+        return (root == null ? 0 : root.size);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return (root == null);
+    }
+
+    @Override
+    public boolean containsKey(long key) {
+        return (find(key) != null);
+    }
+
+    @Override
+    public V get(long key) {
+        Leaf<V> leaf = find(key);
+        return (leaf == null ? null : leaf.value);
+    }
+
+    @Override
+    public V getOrDefault(long key, V defaultValue) {
+        Leaf<V> leaf = find(key);
+        return (leaf == null ? defaultValue : leaf.value);
+    }
+
+    /**
+     * Finds the leaf for the given key.
+     *
+     * @param key the key to look for
+     * @return the leaf for the key, or null if there is none
+     */
+    private Leaf<V> find(long key) {
+        Node<V> node = root;
+        if (node == null) {
+            return null;
+        }
+
+        // Prefixes needn't be checked on the way down; a key that isn't in
+        // the trie just ends up at some other key's leaf.
+        long bits = bits(key);
+        while (node instanceof Branch) {
+            Branch<V> branch = (Branch<V>) node;
+            node = ((bits & branch.mask) == 0 ? branch.left : branch.right);
+        }
+
+        Leaf<V> leaf = (Leaf<V>) node;
+        return (leaf.key == key ? leaf : null);
+    }
+
+    @Override
+    public LongMapImpl<V> put(long key, V value) {
+        if (root == null) {
+            return new LongMapImpl<>(new Leaf<>(key, value));
+        }
+
+        Node<V> newRoot = root.put(key, bits(key), value);
+        if (newRoot == root) {
+            return this;
+        }
+        if (newRoot.size < 0) {
+            // Can't grow the underlying data structure any more.
+            throw new OutOfMemoryError();
+        }
+
+        return new LongMapImpl<>(newRoot);
+    }
+
+    @Override
+    public LongMapImpl<V> remove(long key) {
+        if (root == null) {
+            // We're already the empty map.
+            return this;
+        }
+
+        Node<V> newRoot = root.remove(key, bits(key));
+        if (newRoot == root) {
+            // No change.
+            return this;
+        }
+        if (newRoot == null) {
+            return empty();
+        }
+
+        return new LongMapImpl<>(newRoot);
+    }
+
+    @Override
+    public void forEach(EntryConsumer<? super V> action) {
+        if (root != null) {
+            root.forEach(action);
+        }
+    }
+
+    @Override
+    public void forEachKey(LongConsumer action) {
+        if (root != null) {
+            root.forEach((key, value) -> action.accept(key));
+        }
+    }
+
+    @Override
+    public void forEachValue(Consumer<? super V> action) {
+        if (root != null) {
+            root.forEach((key, value) -> action.accept(value));
+        }
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong keyIterator() {
+        return new KeyIterator<>(root);
+    }
+
+    @Override
+    public int hashCode() {
+        // Same as a java.util.Map of the boxed keys.
+        return hashCode(Long::hashCode);
+    }
+
+    /**
+     * Computes the hash code of this map as a {@code java.util.Map} would,
+     * hashing the keys with the given function. {@link IntMapImpl} uses
+     * this to hash its keys as {@code Integer}s rather than {@code Long}s.
+     *
+     * @param keyHash computes the hash code of a key
+     * @return the hash code of this map
+     */
+    int hashCode(LongToIntFunction keyHash) {
+        return (root == null ? 0 : hash(root, keyHash));
+    }
+
+    /**
+     * Sums the hash codes of the entries at or below a non-null node.
+     */
+    private static int hash(Node<?> node, LongToIntFunction keyHash) {
+        if (node instanceof Branch) {
+            Branch<?> branch = (Branch<?>) node;
+            return hash(branch.left, keyHash) + hash(branch.right, keyHash);
+        }
+
+        Leaf<?> leaf = (Leaf<?>) node;
+        return (keyHash.applyAsInt(leaf.key)
+                ^ Objects.hashCode(leaf.value));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof LongMapImpl<?>)) {
+            return false;
+        }
+
+        LongMapImpl<?> that = (LongMapImpl<?>) obj;
+        if (this.size() != that.size()) {
+            return false;
+        }
+        if (this.root == that.root) {
+            return true;
+        }
+
+        // The shape of the trie depends only on its keys, so equal maps
+        // have identically-shaped tries.
+        return equal(this.root, that.root);
+    }
+
+    /**
+     * Compares two non-null (sub-)tries for equality.
+     */
+    private static boolean equal(Node<?> a, Node<?> b) {
+        if (a == b) {
+            return true;
+        }
+        if (a.size != b.size) {
+            return false;
+        }
+
+        if (a instanceof Leaf) {
+            if (!(b instanceof Leaf)) {
+                return false;
+            }
+
+            Leaf<?> x = (Leaf<?>) a;
+            Leaf<?> y = (Leaf<?>) b;
+            return (x.key == y.key && Objects.equals(x.value, y.value));
+        }
+
+        if (!(b instanceof Branch)) {
+            return false;
+        }
+
+        Branch<?> x = (Branch<?>) a;
+        Branch<?> y = (Branch<?>) b;
+        return (x.prefix == y.prefix
+                && x.mask == y.mask
+                && equal(x.left, y.left)
+                && equal(x.right, y.right));
+    }
+
+    @Override
+    public String toString() {
+        if (root == null) {
+            return "{}";
+        }
+
+        StringBuilder builder = new StringBuilder();
+        builder.append('{');
+        forEach((key, value) -> {
+            if (builder.length() > 1) {
+                builder.append(',').append(' ');
+            }
+            builder.append(key).append('=').append(value);
+        });
+
+        return builder.append('}').toString();
+    }
+
+    /**
+     * @param key a key
+     * @return the bits of the key to branch on
+     */
+    private static long bits(long key) {
+        return (key ^ Long.MIN_VALUE);
+    }
+
+    /**
+     * @param bits the bits of a key
+     * @param mask the bit a branch splits on
+     * @return the bits above the mask, which the keys on both sides of the
+     *         branch share
+     */
+    private static long prefix(long bits, long mask) {
+        return (bits & ~(mask | (mask - 1)));
+    }
+
+    /**
+     * Creates a branch holding two nodes whose prefixes differ.
+     *
+     * @param bits1 the prefix of the first node
+     * @param node1 the first node
+     * @param bits2 the prefix of the second node
+     * @param node2 the second node
+     * @return a new branch
+     */
+    private static <V> Node<V> join(
+            long bits1,
+            Node<V> node1,
+            long bits2,
+            Node<V> node2) {
+
+        long mask = Long.highestOneBit(bits1 ^ bits2);
+        long prefix = prefix(bits1, mask);
+
+        if ((bits1 & mask) == 0) {
+            return new Branch<>(prefix, mask, node1, node2);
+        } else {
+            return new Branch<>(prefix, mask, node2, node1);
+        }
+    }
+
+    /**
+     * A node in the trie.
+     */
+    abstract static class Node<V> {
+
+        /**
+         * The number of entries at or below this node. Negative if it's
+         * overflowed.
+         */
+        final int size;
+
+        /**
+         * @param size the number of entries at or below this node
+         */
+        protected Node(int size) {
+            this.size = size;
+        }
+
+        /**
+         * Puts a mapping into this node.
+         *
+         * @param key the key
+         * @param bits the bits of the key to branch on
+         * @param value the value
+         * @return this node, or a copy of it with the mapping added
+         */
+        public abstract Node<V> put(long key, long bits, V value);
+
+        /**
+         * Removes a mapping from this node.
+         *
+         * @param key the key
+         * @param bits the bits of the key to branch on
+         * @return this node, a copy of it with the mapping removed, or null
+         *         if it was the only mapping
+         */
+        public abstract Node<V> remove(long key, long bits);
+
+        /**
+         * Executes the given action for each entry at or below this node,
+         * in ascending order of keys.
+         *
+         * @param action the action to execute
+         */
+        public abstract void forEach(EntryConsumer<? super V> action);
+    }
+
+    /**
+     * A leaf holding a single mapping.
+     */
+    static final class Leaf<V> extends Node<V> {
+
+        final long key;
+        final V value;
+
+        /**
+         * @param key the key
+         * @param value the value
+         */
+        public Leaf(long key, V value) {
+            super(1);
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public Node<V> put(long key, long bits, V value) {
+            if (key == this.key) {
+                if (value == this.value) {
+                    return this;
+                }
+                return new Leaf<>(key, value);
+            }
+
+            return join(bits, new Leaf<>(key, value), bits(this.key), this);
+        }
+
+        @Override
+        public Node<V> remove(long key, long bits) {
+            return (key == this.key ? null : this);
+        }
+
+        @Override
+        public void forEach(EntryConsumer<? super V> action) {
+            action.accept(key, value);
+        }
+    }
+
+    /**
+     * A branch splitting keys that share a prefix on the next bit below it:
+     * keys with that bit clear go to the left, and keys with it set go to
+     * the right. Both sides are always non-null.
+     */
+    static final class Branch<V> extends Node<V> {
+
+        final long prefix;
+        final long mask;
+        final Node<V> left;
+        final Node<V> right;
+
+        /**
+         * @param prefix the bits shared by every key below this branch
+         * @param mask the (single) bit this branch splits on
+         * @param left the keys with that bit clear
+         * @param right the keys with that bit set
+         */
+        public Branch(long prefix, long mask, Node<V> left, Node<V> right) {
+            super(left.size + right.size);
+            this.prefix = prefix;
+            this.mask = mask;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Node<V> put(long key, long bits, V value) {
+            if (prefix(bits, mask) != prefix) {
+                // The key doesn't belong below this branch; split above it.
+                return join(bits, new Leaf<>(key, value), prefix, this);
+            }
+
+            if ((bits & mask) == 0) {
+                Node<V> result = left.put(key, bits, value);
+                if (result == left) {
+                    return this;
+                }
+                return new Branch<>(prefix, mask, result, right);
+            } else {
+                Node<V> result = right.put(key, bits, value);
+                if (result == right) {
+                    return this;
+                }
+                return new Branch<>(prefix, mask, left, result);
+            }
+        }
+
+        @Override
+        public Node<V> remove(long key, long bits) {
+            if (prefix(bits, mask) != prefix) {
+                return this;
+            }
+
+            if ((bits & mask) == 0) {
+                Node<V> result = left.remove(key, bits);
+                if (result == left) {
+                    return this;
+                }
+                if (result == null) {
+                    // Only the right side is left; it takes our place.
+                    return right;
+                }
+                return new Branch<>(prefix, mask, result, right);
+            } else {
+                Node<V> result = right.remove(key, bits);
+                if (result == right) {
+                    return this;
+                }
+                if (result == null) {
+                    return left;
+                }
+                return new Branch<>(prefix, mask, left, result);
+            }
+        }
+
+        @Override
+        public void forEach(EntryConsumer<? super V> action) {
+            left.forEach(action);
+            right.forEach(action);
+        }
+    }
+
+    /**
+     * An iterator over the keys in a trie, in ascending order.
+     */
+    private static final class KeyIterator<V>
+            implements PrimitiveIterator.OfLong {
+
+        // Nodes still to visit, nearest on top. Each one is the right side
+        // of a branch on the path to the current leaf, and every branch on
+        // a path splits on a different bit, so this never holds more than
+        // one node per bit (plus the root).
+        private final Node<?>[] stack = new Node<?>[65];
+        private int depth;
+
+        /**
+         * @param root the root of the trie, or null
+         */
+        public KeyIterator(Node<V> root) {
+            if (root != null) {
+                stack[depth++] = root;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return (depth > 0);
+        }
+
+        @Override
+        public long nextLong() {
+            if (depth == 0) {
+                throw new NoSuchElementException();
+            }
+
+            Node<?> node = stack[--depth];
+            stack[depth] = null;
+
+            while (node instanceof Branch) {
+                Branch<?> branch = (Branch<?>) node;
+                stack[depth++] = branch.right;
+                node = branch.left;
+            }
+
+            return ((Leaf<?>) node).key;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package io.coronet.pico;
+
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+
+/**
+ * A persistent vector of primitive {@code long}s. Works like a
+ * {@link Vector Vector&lt;Long&gt;}, but stores its elements in
+ * {@code long[]} leaves rather than boxing each one, which takes a fraction
+ * of the memory and keeps neighboring elements next to each other.
+ */
+public interface LongVector {
+
+    /**
+     * Returns the empty vector.
+     *
+     * @return the empty vector
+     */
+    public static LongVector empty() {
+        return LongVectorImpl.empty();
+    }
+
+    /**
+     * Returns a vector containing the given values.
+     *
+     * @param values the values
+     * @return a vector containing the values
+     */
+    public static LongVector of(long... values) {
+        return LongVectorImpl.empty().addAll(values);
+    }
+
+    /**
+     * Returns the number of elements in this vector.
+     *
+     * @return the number of elements in this vector
+     */
+    int size();
+
+    /**
+     * Checks whether this is the empty vector.
+     *
+     * @return true if this vector is empty
+     */
+    boolean isEmpty();
+
+    /**
+     * Gets the element at the given index.
+     *
+     * @param index the index of the element
+     * @return the element
+     * @throws IndexOutOfBoundsException if index is out of bounds
+     */
+    long get(int index);
+
+    /**
+     * "Adds" an element to the end of this vector, returning a new vector
+     * with the element appended.
+     *
+     * @param e the element to add
+     * @return a new vector with the element appended
+     */
+    LongVector add(long e);
+
+    /**
+     * "Adds" all of the given elements to the end of this vector, returning
+     * a new vector with the elements appended. Full leaves are pushed into
+     * the tree directly, rather than one element at a time.
+     *
+     * @param values the elements to add
+     * @return a new vector with the elements appended
+     * @throws NullPointerException if values is null
+     */
+    LongVector addAll(long... values);
+
+    /**
+     * "Sets" the element at the given index, returning a new vector with the
+     * value at the given index replaced.
+     *
+     * @param index the index to change
+     * @param e the new value for the index
+     * @return a new vector with the element replaced
+     * @throws IndexOutOfBoundsException if index is out of bounds
+     */
+    LongVector set(int index, long e);
+
+    /**
+     * Executes the given action for each element of this vector, in order.
+     *
+     * @param action the action to execute
+     */
+    void forEach(LongConsumer action);
+
+    /**
+     * Returns an iterator over the elements of this vector. Use
+     * {@link PrimitiveIterator.OfLong#nextLong()} to avoid boxing.
+     *
+     * @return an iterator over the elements of this vector
+     */
+    PrimitiveIterator.OfLong iterator();
+
+    /**
+     * Creates a {@code Spliterator} over the elements of this vector, which
+     * splits on leaf boundaries.
+     *
+     * @return a {@code Spliterator} over the elements of this vector
+     */
+    Spliterator.OfLong spliterator();
+
+    /**
+     * Returns a sequential {@code LongStream} of the elements of this vector.
+     *
+     * @return a sequential stream
+     */
+    LongStream stream();
+
+    /**
+     * Returns a possibly parallel {@code LongStream} of the elements of this
+     * vector.
+     *
+     * @return a possibly parallel stream
+     */
+    LongStream parallelStream();
+
+    /**
+     * Copies the elements of this vector into a new array.
+     *
+     * @return an array containing the elements of this vector
+     */
+    long[] toArray();
+}
@@ -0,0 +1,288 @@
+package io.coronet.pico;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A persistent vector of {@code long}s, with {@code long[]} leaves and tail.
+ *
+ * @see PrimitiveVectorImpl
+ */
+final class LongVectorImpl
+        extends PrimitiveVectorImpl<long[], LongVectorImpl>
+        implements LongVector {
+
+    private static final LongVectorImpl EMPTY =
+            new LongVectorImpl(0, null, 0, new long[0]);
+
+    /**
+     * @return the empty vector
+     */
+    public static LongVectorImpl empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @param size the number of elements in this vector
+     * @param root the root of the tree
+     * @param depth the depth of the tree
+     * @param tail the tail of this vector
+     */
+    private LongVectorImpl(int size, Object root, int depth, long[] tail) {
+        super(size, root, depth, tail);
+    }
+
+    @Override
+    protected LongVectorImpl create(
+            int size,
+            Object root,
+            int depth,
+            long[] tail) {
+
+        return new LongVectorImpl(size, root, depth, tail);
+    }
+
+    @Override
+    protected long[] newArray(int length) {
+        return new long[length];
+    }
+
+    @Override
+    protected int length(long[] array) {
+        return array.length;
+    }
+
+    @Override
+    public long get(int index) {
+        checkIndex(index);
+        return getArray(index)[index & 0x1F];
+    }
+
+    @Override
+    public LongVectorImpl add(long e) {
+        if (size == Integer.MAX_VALUE) {
+            // Can't grow the underlying data structure any more.
+            throw new OutOfMemoryError();
+        }
+
+        if (tail.length < 32) {
+            // Easy case - there's room in the tail.
+            long[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = e;
+            return new LongVectorImpl(size + 1, root, depth, newTail);
+        }
+
+        return pushTail(new long[] { e });
+    }
+
+    @Override
+    public LongVectorImpl addAll(long... values) {
+        return appendAll(values, 0, values.length);
+    }
+
+    @Override
+    public LongVectorImpl set(int index, long e) {
+        checkIndex(index);
+
+        long[] array = getArray(index).clone();
+        array[index & 0x1F] = e;
+        return withArray(index, array);
+    }
+
+    @Override
+    public void forEach(LongConsumer action) {
+        for (int i = 0; i < size; i += 32) {
+            long[] leaf = getArray(i);
+            int length = Math.min(32, size - i);
+            for (int j = 0; j < length; ++j) {
+                action.accept(leaf[j]);
+            }
+        }
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+
+            private int index;
+            private long[] array;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public long nextLong() {
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+
+                // Roll over to the next array.
+                if ((index & 0x1F) == 0) {
+                    array = getArray(index);
+                }
+
+                long e = array[index & 0x1F];
+                index += 1;
+                return e;
+            }
+        };
+    }
+
+    @Override
+    public Spliterator.OfLong spliterator() {
+        return new LongVectorSpliterator(0, size);
+    }
+
+    @Override
+    public LongStream stream() {
+        return StreamSupport.longStream(spliterator(), false);
+    }
+
+    @Override
+    public LongStream parallelStream() {
+        return StreamSupport.longStream(spliterator(), true);
+    }
+
+    @Override
+    public long[] toArray() {
+        return copyInto(new long[size]);
+    }
+
+    @Override
+    public int hashCode() {
+        // Same as a java.util.List of the boxed values.
+        int hash = 1;
+        for (int i = 0; i < size; i += 32) {
+            long[] leaf = getArray(i);
+            int length = Math.min(32, size - i);
+            for (int j = 0; j < length; ++j) {
+                hash = 31 * hash + Long.hashCode(leaf[j]);
+            }
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof LongVectorImpl)) {
+            return false;
+        }
+
+        LongVectorImpl that = (LongVectorImpl) obj;
+        if (this.size != that.size) {
+            return false;
+        }
+
+        for (int i = 0; i < size; i += 32) {
+            long[] mine = this.getArray(i);
+            long[] theirs = that.getArray(i);
+            if (mine != theirs && !Arrays.equals(mine, theirs)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        if (size == 0) {
+            return "[]";
+        }
+
+        StringBuilder builder = new StringBuilder();
+        builder.append('[');
+
+        PrimitiveIterator.OfLong iter = iterator();
+        builder.append(iter.nextLong());
+        while (iter.hasNext()) {
+            builder.append(',').append(' ').append(iter.nextLong());
+        }
+
+        return builder.append(']').toString();
+    }
+
+    /**
+     * A {@code Spliterator} over a range of this vector, which splits on
+     * leaf boundaries.
+     */
+    private final class LongVectorSpliterator implements Spliterator.OfLong {
+
+        private int index;
+        private final int end;
+
+        /**
+         * @param index the index of the first element to traverse
+         * @param end the index after the last element to traverse
+         */
+        public LongVectorSpliterator(int index, int end) {
+            this.index = index;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(LongConsumer action) {
+            if (index >= end) {
+                return false;
+            }
+
+            action.accept(getArray(index)[index & 0x1F]);
+            index += 1;
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(LongConsumer action) {
+            int i = index;
+            index = end;
+
+            while (i < end) {
+                long[] leaf = getArray(i);
+                int from = i & 0x1F;
+                int to = Math.min(32, from + (end - i));
+
+                for (int j = from; j < to; ++j) {
+                    action.accept(leaf[j]);
+                }
+
+                i += (to - from);
+            }
+        }
+
+        @Override
+        public Spliterator.OfLong trySplit() {
+            int split = getSplitPoint(index, end);
+            if (split < 0) {
+                return null;
+            }
+
+            Spliterator.OfLong prefix = new LongVectorSpliterator(index, split);
+            index = split;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return (end - index);
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.SIZED
+                    | Spliterator.SUBSIZED
+                    | Spliterator.ORDERED
+                    | Spliterator.NONNULL
+                    | Spliterator.IMMUTABLE;
+        }
+    }
+}
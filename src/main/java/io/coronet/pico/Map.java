@@ -2,8 +2,14 @@ package io.coronet.pico;
 
 import java.util.Iterator;
 import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A persistent map. Similar to a {@link java.util.Map}, but modifications
@@ -20,6 +26,16 @@ public interface Map<K, V> {
         return MapImpl.empty();
     }
 
+    /**
+     * Returns a new builder, initially empty, for efficiently constructing a
+     * map from a large number of mappings.
+     *
+     * @return a new, empty builder
+     */
+    public static <K, V> Builder<K, V> builder() {
+        return MapImpl.<K, V>empty().toBuilder();
+    }
+
     /**
      * Returns the number of entries in this map.
      *
@@ -100,6 +116,311 @@ public interface Map<K, V> {
      */
     Map<K, V> remove(Object key);
 
+    /**
+     * Creates a new map with the mapping for the given key recomputed from
+     * its current value (or null if there is no current mapping). If the
+     * function returns null, the mapping is removed. If nothing changes,
+     * returns this map.
+     *
+     * @param key the key to compute a new value for
+     * @param function computes the new value from the key and current value
+     * @return the new map
+     * @throws NullPointerException if key or function is null
+     * @see java.util.Map#compute(Object, BiFunction)
+     */
+    default Map<K, V> compute(
+            K key,
+            BiFunction<? super K, ? super V, ? extends V> function) {
+
+        if (function == null) {
+            throw new NullPointerException("function");
+        }
+
+        V oldValue = get(key);
+        V newValue = function.apply(key, oldValue);
+
+        if (newValue != null) {
+            return put(key, newValue);
+        } else if (oldValue != null || containsKey(key)) {
+            return remove(key);
+        } else {
+            return this;
+        }
+    }
+
+    /**
+     * Creates a new map with a mapping for the given key computed by the
+     * given function, if the key isn't already mapped to a non-null value.
+     * If the function returns null, no mapping is added.
+     *
+     * @param key the key to compute a value for
+     * @param function computes the value from the key
+     * @return the new map, or this map if nothing changed
+     * @throws NullPointerException if key or function is null
+     * @see java.util.Map#computeIfAbsent(Object, Function)
+     */
+    default Map<K, V> computeIfAbsent(
+            K key,
+            Function<? super K, ? extends V> function) {
+
+        if (function == null) {
+            throw new NullPointerException("function");
+        }
+        if (get(key) != null) {
+            return this;
+        }
+
+        V newValue = function.apply(key);
+        if (newValue == null) {
+            return this;
+        }
+        return put(key, newValue);
+    }
+
+    /**
+     * Creates a new map with the mapping for the given key recomputed from
+     * its current value, if the key is mapped to a non-null value. If the
+     * function returns null, the mapping is removed.
+     *
+     * @param key the key to compute a new value for
+     * @param function computes the new value from the key and current value
+     * @return the new map, or this map if nothing changed
+     * @throws NullPointerException if key or function is null
+     * @see java.util.Map#computeIfPresent(Object, BiFunction)
+     */
+    default Map<K, V> computeIfPresent(
+            K key,
+            BiFunction<? super K, ? super V, ? extends V> function) {
+
+        if (function == null) {
+            throw new NullPointerException("function");
+        }
+
+        V oldValue = get(key);
+        if (oldValue == null) {
+            return this;
+        }
+
+        V newValue = function.apply(key, oldValue);
+        if (newValue == null) {
+            return remove(key);
+        }
+        return put(key, newValue);
+    }
+
+    /**
+     * Creates a new map with the given value merged into the mapping for
+     * the given key. If the key isn't mapped to a non-null value, it's
+     * mapped to the given value; otherwise it's mapped to the result of
+     * calling the function with its current value and the given value, or
+     * removed if that result is null.
+     *
+     * @param key the key to merge a value into
+     * @param value the value to merge
+     * @param function combines the current value with the given value
+     * @return the new map, or this map if nothing changed
+     * @throws NullPointerException if key, value or function is null
+     * @see java.util.Map#merge(Object, Object, BiFunction)
+     */
+    default Map<K, V> merge(
+            K key,
+            V value,
+            BiFunction<? super V, ? super V, ? extends V> function) {
+
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        if (function == null) {
+            throw new NullPointerException("function");
+        }
+
+        V oldValue = get(key);
+        if (oldValue == null) {
+            return put(key, value);
+        }
+
+        V newValue = function.apply(oldValue, value);
+        if (newValue == null) {
+            return remove(key);
+        }
+        return put(key, newValue);
+    }
+
+    /**
+     * Creates a new map with the given mapping added, if the key isn't
+     * already mapped to a non-null value.
+     *
+     * @param key the key to add a mapping for
+     * @param value the value to map it to
+     * @return the new map, or this map if the key was already mapped
+     * @throws NullPointerException if key is null
+     * @see java.util.Map#putIfAbsent(Object, Object)
+     */
+    default Map<K, V> putIfAbsent(K key, V value) {
+        if (get(key) != null) {
+            return this;
+        }
+        return put(key, value);
+    }
+
+    /**
+     * Creates a new map containing the mappings of both this map and the
+     * given map. For a key that both maps map to the same value (by
+     * reference), that value is kept. For a key they map to different
+     * values, the given function is called with this map's value and the
+     * other map's value, and the key is mapped to its result (even if that
+     * is null).
+     *
+     * @param other the map to merge with this one
+     * @param function combines the two values for a key in both maps
+     * @return the new map
+     * @throws NullPointerException if other or function is null
+     */
+    default Map<K, V> merge(
+            Map<? extends K, ? extends V> other,
+            BiFunction<? super V, ? super V, ? extends V> function) {
+
+        if (function == null) {
+            throw new NullPointerException("function");
+        }
+
+        Map<K, V> result = this;
+        for (Entry<? extends K, ? extends V> entry : other.entrySet()) {
+            K key = entry.getKey();
+            V value = entry.getValue();
+
+            if (result.containsKey(key)) {
+                V existing = result.get(key);
+                if (existing == value) {
+                    continue;
+                }
+                value = function.apply(existing, value);
+            }
+
+            result = result.put(key, value);
+        }
+        return result;
+    }
+
+    /**
+     * Creates a new map containing the mappings of this map whose keys are
+     * also mapped by the given map. Values are combined as for
+     * {@link #merge(Map, BiFunction)}.
+     *
+     * @param other the map to intersect with this one
+     * @param function combines the two values for a key in both maps
+     * @return the new map
+     * @throws NullPointerException if other or function is null
+     */
+    default Map<K, V> intersect(
+            Map<? extends K, ? extends V> other,
+            BiFunction<? super V, ? super V, ? extends V> function) {
+
+        if (function == null) {
+            throw new NullPointerException("function");
+        }
+
+        Map<K, V> result = this;
+        for (Entry<K, V> entry : entrySet()) {
+            K key = entry.getKey();
+
+            if (!other.containsKey(key)) {
+                result = result.remove(key);
+                continue;
+            }
+
+            V value = entry.getValue();
+            V otherValue = other.get(key);
+            if (value != otherValue) {
+                result = result.put(key, function.apply(value, otherValue));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates a new map containing the mappings of this map whose keys are
+     * <em>not</em> mapped by the given map.
+     *
+     * @param other the map whose keys to remove from this one
+     * @return the new map
+     * @throws NullPointerException if other is null
+     */
+    default Map<K, V> difference(Map<?, ?> other) {
+        Map<K, V> result = this;
+        for (Object key : other.keySet()) {
+            result = result.remove(key);
+        }
+        return result;
+    }
+
+    /**
+     * Creates a new map containing the mappings of this map whose keys are
+     * in the given set.
+     *
+     * @param keys the keys to retain
+     * @return the new map
+     * @throws NullPointerException if keys is null
+     */
+    default Map<K, V> retainKeys(Set<?> keys) {
+        Map<K, V> result = this;
+        for (K key : keySet()) {
+            if (!keys.contains(key)) {
+                result = result.remove(key);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Compares this map to another version of it, returning the mappings
+     * that were added, removed or changed to get from this map to the
+     * other one. Values are compared with {@link Object#equals(Object)}.
+     *
+     * @param other the map to compare this one to
+     * @return the differences between this map and the other map
+     * @throws NullPointerException if other is null
+     */
+    default Diff<K, V> diff(Map<? extends K, ? extends V> other) {
+        Builder<K, V> added = builder();
+        Builder<K, V> removed = builder();
+        Builder<K, V> changed = builder();
+
+        for (Entry<K, V> entry : entrySet()) {
+            K key = entry.getKey();
+
+            if (!other.containsKey(key)) {
+                removed.put(key, entry.getValue());
+                continue;
+            }
+
+            V otherValue = other.get(key);
+            if (!Objects.equals(entry.getValue(), otherValue)) {
+                changed.put(key, otherValue);
+            }
+        }
+
+        for (Entry<? extends K, ? extends V> entry : other.entrySet()) {
+            if (!containsKey(entry.getKey())) {
+                added.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return new Diff<>(added.build(), removed.build(), changed.build());
+    }
+
+    /**
+     * Returns a new builder initially containing the mappings in this map.
+     * Batches of puts and removes through a builder are significantly
+     * cheaper than calling {@link #put(Object, Object)} and
+     * {@link #remove(Object)} repeatedly, since the builder modifies the
+     * nodes it has allocated in place rather than copying them every time.
+     * This map is unaffected by any changes made through the builder.
+     *
+     * @return a new builder initialized with the contents of this map
+     */
+    Builder<K, V> toBuilder();
+
     /**
      * Returns an iterable view of the entries in this map.
      *
@@ -159,6 +480,221 @@ public interface Map<K, V> {
         }
     }
 
+    /**
+     * Executes the given action for each key in this map.
+     *
+     * @param action the action to execute
+     */
+    default void forEachKey(Consumer<? super K> action) {
+        for (K key : keySet()) {
+            action.accept(key);
+        }
+    }
+
+    /**
+     * Executes the given action for each value in this map. A value mapped
+     * from more than one key is passed to the action once per key.
+     *
+     * @param action the action to execute
+     */
+    default void forEachValue(Consumer<? super V> action) {
+        for (Entry<K, V> entry : entrySet()) {
+            action.accept(entry.getValue());
+        }
+    }
+
+    /**
+     * Creates a {@code Spliterator} over the entries in this map.
+     * <p>
+     * The {@code Spliterator} will be {@linkplain Spliterator#SIZED sized},
+     * {@linkplain Spliterator#DISTINCT distinct},
+     * {@linkplain Spliterator#NONNULL non-null} and
+     * {@linkplain Spliterator#IMMUTABLE immutable}.
+     *
+     * @return a {@code Spliterator} over the entries in this map
+     */
+    default Spliterator<Entry<K, V>> spliterator() {
+        return Spliterators.spliterator(
+                entrySet().iterator(),
+                size(),
+                Spliterator.DISTINCT
+                        | Spliterator.NONNULL
+                        | Spliterator.IMMUTABLE);
+    }
+
+    /**
+     * Returns a sequential {@code Stream} of the entries in this map.
+     *
+     * @return a sequential stream
+     */
+    default Stream<Entry<K, V>> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Returns a possibly parallel {@code Stream} of the entries in this map.
+     *
+     * @return a possibly parallel stream
+     */
+    default Stream<Entry<K, V>> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * A transient, mutable builder for a {@code Map}. Nodes allocated by the
+     * builder are modified in place; calling {@link #build()} freezes the
+     * current contents into an immutable map in constant time. The builder
+     * may continue to be used after {@code build()} without affecting maps
+     * it has already built.
+     * <p>
+     * Builders are <em>not</em> thread-safe.
+     *
+     * @param <K> the type of keys in the map
+     * @param <V> the type of values in the map
+     */
+    public static interface Builder<K, V> {
+
+        /**
+         * Returns the number of mappings currently in this builder.
+         *
+         * @return the number of mappings in this builder
+         */
+        int size();
+
+        /**
+         * Returns true if this builder contains a mapping for the given key.
+         *
+         * @param key the key to look for
+         * @return true if there is a mapping for the given key
+         * @throws NullPointerException if key is null
+         */
+        boolean containsKey(Object key);
+
+        /**
+         * Retrieves the value currently associated with the given key.
+         *
+         * @param key the key to search for
+         * @return the associated value, or null if there is no mapping
+         * @throws NullPointerException if key is null
+         */
+        V get(Object key);
+
+        /**
+         * Adds (or replaces) a mapping.
+         *
+         * @param key the key to add a mapping for
+         * @param value the value to map it to
+         * @return this builder
+         * @throws NullPointerException if key is null
+         */
+        Builder<K, V> put(K key, V value);
+
+        /**
+         * Adds (or replaces) all of the given mappings.
+         *
+         * @param map the mappings to add
+         * @return this builder
+         * @throws NullPointerException if map is null
+         */
+        Builder<K, V> putAll(Map<? extends K, ? extends V> map);
+
+        /**
+         * Adds (or replaces) all of the given mappings.
+         *
+         * @param map the mappings to add
+         * @return this builder
+         * @throws NullPointerException if map is null or contains a null key
+         */
+        Builder<K, V> putAll(java.util.Map<? extends K, ? extends V> map);
+
+        /**
+         * Removes the mapping for the given key, if there is one.
+         *
+         * @param key the key to remove
+         * @return this builder
+         * @throws NullPointerException if key is null
+         */
+        Builder<K, V> remove(Object key);
+
+        /**
+         * Computes a new value for the given key from its current value (or
+         * null if there is no current mapping). If the function returns
+         * null, the mapping is removed.
+         *
+         * @param key the key to compute a new value for
+         * @param function the function to compute the new value
+         * @return this builder
+         * @throws NullPointerException if key or function is null
+         * @see java.util.Map#compute(Object, BiFunction)
+         */
+        Builder<K, V> compute(
+                K key,
+                BiFunction<? super K, ? super V, ? extends V> function);
+
+        /**
+         * Freezes the current contents of this builder into an immutable map.
+         *
+         * @return a map containing the mappings in this builder
+         */
+        Map<K, V> build();
+    }
+
+    /**
+     * The result of {@linkplain Map#diff(Map) comparing} two versions of a
+     * map.
+     *
+     * @param <K> the type of keys in the map
+     * @param <V> the type of values in the map
+     */
+    public static final class Diff<K, V> {
+
+        private final Map<K, V> added;
+        private final Map<K, V> removed;
+        private final Map<K, V> changed;
+
+        /**
+         * @param added the mappings only in the new map
+         * @param removed the mappings only in the old map
+         * @param changed the new values for keys whose value changed
+         */
+        public Diff(Map<K, V> added, Map<K, V> removed, Map<K, V> changed) {
+            this.added = added;
+            this.removed = removed;
+            this.changed = changed;
+        }
+
+        /**
+         * @return the mappings for keys only in the new map
+         */
+        public Map<K, V> getAdded() {
+            return added;
+        }
+
+        /**
+         * @return the mappings for keys only in the old map
+         */
+        public Map<K, V> getRemoved() {
+            return removed;
+        }
+
+        /**
+         * The keys in both maps whose values differ, mapped to their values
+         * in the new map. Their old values can be looked up in the old map.
+         *
+         * @return the new mappings for keys whose value changed
+         */
+        public Map<K, V> getChanged() {
+            return changed;
+        }
+
+        /**
+         * @return true if the two maps are equal
+         */
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+        }
+    }
+
     /**
      * A single entry in a map.
      *
@@ -1,13 +1,24 @@
 package io.coronet.pico;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 /**
  * An implementation of the {@code Map} interface based on a Hash Array Mapped
- * Trie. Heavily influenced by Clojure's {@code PersistentHashMap}.
+ * Trie, using the Compressed Hash-Array Mapped Prefix-tree (CHAMP) encoding
+ * of Steindorfer and Vinju. Originally influenced by Clojure's
+ * {@code PersistentHashMap}.
  * <p>
  * To avoid having to copy the entire index on modification, it is stored as
  * a trie of the <em>hash</em> of the key elements. With 32 slots in each trie
@@ -16,19 +27,23 @@ import java.util.NoSuchElementException;
  * from the root to the leaf of interest need to be copied (again, effectively
  * constant time).
  * <p>
- * Sparsely-populated nodes are stored as a small array indexed by a 32-bit
- * bitmap where the Nth bit indicates the presence of a child node at the given
- * virtual index. The physical index in the indexed array can be determined by
- * counting the number of lower-order bits in the bitmap that are set. More
- * fully-populated nodes are stored in flat, 32-element arrays, since the
- * space efficiency is no longer worthwhile. Special {@code HashCollisionNode}
- * leaves are used to deal with hash collisions - colliding entries are
- * linearly scanned to find the actually-matching element.
+ * Each node keeps two 32-bit bitmaps, one marking the slots that hold a
+ * key/value pair directly and one marking the slots that hold a child node.
+ * Keys and values are stored inline in a single array, all of them ahead of
+ * the child nodes, so there's no per-mapping {@code Entry} object and
+ * iteration runs through contiguous memory. Removal keeps the trie in a
+ * canonical form - a child node left holding a single mapping is inlined
+ * into its parent - so two maps with the same contents have the same shape
+ * no matter what sequence of operations produced them. Special
+ * {@code HashCollisionNode} leaves are used to deal with hash collisions -
+ * colliding entries are linearly scanned to find the actually-matching
+ * element.
  */
 final class MapImpl<K, V> extends AbstractMap<K, V, MapImpl<K, V>>
         implements Map<K, V> {
 
-    private static final MapImpl<Object, Object> EMPTY = new MapImpl<>(0, null);
+    private static final MapImpl<Object, Object> EMPTY =
+            new MapImpl<>(0, null);
 
     private static final Object NOT_FOUND = new Object();
 
@@ -44,6 +59,10 @@ final class MapImpl<K, V> extends AbstractMap<K, V, MapImpl<K, V>>
     private final int size;
     private final Node<K, V> root;
 
+    /**
+     * @param size the number of mappings in the map
+     * @param root the root of the trie, or null if the map is empty
+     */
     private MapImpl(int size, Node<K, V> root) {
         this.size = size;
         this.root = root;
@@ -96,24 +115,39 @@ final class MapImpl<K, V> extends AbstractMap<K, V, MapImpl<K, V>>
 
         Node<K, V> localRoot = root;
         if (localRoot == null) {
-            localRoot = SparseNode.empty();
+            localRoot = BitmapNode.empty(2);
         }
 
-        PutResult<K, V> result = localRoot.put(
+        SizeChange change = new SizeChange();
+        Node<K, V> newRoot = localRoot.put(
+                null,
                 key.hashCode(),
                 0,
-                new Entry<>(key, value));
+                key,
+                value,
+                change);
 
-        if (localRoot == result.root) {
+        if (localRoot == newRoot) {
             return this;
         }
 
-        int newSize = size;
-        if (result.added) {
-            newSize += 1;
+        return new MapImpl<>(size + change.delta, newRoot);
+    }
+
+    @Override
+    public MapImpl<K, V> putAll(Map<? extends K, ? extends V> map) {
+        if (map.isEmpty()) {
+            return this;
         }
+        return toBuilder().putAll(map).build();
+    }
 
-        return new MapImpl<>(newSize, result.root);
+    @Override
+    public MapImpl<K, V> putAll(java.util.Map<? extends K, ? extends V> map) {
+        if (map.isEmpty()) {
+            return this;
+        }
+        return toBuilder().putAll(map).build();
     }
 
     @Override
@@ -127,850 +161,3261 @@ final class MapImpl<K, V> extends AbstractMap<K, V, MapImpl<K, V>>
             return this;
         }
 
-        Node<K, V> newRoot = root.remove(key.hashCode(), 0, key);
+        SizeChange change = new SizeChange();
+        Node<K, V> newRoot = root.remove(null, key.hashCode(), 0, key, change);
 
         if (root == newRoot) {
             // No change.
             return this;
         }
+        if (size == 1) {
+            return empty();
+        }
 
-        return new MapImpl<>(size - 1, newRoot);
+        return new MapImpl<>(size + change.delta, newRoot);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Finds, recomputes and replaces the mapping in a single descent of the
+     * trie.
+     */
     @Override
-    public Iterable<Entry<K, V>> entrySet() {
-        if (size == 0) {
-            return Collections.<Entry<K, V>>emptySet();
+    public MapImpl<K, V> compute(
+            K key,
+            BiFunction<? super K, ? super V, ? extends V> function) {
+
+        if (function == null) {
+            throw new NullPointerException("function");
         }
 
-        return new Iterable<Entry<K, V>>() {
-            @Override
-            public Iterator<Entry<K, V>> iterator() {
-                return root.iterator();
-            }
-        };
+        return update(key, (value) -> {
+            V newValue = function.apply(key, orNull(value));
+            return (newValue == null ? notFound() : newValue);
+        });
     }
 
     /**
-     * A node in the HAMT.
+     * {@inheritDoc}
+     * <p>
+     * Finds and adds the mapping in a single descent of the trie.
      */
-    private static interface Node<K, V> extends Iterable<Entry<K, V>> {
-
-        /**
-         * Gets an element from this node.
-         *
-         * @param hash the hash code of the key
-         * @param level the current level in the trie
-         * @param key the full key object
-         * @param defaultValue the default value to return if not found
-         * @return the associated value, or the default value if not set
-         */
-        V get(int hash, int level, Object key, V defaultValue);
+    @Override
+    public MapImpl<K, V> computeIfAbsent(
+            K key,
+            Function<? super K, ? extends V> function) {
 
-        /**
-         * Puts an element into this node.
-         *
-         * @param hash the hash code of the key
-         * @param level the current level in the trie
-         * @param key the full key object
-         * @param value the value to associate with the key
-         * @return a copy of this node with the given value set
-         */
-        PutResult<K, V> put(int hash, int level, Entry<K, V> entry);
+        if (function == null) {
+            throw new NullPointerException("function");
+        }
 
-        /**
-         * Removes an element from this node.
-         *
-         * @param hash the hash code of the key
-         * @param level the current level in the trie
-         * @param key the full key object
-         * @return a copy of this node with the given value removed
-         */
-        Node<K, V> remove(int hash, int level, Object key);
+        return update(key, (value) -> {
+            if (orNull(value) != null) {
+                return value;
+            }
+            V newValue = function.apply(key);
+            return (newValue == null ? value : newValue);
+        });
     }
 
     /**
-     * Shared base class of {@code SparseNode} and {@code FullNode}.
-     *
-     * TODO: Convert me to a concrete class that contains a mapping
-     *       strategy instead of overriding protected methods? May or may not
-     *       be worth the extra allocation.
+     * {@inheritDoc}
+     * <p>
+     * Finds, recomputes and replaces the mapping in a single descent of the
+     * trie.
      */
-    private static abstract class AbstractNode<K, V> implements Node<K, V> {
-
-        @Override
-        public final V get(int hash, int level, Object key, V defaultValue) {
-            // Get the next step in the trie based on the hash.
-            int index = sliceHashBits(hash, level);
-            Object e = get(index);
-
-            if (e == null) {
-
-                // Nothing with this hash prefix in the trie at all.
-                return defaultValue;
-
-            } else if (e.getClass() == Entry.class) {
-
-                // Found a key/value pair. Check if the key matches.
-                @SuppressWarnings("unchecked")
-                Entry<K, V> entry = (Entry<K, V>) e;
-
-                if (key.equals(entry.getKey())) {
-                    return entry.getValue();
-                } else {
-                    return defaultValue;
-                }
-
-            } else {
+    @Override
+    public MapImpl<K, V> computeIfPresent(
+            K key,
+            BiFunction<? super K, ? super V, ? extends V> function) {
 
-                // It's another node; recurse in.
-                @SuppressWarnings("unchecked")
-                Node<K, V> node = (Node<K, V>) e;
-                return node.get(hash, level + 5, key, defaultValue);
+        if (function == null) {
+            throw new NullPointerException("function");
+        }
 
+        return update(key, (value) -> {
+            if (orNull(value) == null) {
+                return value;
             }
-        }
+            V newValue = function.apply(key, value);
+            return (newValue == null ? notFound() : newValue);
+        });
+    }
 
-        @Override
-        public final PutResult<K, V> put(
-                int hash,
-                int level,
-                Entry<K, V> entry) {
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Finds, combines and replaces the mapping in a single descent of the
+     * trie.
+     */
+    @Override
+    public MapImpl<K, V> merge(
+            K key,
+            V value,
+            BiFunction<? super V, ? super V, ? extends V> function) {
 
-            int index = sliceHashBits(hash, level);
-            Object e = get(index);
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        if (function == null) {
+            throw new NullPointerException("function");
+        }
 
-            if (e == null) {
+        return update(key, (oldValue) -> {
+            if (orNull(oldValue) == null) {
+                return value;
+            }
+            V newValue = function.apply(oldValue, value);
+            return (newValue == null ? notFound() : newValue);
+        });
+    }
 
-                // We don't have anything with this hash prefix yet. Insert
-                // a new element.
-                Node<K, V> node = insert(hash, level, index, entry);
-                return new PutResult<>(node, true);
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Checks for and adds the mapping in a single descent of the trie.
+     */
+    @Override
+    public MapImpl<K, V> putIfAbsent(K key, V value) {
+        return update(key, (oldValue) -> {
+            return (orNull(oldValue) == null ? value : oldValue);
+        });
+    }
 
-            } else if (e.getClass() == Entry.class) {
+    /**
+     * Updates the mapping for the given key in a single descent of the
+     * trie; see {@link Node#update}.
+     *
+     * @param key the key to update the mapping for
+     * @param function computes the new value (or {@code NOT_FOUND}) from
+     *                 the current value (or {@code NOT_FOUND})
+     * @return the new map, or this map if nothing changed
+     */
+    private MapImpl<K, V> update(K key, UnaryOperator<V> function) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
 
-                // We've got a single entry with a matching hash prefix;
-                // replace it (either directly or with a new node containing
-                // both it and the new entry).
+        Node<K, V> localRoot = root;
+        if (localRoot == null) {
+            localRoot = BitmapNode.empty(2);
+        }
 
-                @SuppressWarnings("unchecked")
-                Entry<K, V> existing = (Entry<K, V>) e;
-                return replace(index, level, existing, hash, entry);
+        SizeChange change = new SizeChange();
+        Node<K, V> newRoot = localRoot.update(
+                null,
+                key.hashCode(),
+                0,
+                key,
+                function,
+                change);
 
-            } else {
+        if (localRoot == newRoot) {
+            return this;
+        }
+        if (size + change.delta == 0) {
+            return empty();
+        }
 
-                // We've already got an aggregate node at this level; recurse.
+        return new MapImpl<>(size + change.delta, newRoot);
+    }
 
-                @SuppressWarnings("unchecked")
-                Node<K, V> node = (Node<K, V>) e;
-                PutResult<K, V> result = node.put(hash, level + 5, entry);
+    /**
+     * @return the {@code NOT_FOUND} sentinel, as a value
+     */
+    private static <V> V notFound() {
+        @SuppressWarnings("unchecked")
+        V notFound = (V) NOT_FOUND;
+        return notFound;
+    }
 
-                if (result.root == node) {
-                    // Nothing changed, don't bother copying.
-                    result.root = this;
-                } else {
-                    result.root = set(index, result.root);
-                }
+    /**
+     * @param value a value, or {@code NOT_FOUND}
+     * @return the value, or null if it's {@code NOT_FOUND}
+     */
+    private static <V> V orNull(V value) {
+        return (value == NOT_FOUND ? null : value);
+    }
 
-                return result;
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If the other map is also a {@code MapImpl}, the two tries are walked
+     * in parallel: subtrees the maps share are reused without being looked
+     * at, and subtrees only in one map are linked in without being copied,
+     * so the cost is roughly proportional to the number of mappings in the
+     * other map that aren't already in this one.
+     */
+    @Override
+    public MapImpl<K, V> merge(
+            Map<? extends K, ? extends V> other,
+            BiFunction<? super V, ? super V, ? extends V> function) {
 
-            }
+        if (function == null) {
+            throw new NullPointerException("function");
         }
 
-        /**
-         * "Replaces" a single entry in the trie with a newer version or a new
-         * node containing both old and new entries. Returns a copy of this
-         * node with the replacement made.
-         *
-         * @param index the index of the entry in this node
-         * @param level the current level in the trie
-         * @param oldEntry the old entry to replace
-         * @param newHash the hash of the new entry's key
-         * @param newEntry the new entry to replace it with
-         * @return a copy of this node with the replacement made
-         */
-        private PutResult<K, V> replace(
-                int index,
-                int level,
-                Entry<K, V> oldEntry,
-                int newHash,
-                Entry<K, V> newEntry) {
-
-            if (oldEntry.getKey().equals(newEntry.getKey())) {
-
-                if (oldEntry.getValue() == newEntry.getValue()) {
-                    // The new entry is fully equivalent, don't bother.
-                    return new PutResult<>(this, false);
-                }
-
-                // Replace the old entry with the new entry.
-                Node<K, V> node = set(index, newEntry);
-                return new PutResult<>(node, false);
+        MapImpl<K, V> that = toMapImpl(other);
+        if (that.root == null) {
+            return this;
+        }
+        if (root == null) {
+            return that;
+        }
 
-            } else {
+        SizeChange change = new SizeChange();
+        Node<K, V> newRoot = merge(root, that.root, 0, function, change);
 
-                // Replace the entry with an aggregate node.
-                Node<K, V> newNode = createNode(
-                        level + 5,
-                        oldEntry,
-                        newHash,
-                        newEntry);
+        return withRoot(newRoot, change, that);
+    }
 
-                Node<K, V> node = set(index, newNode);
-                return new PutResult<>(node, true);
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If the other map is also a {@code MapImpl}, the two tries are walked
+     * in parallel as for {@link #merge(Map, BiFunction)}; subtrees the maps
+     * share are kept as they are.
+     */
+    @Override
+    public MapImpl<K, V> intersect(
+            Map<? extends K, ? extends V> other,
+            BiFunction<? super V, ? super V, ? extends V> function) {
 
-            }
+        if (function == null) {
+            throw new NullPointerException("function");
+        }
+        if (root == null) {
+            return this;
         }
 
-        @Override
-        public Node<K, V> remove(int hash, int level, Object key) {
-
-            int index = sliceHashBits(hash, level);
-            Object e = get(index);
+        MapImpl<K, V> that = toMapImpl(other);
+        if (that.root == null) {
+            return empty();
+        }
 
-            if (e == null) {
+        SizeChange change = new SizeChange();
+        Node<K, V> newRoot =
+                intersect(root, that.root, 0, function, change);
 
-                // Nothing matching that hash prefix.
-                return this;
+        return withRoot(newRoot, change, that);
+    }
 
-            } else if (e.getClass() == Entry.class) {
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If the other map is also a {@code MapImpl}, the two tries are walked
+     * in parallel; subtrees only in this map are kept without being looked
+     * at.
+     */
+    @Override
+    public MapImpl<K, V> difference(Map<?, ?> other) {
+        if (root == null) {
+            return this;
+        }
 
-                // It's a single key/value pair.
-                @SuppressWarnings("unchecked")
-                Entry<K, V> entry = (Entry<K, V>) e;
+        MapImpl<?, ?> that = toMapImpl(other);
+        if (that.root == null) {
+            return this;
+        }
 
-                if (key.equals(entry.getKey())) {
-                    // Remove it.
-                    return remove(index);
-                } else {
-                    // Nothing to remove, we're fine.
-                    return this;
-                }
+        SizeChange change = new SizeChange();
+        Node<K, V> newRoot = difference(root, that.root, 0, change);
 
-            } else {
+        return withRoot(newRoot, change, this);
+    }
 
-                // It's a node; recurse.
-                @SuppressWarnings("unchecked")
-                Node<K, V> node = (Node<K, V>) e;
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If the set is a {@code SetImpl}, its trie has the same shape as the
+     * trie of a map with the same keys, and the two are walked in parallel
+     * as for {@link #intersect(Map, BiFunction)}.
+     */
+    @Override
+    public MapImpl<K, V> retainKeys(Set<?> keys) {
+        if (root == null) {
+            return this;
+        }
 
-                Node<K, V> result = node.remove(hash, level + 5, key);
-                if (result == node) {
+        Node<?, ?> keyRoot;
+        if (keys instanceof SetImpl<?>) {
+            keyRoot = ((SetImpl<?>) keys).getRoot();
+        } else {
+            keyRoot = SetImpl.empty().addAll(keys).getRoot();
+        }
+        if (keyRoot == null) {
+            return empty();
+        }
 
-                    // No change made.
-                    return this;
+        SizeChange change = new SizeChange();
+        Node<K, V> newRoot = intersect(root, keyRoot, 0, null, change);
 
-                } else if (result == null) {
+        return withRoot(newRoot, change, this);
+    }
 
-                    // Removed the whole subtree.
-                    return remove(index);
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If the other map is also a {@code MapImpl}, the two tries are walked
+     * in parallel and subtrees the maps share are skipped without being
+     * looked at, so comparing a map to a version of itself with a handful of
+     * changes costs roughly the number of changes rather than the size of
+     * the map.
+     */
+    @Override
+    public Diff<K, V> diff(Map<? extends K, ? extends V> other) {
+        MapImpl<K, V> that = toMapImpl(other);
 
-                } else {
+        if (root == that.root) {
+            return new Diff<>(empty(), empty(), empty());
+        }
+        if (root == null) {
+            return new Diff<>(that, empty(), empty());
+        }
+        if (that.root == null) {
+            return new Diff<>(empty(), this, empty());
+        }
 
-                    // Removed something but not everything.
-                    return set(index, result);
+        DiffBuilder<K, V> diff = new DiffBuilder<>();
+        diff(root, that.root, 0, diff);
+        return diff.build();
+    }
 
-                }
+    /**
+     * Converts the given map to a {@code MapImpl}, if it isn't one already.
+     * Since maps are immutable, a map of subtypes can safely be treated as a
+     * map of the supertypes.
+     *
+     * @param map the map to convert
+     * @return the equivalent {@code MapImpl}
+     */
+    private static <K, V> MapImpl<K, V> toMapImpl(
+            Map<? extends K, ? extends V> map) {
 
-            }
+        if (map instanceof MapImpl<?, ?>) {
+            @SuppressWarnings("unchecked")
+            MapImpl<K, V> cast = (MapImpl<K, V>) map;
+            return cast;
         }
+        return MapImpl.<K, V>empty().putAll(map);
+    }
 
-        /**
-         * Gets the object at the given (virtual) index in this node.
-         *
-         * @param index an index between 0 and 31 (inclusive)
-         * @return the object at the given index, possibly null
-         */
-        protected abstract Object get(int index);
+    /**
+     * Wraps the result of a structural operation, reusing this map or the
+     * other map if it comes back unchanged.
+     *
+     * @param newRoot the new root node, or null if empty
+     * @param change the change in size from this map
+     * @param that the other map involved in the operation
+     * @return the resulting map
+     */
+    private MapImpl<K, V> withRoot(
+            Node<K, V> newRoot,
+            SizeChange change,
+            MapImpl<K, V> that) {
 
-        /**
-         * "Sets" the value at the given (virtual) index, returning a new
-         * node with the value set.
-         *
-         * @param index the index in this node to set
-         * @param value the new value
-         * @return a copy of this node with the new value set
-         */
-        protected abstract Node<K, V> set(int index, Object value);
+        if (newRoot == null) {
+            return empty();
+        }
+        if (newRoot == root) {
+            return this;
+        }
+        if (newRoot == that.root) {
+            return that;
+        }
+        return new MapImpl<>(size + change.delta, newRoot);
+    }
 
-        /**
-         * "Inserts" a new entry into this node at the given (virtual) index,
-         * returning a new node with the extra entry included. May inflate
-         * the node from sparse to full if need be.
-         *
-         * @param hash the hash of the key
-         * @param level the current level in the trie
-         * @param index the index in this node to insert the entry
-         * @param entry the entry to insert
-         * @return a copy of this node with the new entry inserted
-         */
-        protected abstract Node<K, V> insert(
-                int hash,
-                int level,
-                int index,
-                Entry<K, V> entry);
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The {@code Spliterator} splits the slots of the root node in half,
+     * descending into a child node when only one slot is left, and traverses
+     * the remaining entries by recursing directly over the node arrays.
+     * Only the unsplit {@code Spliterator} is {@linkplain Spliterator#SIZED
+     * sized}; the sizes of split halves are estimates.
+     */
+    @Override
+    public Spliterator<Entry<K, V>> spliterator() {
+        if (root == null) {
+            return Spliterators.emptySpliterator();
+        }
+        return new NodeSpliterator<>(
+                MapImpl::entry,
+                root,
+                0,
+                root.slotCount(),
+                size,
+                true);
+    }
 
-        /**
-         * "Removes" the entry at the given (virtual) index in this node,
-         * returning a new node with the given entry removed. May shrink the
-         * node from full to sparse, or from sparse to {@code null}.
-         *
-         * @param index the index of the entry to remove
-         * @return a copy of this node with the given element removed
-         */
-        protected abstract Node<K, V> remove(int index);
+    @Override
+    public Builder<K, V> toBuilder() {
+        return new Builder<>(this);
     }
 
-    private static abstract class AbstractNodeIterator<K, V>
-            implements Iterator<Entry<K, V>> {
+    @Override
+    public Iterable<Entry<K, V>> entrySet() {
+        if (size == 0) {
+            return Collections.<Entry<K, V>>emptySet();
+        }
 
-        private Iterator<Entry<K, V>> sub;
-        private Entry<K, V> next;
+        return new Iterable<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new NodeIterator<>(root, MapImpl::entry);
+            }
 
-        @Override
-        public boolean hasNext() {
-            if (next != null) {
-                return true;
+            @Override
+            public void forEach(Consumer<? super Entry<K, V>> action) {
+                root.forEach(0, root.slotCount(), MapImpl::entry, action);
             }
+        };
+    }
 
-            next = next0();
-            return (next != null);
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Keys are read straight out of the trie's node arrays, without
+     * creating an {@code Entry} for each mapping.
+     */
+    @Override
+    public Iterable<K> keySet() {
+        if (size == 0) {
+            return Collections.<K>emptySet();
         }
 
-        @Override
-        public Entry<K, V> next() {
-            Entry<K, V> result = next;
-            if (result != null) {
-                next = null;
-                return result;
+        return new Iterable<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new NodeIterator<>(root, Node::getKey);
             }
 
-            result = next0();
-            if (result == null) {
-                throw new NoSuchElementException();
+            @Override
+            public void forEach(Consumer<? super K> action) {
+                forEachKey(action);
             }
+        };
+    }
 
-            return result;
+    @Override
+    public void forEach(Consumer<? super Entry<? super K, ? super V>> action) {
+        if (root != null) {
+            root.forEach(0, root.slotCount(), MapImpl::entry, action);
         }
+    }
 
-        private Entry<K, V> next0() {
-            if (sub != null) {
-                if (sub.hasNext()) {
-                    return sub.next();
-                } else {
-                    sub = null;
-                }
-            }
-
-            Object result = next1();
-            if (result == null) {
-
-                return null;
-
-            } else if (result instanceof Entry<?, ?>) {
-
-                @SuppressWarnings("unchecked")
-                Entry<K, V> erased = (Entry<K, V>) result;
-                return erased;
-
-            } else {
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Walks the trie's node arrays directly, passing each key and value
+     * straight to the action without allocating anything.
+     */
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (root != null) {
+            root.forEach(action);
+        }
+    }
 
-                @SuppressWarnings("unchecked")
-                Node<K, V> erased = (Node<K, V>) result;
-                sub = erased.iterator();
-                return sub.next();
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Walks the trie's node arrays directly without allocating anything.
+     */
+    @Override
+    public void forEachKey(Consumer<? super K> action) {
+        if (root != null) {
+            root.forEach(0, root.slotCount(), Node::getKey, action);
+        }
+    }
 
-            }
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Walks the trie's node arrays directly without allocating anything.
+     */
+    @Override
+    public void forEachValue(Consumer<? super V> action) {
+        if (root != null) {
+            root.forEach(0, root.slotCount(), Node::getValue, action);
         }
+    }
 
-        protected abstract Object next1();
+    /**
+     * Extracts an inline mapping from a node as an {@code Entry}.
+     *
+     * @param node a node
+     * @param index the index of an inline mapping in the node
+     * @return the mapping as an entry
+     */
+    private static <K, V> Entry<K, V> entry(Node<K, V> node, int index) {
+        return new Entry<>(node.getKey(index), node.getValue(index));
     }
 
     /**
-     * A node stored in a sparse array indexed by a bitmap. Used when a node has
-     * fewer than 16 elements in it; when it grows more full, an array node is
-     * more efficient.
+     * {@inheritDoc}
+     * <p>
+     * Every node caches the sum of the hash codes of the entries in its
+     * subtree, so this takes constant time.
      */
-    private static final class SparseNode<K, V> extends AbstractNode<K, V> {
+    @Override
+    public int hashCode() {
+        return (root == null ? 0 : root.hashSum());
+    }
 
-        private static final SparseNode<Object, Object> EMPTY_NODE =
-                new SparseNode<>(0, new Object[0]);
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Since the trie is kept in canonical form, two {@code MapImpl}s with
+     * the same mappings have the same shape, so they're compared node by
+     * node, skipping any subtree the two maps share. Maps with different
+     * hash codes are rejected without looking at the tries at all.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof MapImpl<?, ?>)) {
+            return super.equals(obj);
+        }
 
-        /**
-         * @return an empty indexed node
-         */
-        public static <K, V> SparseNode<K, V> empty() {
-            @SuppressWarnings("unchecked")
-            SparseNode<K, V> cast = (SparseNode<K, V>) EMPTY_NODE;
-            return cast;
+        MapImpl<?, ?> that = (MapImpl<?, ?>) obj;
+        if (this.size != that.size || hashCode() != that.hashCode()) {
+            return false;
+        }
+        if (this.root == that.root) {
+            return true;
         }
 
-        private final int bitmap;
-        private final Object[] array;
+        return equal(this.root, that.root);
+    }
 
-        /**
-         * @param bitmap the bitmap for this node
-         * @param array the indexed array for this node
-         */
-        public SparseNode(int bitmap, Object[] array) {
-            this.bitmap = bitmap;
-            this.array = array;
+    /**
+     * Compares two subtrees at the same position in two tries.
+     *
+     * @param a the root of a subtree of one trie
+     * @param b the root of the corresponding subtree of the other trie
+     * @return true if they contain the same mappings
+     */
+    private static boolean equal(Node<?, ?> a, Node<?, ?> b) {
+        if (a == b) {
+            return true;
+        }
+        if (a.size() != b.size() || a.hashSum() != b.hashSum()) {
+            return false;
         }
 
-        @Override
-        public Iterator<Entry<K, V>> iterator() {
-            return new AbstractNodeIterator<K, V>() {
+        if (a instanceof HashCollisionNode) {
+            if (!(b instanceof HashCollisionNode)) {
+                return false;
+            }
 
-                private int index;
+            // Colliding mappings are kept in insertion order.
+            HashCollisionNode<?, ?> x = (HashCollisionNode<?, ?>) a;
+            HashCollisionNode<?, ?> y = (HashCollisionNode<?, ?>) b;
+            if (x.hash != y.hash || x.payloadCount() != y.payloadCount()) {
+                return false;
+            }
 
-                @Override
-                protected Object next1() {
-                    if (index >= array.length) {
-                        return null;
-                    }
+            for (int i = 0; i < x.payloadCount(); ++i) {
+                Object key = x.getKey(i);
+                int index = y.indexOf(x.hash, key);
+                if (index < 0 || !Objects.equals(
+                        x.getValue(i),
+                        y.array[index + y.stride - 1])) {
+                    return false;
+                }
+            }
+            return true;
+        }
 
-                    Object result = array[index];
-                    index += 1;
+        if (!(b instanceof BitmapNode)) {
+            return false;
+        }
 
-                    return result;
-                }
-            };
+        BitmapNode<?, ?> x = (BitmapNode<?, ?>) a;
+        BitmapNode<?, ?> y = (BitmapNode<?, ?>) b;
+        if (x.dataMap != y.dataMap || x.nodeMap != y.nodeMap) {
+            return false;
         }
 
-        @Override
-        protected Object get(int index) {
-            int bit = (1 << index);
-            if ((bitmap & bit) == 0) {
-                return null;
+        for (int i = 0; i < x.payloadCount(); ++i) {
+            if (!x.getKey(i).equals(y.getKey(i))
+                    || !Objects.equals(x.getValue(i), y.getValue(i))) {
+                return false;
             }
-
-            int physicalIndex = getPhysicalIndex(bit);
-            return array[physicalIndex];
         }
+        for (int i = 0; i < x.nodeCount(); ++i) {
+            if (!equal(x.getNode(i), y.getNode(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        @Override
-        protected Node<K, V> set(int index, Object value) {
-            int bit = (1 << index);
-            int physicalIndex = getPhysicalIndex(bit);
+    /**
+     * A node in the CHAMP trie. Every node has zero or more inline
+     * <em>payload</em> mappings, numbered from zero in hash order, followed by
+     * zero or more child nodes, also numbered from zero in hash order.
+     * <p>
+     * For traversal, the payloads and children are treated as a single
+     * sequence of {@linkplain #slotCount() slots}: payloads first, then
+     * children.
+     * <p>
+     * The same nodes back both {@code MapImpl} and {@code SetImpl}. Each
+     * mapping takes up {@code stride} consecutive array slots: two for a map
+     * (key then value), or one for a set, where every element is treated as
+     * a key mapped to itself and the key and value share a single slot.
+     * Writing the key and then the value therefore does the right thing for
+     * either, as long as a set always passes the element as the value too.
+     */
+    static abstract class Node<K, V> {
 
-            Object[] newArray = array.clone();
-            newArray[physicalIndex] = value;
+        private final Object edit;
+        protected final int stride;
 
-            return new SparseNode<>(bitmap, newArray);
+        /**
+         * @param edit the edit token of the builder that owns this node, or
+         *             null if it is persistent
+         * @param stride the number of array slots per mapping
+         */
+        protected Node(Object edit, int stride) {
+            this.edit = edit;
+            this.stride = stride;
         }
 
-        @Override
-        protected Node<K, V> insert(
-                int hash,
-                int level,
-                int index,
-                Entry<K, V> entry) {
+        /**
+         * Checks whether this node is owned by (and so may be modified in
+         * place on behalf of) the builder with the given edit token.
+         *
+         * @param edit the edit token of the calling builder, or null
+         * @return true if this node may be modified in place
+         */
+        protected final boolean isEditable(Object edit) {
+            return (edit != null && this.edit == edit);
+        }
 
-            if (array.length >= 16) {
-                // Inflate to a full node before inserting.
-                return inflateAndInsert(hash, level, entry);
-            }
+        /**
+         * Gets an element from this node.
+         *
+         * @param hash the hash code of the key
+         * @param level the current level in the trie
+         * @param key the full key object
+         * @param defaultValue the default value to return if not found
+         * @return the associated value, or the default value if not set
+         */
+        public abstract V get(int hash, int level, Object key, V defaultValue);
 
-            // Stick with a sparse node, just slightly less sparse.
-            int bit = (1 << index);
-            int physicalIndex = getPhysicalIndex(bit);
-            Object[] newArray = cloneAndInsert(array, physicalIndex, entry);
+        /**
+         * Puts an element into this node. If this node is owned by the given
+         * edit token it is modified in place; otherwise a copy is returned
+         * (owned by the given token, if non-null).
+         *
+         * @param edit the edit token of the calling builder, or null
+         * @param hash the hash code of the key
+         * @param level the current level in the trie
+         * @param key the key
+         * @param value the value
+         * @param change records whether a new mapping was added
+         * @return this node or a copy of it with the given value set
+         */
+        public abstract Node<K, V> put(
+                Object edit,
+                int hash,
+                int level,
+                K key,
+                V value,
+                SizeChange change);
 
-            return new SparseNode<>(bitmap | bit, newArray);
-        }
+        /**
+         * Removes an element from this node. If this node is owned by the
+         * given edit token it is modified in place; otherwise a copy is
+         * returned (owned by the given token, if non-null).
+         * <p>
+         * Removal keeps the trie in canonical form: a node below the root
+         * that would be left with a single mapping and no children is
+         * instead returned as a {@linkplain #isSingleton() singleton}, which
+         * the parent inlines (or passes up, if it has nothing else in it).
+         *
+         * @param edit the edit token of the calling builder, or null
+         * @param hash the hash code of the key
+         * @param level the current level in the trie
+         * @param key the full key object
+         * @param change records whether a mapping was removed
+         * @return this node or a copy of it with the given value removed
+         */
+        public abstract Node<K, V> remove(
+                Object edit,
+                int hash,
+                int level,
+                Object key,
+                SizeChange change);
 
         /**
-         * Inflates this sparse node to a full node and inserts the given entry.
+         * Updates the mapping for a key in this node in a single descent,
+         * putting or removing it depending on what the given function
+         * returns. The function is passed the current value, or
+         * {@code NOT_FOUND} if there's no mapping, and returns the new
+         * value, or {@code NOT_FOUND} to remove the mapping. If it returns
+         * the current value (or {@code NOT_FOUND} for a missing mapping),
+         * nothing changes.
          *
+         * @param edit the edit token of the calling builder, or null
          * @param hash the hash code of the key
          * @param level the current level in the trie
-         * @param entry the entry being added
-         * @return a copy of this node inflated and with the new entry added
+         * @param key the key
+         * @param function computes the new value from the current value
+         * @param change records whether a mapping was added or removed
+         * @return this node or a copy of it with the mapping updated
          */
-        private Node<K, V> inflateAndInsert(
+        public abstract Node<K, V> update(
+                Object edit,
                 int hash,
                 int level,
-                Entry<K, V> entry) {
+                K key,
+                UnaryOperator<V> function,
+                SizeChange change);
+
+        /**
+         * @return the number of mappings in the subtree rooted at this node
+         */
+        public abstract int size();
 
-            Object[] newArray = new Object[32];
+        /**
+         * @return the sum of the {@linkplain MapImpl#hashOf hash codes} of
+         *         the mappings in the subtree rooted at this node
+         */
+        public abstract int hashSum();
 
-            // Add the new node at the appropriate place.
-            int idx = sliceHashBits(hash, level);
-            newArray[idx] = entry;
+        /**
+         * @return the number of inline mappings in this node
+         */
+        public abstract int payloadCount();
 
-            // Add any existing elements at the right place.
-            for (int i = 0, j = 0; i < 32; ++i) {
-                if (((bitmap >>> i) & 1) != 0) {
-                    newArray[i] = array[j];
-                    j += 1;
-                }
-            }
+        /**
+         * @param index the index of an inline mapping
+         * @return its key
+         */
+        public abstract K getKey(int index);
 
-            return new FullNode<>(newArray, array.length);
-        }
+        /**
+         * @param index the index of an inline mapping
+         * @return its value
+         */
+        public abstract V getValue(int index);
 
-        @Override
-        protected Node<K, V> remove(int index) {
-            if (array.length == 1) {
-                // No more children, remove me entirely.
-                return null;
-            }
+        /**
+         * @return the number of child nodes of this node
+         */
+        public abstract int nodeCount();
+
+        /**
+         * @param index the index of a child node
+         * @return the child node
+         */
+        public abstract Node<K, V> getNode(int index);
+
+        /**
+         * Checks whether this node holds exactly one mapping and nothing
+         * else, and should therefore be inlined into its parent.
+         *
+         * @return true if this is a singleton node
+         */
+        public final boolean isSingleton() {
+            return (payloadCount() == 1 && nodeCount() == 0);
+        }
 
-            int bit = (1 << index);
-            int physicalIndex = getPhysicalIndex(bit);
+        /**
+         * @return the number of slots (payloads plus children) in this node
+         */
+        public final int slotCount() {
+            return payloadCount() + nodeCount();
+        }
 
-            Object[] newArray = cloneAndRemove(array, physicalIndex);
-            return new SparseNode<>(bitmap ^ bit, newArray);
+        /**
+         * Executes the given action for each element in the given range of
+         * slots of this node, recursing directly into child nodes.
+         *
+         * @param from the index of the first slot
+         * @param to the index one past the last slot
+         * @param extractor extracts the element for an inline mapping
+         * @param action the action to execute
+         */
+        public final <T> void forEach(
+                int from,
+                int to,
+                Extractor<K, V, T> extractor,
+                Consumer<? super T> action) {
+
+            int payloads = payloadCount();
+            for (int i = from; i < to; ++i) {
+                if (i < payloads) {
+                    action.accept(extractor.get(this, i));
+                } else {
+                    Node<K, V> node = getNode(i - payloads);
+                    node.forEach(0, node.slotCount(), extractor, action);
+                }
+            }
         }
 
         /**
-         * Return the number of bits in the bitmap less than or equal to the
-         * given bit; this is the physical index of the corresponding entry in
-         * the array.
+         * Executes the given action for each mapping in the subtree rooted
+         * at this node, passing the key and value separately.
          *
-         * @param bit the bit to search for
-         * @return the corresponding index
+         * @param action the action to execute
          */
-        private int getPhysicalIndex(int bit) {
-            return Integer.bitCount(bitmap & (bit - 1));
+        public final void forEach(BiConsumer<? super K, ? super V> action) {
+            for (int i = 0; i < payloadCount(); ++i) {
+                action.accept(getKey(i), getValue(i));
+            }
+            for (int i = 0; i < nodeCount(); ++i) {
+                getNode(i).forEach(action);
+            }
         }
     }
 
     /**
-     * When a node grows large enough, store it as a fixed-size 32-element
-     * array and directly index it using the appropriate 5-bit
-     * slice of the hash.
+     * Extracts the element that iteration over a trie produces for an inline
+     * mapping: an {@code Entry} for a map, or the bare element for a set.
+     */
+    @FunctionalInterface
+    static interface Extractor<K, V, T> {
+
+        /**
+         * @param node a node
+         * @param index the index of an inline mapping in the node
+         * @return the element for the mapping
+         */
+        T get(Node<K, V> node, int index);
+    }
+
+    /**
+     * A {@code Spliterator} over a range of slots in a single node.
      */
-    private static final class FullNode<K, V> extends AbstractNode<K, V> {
+    static final class NodeSpliterator<K, V, T> implements Spliterator<T> {
 
-        private final Object[] array;
-        private final int count;
+        private final Extractor<K, V, T> extractor;
+
+        private Node<K, V> node;
+        private int index;
+        private int end;
+        private long estimate;
+        private boolean sized;
+
+        private Iterator<T> sub;
 
         /**
-         * @param array the array to wrap
-         * @param count the number of non-null entries in the array
+         * @param extractor extracts the element for an inline mapping
+         * @param node the node to traverse
+         * @param index the index of the first slot to traverse
+         * @param end the index one past the last slot to traverse
+         * @param estimate the (estimated) number of elements in the range
+         * @param sized true if the estimate is exact
          */
-        public FullNode(Object[] array, int count) {
-            this.array = array;
-            this.count = count;
+        public NodeSpliterator(
+                Extractor<K, V, T> extractor,
+                Node<K, V> node,
+                int index,
+                int end,
+                long estimate,
+                boolean sized) {
+
+            this.extractor = extractor;
+            this.node = node;
+            this.index = index;
+            this.end = end;
+            this.estimate = estimate;
+            this.sized = sized;
         }
 
         @Override
-        public Iterator<Entry<K,V>> iterator() {
-            return new AbstractNodeIterator<K, V>() {
-
-                private int index;
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (action == null) {
+                throw new NullPointerException("action");
+            }
 
-                @Override
-                protected Object next1() {
-                    while (index < 32) {
-                        int i = index++;
-                        if (array[i] != null) {
-                            return array[i];
-                        }
+            for (;;) {
+                if (sub != null) {
+                    if (sub.hasNext()) {
+                        action.accept(sub.next());
+                        return true;
                     }
+                    sub = null;
+                }
 
-                    return null;
+                if (index >= end) {
+                    return false;
                 }
-            };
-        }
 
-        @Override
-        protected Object get(int index) {
-            return array[index];
-        }
+                int payloads = node.payloadCount();
+                int i = index;
+                index += 1;
 
-        @Override
-        protected Node<K, V> set(int index, Object value) {
-            Object[] newArray = array.clone();
-            newArray[index] = value;
+                if (i < payloads) {
+                    action.accept(extractor.get(node, i));
+                    return true;
+                }
 
-            return new FullNode<>(newArray, count);
+                sub = new NodeIterator<>(node.getNode(i - payloads), extractor);
+            }
         }
 
         @Override
-        protected Node<K, V> insert(
-                int hash,
-                int level,
-                int index,
-                Entry<K, V> entry) {
-
-            // We're already inflated, just set the appropriate element and
-            // update the count.
+        public void forEachRemaining(Consumer<? super T> action) {
+            if (action == null) {
+                throw new NullPointerException("action");
+            }
 
-            Object[] newArray = array.clone();
-            newArray[index] = entry;
+            if (sub != null) {
+                while (sub.hasNext()) {
+                    action.accept(sub.next());
+                }
+                sub = null;
+            }
 
-            return new FullNode<>(newArray, count + 1);
+            int from = index;
+            index = end;
+            node.forEach(from, end, extractor, action);
         }
 
         @Override
-        protected Node<K, V> remove(int index) {
-            if (count <= 8) {
-                // Shrink back to a sparse node.
-                return shrinkAndRemove(index);
+        public Spliterator<T> trySplit() {
+            if (sub != null) {
+                // Part way through a child node; not worth splitting.
+                return null;
             }
 
-            // Stick with a full node, just slightly less full.
-            Object[] newArray = array.clone();
-            newArray[index] = null;
+            // If we're down to a single slot holding a child node, descend
+            // into it and split its slots instead.
+            while (end - index == 1) {
+                int payloads = node.payloadCount();
+                if (index < payloads) {
+                    return null;
+                }
 
-            return new FullNode<>(newArray, count - 1);
-        }
+                Node<K, V> child = node.getNode(index - payloads);
+                node = child;
+                index = 0;
+                end = child.slotCount();
+            }
 
-        /**
-         * Shrinks this node into a sparse node, removing the entry at the
-         * given index while we're at it.
-         *
-         * @param index the index of the entry to remove
-         * @return a copy of this node, shrunk, and with the element removed
-         */
-        private Node<K, V> shrinkAndRemove(int index) {
-            Object[] newArray = new Object[count - 1];
+            if (end - index < 2) {
+                return null;
+            }
 
-            int j = 1;
-            int bitmap = 0;
+            int mid = (index + end) >>> 1;
 
-            // Calculate the new bitmap and fill in the packed array, skipping
-            // the node at the given index.
+            estimate >>>= 1;
+            sized = false;
 
-            for (int i = 0; i < index; ++i) {
-                if (array[i] != null) {
-                    newArray[j] = array[i];
-                    bitmap |= (1 << i);
-                    j += 1;
-                }
-            }
+            Spliterator<T> prefix = new NodeSpliterator<>(
+                    extractor,
+                    node,
+                    index,
+                    mid,
+                    estimate,
+                    false);
 
-            for (int i = index + 1; i < array.length; ++i) {
-                if (array[i] != null) {
-                    newArray[j] = array[i];
-                    bitmap |= (1 << i);
-                    j += 1;
-                }
+            index = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            int characteristics = Spliterator.DISTINCT
+                    | Spliterator.NONNULL
+                    | Spliterator.IMMUTABLE;
+
+            if (sized) {
+                characteristics |= Spliterator.SIZED;
             }
 
-            return new SparseNode<>(bitmap, newArray);
+            return characteristics;
         }
     }
 
     /**
-     * A leaf {@code Node} representing multiple mappings whose keys have the
-     * same hash code. All methods do a linear scan of the known keys with
-     * this hash code - not particularly efficient, but collisions should be
-     * rare.
+     * An iterator over the elements in a trie. Rather than stacking up one
+     * iterator per level, it keeps an explicit stack of the nodes whose
+     * children it is part way through, and walks the payload of each node
+     * in turn straight out of its array.
      */
-    private static final class HashCollisionNode<K, V> implements Node<K, V> {
+    static final class NodeIterator<K, V, T> implements Iterator<T> {
 
-        private final int hash;
-        private final Entry<K, V>[] array;
+        // Seven levels of bitmap nodes is enough to consume all 32 bits of
+        // the hash; hash collision nodes never have children.
+        private static final int MAX_DEPTH = 7;
+
+        private final Extractor<K, V, T> extractor;
+        private final Node<?, ?>[] nodes = new Node<?, ?>[MAX_DEPTH];
+        private final int[] cursors = new int[MAX_DEPTH];
+        private int depth;
+
+        private Node<K, V> current;
+        private int index;
+        private int end;
 
         /**
-         * @param hash the hash of all the keys in this node
-         * @param array the array of key/value pairs
+         * @param root the root of the trie to iterate over
+         * @param extractor extracts the element for an inline mapping
          */
-        public HashCollisionNode(int hash, Entry<K, V>[] array) {
-            this.hash = hash;
-            this.array = array;
+        public NodeIterator(Node<K, V> root, Extractor<K, V, T> extractor) {
+            this.extractor = extractor;
+            this.current = root;
+            this.end = root.payloadCount();
+            push(root);
         }
 
         @Override
-        public V get(int hash, int level, Object key, V defaultValue) {
-
-            // If the hash matches, do a linear scan for a matching key.
-            if (hash == this.hash) {
-                for (int i = 0; i < array.length; ++i) {
-                    Entry<K, V> entry = array[i];
-                    if (key.equals(entry.getKey())) {
-                        return entry.getValue();
-                    }
+        public boolean hasNext() {
+            while (index >= end) {
+                if (!advance()) {
+                    return false;
                 }
             }
-
-            // No matching key found.
-            return defaultValue;
+            return true;
         }
 
         @Override
-        public PutResult<K, V> put(int hash, int level, Entry<K, V> entry) {
-
-            if (hash != this.hash) {
-
-                // Hash doesn't match; wrap this node in a sparse node, then
-                // add the new mapping to it.
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
 
-                int index = sliceHashBits(this.hash, level);
-                int bitmap = 1 << index;
-                Object[] newArray = new Object[] { this };
+            int i = index;
+            index += 1;
 
-                Node<K, V> newNode = new SparseNode<>(bitmap, newArray);
-                return newNode.put(hash, level, entry);
+            return extractor.get(current, i);
+        }
 
-            }
+        /**
+         * Moves on to the next node in the trie that has any payload.
+         *
+         * @return false if there are no more such nodes
+         */
+        private boolean advance() {
+            while (depth > 0) {
+                @SuppressWarnings("unchecked")
+                Node<K, V> top = (Node<K, V>) nodes[depth - 1];
+                int cursor = cursors[depth - 1];
 
-            // If it's one of the keys we have already, replace it.
-            for (int i = 0; i < array.length; ++i) {
-                Entry<K, V> existing = array[i];
-                if (entry.getKey().equals(existing.getKey())) {
-                    if (entry.getValue() == existing.getValue()) {
-                        return new PutResult<>(this, false);
-                    }
+                if (cursor == top.nodeCount()) {
+                    nodes[depth - 1] = null;
+                    depth -= 1;
+                    continue;
+                }
 
-                    Entry<K, V>[] newArray = array.clone();
-                    newArray[i] = entry;
+                cursors[depth - 1] = cursor + 1;
+                Node<K, V> child = top.getNode(cursor);
+                push(child);
 
-                    Node<K, V> node = new HashCollisionNode<>(hash, newArray);
-                    return new PutResult<>(node, false);
+                if (child.payloadCount() > 0) {
+                    current = child;
+                    index = 0;
+                    end = child.payloadCount();
+                    return true;
                 }
             }
+            return false;
+        }
 
-            // Otherwise new key: extend the array.
-            Entry<K, V>[] newArray = cloneAndAppend(array, entry);
-
-            Node<K, V> node = new HashCollisionNode<>(hash, newArray);
-            return new PutResult<>(node, true);
+        /**
+         * Pushes a node whose children are to be visited onto the stack, if
+         * it has any.
+         *
+         * @param node the node
+         */
+        private void push(Node<K, V> node) {
+            if (node.nodeCount() > 0) {
+                nodes[depth] = node;
+                cursors[depth] = 0;
+                depth += 1;
+            }
         }
+    }
 
-        @Override
-        public Node<K, V> remove(int hash, int level, Object key) {
+    /**
+     * A node whose slots are indexed by a pair of 32-bit bitmaps: the Nth
+     * bit of the {@code dataMap} indicates an inline mapping for hash slice
+     * N, and the Nth bit of the {@code nodeMap} a child node. At most one of
+     * the two bits is set for any N.
+     * <p>
+     * Both are packed into a single array: keys and values alternate from
+     * the front in the order of the {@code dataMap}, and child nodes are
+     * stored from the back, in reverse order of the {@code nodeMap}. The
+     * physical index of either can be determined by counting the number of
+     * lower-order bits in the corresponding bitmap that are set.
+     * <p>
+     * Each node also caches the size and hash sum of its subtree, so that
+     * the structural operations can account for a whole subtree they link
+     * into (or drop from) their result in constant time. Every change to a
+     * node adjusts the totals by the difference it makes.
+     */
+    static final class BitmapNode<K, V> extends Node<K, V> {
 
-            // Look for the key and remove it if found.
-            if (hash == this.hash) {
-                for (int i = 0; i < array.length; ++i) {
-                    Entry<K, V> existing = array[i];
-                    if (key.equals(existing.getKey())) {
+        private static final BitmapNode<Object, Object> EMPTY_SET_NODE =
+                new BitmapNode<>(null, 1, 0, 0, new Object[0], 0, 0);
 
-                        if (array.length == 1) {
-                            // Node will be empty after we remove this entry.
-                            return null;
-                        }
+        private static final BitmapNode<Object, Object> EMPTY_MAP_NODE =
+                new BitmapNode<>(null, 2, 0, 0, new Object[0], 0, 0);
 
-                        Entry<K, V>[] newArray = cloneAndRemove(array, i);
-                        return new HashCollisionNode<>(hash, newArray);
+        /**
+         * @param stride the number of array slots per mapping
+         * @return an empty bitmap node
+         */
+        public static <K, V> BitmapNode<K, V> empty(int stride) {
+            @SuppressWarnings("unchecked")
+            BitmapNode<K, V> cast = (BitmapNode<K, V>)
+                    (stride == 1 ? EMPTY_SET_NODE : EMPTY_MAP_NODE);
+            return cast;
+        }
 
-                    }
-                }
-            }
+        private int dataMap;
+        private int nodeMap;
+        private Object[] array;
+        private int size;
+        private int hashSum;
 
-            // Key not found; retain existing value(s).
-            return this;
+        /**
+         * @param edit the edit token of the owning builder, or null
+         * @param stride the number of array slots per mapping
+         * @param dataMap the bitmap of inline mappings
+         * @param nodeMap the bitmap of child nodes
+         * @param array the packed array of mappings and child nodes
+         * @param size the number of mappings in the subtree
+         * @param hashSum the sum of the hash codes of the mappings in the
+         *                subtree
+         */
+        public BitmapNode(
+                Object edit,
+                int stride,
+                int dataMap,
+                int nodeMap,
+                Object[] array,
+                int size,
+                int hashSum) {
+
+            super(edit, stride);
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.array = array;
+            this.size = size;
+            this.hashSum = hashSum;
         }
 
         @Override
-        public Iterator<Entry<K, V>> iterator() {
-            return Arrays.asList(array).iterator();
+        public V get(int hash, int level, Object key, V defaultValue) {
+            int bit = 1 << sliceHashBits(hash, level);
+
+            if ((dataMap & bit) != 0) {
+
+                // Found a key/value pair. Check if the key matches.
+                int index = stride * dataIndex(bit);
+                if (key.equals(array[index])) {
+                    @SuppressWarnings("unchecked")
+                    V value = (V) array[index + stride - 1];
+                    return value;
+                }
+                return defaultValue;
+
+            } else if ((nodeMap & bit) != 0) {
+
+                // It's another node; recurse in.
+                return nodeAt(bit).get(hash, level + 5, key, defaultValue);
+
+            } else {
+
+                // Nothing with this hash prefix in the trie at all.
+                return defaultValue;
+
+            }
+        }
+
+        @Override
+        public Node<K, V> put(
+                Object edit,
+                int hash,
+                int level,
+                K key,
+                V value,
+                SizeChange change) {
+
+            int bit = 1 << sliceHashBits(hash, level);
+
+            if ((dataMap & bit) != 0) {
+
+                // We've got a single mapping with a matching hash prefix;
+                // replace it (either directly or with a new node containing
+                // both it and the new mapping).
+
+                int index = dataIndex(bit);
+
+                K existingKey = getKey(index);
+                V existingValue = getValue(index);
+
+                if (key.equals(existingKey)) {
+                    if (value == existingValue || stride == 1) {
+                        // The new mapping is fully equivalent (or this is a
+                        // set, which keeps the element it already has),
+                        // don't bother.
+                        return this;
+                    }
+                    return setValue(edit, index, value);
+                }
+
+                Node<K, V> node = createNode(
+                        edit,
+                        stride,
+                        level + 5,
+                        existingKey.hashCode(),
+                        existingKey,
+                        existingValue,
+                        hash,
+                        key,
+                        value);
+
+                change.added();
+                return migrateToNode(edit, bit, node);
+
+            } else if ((nodeMap & bit) != 0) {
+
+                // We've already got a node at this level; recurse.
+
+                Node<K, V> node = nodeAt(bit);
+                int oldSize = node.size();
+                int oldHashSum = node.hashSum();
+                Node<K, V> result =
+                        node.put(edit, hash, level + 5, key, value, change);
+
+                if (result == node) {
+                    // Nothing changed (or the child was modified in place),
+                    // don't bother copying.
+                    childModified(node, oldSize, oldHashSum);
+                    return this;
+                }
+                return setNode(edit, bit, result);
+
+            } else {
+
+                // We don't have anything with this hash prefix yet. Insert
+                // a new mapping.
+                change.added();
+                return insertMapping(edit, bit, key, value);
+
+            }
+        }
+
+        @Override
+        public Node<K, V> remove(
+                Object edit,
+                int hash,
+                int level,
+                Object key,
+                SizeChange change) {
+
+            int bit = 1 << sliceHashBits(hash, level);
+
+            if ((dataMap & bit) != 0) {
+
+                int index = dataIndex(bit);
+                if (!key.equals(array[stride * index])) {
+                    // Nothing to remove, we're fine.
+                    return this;
+                }
+
+                change.removed();
+
+                if (level > 0) {
+                    if (nodeMap == 0 && Integer.bitCount(dataMap) == 2) {
+                        // Only the other mapping is left. Hand it back as a
+                        // singleton for our parent to inline. Every key in
+                        // this node has the same low-order bits as the one
+                        // being removed, so the singleton's bitmap is set up
+                        // for level 0 in case it bubbles all the way up to
+                        // become the new root.
+                        int other = index ^ 1;
+                        return singleton(
+                                stride,
+                                getKey(other),
+                                getValue(other));
+                    }
+                    if (dataMap == bit
+                            && Integer.bitCount(nodeMap) == 1
+                            && getNode(0) instanceof HashCollisionNode) {
+                        // Only a hash collision node is left, which doesn't
+                        // care what level of the trie it's at.
+                        return getNode(0);
+                    }
+                }
+
+                return removeMapping(edit, bit, index);
+
+            } else if ((nodeMap & bit) != 0) {
+
+                Node<K, V> node = nodeAt(bit);
+                int oldSize = node.size();
+                int oldHashSum = node.hashSum();
+                Node<K, V> result =
+                        node.remove(edit, hash, level + 5, key, change);
+
+                return replaceNode(
+                        edit,
+                        level,
+                        bit,
+                        node,
+                        oldSize,
+                        oldHashSum,
+                        result);
+
+            } else {
+
+                // Nothing matching that hash prefix.
+                return this;
+
+            }
+        }
+
+        @Override
+        public Node<K, V> update(
+                Object edit,
+                int hash,
+                int level,
+                K key,
+                UnaryOperator<V> function,
+                SizeChange change) {
+
+            int bit = 1 << sliceHashBits(hash, level);
+
+            if ((nodeMap & bit) != 0) {
+
+                Node<K, V> node = nodeAt(bit);
+                int oldSize = node.size();
+                int oldHashSum = node.hashSum();
+                Node<K, V> result = node.update(
+                        edit,
+                        hash,
+                        level + 5,
+                        key,
+                        function,
+                        change);
+
+                return replaceNode(
+                        edit,
+                        level,
+                        bit,
+                        node,
+                        oldSize,
+                        oldHashSum,
+                        result);
+
+            }
+
+            @SuppressWarnings("unchecked")
+            V existing = (V) NOT_FOUND;
+            if ((dataMap & bit) != 0) {
+                int index = dataIndex(bit);
+                if (key.equals(getKey(index))) {
+                    existing = getValue(index);
+                }
+            }
+
+            // The mapping (if any) lives in this node, so putting or
+            // removing it from here doesn't descend any further.
+            V value = function.apply(existing);
+            if (value == existing) {
+                return this;
+            }
+            if (value == NOT_FOUND) {
+                return remove(edit, hash, level, key, change);
+            }
+            return put(edit, hash, level, key, value, change);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public int hashSum() {
+            return hashSum;
+        }
+
+        @Override
+        public int payloadCount() {
+            return Integer.bitCount(dataMap);
+        }
+
+        @Override
+        public K getKey(int index) {
+            @SuppressWarnings("unchecked")
+            K key = (K) array[stride * index];
+            return key;
+        }
+
+        @Override
+        public V getValue(int index) {
+            @SuppressWarnings("unchecked")
+            V value = (V) array[stride * index + stride - 1];
+            return value;
+        }
+
+        @Override
+        public int nodeCount() {
+            return Integer.bitCount(nodeMap);
+        }
+
+        @Override
+        public Node<K, V> getNode(int index) {
+            @SuppressWarnings("unchecked")
+            Node<K, V> node = (Node<K, V>) array[array.length - 1 - index];
+            return node;
+        }
+
+        /**
+         * @param bit a bit of the {@code dataMap}
+         * @return the index of the corresponding inline mapping
+         */
+        private int dataIndex(int bit) {
+            return Integer.bitCount(dataMap & (bit - 1));
+        }
+
+        /**
+         * @param bit a bit of the {@code nodeMap}
+         * @return the index of the corresponding child node
+         */
+        private int nodeIndex(int bit) {
+            return Integer.bitCount(nodeMap & (bit - 1));
+        }
+
+        /**
+         * @param bit a bit of the {@code nodeMap}
+         * @return the corresponding child node
+         */
+        private Node<K, V> nodeAt(int bit) {
+            return getNode(nodeIndex(bit));
+        }
+
+        /**
+         * Swaps in the result of a put, remove or update on one of our
+         * child nodes, keeping the trie in canonical form: a singleton
+         * result is inlined (or passed up if it's the only thing left), as
+         * is a lone hash collision node below the root.
+         *
+         * @param edit the edit token of the calling builder, or null
+         * @param level the current level in the trie
+         * @param bit a bit of the {@code nodeMap}
+         * @param node the old child node
+         * @param oldSize the size of the old child node before the change
+         * @param oldHashSum the hash sum of the old child node before the
+         *                   change
+         * @param result the new child node
+         * @return the updated node
+         */
+        private Node<K, V> replaceNode(
+                Object edit,
+                int level,
+                int bit,
+                Node<K, V> node,
+                int oldSize,
+                int oldHashSum,
+                Node<K, V> result) {
+
+            if (result == node) {
+                // No change made (or the child was modified in place).
+                childModified(node, oldSize, oldHashSum);
+                return this;
+            }
+
+            boolean onlyChild = (dataMap == 0 && nodeMap == bit);
+
+            if (result.isSingleton()) {
+                if (onlyChild) {
+                    // Keep passing it up.
+                    return result;
+                }
+                return migrateToMapping(edit, bit, result);
+            }
+
+            if (onlyChild && level > 0
+                    && result instanceof HashCollisionNode) {
+                return result;
+            }
+
+            return setNode(edit, bit, result);
+        }
+
+        /**
+         * Adjusts the cached totals of this node after one of its children
+         * may have been modified in place. If the child did change, it's
+         * owned by the calling builder, and so are we.
+         *
+         * @param node the child node
+         * @param oldSize the size of the child before the change
+         * @param oldHashSum the hash sum of the child before the change
+         */
+        private void childModified(
+                Node<K, V> node,
+                int oldSize,
+                int oldHashSum) {
+
+            int sizeDelta = node.size() - oldSize;
+            int hashDelta = node.hashSum() - oldHashSum;
+            if (sizeDelta != 0 || hashDelta != 0) {
+                size += sizeDelta;
+                hashSum += hashDelta;
+            }
+        }
+
+        /**
+         * Returns this node with the given bitmaps and array, and its totals
+         * adjusted by the given amounts: either a new node, or this node
+         * modified in place if it is owned by the given edit token.
+         *
+         * @param edit the edit token of the calling builder, or null
+         * @param newDataMap the new bitmap of inline mappings
+         * @param newNodeMap the new bitmap of child nodes
+         * @param newArray the new array
+         * @param sizeDelta the change in the size of the subtree
+         * @param hashDelta the change in the hash sum of the subtree
+         * @return the updated node
+         */
+        private Node<K, V> update(
+                Object edit,
+                int newDataMap,
+                int newNodeMap,
+                Object[] newArray,
+                int sizeDelta,
+                int hashDelta) {
+
+            if (isEditable(edit)) {
+                dataMap = newDataMap;
+                nodeMap = newNodeMap;
+                array = newArray;
+                size += sizeDelta;
+                hashSum += hashDelta;
+                return this;
+            }
+            return new BitmapNode<>(
+                    edit,
+                    stride,
+                    newDataMap,
+                    newNodeMap,
+                    newArray,
+                    size + sizeDelta,
+                    hashSum + hashDelta);
+        }
+
+        /**
+         * "Sets" the value of the given inline mapping.
+         *
+         * @param edit the edit token of the calling builder, or null
+         * @param index the index of the mapping
+         * @param value the new value
+         * @return this node or a copy of it with the new value set
+         */
+        private Node<K, V> setValue(Object edit, int index, V value) {
+            int valueIndex = stride * index + stride - 1;
+            int hashDelta = hashOf(stride, getKey(index), value)
+                    - hashOf(stride, getKey(index), getValue(index));
+
+            if (isEditable(edit)) {
+                array[valueIndex] = value;
+                hashSum += hashDelta;
+                return this;
+            }
+
+            Object[] newArray = array.clone();
+            newArray[valueIndex] = value;
+
+            return new BitmapNode<>(
+                    edit,
+                    stride,
+                    dataMap,
+                    nodeMap,
+                    newArray,
+                    size,
+                    hashSum + hashDelta);
+        }
+
+        /**
+         * "Sets" the child node for the given bit.
+         *
+         * @param edit the edit token of the calling builder, or null
+         * @param bit a bit of the {@code nodeMap}
+         * @param node the new child node
+         * @return this node or a copy of it with the new child set
+         */
+        private Node<K, V> setNode(Object edit, int bit, Node<K, V> node) {
+            int index = array.length - 1 - nodeIndex(bit);
+
+            @SuppressWarnings("unchecked")
+            Node<K, V> old = (Node<K, V>) array[index];
+            int sizeDelta = node.size() - old.size();
+            int hashDelta = node.hashSum() - old.hashSum();
+
+            if (isEditable(edit)) {
+                array[index] = node;
+                size += sizeDelta;
+                hashSum += hashDelta;
+                return this;
+            }
+
+            Object[] newArray = array.clone();
+            newArray[index] = node;
+
+            return new BitmapNode<>(
+                    edit,
+                    stride,
+                    dataMap,
+                    nodeMap,
+                    newArray,
+                    size + sizeDelta,
+                    hashSum + hashDelta);
+        }
+
+        /**
+         * "Inserts" a new inline mapping for the given (unused) bit.
+         *
+         * @param edit the edit token of the calling builder, or null
+         * @param bit the bit to insert at
+         * @param key the key
+         * @param value the value
+         * @return this node or a copy of it with the new mapping inserted
+         */
+        private Node<K, V> insertMapping(
+                Object edit,
+                int bit,
+                K key,
+                V value) {
+
+            int index = stride * dataIndex(bit);
+
+            Object[] newArray = new Object[array.length + stride];
+            System.arraycopy(array, 0, newArray, 0, index);
+            newArray[index] = key;
+            newArray[index + stride - 1] = value;
+            System.arraycopy(
+                    array,
+                    index,
+                    newArray,
+                    index + stride,
+                    array.length - index);
+
+            return update(
+                    edit,
+                    dataMap | bit,
+                    nodeMap,
+                    newArray,
+                    1,
+                    hashOf(stride, key, value));
+        }
+
+        /**
+         * "Removes" the inline mapping for the given bit.
+         *
+         * @param edit the edit token of the calling builder, or null
+         * @param bit the bit of the mapping
+         * @param index the index of the mapping
+         * @return this node or a copy of it with the mapping removed
+         */
+        private Node<K, V> removeMapping(Object edit, int bit, int index) {
+            int physicalIndex = stride * index;
+
+            Object[] newArray = new Object[array.length - stride];
+            System.arraycopy(array, 0, newArray, 0, physicalIndex);
+            System.arraycopy(
+                    array,
+                    physicalIndex + stride,
+                    newArray,
+                    physicalIndex,
+                    newArray.length - physicalIndex);
+
+            return update(
+                    edit,
+                    dataMap ^ bit,
+                    nodeMap,
+                    newArray,
+                    -1,
+                    -hashOf(stride, getKey(index), getValue(index)));
+        }
+
+        /**
+         * Replaces the inline mapping for the given bit with a child node.
+         *
+         * @param edit the edit token of the calling builder, or null
+         * @param bit the bit of the mapping
+         * @param node the node to replace it with
+         * @return this node or a copy of it with the replacement made
+         */
+        private Node<K, V> migrateToNode(
+                Object edit,
+                int bit,
+                Node<K, V> node) {
+
+            int oldIndex = stride * dataIndex(bit);
+            int newIndex = array.length - stride - nodeIndex(bit);
+            int oldHash = hashOf(
+                    stride,
+                    array[oldIndex],
+                    array[oldIndex + stride - 1]);
+
+            Object[] newArray = new Object[array.length - stride + 1];
+            System.arraycopy(array, 0, newArray, 0, oldIndex);
+            System.arraycopy(
+                    array,
+                    oldIndex + stride,
+                    newArray,
+                    oldIndex,
+                    newIndex - oldIndex);
+            newArray[newIndex] = node;
+            System.arraycopy(
+                    array,
+                    newIndex + stride,
+                    newArray,
+                    newIndex + 1,
+                    array.length - newIndex - stride);
+
+            return update(
+                    edit,
+                    dataMap ^ bit,
+                    nodeMap | bit,
+                    newArray,
+                    node.size() - 1,
+                    node.hashSum() - oldHash);
+        }
+
+        /**
+         * Replaces the child node for the given bit with the single mapping
+         * it contains.
+         *
+         * @param edit the edit token of the calling builder, or null
+         * @param bit the bit of the child node
+         * @param node a singleton node to inline
+         * @return this node or a copy of it with the replacement made
+         */
+        private Node<K, V> migrateToMapping(
+                Object edit,
+                int bit,
+                Node<K, V> node) {
+
+            int oldIndex = array.length - 1 - nodeIndex(bit);
+            int newIndex = stride * dataIndex(bit);
+
+            @SuppressWarnings("unchecked")
+            Node<K, V> old = (Node<K, V>) array[oldIndex];
+
+            Object[] newArray = new Object[array.length - 1 + stride];
+            System.arraycopy(array, 0, newArray, 0, newIndex);
+            newArray[newIndex] = node.getKey(0);
+            newArray[newIndex + stride - 1] = node.getValue(0);
+            System.arraycopy(
+                    array,
+                    newIndex,
+                    newArray,
+                    newIndex + stride,
+                    oldIndex - newIndex);
+            System.arraycopy(
+                    array,
+                    oldIndex + 1,
+                    newArray,
+                    oldIndex + stride,
+                    array.length - oldIndex - 1);
+
+            return update(
+                    edit,
+                    dataMap | bit,
+                    nodeMap ^ bit,
+                    newArray,
+                    1 - old.size(),
+                    node.hashSum() - old.hashSum());
+        }
+    }
+
+    /**
+     * A leaf {@code Node} representing multiple mappings whose keys have the
+     * same hash code, stored (like a bitmap node's payload) as consecutive
+     * runs of {@code stride} slots. All methods do a linear scan of the known
+     * keys with this hash code - not particularly efficient, but collisions
+     * should be rare.
+     */
+    static final class HashCollisionNode<K, V> extends Node<K, V> {
+
+        private final int hash;
+        private Object[] array;
+        private int hashSum;
+
+        /**
+         * @param edit the edit token of the owning builder, or null
+         * @param stride the number of array slots per mapping
+         * @param hash the hash of all the keys in this node
+         * @param array the array of mappings
+         */
+        public HashCollisionNode(
+                Object edit,
+                int stride,
+                int hash,
+                Object[] array) {
+
+            super(edit, stride);
+            this.hash = hash;
+            setArray(array);
+        }
+
+        @Override
+        public V get(int hash, int level, Object key, V defaultValue) {
+            int index = indexOf(hash, key);
+            if (index < 0) {
+                return defaultValue;
+            }
+
+            @SuppressWarnings("unchecked")
+            V value = (V) array[index + stride - 1];
+            return value;
+        }
+
+        @Override
+        public Node<K, V> put(
+                Object edit,
+                int hash,
+                int level,
+                K key,
+                V value,
+                SizeChange change) {
+
+            if (hash != this.hash) {
+
+                // Hash doesn't match; wrap this node in a bitmap node, then
+                // add the new mapping to it.
+
+                int bit = 1 << sliceHashBits(this.hash, level);
+                Node<K, V> newNode = new BitmapNode<>(
+                        edit,
+                        stride,
+                        0,
+                        bit,
+                        new Object[] { this },
+                        size(),
+                        hashSum);
+
+                return newNode.put(edit, hash, level, key, value, change);
+
+            }
+
+            int index = indexOf(hash, key);
+
+            if (index >= 0) {
+
+                // It's one of the keys we have already; replace its value.
+                int valueIndex = index + stride - 1;
+                if (array[valueIndex] == value || stride == 1) {
+                    return this;
+                }
+
+                if (isEditable(edit)) {
+                    array[valueIndex] = value;
+                    setArray(array);
+                    return this;
+                }
+
+                Object[] newArray = array.clone();
+                newArray[valueIndex] = value;
+
+                return new HashCollisionNode<>(edit, stride, hash, newArray);
+
+            }
+
+            // Otherwise new key: extend the array.
+            Object[] newArray = Arrays.copyOf(array, array.length + stride);
+            newArray[array.length] = key;
+            newArray[array.length + stride - 1] = value;
+            change.added();
+
+            if (isEditable(edit)) {
+                setArray(newArray);
+                return this;
+            }
+
+            return new HashCollisionNode<>(edit, stride, hash, newArray);
+        }
+
+        @Override
+        public Node<K, V> remove(
+                Object edit,
+                int hash,
+                int level,
+                Object key,
+                SizeChange change) {
+
+            int index = indexOf(hash, key);
+            if (index < 0) {
+                // Key not found; retain existing value(s).
+                return this;
+            }
+
+            change.removed();
+
+            if (array.length == 2 * stride) {
+                // Down to a single mapping; hand it back as a singleton for
+                // our parent to inline.
+                int other = (index == 0 ? 1 : 0);
+                return singleton(stride, getKey(other), getValue(other));
+            }
+
+            Object[] newArray = new Object[array.length - stride];
+            System.arraycopy(array, 0, newArray, 0, index);
+            System.arraycopy(
+                    array,
+                    index + stride,
+                    newArray,
+                    index,
+                    newArray.length - index);
+
+            if (isEditable(edit)) {
+                setArray(newArray);
+                return this;
+            }
+
+            return new HashCollisionNode<>(edit, stride, hash, newArray);
+        }
+
+        @Override
+        public Node<K, V> update(
+                Object edit,
+                int hash,
+                int level,
+                K key,
+                UnaryOperator<V> function,
+                SizeChange change) {
+
+            @SuppressWarnings("unchecked")
+            V existing = (V) NOT_FOUND;
+            if (hash == this.hash) {
+                int index = indexOf(hash, key);
+                if (index >= 0) {
+                    @SuppressWarnings("unchecked")
+                    V value = (V) array[index + stride - 1];
+                    existing = value;
+                }
+            }
+
+            V value = function.apply(existing);
+            if (value == existing) {
+                return this;
+            }
+            if (value == NOT_FOUND) {
+                return remove(edit, hash, level, key, change);
+            }
+            return put(edit, hash, level, key, value, change);
+        }
+
+        @Override
+        public int size() {
+            return (array.length / stride);
+        }
+
+        @Override
+        public int hashSum() {
+            return hashSum;
+        }
+
+        @Override
+        public int payloadCount() {
+            return (array.length / stride);
+        }
+
+        @Override
+        public K getKey(int index) {
+            @SuppressWarnings("unchecked")
+            K key = (K) array[stride * index];
+            return key;
+        }
+
+        @Override
+        public V getValue(int index) {
+            @SuppressWarnings("unchecked")
+            V value = (V) array[stride * index + stride - 1];
+            return value;
+        }
+
+        @Override
+        public int nodeCount() {
+            return 0;
+        }
+
+        @Override
+        public Node<K, V> getNode(int index) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        /**
+         * Replaces the array of mappings, recomputing the hash sum. There
+         * are normally only a couple of colliding mappings, so there's no
+         * point being any cleverer.
+         *
+         * @param newArray the new array of mappings
+         */
+        private void setArray(Object[] newArray) {
+            int sum = 0;
+            for (int i = 0; i < newArray.length; i += stride) {
+                sum += hashOf(stride, newArray[i], newArray[i + stride - 1]);
+            }
+            array = newArray;
+            hashSum = sum;
+        }
+
+        /**
+         * Finds the physical index of the given key.
+         *
+         * @param hash the hash of the key
+         * @param key the key
+         * @return the index of the key in the array, or -1 if not found
+         */
+        private int indexOf(int hash, Object key) {
+            if (hash == this.hash) {
+                for (int i = 0; i < array.length; i += stride) {
+                    if (key.equals(array[i])) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Records the change in the size of the map caused by a put or remove,
+     * or accumulates it over one of the structural operations. Nodes owned
+     * by a builder are modified in place, so a change can't always be
+     * detected by comparing the old and new nodes.
+     */
+    static final class SizeChange {
+
+        public int delta;
+
+        /**
+         * Clears this change for reuse.
+         */
+        public void reset() {
+            delta = 0;
+        }
+
+        /**
+         * Records a mapping being added.
+         */
+        public void added() {
+            delta += 1;
+        }
+
+        /**
+         * Records a mapping being removed.
+         */
+        public void removed() {
+            delta -= 1;
+        }
+
+        /**
+         * Records every mapping in a subtree being added.
+         *
+         * @param node the root of the subtree
+         */
+        public void addedAll(Node<?, ?> node) {
+            delta += node.size();
+        }
+
+        /**
+         * Records every mapping in a subtree being removed.
+         *
+         * @param node the root of the subtree
+         */
+        public void removedAll(Node<?, ?> node) {
+            delta -= node.size();
+        }
+    }
+
+    /**
+     * A transient builder for a {@code MapImpl}, along the lines of Clojure's
+     * {@code TransientHashMap}.
+     * <p>
+     * Every node allocated by the builder is tagged with its current edit
+     * token, and nodes tagged with that token are modified in place rather
+     * than being copied. {@link #build()} switches to a fresh token, so nodes
+     * reachable from a built map are never modified again.
+     */
+    static final class Builder<K, V> implements Map.Builder<K, V> {
+
+        private final SizeChange change = new SizeChange();
+
+        private Object edit = new Object();
+        private MapImpl<K, V> built;
+        private int size;
+        private Node<K, V> root;
+
+        /**
+         * @param map the map to start from
+         */
+        public Builder(MapImpl<K, V> map) {
+            this.built = map;
+            this.size = map.size;
+            this.root = map.root;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            if (key == null) {
+                throw new NullPointerException("key");
+            }
+            if (root == null) {
+                return false;
+            }
+
+            @SuppressWarnings("unchecked")
+            V notFound = (V) NOT_FOUND;
+
+            return (root.get(key.hashCode(), 0, key, notFound) != NOT_FOUND);
+        }
+
+        @Override
+        public V get(Object key) {
+            if (key == null) {
+                throw new NullPointerException("key");
+            }
+            if (root == null) {
+                return null;
+            }
+
+            return root.get(key.hashCode(), 0, key, null);
+        }
+
+        @Override
+        public Builder<K, V> put(K key, V value) {
+            if (key == null) {
+                throw new NullPointerException("key");
+            }
+
+            Node<K, V> localRoot = root;
+            if (localRoot == null) {
+                localRoot = BitmapNode.empty(2);
+            }
+
+            change.reset();
+            root = localRoot.put(edit, key.hashCode(), 0, key, value, change);
+
+            size += change.delta;
+            return this;
+        }
+
+        @Override
+        public Builder<K, V> putAll(Map<? extends K, ? extends V> map) {
+            for (Entry<? extends K, ? extends V> entry : map.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+            return this;
+        }
+
+        @Override
+        public Builder<K, V> putAll(
+                java.util.Map<? extends K, ? extends V> map) {
+
+            for (java.util.Map.Entry<? extends K, ? extends V> entry
+                    : map.entrySet()) {
+
+                put(entry.getKey(), entry.getValue());
+            }
+            return this;
+        }
+
+        @Override
+        public Builder<K, V> remove(Object key) {
+            if (key == null) {
+                throw new NullPointerException("key");
+            }
+            if (root == null) {
+                return this;
+            }
+
+            change.reset();
+            root = root.remove(edit, key.hashCode(), 0, key, change);
+
+            size += change.delta;
+            return this;
+        }
+
+        @Override
+        public Builder<K, V> compute(
+                K key,
+                BiFunction<? super K, ? super V, ? extends V> function) {
+
+            if (key == null) {
+                throw new NullPointerException("key");
+            }
+
+            Node<K, V> localRoot = root;
+            if (localRoot == null) {
+                localRoot = BitmapNode.empty(2);
+            }
+
+            change.reset();
+            root = localRoot.update(edit, key.hashCode(), 0, key, (value) -> {
+                V newValue = function.apply(key, orNull(value));
+                return (newValue == null ? notFound() : newValue);
+            }, change);
+
+            size += change.delta;
+            return this;
+        }
+
+        @Override
+        public MapImpl<K, V> build() {
+            if (root == built.root) {
+                // Nothing has changed since we were created or last built.
+                return built;
+            }
+
+            // Nodes reachable from the built map are now shared and must be
+            // copied before they're modified again.
+            edit = new Object();
+
+            if (size == 0) {
+                root = null;
+                built = empty();
+            } else {
+                built = new MapImpl<>(size, root);
+            }
+
+            return built;
+        }
+    }
+
+    /**
+     * Computes what a single mapping contributes to the hash code of the map
+     * or set it's in: the hash code of its {@code Entry} for a map, or of
+     * the element itself for a set.
+     *
+     * @param stride the number of array slots per mapping
+     * @param key the key
+     * @param value the value
+     * @return the hash code of the mapping
+     */
+    static int hashOf(int stride, Object key, Object value) {
+        int hash = key.hashCode();
+        if (stride == 1) {
+            return hash;
+        }
+        // Same as Entry.hashCode().
+        return 31 * (31 + hash) + Objects.hashCode(value);
+    }
+
+    /**
+     * Slices out the appropriate bits from the given hash for this level of
+     * the trie.
+     *
+     * @param hash the hash code of a key
+     * @param level the current level in the trie
+     * @return the sliced bits (in the range [0, 31])
+     */
+    static int sliceHashBits(int hash, int level) {
+        return (hash >>> level) & 0x1F;
+    }
+
+    /**
+     * Creates a new node containing the given two mappings. If their keys
+     * have the same hash, it'll be a hash collision node; otherwise it's a
+     * bitmap node (or a chain of bitmap nodes, if the hashes share a prefix).
+     *
+     * @param edit the edit token of the calling builder, or null
+     * @param stride the number of array slots per mapping
+     * @param level the current level in the trie
+     * @param hash0 the hash of the first key
+     * @param key0 the first key
+     * @param value0 the first value
+     * @param hash1 the hash of the second key
+     * @param key1 the second key
+     * @param value1 the second value
+     * @return a new node containing the two mappings
+     */
+    private static <K, V> Node<K, V> createNode(
+            Object edit,
+            int stride,
+            int level,
+            int hash0,
+            K key0,
+            V value0,
+            int hash1,
+            K key1,
+            V value1) {
+
+        if (hash0 == hash1) {
+            // Hash collision!
+            return new HashCollisionNode<>(
+                    edit,
+                    stride,
+                    hash0,
+                    pair(stride, key0, value0, key1, value1));
+        }
+
+        // Different hashes; create a new bitmap node. If both hashes land in
+        // the same slot at this level, push them both down a level.
+
+        int index0 = sliceHashBits(hash0, level);
+        int index1 = sliceHashBits(hash1, level);
+
+        if (index0 == index1) {
+            Node<K, V> child = createNode(
+                    edit,
+                    stride,
+                    level + 5,
+                    hash0,
+                    key0,
+                    value0,
+                    hash1,
+                    key1,
+                    value1);
+
+            return new BitmapNode<>(
+                    edit,
+                    stride,
+                    0,
+                    1 << index0,
+                    new Object[] { child },
+                    2,
+                    child.hashSum());
+        }
+
+        Object[] newArray;
+        if (index0 < index1) {
+            newArray = pair(stride, key0, value0, key1, value1);
+        } else {
+            newArray = pair(stride, key1, value1, key0, value0);
+        }
+
+        return new BitmapNode<>(
+                edit,
+                stride,
+                (1 << index0) | (1 << index1),
+                0,
+                newArray,
+                2,
+                hashOf(stride, key0, value0) + hashOf(stride, key1, value1));
+    }
+
+    /**
+     * Creates an array holding two mappings.
+     *
+     * @param stride the number of array slots per mapping
+     * @param key0 the first key
+     * @param value0 the first value
+     * @param key1 the second key
+     * @param value1 the second value
+     * @return a new array holding the two mappings
+     */
+    private static Object[] pair(
+            int stride,
+            Object key0,
+            Object value0,
+            Object key1,
+            Object value1) {
+
+        if (stride == 1) {
+            return new Object[] { key0, key1 };
+        }
+        return new Object[] { key0, value0, key1, value1 };
+    }
+
+    /**
+     * Merges two tries, walking them in parallel. Subtrees that are shared
+     * are returned as-is, and subtrees that are only in one of the tries are
+     * linked into the result without being copied.
+     *
+     * @param a the root of a subtree of the left trie
+     * @param b the root of the corresponding subtree of the right trie
+     * @param level the current level in the trie
+     * @param function combines differing values for a key in both tries
+     * @param change accumulates the mappings added to {@code a}
+     * @return the merged subtree
+     */
+    private static <K, V> Node<K, V> merge(
+            Node<K, V> a,
+            Node<K, V> b,
+            int level,
+            BiFunction<? super V, ? super V, ? extends V> function,
+            SizeChange change) {
+
+        if (a == b) {
+            return a;
         }
-    }
+        if (!(a instanceof BitmapNode) || !(b instanceof BitmapNode)) {
+            // Hash collisions involved; fall back to the slow path.
+            Node<K, V> result = a;
+
+            Iterator<Entry<K, V>> iter = new NodeIterator<>(b, MapImpl::entry);
+            while (iter.hasNext()) {
+                Entry<K, V> entry = iter.next();
+                result = mergeMapping(
+                        result,
+                        level,
+                        entry.getKey(),
+                        entry.getValue(),
+                        false,
+                        function,
+                        change);
+            }
+
+            return result;
+        }
+
+        BitmapNode<K, V> x = (BitmapNode<K, V>) a;
+        BitmapNode<K, V> y = (BitmapNode<K, V>) b;
+        NodeAssembler<K, V> result = new NodeAssembler<>(x.stride);
+
+        int bits = x.dataMap | x.nodeMap | y.dataMap | y.nodeMap;
+        for (; bits != 0; bits &= bits - 1) {
+            int bit = Integer.lowestOneBit(bits);
+
+            if ((x.dataMap & bit) != 0) {
+
+                int i = x.dataIndex(bit);
+                K key = x.getKey(i);
+                V value = x.getValue(i);
+
+                if ((y.dataMap & bit) != 0) {
+
+                    int j = y.dataIndex(bit);
+                    K otherKey = y.getKey(j);
+                    V otherValue = y.getValue(j);
+
+                    if (key.equals(otherKey)) {
+                        V newValue = combine(value, otherValue, function);
+                        result.addMapping(bit, key, newValue);
+                    } else {
+                        change.added();
+                        result.addNode(bit, createNode(
+                                null,
+                                x.stride,
+                                level + 5,
+                                key.hashCode(),
+                                key,
+                                value,
+                                otherKey.hashCode(),
+                                otherKey,
+                                otherValue));
+                    }
+
+                } else if ((y.nodeMap & bit) != 0) {
+
+                    // Everything in their subtree is new, apart from
+                    // (possibly) our one mapping.
+                    Node<K, V> node = y.nodeAt(bit);
+                    change.addedAll(node);
+                    result.addNode(bit, mergeMapping(
+                            node,
+                            level + 5,
+                            key,
+                            value,
+                            true,
+                            function,
+                            change));
+
+                } else {
+
+                    result.addMapping(bit, key, value);
+
+                }
+
+            } else if ((x.nodeMap & bit) != 0) {
+
+                Node<K, V> node = x.nodeAt(bit);
+
+                if ((y.dataMap & bit) != 0) {
+                    int j = y.dataIndex(bit);
+                    result.addNode(bit, mergeMapping(
+                            node,
+                            level + 5,
+                            y.getKey(j),
+                            y.getValue(j),
+                            false,
+                            function,
+                            change));
+                } else if ((y.nodeMap & bit) != 0) {
+                    result.addNode(bit, merge(
+                            node,
+                            y.nodeAt(bit),
+                            level + 5,
+                            function,
+                            change));
+                } else {
+                    result.addNode(bit, node);
+                }
+
+            } else if ((y.dataMap & bit) != 0) {
 
-    private static class PutResult<K, V> {
+                int j = y.dataIndex(bit);
+                change.added();
+                result.addMapping(bit, y.getKey(j), y.getValue(j));
+
+            } else {
 
-        public final boolean added;
-        public Node<K, V> root;
+                Node<K, V> node = y.nodeAt(bit);
+                change.addedAll(node);
+                result.addNode(bit, node);
 
-        public PutResult(Node<K, V> root, boolean added) {
-            this.added = added;
-            this.root = root;
+            }
         }
+
+        return result.build(level, x, y);
     }
 
     /**
-     * Slices out the appropriate bits from the given hash for this level of
-     * the trie.
+     * Merges a single mapping into a subtree.
      *
-     * @param hash the hash code of a key
+     * @param node the root of the subtree
      * @param level the current level in the trie
-     * @return the sliced bits (in the range [0, 31])
+     * @param key the key of the mapping
+     * @param value the value of the mapping
+     * @param left true if the mapping is from the left side of the merge
+     *             and the subtree from the right, false if vice versa
+     * @param function combines differing values for a key in both tries
+     * @param change accumulates the mappings added to the left
+     * @return the new subtree
      */
-    private static int sliceHashBits(int hash, int level) {
-        return (hash >>> level) & 0x1F;
+    private static <K, V> Node<K, V> mergeMapping(
+            Node<K, V> node,
+            int level,
+            K key,
+            V value,
+            boolean left,
+            BiFunction<? super V, ? super V, ? extends V> function,
+            SizeChange change) {
+
+        @SuppressWarnings("unchecked")
+        V notFound = (V) NOT_FOUND;
+
+        int hash = key.hashCode();
+        V existing = node.get(hash, level, key, notFound);
+
+        V newValue;
+        if (existing == NOT_FOUND) {
+            if (!left) {
+                change.added();
+            }
+            newValue = value;
+        } else {
+            if (left) {
+                // Counted on both sides.
+                change.removed();
+                newValue = combine(value, existing, function);
+            } else {
+                newValue = combine(existing, value, function);
+            }
+            if (newValue == existing) {
+                return node;
+            }
+        }
+
+        return node.put(null, hash, level, key, newValue, new SizeChange());
     }
 
     /**
-     * Clones the given array, appending the given value. Maybe slightly more
-     * efficient than {@code cloneAndInsert} under the same circumstances?
+     * Intersects two tries, walking them in parallel. Subtrees that are
+     * shared are returned as-is.
      *
-     * @param array the array to clone
-     * @param value the value to append
-     * @return a copy of the array with the value appended
+     * @param a the root of a subtree of the left trie
+     * @param b the root of the corresponding subtree of the right trie,
+     *          which may be a set
+     * @param level the current level in the trie
+     * @param function combines differing values for a key in both tries,
+     *                 or null to keep the values from {@code a}
+     * @param change accumulates the mappings removed from {@code a}
+     * @return the intersected subtree, which may be a singleton, or null if
+     *         it's empty
      */
-    private static <T> T[] cloneAndAppend(T[] array, T value) {
-        T[] clone = Arrays.copyOf(array, array.length + 1);
-        clone[array.length] = value;
-        return clone;
+    private static <K, V, W> Node<K, V> intersect(
+            Node<K, V> a,
+            Node<?, W> b,
+            int level,
+            BiFunction<? super V, ? super W, ? extends V> function,
+            SizeChange change) {
+
+        if (a == b) {
+            return a;
+        }
+
+        @SuppressWarnings("unchecked")
+        W notFound = (W) NOT_FOUND;
+
+        if (!(a instanceof BitmapNode) || !(b instanceof BitmapNode)) {
+            // Hash collisions involved; fall back to the slow path.
+            java.util.List<Entry<K, V>> kept = new ArrayList<>();
+            boolean changed = false;
+
+            Iterator<Entry<K, V>> iter = new NodeIterator<>(a, MapImpl::entry);
+            while (iter.hasNext()) {
+                Entry<K, V> entry = iter.next();
+                K key = entry.getKey();
+
+                W otherValue = b.get(key.hashCode(), level, key, notFound);
+                if (otherValue == NOT_FOUND) {
+                    change.removed();
+                    changed = true;
+                } else {
+                    V value = entry.getValue();
+                    V newValue = combine(value, otherValue, function);
+                    changed |= (newValue != value);
+                    kept.add(new Entry<>(key, newValue));
+                }
+            }
+
+            return (changed ? rebuild(a.stride, level, kept) : a);
+        }
+
+        BitmapNode<K, V> x = (BitmapNode<K, V>) a;
+        BitmapNode<?, W> y = (BitmapNode<?, W>) b;
+        NodeAssembler<K, V> result = new NodeAssembler<>(x.stride);
+
+        int otherBits = y.dataMap | y.nodeMap;
+        for (int bits = x.dataMap | x.nodeMap; bits != 0; bits &= bits - 1) {
+            int bit = Integer.lowestOneBit(bits);
+
+            if ((otherBits & bit) == 0) {
+
+                // Nothing in the other trie with this prefix.
+                if ((x.dataMap & bit) != 0) {
+                    change.removed();
+                } else {
+                    change.removedAll(x.nodeAt(bit));
+                }
+
+            } else if ((x.dataMap & bit) != 0) {
+
+                int i = x.dataIndex(bit);
+                K key = x.getKey(i);
+
+                W otherValue;
+                if ((y.dataMap & bit) != 0) {
+                    int j = y.dataIndex(bit);
+                    otherValue = key.equals(y.getKey(j))
+                            ? y.getValue(j)
+                            : notFound;
+                } else {
+                    otherValue = y.nodeAt(bit)
+                            .get(key.hashCode(), level + 5, key, notFound);
+                }
+
+                V value = x.getValue(i);
+                if (otherValue == NOT_FOUND) {
+                    change.removed();
+                } else {
+                    V newValue = combine(value, otherValue, function);
+                    result.addMapping(bit, key, newValue);
+                }
+
+            } else if ((y.dataMap & bit) != 0) {
+
+                // At most the one mapping from our subtree survives.
+                Node<K, V> node = x.nodeAt(bit);
+                int j = y.dataIndex(bit);
+                Object otherKey = y.getKey(j);
+
+                Entry<K, V> entry =
+                        find(node, otherKey.hashCode(), level + 5, otherKey);
+
+                change.removedAll(node);
+                if (entry != null) {
+                    V value =
+                            combine(entry.getValue(), y.getValue(j), function);
+                    change.added();
+                    result.addMapping(bit, entry.getKey(), value);
+                }
+
+            } else {
+
+                result.addResult(bit, intersect(
+                        x.nodeAt(bit),
+                        y.nodeAt(bit),
+                        level + 5,
+                        function,
+                        change));
+
+            }
+        }
+
+        return result.build(level, x, null);
     }
 
     /**
-     * Clones the given array, inserting an element at the given index.
+     * Subtracts the keys of one trie from another, walking them in
+     * parallel. Subtrees that are only in the left trie are returned as-is.
      *
-     * @param array the array to clone
-     * @param index the index at which to insert
-     * @param value the value to insert
-     * @return a copy of the array with the inserted value
+     * @param a the root of a subtree of the left trie
+     * @param b the root of the corresponding subtree of the right trie
+     * @param level the current level in the trie
+     * @param change accumulates the mappings removed from {@code a}
+     * @return the remaining subtree, which may be a singleton, or null if
+     *         it's empty
      */
-    private static Object[] cloneAndInsert(
-            Object[] array,
-            int index,
-            Object value) {
+    private static <K, V> Node<K, V> difference(
+            Node<K, V> a,
+            Node<?, ?> b,
+            int level,
+            SizeChange change) {
+
+        if (a == b) {
+            change.removedAll(a);
+            return null;
+        }
+
+        if (!(a instanceof BitmapNode) || !(b instanceof BitmapNode)) {
+            // Hash collisions involved; fall back to the slow path.
+            java.util.List<Entry<K, V>> kept = new ArrayList<>();
+
+            Iterator<Entry<K, V>> iter = new NodeIterator<>(a, MapImpl::entry);
+            while (iter.hasNext()) {
+                Entry<K, V> entry = iter.next();
+                K key = entry.getKey();
+
+                if (find(b, key.hashCode(), level, key) == null) {
+                    kept.add(entry);
+                } else {
+                    change.removed();
+                }
+            }
+
+            if (kept.size() == a.size()) {
+                return a;
+            }
+            return rebuild(a.stride, level, kept);
+        }
+
+        BitmapNode<K, V> x = (BitmapNode<K, V>) a;
+        BitmapNode<?, ?> y = (BitmapNode<?, ?>) b;
+        NodeAssembler<K, V> result = new NodeAssembler<>(x.stride);
+
+        int otherBits = y.dataMap | y.nodeMap;
+        for (int bits = x.dataMap | x.nodeMap; bits != 0; bits &= bits - 1) {
+            int bit = Integer.lowestOneBit(bits);
+
+            if ((x.dataMap & bit) != 0) {
+
+                int i = x.dataIndex(bit);
+                K key = x.getKey(i);
+
+                boolean present;
+                if ((otherBits & bit) == 0) {
+                    present = false;
+                } else if ((y.dataMap & bit) != 0) {
+                    present = key.equals(y.getKey(y.dataIndex(bit)));
+                } else {
+                    present = (find(
+                            y.nodeAt(bit),
+                            key.hashCode(),
+                            level + 5,
+                            key) != null);
+                }
+
+                if (present) {
+                    change.removed();
+                } else {
+                    result.addMapping(bit, key, x.getValue(i));
+                }
+
+            } else {
 
-        Object[] clone = new Object[array.length + 1];
+                Node<K, V> node = x.nodeAt(bit);
+
+                if ((otherBits & bit) == 0) {
+                    result.addNode(bit, node);
+                } else if ((y.dataMap & bit) != 0) {
+                    Object otherKey = y.getKey(y.dataIndex(bit));
+                    result.addResult(bit, node.remove(
+                            null,
+                            otherKey.hashCode(),
+                            level + 5,
+                            otherKey,
+                            change));
+                } else {
+                    result.addResult(bit, difference(
+                            node,
+                            y.nodeAt(bit),
+                            level + 5,
+                            change));
+                }
 
-        System.arraycopy(array, 0, clone, 0, index);
-        clone[index] = value;
-        System.arraycopy(array, index, clone, index + 1, array.length - index);
+            }
+        }
 
-        return clone;
+        return result.build(level, x, null);
     }
 
     /**
-     * Clones the given array, removing a single element.
+     * Walks two subtrees at the same position in the left (old) and right
+     * (new) tries in parallel, collecting the differences between them.
      *
-     * @param array the array to clone
-     * @param index the index of the element to remove
-     * @return the cloned array
+     * @param a the root of a subtree of the left trie
+     * @param b the root of the corresponding subtree of the right trie
+     * @param level the current level in the trie
+     * @param diff collects the differences
      */
-    private static <T> T[] cloneAndRemove(T[] array, int index) {
-        T[] clone = Arrays.copyOf(array, array.length - 1);
-        System.arraycopy(array, index, clone, index, clone.length - index);
-        return clone;
+    private static <K, V> void diff(
+            Node<K, V> a,
+            Node<K, V> b,
+            int level,
+            DiffBuilder<K, V> diff) {
+
+        if (a == b) {
+            return;
+        }
+
+        if (!(a instanceof BitmapNode) || !(b instanceof BitmapNode)) {
+            // Hash collisions involved; fall back to the slow path.
+            a.forEach(0, a.slotCount(), MapImpl::entry, entry -> {
+                K key = entry.getKey();
+                diff.compare(
+                        key,
+                        entry.getValue(),
+                        find(b, key.hashCode(), level, key));
+            });
+            b.forEach(0, b.slotCount(), MapImpl::entry, entry -> {
+                K key = entry.getKey();
+                if (find(a, key.hashCode(), level, key) == null) {
+                    diff.added.put(key, entry.getValue());
+                }
+            });
+            return;
+        }
+
+        BitmapNode<K, V> x = (BitmapNode<K, V>) a;
+        BitmapNode<K, V> y = (BitmapNode<K, V>) b;
+
+        int bits = x.dataMap | x.nodeMap | y.dataMap | y.nodeMap;
+        for (; bits != 0; bits &= bits - 1) {
+            int bit = Integer.lowestOneBit(bits);
+
+            if ((x.dataMap & bit) != 0) {
+
+                int i = x.dataIndex(bit);
+                K key = x.getKey(i);
+                V value = x.getValue(i);
+
+                if ((y.dataMap & bit) != 0) {
+                    int j = y.dataIndex(bit);
+                    K otherKey = y.getKey(j);
+
+                    if (key.equals(otherKey)) {
+                        diff.compare(key, value, entry(y, j));
+                    } else {
+                        diff.removed.put(key, value);
+                        diff.added.put(otherKey, y.getValue(j));
+                    }
+                } else if ((y.nodeMap & bit) != 0) {
+                    Node<K, V> node = y.nodeAt(bit);
+                    diff.compare(
+                            key,
+                            value,
+                            find(node, key.hashCode(), level + 5, key));
+                    diff.addAll(diff.added, node, key);
+                } else {
+                    diff.removed.put(key, value);
+                }
+
+            } else if ((x.nodeMap & bit) != 0) {
+
+                Node<K, V> node = x.nodeAt(bit);
+
+                if ((y.dataMap & bit) != 0) {
+                    int j = y.dataIndex(bit);
+                    K otherKey = y.getKey(j);
+                    Entry<K, V> entry = find(
+                            node,
+                            otherKey.hashCode(),
+                            level + 5,
+                            otherKey);
+
+                    if (entry == null) {
+                        diff.added.put(otherKey, y.getValue(j));
+                    } else {
+                        diff.compare(otherKey, entry.getValue(), entry(y, j));
+                    }
+                    diff.addAll(diff.removed, node, otherKey);
+                } else if ((y.nodeMap & bit) != 0) {
+                    diff(node, y.nodeAt(bit), level + 5, diff);
+                } else {
+                    diff.addAll(diff.removed, node, null);
+                }
+
+            } else if ((y.dataMap & bit) != 0) {
+
+                int j = y.dataIndex(bit);
+                diff.added.put(y.getKey(j), y.getValue(j));
+
+            } else {
+
+                diff.addAll(diff.added, y.nodeAt(bit), null);
+
+            }
+        }
     }
 
     /**
-     * Creates a new node containing the given two entries. If their keys have
-     * the same hash, it'll be a hash collision node; otherwise it's a sparse
-     * node.
+     * Finds the mapping for the given key in a subtree.
      *
+     * @param node the root of the subtree
+     * @param hash the hash of the key
      * @param level the current level in the trie
-     * @param existingEntry the existing entry
-     * @param newHash the hash of the new entry's key
-     * @param newEntry the new entry
-     * @return a new node containing the two entries
+     * @param key the key
+     * @return the mapping, or null if there isn't one
      */
-    private static <K, V> Node<K, V> createNode(
+    private static <K, V> Entry<K, V> find(
+            Node<K, V> node,
+            int hash,
             int level,
-            Entry<K, V> existingEntry,
-            int newHash,
-            Entry<K, V> newEntry) {
+            Object key) {
 
-        int existingHash = existingEntry.getKey().hashCode();
-        if (existingHash == newHash) {
+        while (node instanceof BitmapNode) {
+            BitmapNode<K, V> bitmapNode = (BitmapNode<K, V>) node;
+            int bit = 1 << sliceHashBits(hash, level);
 
-            // Hash collision!
-            @SuppressWarnings("unchecked")
-            Entry<K, V>[] newArray = new Entry[] {
-                    existingEntry,
-                    newEntry };
+            if ((bitmapNode.dataMap & bit) != 0) {
+                int index = bitmapNode.dataIndex(bit);
+                if (key.equals(bitmapNode.getKey(index))) {
+                    return entry(bitmapNode, index);
+                }
+                return null;
+            }
+            if ((bitmapNode.nodeMap & bit) == 0) {
+                return null;
+            }
+
+            node = bitmapNode.nodeAt(bit);
+            level += 5;
+        }
+
+        HashCollisionNode<K, V> collisionNode = (HashCollisionNode<K, V>) node;
+        int index = collisionNode.indexOf(hash, key);
+        if (index < 0) {
+            return null;
+        }
+        return entry(collisionNode, index / collisionNode.stride);
+    }
+
+    /**
+     * Combines two values for the same key.
+     *
+     * @param value the left value
+     * @param otherValue the right value
+     * @param function combines the two values if they differ, or null to
+     *                 always keep the left value
+     * @return the combined value
+     */
+    private static <V, W> V combine(
+            V value,
+            W otherValue,
+            BiFunction<? super V, ? super W, ? extends V> function) {
+
+        if (function == null || value == otherValue) {
+            return value;
+        }
+        return function.apply(value, otherValue);
+    }
+
+    /**
+     * Builds a new subtree at the given level from scratch.
+     *
+     * @param stride the number of array slots per mapping
+     * @param level the level in the trie
+     * @param entries the mappings to put in the subtree
+     * @return the new subtree, which may be a singleton, or null if it's
+     *         empty
+     */
+    private static <K, V> Node<K, V> rebuild(
+            int stride,
+            int level,
+            java.util.List<Entry<K, V>> entries) {
+
+        if (entries.isEmpty()) {
+            return null;
+        }
+        if (entries.size() == 1) {
+            Entry<K, V> entry = entries.get(0);
+            return singleton(stride, entry.getKey(), entry.getValue());
+        }
+
+        Object edit = new Object();
+        SizeChange change = new SizeChange();
+
+        Node<K, V> node = BitmapNode.empty(stride);
+        for (Entry<K, V> entry : entries) {
+            K key = entry.getKey();
+            node = node.put(
+                    edit,
+                    key.hashCode(),
+                    level,
+                    key,
+                    entry.getValue(),
+                    change);
+        }
 
-            return new HashCollisionNode<>(newHash, newArray);
+        if (level > 0 && node.payloadCount() == 0 && node.nodeCount() == 1
+                && node.getNode(0) instanceof HashCollisionNode) {
+            return node.getNode(0);
+        }
+        return node;
+    }
 
+    /**
+     * Creates a singleton node. Its bitmap is set up for level 0, in case it
+     * ends up as the root.
+     *
+     * @param stride the number of array slots per mapping
+     * @param key the key
+     * @param value the value
+     * @return the new singleton node
+     */
+    private static <K, V> Node<K, V> singleton(int stride, K key, V value) {
+        Object[] array;
+        if (stride == 1) {
+            array = new Object[] { key };
         } else {
+            array = new Object[] { key, value };
+        }
+
+        int bit = 1 << sliceHashBits(key.hashCode(), 0);
+        return new BitmapNode<>(
+                null,
+                stride,
+                bit,
+                0,
+                array,
+                1,
+                hashOf(stride, key, value));
+    }
+
+    /**
+     * Collects the differences found by {@link MapImpl#diff(Map)}.
+     */
+    private static final class DiffBuilder<K, V> {
+
+        public final Builder<K, V> added = new Builder<>(empty());
+        public final Builder<K, V> removed = new Builder<>(empty());
+        public final Builder<K, V> changed = new Builder<>(empty());
+
+        /**
+         * Compares the old value for a key to its new mapping.
+         *
+         * @param key the key
+         * @param value the old value
+         * @param entry the new mapping, or null if the key was removed
+         */
+        public void compare(K key, V value, Entry<K, V> entry) {
+            if (entry == null) {
+                removed.put(key, value);
+                return;
+            }
+
+            V otherValue = entry.getValue();
+            if (value != otherValue && !Objects.equals(value, otherValue)) {
+                changed.put(key, otherValue);
+            }
+        }
+
+        /**
+         * Adds every mapping in a subtree to one of the builders.
+         *
+         * @param builder the builder to add to
+         * @param node the root of the subtree
+         * @param except a key to skip, or null
+         */
+        public void addAll(
+                Builder<K, V> builder,
+                Node<K, V> node,
+                Object except) {
+
+            node.forEach(0, node.slotCount(), MapImpl::entry, entry -> {
+                if (except == null || !except.equals(entry.getKey())) {
+                    builder.put(entry.getKey(), entry.getValue());
+                }
+            });
+        }
+
+        /**
+         * @return the collected differences
+         */
+        public Diff<K, V> build() {
+            return new Diff<>(added.build(), removed.build(), changed.build());
+        }
+    }
+
+    /**
+     * Collects the slots of a new bitmap node being assembled by one of the
+     * structural operations, in hash order.
+     */
+    private static final class NodeAssembler<K, V> {
+
+        private final int stride;
+        private final Object[] data;
+        private final Node<?, ?>[] nodes = new Node<?, ?>[32];
+
+        private int dataMap;
+        private int nodeMap;
+        private int dataLength;
+        private int nodeCount;
+
+        /**
+         * @param stride the number of array slots per mapping
+         */
+        public NodeAssembler(int stride) {
+            this.stride = stride;
+            this.data = new Object[32 * stride];
+        }
+
+        /**
+         * Adds an inline mapping.
+         *
+         * @param bit the bit for the mapping
+         * @param key the key
+         * @param value the value
+         */
+        public void addMapping(int bit, K key, V value) {
+            data[dataLength] = key;
+            data[dataLength + stride - 1] = value;
+            dataLength += stride;
+            dataMap |= bit;
+        }
+
+        /**
+         * Adds a child node.
+         *
+         * @param bit the bit for the child
+         * @param node the child node
+         */
+        public void addNode(int bit, Node<K, V> node) {
+            nodes[nodeCount] = node;
+            nodeCount += 1;
+            nodeMap |= bit;
+        }
+
+        /**
+         * Adds the result of recursing into a child node: nothing if it's
+         * empty, an inline mapping if it's a singleton, and otherwise the
+         * child node itself.
+         *
+         * @param bit the bit for the child
+         * @param node the new child node, or null
+         */
+        public void addResult(int bit, Node<K, V> node) {
+            if (node == null) {
+                return;
+            }
+            if (node.isSingleton()) {
+                addMapping(bit, node.getKey(0), node.getValue(0));
+            } else {
+                addNode(bit, node);
+            }
+        }
+
+        /**
+         * Builds the node, in canonical form.
+         *
+         * @param level the level of the node in the trie
+         * @param x an existing node to return if it has the same slots
+         * @param y another existing node to return if it has the same slots,
+         *          or null
+         * @return the new node, which may be a singleton, or null if it's
+         *         empty
+         */
+        public Node<K, V> build(
+                int level,
+                BitmapNode<K, V> x,
+                BitmapNode<K, V> y) {
+
+            if (matches(x)) {
+                return x;
+            }
+            if (y != null && matches(y)) {
+                return y;
+            }
+
+            if (dataMap == 0 && nodeMap == 0) {
+                return null;
+            }
+
+            if (level > 0) {
+                if (nodeMap == 0 && dataLength == stride) {
+                    @SuppressWarnings("unchecked")
+                    K key = (K) data[0];
+                    @SuppressWarnings("unchecked")
+                    V value = (V) data[stride - 1];
+                    return singleton(stride, key, value);
+                }
+                if (dataMap == 0 && nodeCount == 1
+                        && nodes[0] instanceof HashCollisionNode) {
+                    // A hash collision node doesn't care what level it's at.
+                    @SuppressWarnings("unchecked")
+                    Node<K, V> node = (Node<K, V>) nodes[0];
+                    return node;
+                }
+            }
+
+            Object[] array = new Object[dataLength + nodeCount];
+            System.arraycopy(data, 0, array, 0, dataLength);
+
+            int size = dataLength / stride;
+            int hashSum = 0;
+            for (int i = 0; i < dataLength; i += stride) {
+                hashSum += hashOf(stride, data[i], data[i + stride - 1]);
+            }
+            for (int i = 0; i < nodeCount; ++i) {
+                array[array.length - 1 - i] = nodes[i];
+                size += nodes[i].size();
+                hashSum += nodes[i].hashSum();
+            }
+
+            return new BitmapNode<>(
+                    null,
+                    stride,
+                    dataMap,
+                    nodeMap,
+                    array,
+                    size,
+                    hashSum);
+        }
 
-            // Different hashes; create a new sparse node.
-            // TODO: Seems like there should be a more efficient way to do this?
-            return SparseNode.<K, V>empty()
-                    .put(existingHash, level, existingEntry)
-                    .root
-                    .put(newHash, level, newEntry)
-                    .root;
+        /**
+         * Checks whether an existing node has exactly the slots (by
+         * reference) collected so far.
+         *
+         * @param node the node to check
+         * @return true if it matches
+         */
+        private boolean matches(BitmapNode<K, V> node) {
+            if (node.dataMap != dataMap || node.nodeMap != nodeMap) {
+                return false;
+            }
 
+            Object[] array = node.array;
+            for (int i = 0; i < dataLength; ++i) {
+                if (array[i] != data[i]) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < nodeCount; ++i) {
+                if (array[array.length - 1 - i] != nodes[i]) {
+                    return false;
+                }
+            }
+            return true;
         }
     }
 }
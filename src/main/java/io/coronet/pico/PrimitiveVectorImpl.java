@@ -0,0 +1,330 @@
+package io.coronet.pico;
+
+/**
+ * Common base for the primitive-specialized persistent vectors. The shape of
+ * the data structure is the same as {@link VectorImpl}'s (a 32-ary tree of
+ * leaves plus a tail), but leaves and the tail are primitive arrays of type
+ * {@code A} - {@code int[]}, {@code long[]} or {@code double[]} - rather than
+ * arrays of references to boxed values. The tree is always radix-balanced and
+ * has no leading padding, so every leaf is full and lookups slice bits out
+ * of the index directly.
+ * <p>
+ * This class manages the tree, which only ever deals with leaves as opaque
+ * arrays; subclasses provide the element-level operations so that nothing on
+ * a hot path needs to box.
+ *
+ * @param <A> the type of the leaf arrays
+ * @param <This> the concrete type of the vector
+ */
+abstract class PrimitiveVectorImpl<
+        A, This extends PrimitiveVectorImpl<A, This>> {
+
+    protected final int size;
+    protected final Object root;
+    protected final int depth;
+    protected final A tail;
+
+    /**
+     * @param size the number of elements in this vector
+     * @param root the root of the tree (a leaf if depth is 0), or null
+     * @param depth the depth of the tree
+     * @param tail the tail of this vector
+     */
+    protected PrimitiveVectorImpl(int size, Object root, int depth, A tail) {
+        this.size = size;
+        this.root = root;
+        this.depth = depth;
+        this.tail = tail;
+    }
+
+    /**
+     * Creates a new vector of the concrete type.
+     *
+     * @param size the number of elements in the new vector
+     * @param root the root of the tree
+     * @param depth the depth of the tree
+     * @param tail the tail
+     * @return the new vector
+     */
+    protected abstract This create(int size, Object root, int depth, A tail);
+
+    /**
+     * Allocates a new leaf array.
+     *
+     * @param length the length of the array
+     * @return a new array
+     */
+    protected abstract A newArray(int length);
+
+    /**
+     * Gets the length of a leaf array.
+     *
+     * @param array the array
+     * @return its length
+     */
+    protected abstract int length(A array);
+
+    /**
+     * @return the number of elements in this vector
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if this vector is empty
+     */
+    public boolean isEmpty() {
+        return (size == 0);
+    }
+
+    /**
+     * Gets the number of elements in the tree portion of this vector; always
+     * a multiple of 32.
+     *
+     * @return the size of the tree
+     */
+    protected final int getTreeSize() {
+        return (size - length(tail));
+    }
+
+    /**
+     * Checks that the given index is in range.
+     *
+     * @param index the index to check
+     * @throws IndexOutOfBoundsException if it isn't
+     */
+    protected final void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    /**
+     * Gets the array holding the element with the given index: either the
+     * tail or a leaf of the tree. Since the tree size is a multiple of 32,
+     * the element is at {@code index & 0x1F} in either case.
+     *
+     * @param index the index of an element
+     * @return the array it belongs to
+     */
+    protected final A getArray(int index) {
+        if (index >= getTreeSize()) {
+            return tail;
+        }
+
+        Object node = root;
+        for (int d = depth; d > 0; d -= 5) {
+            node = ((Object[]) node)[(index >>> d) & 0x1F];
+        }
+
+        @SuppressWarnings("unchecked")
+        A leaf = (A) node;
+        return leaf;
+    }
+
+    /**
+     * Returns a copy of this vector with the array holding the element with
+     * the given index replaced. Used to implement {@code set}: the subclass
+     * copies and modifies the array, and this method copies the path to it.
+     *
+     * @param index the index of an element
+     * @param array the replacement for the array holding it
+     * @return the new vector
+     */
+    protected final This withArray(int index, A array) {
+        if (index >= getTreeSize()) {
+            return create(size, root, depth, array);
+        }
+        return create(size, replace(root, depth, index, array), depth, tail);
+    }
+
+    /**
+     * Returns a copy of this vector with the given (full) tail pushed into
+     * the tree and a new tail. Called by {@code add} when the tail is full.
+     *
+     * @param newTail the new tail
+     * @return the new vector
+     */
+    protected final This pushTail(A newTail) {
+        if (size > Integer.MAX_VALUE - length(newTail)) {
+            // Can't grow the underlying data structure any more.
+            throw new OutOfMemoryError();
+        }
+
+        int treeSize = getTreeSize();
+        Object newRoot;
+        int newDepth = depth;
+
+        if (root == null) {
+
+            // First leaf; it becomes the root.
+            newRoot = tail;
+
+        } else if ((treeSize >>> 5) == (1 << depth)) {
+
+            // Tree is full; push the root up a level.
+            newRoot = new Object[] { root, newPath(depth, tail) };
+            newDepth += 5;
+
+        } else {
+
+            newRoot = append((Object[]) root, depth, tail, treeSize);
+
+        }
+
+        return create(size + length(newTail), newRoot, newDepth, newTail);
+    }
+
+    /**
+     * Appends a range of the given array to this vector, filling up the tail
+     * and pushing full leaves directly into the tree.
+     *
+     * @param values the values to append
+     * @param from the index of the first value to append
+     * @param to the index after the last value to append
+     * @return the new vector
+     */
+    protected final This appendAll(A values, int from, int to) {
+        if (to - from > Integer.MAX_VALUE - size) {
+            // Can't grow the underlying data structure any more.
+            throw new OutOfMemoryError();
+        }
+
+        @SuppressWarnings("unchecked")
+        This result = (This) this;
+
+        while (from < to) {
+            int tailLength = length(result.tail);
+
+            if (tailLength == 32) {
+                int count = Math.min(32, to - from);
+                A newTail = newArray(count);
+                System.arraycopy(values, from, newTail, 0, count);
+
+                result = result.pushTail(newTail);
+                from += count;
+            } else {
+                int count = Math.min(32 - tailLength, to - from);
+                A newTail = newArray(tailLength + count);
+                System.arraycopy(result.tail, 0, newTail, 0, tailLength);
+                System.arraycopy(values, from, newTail, tailLength, count);
+
+                result = create(
+                        result.size + count,
+                        result.root,
+                        result.depth,
+                        newTail);
+                from += count;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Copies the elements of this vector into the given array, one leaf at
+     * a time.
+     *
+     * @param array an array of at least {@code size()} elements
+     * @return the array
+     */
+    protected final A copyInto(A array) {
+        for (int i = 0; i < size; i += 32) {
+            A leaf = getArray(i);
+            System.arraycopy(leaf, 0, array, i, Math.min(32, size - i));
+        }
+        return array;
+    }
+
+    /**
+     * Picks a point to split the range {@code [index, end)} for a
+     * spliterator: the leaf boundary nearest the middle.
+     *
+     * @param index the start of the range
+     * @param end the end of the range
+     * @return the split point, or -1 if the range shouldn't be split
+     */
+    protected static int getSplitPoint(int index, int end) {
+        int mid = (int) (((long) index + end) >>> 1) & ~0x1F;
+        if (mid <= index) {
+            return -1;
+        }
+        return mid;
+    }
+
+    /**
+     * Copies the path to the leaf holding the element with the given index,
+     * replacing the leaf.
+     *
+     * @param node the root of the (sub)tree
+     * @param depth the depth of the (sub)tree
+     * @param index the index of an element
+     * @param leaf the new leaf
+     * @return the new root
+     */
+    private static Object replace(
+            Object node,
+            int depth,
+            int index,
+            Object leaf) {
+
+        if (depth == 0) {
+            return leaf;
+        }
+
+        Object[] newNode = ((Object[]) node).clone();
+        int nodeIndex = (index >>> depth) & 0x1F;
+        newNode[nodeIndex] =
+                replace(newNode[nodeIndex], depth - 5, index, leaf);
+        return newNode;
+    }
+
+    /**
+     * Appends a leaf into the tree; the tree must have room.
+     *
+     * @param node the root of the (sub)tree
+     * @param depth the depth of the (sub)tree
+     * @param leaf the leaf to append
+     * @param index the index of the first element of the new leaf
+     * @return the new root
+     */
+    private static Object[] append(
+            Object[] node,
+            int depth,
+            Object leaf,
+            int index) {
+
+        int nodeIndex = (index >>> depth) & 0x1F;
+
+        Object[] newNode;
+        Object child;
+
+        if (nodeIndex == node.length) {
+            newNode = new Object[node.length + 1];
+            System.arraycopy(node, 0, newNode, 0, node.length);
+            child = newPath(depth - 5, leaf);
+        } else {
+            newNode = node.clone();
+            child = append((Object[]) node[nodeIndex], depth - 5, leaf, index);
+        }
+
+        newNode[nodeIndex] = child;
+        return newNode;
+    }
+
+    /**
+     * Creates a new path of single-child nodes down to the given leaf.
+     *
+     * @param length the length of the path (in increments of 5)
+     * @param leaf the leaf at the end of the path
+     * @return the top of the path
+     */
+    private static Object newPath(int length, Object leaf) {
+        Object node = leaf;
+        for (int i = 0; i < length; i += 5) {
+            node = new Object[] { node };
+        }
+        return node;
+    }
+}
@@ -0,0 +1,142 @@
+package io.coronet.pico;
+
+import java.util.Comparator;
+
+/**
+ * A persistent priority queue. Elements are "added" in any order and
+ * "removed" lowest first, according to their natural ordering or a
+ * {@code Comparator}, with each operation returning a new queue. Iteration
+ * visits the elements in no particular order.
+ * <p>
+ * Like {@link java.util.PriorityQueue}, priority queues don't define
+ * value-based equality: two queues are equal only if they're the same
+ * object.
+ */
+public interface PriorityQueue<E> extends Collection<E> {
+
+    /**
+     * Returns the empty queue, ordered by the natural ordering of its
+     * elements.
+     *
+     * @return the empty queue
+     */
+    public static <E extends Comparable<? super E>> PriorityQueue<E> empty() {
+        return PriorityQueueImpl.empty();
+    }
+
+    /**
+     * Returns the empty queue, ordered by the given comparator.
+     *
+     * @param comparator the comparator to order elements with
+     * @return the empty queue
+     * @throws NullPointerException if comparator is null
+     */
+    public static <E> PriorityQueue<E> empty(
+            Comparator<? super E> comparator) {
+
+        return PriorityQueueImpl.empty(comparator);
+    }
+
+    /**
+     * Returns a queue containing the elements of the given vector, ordered
+     * by their natural ordering. Takes linear time, rather than the
+     * {@code O(n log n)} of adding them one at a time and then removing
+     * them.
+     *
+     * @param elements the elements for the queue
+     * @return a queue containing the elements
+     * @throws NullPointerException if elements is null or contains null
+     */
+    public static <E extends Comparable<? super E>> PriorityQueue<E> from(
+            Vector<? extends E> elements) {
+
+        return PriorityQueueImpl.<E>empty().addAll(elements);
+    }
+
+    /**
+     * Returns a queue containing the elements of the given vector, ordered
+     * by the given comparator. Takes linear time.
+     *
+     * @param comparator the comparator to order elements with
+     * @param elements the elements for the queue
+     * @return a queue containing the elements
+     * @throws NullPointerException if comparator or elements is null, or
+     *         elements contains null
+     */
+    public static <E> PriorityQueue<E> from(
+            Comparator<? super E> comparator,
+            Vector<? extends E> elements) {
+
+        return PriorityQueueImpl.<E>empty(comparator).addAll(elements);
+    }
+
+    /**
+     * Returns the comparator used to order the elements in this queue. For a
+     * queue ordered by the natural ordering of its elements, this is
+     * {@link Comparator#naturalOrder()}.
+     *
+     * @return the comparator used to order the elements in this queue
+     */
+    Comparator<? super E> comparator();
+
+    /**
+     * Peeks at the lowest element in this queue, in constant time. If more
+     * than one element is lowest, returns one of them.
+     *
+     * @return the lowest element in this queue
+     * @throws java.util.NoSuchElementException if the queue is empty
+     * @see java.util.Queue#element()
+     */
+    E peek();
+
+    /**
+     * "Adds" an element to this queue, returning a new queue with the
+     * element added, in constant time.
+     *
+     * @throws NullPointerException if {@code e} is null
+     */
+    @Override
+    PriorityQueue<E> add(E e);
+
+    /**
+     * "Adds" all of the given elements to this queue, returning a new queue
+     * with the elements added, in time linear in the number of elements
+     * added.
+     *
+     * @throws NullPointerException if {@code c} is null or contains null
+     */
+    @Override
+    PriorityQueue<E> addAll(java.util.Collection<? extends E> c);
+
+    /**
+     * "Adds" all of the given elements to this queue, returning a new queue
+     * with the elements added, in time linear in the number of elements
+     * added.
+     *
+     * @throws NullPointerException if {@code c} is null or contains null
+     */
+    @Override
+    PriorityQueue<E> addAll(Collection<? extends E> c);
+
+    /**
+     * "Melds" the given queue with this one, returning a new queue
+     * containing the elements of both. Takes constant time if the given
+     * queue is ordered by an equal comparator; otherwise its elements are
+     * added as if by {@link #addAll(Collection)}.
+     *
+     * @param other the queue to meld with this one
+     * @return a new queue containing the elements of both queues
+     * @throws NullPointerException if other is null
+     */
+    PriorityQueue<E> meld(PriorityQueue<? extends E> other);
+
+    /**
+     * "Removes" the lowest element from this queue (the one returned by
+     * {@link #peek()}), returning a new queue containing the remaining
+     * elements.
+     *
+     * @return a new queue with the lowest element removed
+     * @throws java.util.NoSuchElementException if the queue is empty
+     */
+    PriorityQueue<E> remove();
+}
@@ -0,0 +1,393 @@
+package io.coronet.pico;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A persistent priority queue based on a pairing heap, as described in
+ * Fredman, Sedgewick, Sleator and Tarjan's "The Pairing Heap: A New Form of
+ * Self-Adjusting Heap". The heap is a multi-way tree with the lowest element
+ * at its root and every element no lower than its parent, stored as
+ * left-child/right-sibling nodes.
+ * <p>
+ * Peeking is a read of the root. Adding and melding link two trees by making
+ * the root with the higher element the first child of the other, which
+ * takes constant time. Removing the lowest element re-links the root's
+ * children in two passes - first linking adjacent pairs left to right, then
+ * linking the results right to left - which takes amortized logarithmic
+ * time. As with {@link QueueImpl}, the amortized bound holds for queues used
+ * in a single-threaded, "linear" fashion; repeatedly removing from the
+ * <em>same</em> version of a queue repeats the work.
+ * <p>
+ * Building a queue from many elements at once links them pairwise in
+ * rounds, like a tournament, which takes linear time and leaves a shallow,
+ * balanced tree.
+ */
+final class PriorityQueueImpl<E>
+        extends AbstractCollection<E, PriorityQueueImpl<E>>
+        implements PriorityQueue<E> {
+
+    private static final PriorityQueueImpl<Object> EMPTY =
+            new PriorityQueueImpl<>(SortedMapImpl.natural(), null, 0);
+
+    /**
+     * @return the empty queue, ordered by the natural ordering of its
+     *         elements
+     */
+    public static <E> PriorityQueueImpl<E> empty() {
+        @SuppressWarnings("unchecked")
+        PriorityQueueImpl<E> cast = (PriorityQueueImpl<E>) EMPTY;
+        return cast;
+    }
+
+    /**
+     * @param comparator the comparator to order elements with
+     * @return the empty queue, ordered by the given comparator
+     */
+    public static <E> PriorityQueueImpl<E> empty(
+            Comparator<? super E> comparator) {
+
+        if (comparator == null) {
+            throw new NullPointerException("comparator");
+        }
+        if (comparator == SortedMapImpl.natural()) {
+            return empty();
+        }
+        return new PriorityQueueImpl<>(comparator, null, 0);
+    }
+
+    private final Comparator<? super E> comparator;
+    private final Node<E> root;
+    private final int size;
+
+    /**
+     * @param comparator the comparator to order elements with
+     * @param root the root of the heap, or null if this queue is empty
+     * @param size the number of elements in the heap
+     */
+    private PriorityQueueImpl(
+            Comparator<? super E> comparator,
+            Node<E> root,
+            int size) {
+
+        this.comparator = comparator;
+        this.root = root;
+        this.size = size;
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public E peek() {
+        if (root == null) {
+            throw new NoSuchElementException();
+        }
+        return root.element;
+    }
+
+    @Override
+    public PriorityQueueImpl<E> add(E e) {
+        if (e == null) {
+            throw new NullPointerException("e");
+        }
+        if (size == Integer.MAX_VALUE) {
+            // Can't grow the underlying data structure any more.
+            throw new OutOfMemoryError();
+        }
+
+        Node<E> node = new Node<>(e, null, null);
+        if (root == null) {
+            return new PriorityQueueImpl<>(comparator, node, 1);
+        }
+
+        return new PriorityQueueImpl<>(
+                comparator,
+                link(comparator, root, node),
+                size + 1);
+    }
+
+    @Override
+    public PriorityQueueImpl<E> addAll(java.util.Collection<? extends E> c) {
+        if (c.isEmpty()) {
+            return this;
+        }
+        if (c.size() > Integer.MAX_VALUE - size) {
+            // Can't grow the underlying data structure any more.
+            throw new OutOfMemoryError();
+        }
+        return meld(heapify(comparator, c, c.size()), c.size());
+    }
+
+    @Override
+    public PriorityQueueImpl<E> addAll(Collection<? extends E> c) {
+        if (c.isEmpty()) {
+            return this;
+        }
+        if (c.size() > Integer.MAX_VALUE - size) {
+            // Can't grow the underlying data structure any more.
+            throw new OutOfMemoryError();
+        }
+        return meld(heapify(comparator, c, c.size()), c.size());
+    }
+
+    @Override
+    public PriorityQueueImpl<E> meld(PriorityQueue<? extends E> other) {
+        if (other.isEmpty()) {
+            return this;
+        }
+        if (!(other instanceof PriorityQueueImpl<?>)
+                || !comparator.equals(other.comparator())) {
+
+            return addAll(other);
+        }
+
+        if (root == null) {
+            @SuppressWarnings("unchecked")
+            PriorityQueueImpl<E> cast = (PriorityQueueImpl<E>) other;
+            return cast;
+        }
+        if (other.size() > Integer.MAX_VALUE - size) {
+            // Can't grow the underlying data structure any more.
+            throw new OutOfMemoryError();
+        }
+
+        // Nodes are immutable, so a heap of a subtype can safely be linked
+        // in as a heap of E.
+        @SuppressWarnings("unchecked")
+        Node<E> theirs = ((PriorityQueueImpl<E>) other).root;
+        return meld(theirs, other.size());
+    }
+
+    /**
+     * Links a (non-null) heap into this queue.
+     *
+     * @param heap the heap to meld
+     * @param count the number of elements in the heap
+     * @return the new queue
+     */
+    private PriorityQueueImpl<E> meld(Node<E> heap, int count) {
+        if (root == null) {
+            return new PriorityQueueImpl<>(comparator, heap, count);
+        }
+
+        return new PriorityQueueImpl<>(
+                comparator,
+                link(comparator, root, heap),
+                size + count);
+    }
+
+    @Override
+    public PriorityQueueImpl<E> remove() {
+        if (root == null) {
+            throw new NoSuchElementException();
+        }
+        if (size == 1) {
+            return empty(comparator);
+        }
+
+        return new PriorityQueueImpl<>(
+                comparator,
+                mergePairs(comparator, root.child),
+                size - 1);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+
+            // Each node on the stack stands for itself, its children and
+            // its later siblings.
+            private Node<?>[] stack = new Node<?>[16];
+            private int depth;
+
+            {
+                if (root != null) {
+                    stack[depth++] = root;
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return (depth > 0);
+            }
+
+            @Override
+            public E next() {
+                if (depth == 0) {
+                    throw new NoSuchElementException();
+                }
+
+                @SuppressWarnings("unchecked")
+                Node<E> node = (Node<E>) stack[--depth];
+                stack[depth] = null;
+
+                if (node.next != null) {
+                    push(node.next);
+                }
+                if (node.child != null) {
+                    push(node.child);
+                }
+
+                return node.element;
+            }
+
+            private void push(Node<E> node) {
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                }
+                stack[depth++] = node;
+            }
+        };
+    }
+
+    /**
+     * Links two heaps, making the root with the higher element the first
+     * child of the other. Siblings of either root are ignored.
+     *
+     * @param comparator the comparator ordering the heaps
+     * @param a a heap
+     * @param b another heap
+     * @return the root of the linked heap
+     */
+    private static <E> Node<E> link(
+            Comparator<? super E> comparator,
+            Node<E> a,
+            Node<E> b) {
+
+        if (comparator.compare(b.element, a.element) < 0) {
+            Node<E> tmp = a;
+            a = b;
+            b = tmp;
+        }
+
+        return new Node<>(
+                a.element,
+                new Node<>(b.element, b.child, a.child),
+                null);
+    }
+
+    /**
+     * Links a list of sibling heaps into one, in two passes: adjacent pairs
+     * left to right, then the results right to left.
+     *
+     * @param comparator the comparator ordering the heaps
+     * @param first the first of the siblings, or null
+     * @return the root of the linked heap, or null if there were no
+     *         siblings
+     */
+    private static <E> Node<E> mergePairs(
+            Comparator<? super E> comparator,
+            Node<E> first) {
+
+        if (first == null) {
+            return null;
+        }
+        if (first.next == null) {
+            return first;
+        }
+
+        Node<?>[] pairs = new Node<?>[16];
+        int count = 0;
+
+        for (Node<E> node = first; node != null; ) {
+            Node<E> sibling = node.next;
+            if (count == pairs.length) {
+                pairs = Arrays.copyOf(pairs, count * 2);
+            }
+
+            if (sibling == null) {
+                // An odd one out, which is the last sibling anyway.
+                pairs[count++] = node;
+                break;
+            }
+
+            pairs[count++] = link(comparator, node, sibling);
+            node = sibling.next;
+        }
+
+        @SuppressWarnings("unchecked")
+        Node<E> result = (Node<E>) pairs[--count];
+        while (count > 0) {
+            @SuppressWarnings("unchecked")
+            Node<E> pair = (Node<E>) pairs[--count];
+            result = link(comparator, pair, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Builds a heap from the given elements by linking them pairwise in
+     * rounds.
+     *
+     * @param comparator the comparator ordering the heap
+     * @param elements the elements, which must not be empty
+     * @param count the number of elements
+     * @return the root of the heap
+     */
+    private static <E> Node<E> heapify(
+            Comparator<? super E> comparator,
+            Iterable<? extends E> elements,
+            int count) {
+
+        Node<?>[] heaps = new Node<?>[count];
+        int i = 0;
+        for (E e : elements) {
+            if (e == null) {
+                throw new NullPointerException("e");
+            }
+            heaps[i++] = new Node<>(e, null, null);
+        }
+
+        while (count > 1) {
+            int half = 0;
+            for (int j = 0; j + 1 < count; j += 2) {
+                @SuppressWarnings("unchecked")
+                Node<E> a = (Node<E>) heaps[j];
+                @SuppressWarnings("unchecked")
+                Node<E> b = (Node<E>) heaps[j + 1];
+                heaps[half++] = link(comparator, a, b);
+            }
+            if ((count & 1) != 0) {
+                heaps[half++] = heaps[count - 1];
+            }
+            count = half;
+        }
+
+        @SuppressWarnings("unchecked")
+        Node<E> result = (Node<E>) heaps[0];
+        return result;
+    }
+
+    /**
+     * A node in the heap: an element, the first of its children, and its
+     * next sibling.
+     */
+    static final class Node<E> {
+
+        final E element;
+        final Node<E> child;
+        final Node<E> next;
+
+        /**
+         * @param element the element
+         * @param child the first child, or null
+         * @param next the next sibling, or null
+         */
+        public Node(E element, Node<E> child, Node<E> next) {
+            this.element = element;
+            this.child = child;
+            this.next = next;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package io.coronet.pico;
+
+/**
+ * A persistent first-in-first-out queue. Elements are "added" at the back
+ * of the queue and "removed" from the front, with each operation returning a
+ * new queue.
+ */
+public interface Queue<E> extends Collection<E> {
+
+    /**
+     * Returns the empty queue.
+     *
+     * @return the empty queue
+     */
+    public static <E> Queue<E> empty() {
+        return QueueImpl.empty();
+    }
+
+    /**
+     * Peeks at the element at the front of this queue - the one that has
+     * been in the queue the longest.
+     *
+     * @return the element at the front of the queue
+     * @throws java.util.NoSuchElementException if the queue is empty
+     * @see java.util.Queue#element()
+     */
+    E peek();
+
+    /**
+     * "Enqueues" an element at the back of this queue, returning a new queue
+     * with the element added.
+     *
+     * @param e the element to enqueue
+     * @return a new queue with the element at the back
+     * @see #add(Object)
+     */
+    default Queue<E> enqueue(E e) {
+        return add(e);
+    }
+
+    /**
+     * "Adds" an element to the back of this queue, returning a new queue
+     * with the element added.
+     */
+    @Override
+    Queue<E> add(E e);
+
+    /**
+     * "Adds" all of the given elements, in iteration order, to the back of
+     * this queue, returning a new queue with the elements added. The first
+     * element returned by the collection's iterator will be the first of
+     * them to be dequeued.
+     */
+    @Override
+    Queue<E> addAll(java.util.Collection<? extends E> c);
+
+    /**
+     * "Adds" all of the given elements, in iteration order, to the back of
+     * this queue, returning a new queue with the elements added. The first
+     * element returned by the collection's iterator will be the first of
+     * them to be dequeued.
+     */
+    @Override
+    Queue<E> addAll(Collection<? extends E> c);
+
+    /**
+     * "Dequeues" the element at the front of this queue, returning a new
+     * queue with the element removed.
+     *
+     * @return a new queue with the front element removed
+     * @throws java.util.NoSuchElementException if the queue is empty
+     * @see #remove()
+     */
+    default Queue<E> dequeue() {
+        return remove();
+    }
+
+    /**
+     * "Removes" the element at the front of this queue, returning a new
+     * queue containing the remaining elements.
+     *
+     * @return a new queue with the front element removed
+     * @throws java.util.NoSuchElementException if the queue is empty
+     */
+    Queue<E> remove();
+}
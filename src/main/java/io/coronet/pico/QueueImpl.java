@@ -0,0 +1,167 @@
+package io.coronet.pico;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A persistent FIFO queue, backed by a {@link VectorImpl}. Elements are
+ * enqueued by appending them to the vector, and dequeued by dropping its
+ * first element.
+ * <p>
+ * Appending writes into the vector's tail array, which is shared between
+ * versions and filled in place, and only touches the tree once every 32
+ * elements. Dropping the first element shrinks the vector's head array if
+ * there is one, and otherwise slices the tree, copying the single path down
+ * to the new first element and nulling out the dropped slots so the
+ * dequeued elements can be collected. Peeking is an indexed read. All three
+ * are O(log n) in the worst case - effectively constant, since the tree is
+ * never more than seven levels deep - and unlike a batched queue, none of
+ * these bounds depend on the queue being used in a single-threaded,
+ * "linear" fashion.
+ */
+final class QueueImpl<E> extends AbstractCollection<E, QueueImpl<E>>
+        implements Queue<E> {
+
+    private static final QueueImpl<Object> EMPTY =
+            new QueueImpl<>(VectorImpl.empty());
+
+    /**
+     * @return the empty queue
+     */
+    public static <T> QueueImpl<T> empty() {
+        @SuppressWarnings("unchecked")
+        QueueImpl<T> cast = (QueueImpl<T>) EMPTY;
+        return cast;
+    }
+
+    private final VectorImpl<E> vector;
+
+    /**
+     * @param vector the elements of the queue, front to back
+     */
+    private QueueImpl(VectorImpl<E> vector) {
+        this.vector = vector;
+    }
+
+    /**
+     * Wraps the given vector, reusing this queue if it's the same one.
+     *
+     * @param newVector the elements of the new queue
+     * @return a queue containing the given elements
+     */
+    private QueueImpl<E> with(VectorImpl<E> newVector) {
+        if (newVector == vector) {
+            return this;
+        }
+        if (newVector.isEmpty()) {
+            return empty();
+        }
+        return new QueueImpl<>(newVector);
+    }
+
+    @Override
+    public int size() {
+        return vector.size();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return vector.contains(o);
+    }
+
+    @Override
+    public E peek() {
+        if (vector.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return vector.get(0);
+    }
+
+    @Override
+    public QueueImpl<E> add(E e) {
+        return with(vector.add(e));
+    }
+
+    @Override
+    public QueueImpl<E> addAll(java.util.Collection<? extends E> c) {
+        return with(vector.addAll(c));
+    }
+
+    @Override
+    public QueueImpl<E> addAll(Collection<? extends E> c) {
+        return with(vector.addAll(c));
+    }
+
+    @Override
+    public QueueImpl<E> remove() {
+        int size = vector.size();
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return with(vector.last(size - 1));
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return vector.iterator();
+    }
+
+    @Override
+    public void forEach(Consumer<? super E> action) {
+        vector.forEach(action);
+    }
+
+    @Override
+    public Object[] toArray() {
+        return vector.toArray();
+    }
+
+    @Override
+    public Spliterator<E> spliterator() {
+        return vector.spliterator();
+    }
+
+    @Override
+    public int hashCode() {
+        return vector.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof QueueImpl<?>) {
+            return vector.equals(((QueueImpl<?>) obj).vector);
+        }
+        if (!(obj instanceof Queue<?>)) {
+            return false;
+        }
+
+        Queue<?> that = (Queue<?>) obj;
+        if (this.size() != that.size()) {
+            return false;
+        }
+
+        Iterator<?> e1 = this.iterator();
+        Iterator<?> e2 = that.iterator();
+
+        while (e1.hasNext()) {
+            Object o1 = e1.next();
+            Object o2 = e2.next();
+            if (o1 == null) {
+                if (o2 != null) {
+                    return false;
+                }
+            } else {
+                if (!o1.equals(o2)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+}
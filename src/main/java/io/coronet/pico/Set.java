@@ -0,0 +1,168 @@
+package io.coronet.pico;
+
+import java.util.Spliterator;
+
+/**
+ * A persistent set. Similar to a {@link java.util.Set}, but modifications
+ * return a new set instead of mutating this one. Sets do not permit null
+ * elements.
+ */
+public interface Set<E> extends Collection<E> {
+
+    /**
+     * Returns the empty set.
+     *
+     * @return the empty set
+     */
+    public static <E> Set<E> empty() {
+        return SetImpl.empty();
+    }
+
+    /**
+     * Returns a new builder, initially empty, for efficiently constructing a
+     * set from a large number of elements.
+     *
+     * @return a new, empty builder
+     */
+    public static <E> Builder<E> builder() {
+        return SetImpl.<E>empty().toBuilder();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if {@code o} is null
+     */
+    @Override
+    boolean contains(Object o);
+
+    /**
+     * "Adds" an element to this set, returning a new set containing all the
+     * elements of this set and the additional element. If this set already
+     * contains an equal element, returns this set.
+     *
+     * @throws NullPointerException if {@code e} is null
+     */
+    @Override
+    Set<E> add(E e);
+
+    /**
+     * "Adds" all of the given elements to this set, returning the union of
+     * this set and the given collection.
+     *
+     * @throws NullPointerException if {@code c} is null or contains null
+     */
+    @Override
+    Set<E> addAll(java.util.Collection<? extends E> c);
+
+    /**
+     * "Adds" all of the given elements to this set, returning the union of
+     * this set and the given collection.
+     *
+     * @throws NullPointerException if {@code c} is null or contains null
+     */
+    @Override
+    Set<E> addAll(Collection<? extends E> c);
+
+    /**
+     * "Removes" an element from this set, returning a new set containing all
+     * the elements of this set except the given one. If this set doesn't
+     * contain the element, returns this set.
+     *
+     * @param o the element to remove
+     * @return a new set without the given element
+     * @throws NullPointerException if {@code o} is null
+     * @see java.util.Set#remove(Object)
+     */
+    Set<E> remove(Object o);
+
+    /**
+     * Returns a new builder initially containing the elements of this set.
+     * Batches of adds and removes through a builder are significantly
+     * cheaper than calling {@link #add(Object)} and {@link #remove(Object)}
+     * repeatedly, since the builder modifies the nodes it has allocated in
+     * place rather than copying them every time. This set is unaffected by
+     * any changes made through the builder.
+     *
+     * @return a new builder initialized with the contents of this set
+     */
+    Builder<E> toBuilder();
+
+    @Override
+    java.util.Set<E> asJavaCollection();
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The {@code Spliterator} will additionally be
+     * {@linkplain Spliterator#DISTINCT distinct} and
+     * {@linkplain Spliterator#NONNULL non-null}.
+     */
+    @Override
+    Spliterator<E> spliterator();
+
+    /**
+     * A transient, mutable builder for a {@code Set}. Nodes allocated by the
+     * builder are modified in place; calling {@link #build()} freezes the
+     * current contents into an immutable set in constant time. The builder
+     * may continue to be used after {@code build()} without affecting sets
+     * it has already built.
+     * <p>
+     * Builders are <em>not</em> thread-safe.
+     *
+     * @param <E> the type of elements in the set
+     */
+    public static interface Builder<E> {
+
+        /**
+         * Returns the number of elements currently in this builder.
+         *
+         * @return the number of elements in this builder
+         */
+        int size();
+
+        /**
+         * Returns true if this builder contains the given element.
+         *
+         * @param o the element to look for
+         * @return true if the element is present
+         * @throws NullPointerException if {@code o} is null
+         */
+        boolean contains(Object o);
+
+        /**
+         * Adds an element, if it isn't already present.
+         *
+         * @param e the element to add
+         * @return this builder
+         * @throws NullPointerException if {@code e} is null
+         */
+        Builder<E> add(E e);
+
+        /**
+         * Adds all of the given elements.
+         *
+         * @param c the elements to add
+         * @return this builder
+         * @throws NullPointerException if {@code c} is null or contains null
+         */
+        Builder<E> addAll(Iterable<? extends E> c);
+
+        /**
+         * Removes an element, if it is present.
+         *
+         * @param o the element to remove
+         * @return this builder
+         * @throws NullPointerException if {@code o} is null
+         */
+        Builder<E> remove(Object o);
+
+        /**
+         * Freezes the current contents of this builder into an immutable
+         * set.
+         *
+         * @return a set containing the elements in this builder
+         */
+        Set<E> build();
+    }
+}
@@ -0,0 +1,368 @@
+package io.coronet.pico;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import io.coronet.pico.MapImpl.BitmapNode;
+import io.coronet.pico.MapImpl.Node;
+import io.coronet.pico.MapImpl.NodeIterator;
+import io.coronet.pico.MapImpl.NodeSpliterator;
+import io.coronet.pico.MapImpl.SizeChange;
+
+/**
+ * An implementation of the {@code Set} interface using the same CHAMP trie
+ * nodes as {@link MapImpl}. Each element is stored as a key mapped to
+ * itself, with key and value sharing a single array slot, so a set costs no
+ * more than the bare elements plus the trie's bookkeeping.
+ */
+final class SetImpl<E> extends AbstractCollection<E, SetImpl<E>>
+        implements Set<E> {
+
+    private static final SetImpl<Object> EMPTY = new SetImpl<>(0, null);
+
+    /**
+     * @return the empty set
+     */
+    public static <E> SetImpl<E> empty() {
+        @SuppressWarnings("unchecked")
+        SetImpl<E> cast = (SetImpl<E>) EMPTY;
+        return cast;
+    }
+
+    private final int size;
+    private final Node<E, E> root;
+
+    private SetImpl(int size, Node<E, E> root) {
+        this.size = size;
+        this.root = root;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the root of the trie, or null if this set is empty
+     */
+    Node<E, E> getRoot() {
+        return root;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (o == null) {
+            throw new NullPointerException("o");
+        }
+        if (root == null) {
+            return false;
+        }
+
+        // Elements are never null, so a null "value" means not found.
+        return (root.get(o.hashCode(), 0, o, null) != null);
+    }
+
+    @Override
+    public SetImpl<E> add(E e) {
+        if (e == null) {
+            throw new NullPointerException("e");
+        }
+
+        Node<E, E> localRoot = root;
+        if (localRoot == null) {
+            localRoot = BitmapNode.empty(1);
+        }
+
+        SizeChange change = new SizeChange();
+        Node<E, E> newRoot =
+                localRoot.put(null, e.hashCode(), 0, e, e, change);
+
+        if (localRoot == newRoot) {
+            return this;
+        }
+
+        return new SetImpl<>(size + change.delta, newRoot);
+    }
+
+    @Override
+    public SetImpl<E> addAll(java.util.Collection<? extends E> c) {
+        if (c.isEmpty()) {
+            return this;
+        }
+        return toBuilder().addAll(c).build();
+    }
+
+    @Override
+    public SetImpl<E> addAll(Collection<? extends E> c) {
+        if (c.isEmpty()) {
+            return this;
+        }
+        return toBuilder().addAll(c).build();
+    }
+
+    @Override
+    public SetImpl<E> remove(Object o) {
+        if (o == null) {
+            throw new NullPointerException("o");
+        }
+
+        if (root == null) {
+            // We're already the empty set.
+            return this;
+        }
+
+        SizeChange change = new SizeChange();
+        Node<E, E> newRoot = root.remove(null, o.hashCode(), 0, o, change);
+
+        if (root == newRoot) {
+            // No change.
+            return this;
+        }
+        if (size == 1) {
+            return empty();
+        }
+
+        return new SetImpl<>(size + change.delta, newRoot);
+    }
+
+    @Override
+    public Builder<E> toBuilder() {
+        return new Builder<>(this);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        if (root == null) {
+            return Collections.emptyIterator();
+        }
+        return new NodeIterator<>(root, Node::getKey);
+    }
+
+    @Override
+    public void forEach(Consumer<? super E> action) {
+        if (root != null) {
+            root.forEach(0, root.slotCount(), Node::getKey, action);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The {@code Spliterator} splits the trie in the same way as
+     * {@link MapImpl#spliterator()}: only the unsplit {@code Spliterator} is
+     * {@linkplain Spliterator#SIZED sized}.
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        if (root == null) {
+            return Spliterators.emptySpliterator();
+        }
+        return new NodeSpliterator<>(
+                Node::getKey,
+                root,
+                0,
+                root.slotCount(),
+                size,
+                true);
+    }
+
+    @Override
+    public java.util.Set<E> asJavaCollection() {
+        return new SetAdapter<>(this);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (E e : this) {
+            hash += e.hashCode();
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Set<?>)) {
+            return false;
+        }
+
+        Set<?> that = (Set<?>) obj;
+        if (this.size() != that.size()) {
+            return false;
+        }
+
+        try {
+            return containsAll(that);
+        } catch (ClassCastException unused) {
+            return false;
+        }
+    }
+
+    static final class SetAdapter<E>
+            extends java.util.AbstractSet<E> {
+
+        private final Set<E> wrapped;
+
+        public SetAdapter(Set<E> wrapped) {
+            this.wrapped = wrapped;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return wrapped.isEmpty();
+        }
+
+        @Override
+        public int size() {
+            return wrapped.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return wrapped.contains(o);
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return wrapped.iterator();
+        }
+
+        @Override
+        public void forEach(Consumer<? super E> action) {
+            wrapped.forEach(action);
+        }
+
+        @Override
+        public Object[] toArray() {
+            return wrapped.toArray();
+        }
+
+        @Override
+        public Spliterator<E> spliterator() {
+            return wrapped.spliterator();
+        }
+
+        @Override
+        public Stream<E> stream() {
+            return wrapped.stream();
+        }
+
+        @Override
+        public Stream<E> parallelStream() {
+            return wrapped.parallelStream();
+        }
+
+        @Override
+        public String toString() {
+            return wrapped.toString();
+        }
+    }
+
+    /**
+     * A transient builder for a {@code SetImpl}; see {@link MapImpl.Builder}.
+     */
+    static final class Builder<E> implements Set.Builder<E> {
+
+        private final SizeChange change = new SizeChange();
+
+        private Object edit = new Object();
+        private SetImpl<E> built;
+        private int size;
+        private Node<E, E> root;
+
+        /**
+         * @param set the set to start from
+         */
+        public Builder(SetImpl<E> set) {
+            this.built = set;
+            this.size = set.size;
+            this.root = set.root;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (o == null) {
+                throw new NullPointerException("o");
+            }
+            if (root == null) {
+                return false;
+            }
+            return (root.get(o.hashCode(), 0, o, null) != null);
+        }
+
+        @Override
+        public Builder<E> add(E e) {
+            if (e == null) {
+                throw new NullPointerException("e");
+            }
+
+            Node<E, E> localRoot = root;
+            if (localRoot == null) {
+                localRoot = BitmapNode.empty(1);
+            }
+
+            change.reset();
+            root = localRoot.put(edit, e.hashCode(), 0, e, e, change);
+
+            size += change.delta;
+            return this;
+        }
+
+        @Override
+        public Builder<E> addAll(Iterable<? extends E> c) {
+            for (E e : c) {
+                add(e);
+            }
+            return this;
+        }
+
+        @Override
+        public Builder<E> remove(Object o) {
+            if (o == null) {
+                throw new NullPointerException("o");
+            }
+            if (root == null) {
+                return this;
+            }
+
+            change.reset();
+            root = root.remove(edit, o.hashCode(), 0, o, change);
+
+            size += change.delta;
+            return this;
+        }
+
+        @Override
+        public SetImpl<E> build() {
+            if (root == built.root) {
+                // Nothing has changed since we were created or last built.
+                return built;
+            }
+
+            // Nodes reachable from the built set are now shared and must be
+            // copied before they're modified again.
+            edit = new Object();
+
+            if (size == 0) {
+                root = null;
+                built = empty();
+            } else {
+                built = new SetImpl<>(size, root);
+            }
+
+            return built;
+        }
+    }
+}
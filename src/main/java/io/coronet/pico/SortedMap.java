@@ -0,0 +1,366 @@
+package io.coronet.pico;
+
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A persistent map whose entries are kept in order of their keys, either by
+ * their natural ordering or by a {@code Comparator}. Similar to a
+ * {@link java.util.NavigableMap}, but modifications return a new map instead
+ * of mutating this one, and the {@linkplain #headMap(Object) head},
+ * {@linkplain #tailMap(Object) tail} and {@linkplain #subMap(Object, Object)
+ * sub} maps are themselves independent persistent maps rather than views.
+ * <p>
+ * Iteration, {@link #spliterator()} and streams visit entries in ascending
+ * order of keys.
+ */
+public interface SortedMap<K, V> extends Map<K, V> {
+
+    /**
+     * Returns the empty map, ordered by the natural ordering of its keys.
+     *
+     * @return the empty map
+     */
+    public static <K extends Comparable<? super K>, V>
+            SortedMap<K, V> empty() {
+
+        return SortedMapImpl.empty();
+    }
+
+    /**
+     * Returns the empty map, ordered by the given comparator.
+     *
+     * @param comparator the comparator to order keys with
+     * @return the empty map
+     * @throws NullPointerException if comparator is null
+     */
+    public static <K, V> SortedMap<K, V> empty(
+            Comparator<? super K> comparator) {
+
+        return SortedMapImpl.empty(comparator);
+    }
+
+    /**
+     * Returns a new builder, initially empty, for a map ordered by the
+     * natural ordering of its keys.
+     *
+     * @return a new, empty builder
+     */
+    public static <K extends Comparable<? super K>, V>
+            Builder<K, V> builder() {
+
+        return SortedMapImpl.<K, V>empty().toBuilder();
+    }
+
+    /**
+     * Returns a new builder, initially empty, for a map ordered by the given
+     * comparator.
+     *
+     * @param comparator the comparator to order keys with
+     * @return a new, empty builder
+     * @throws NullPointerException if comparator is null
+     */
+    public static <K, V> Builder<K, V> builder(
+            Comparator<? super K> comparator) {
+
+        return SortedMapImpl.<K, V>empty(comparator).toBuilder();
+    }
+
+    /**
+     * Returns the comparator used to order the keys in this map. For a map
+     * ordered by the natural ordering of its keys, this is
+     * {@link Comparator#naturalOrder()}.
+     *
+     * @return the comparator used to order the keys in this map
+     */
+    Comparator<? super K> comparator();
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if key is null
+     */
+    @Override
+    SortedMap<K, V> put(K key, V value);
+
+    @Override
+    SortedMap<K, V> putAll(Map<? extends K, ? extends V> map);
+
+    @Override
+    SortedMap<K, V> putAll(java.util.Map<? extends K, ? extends V> map);
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if key is null
+     */
+    @Override
+    SortedMap<K, V> remove(Object key);
+
+    @Override
+    SortedMap<K, V> compute(
+            K key,
+            BiFunction<? super K, ? super V, ? extends V> function);
+
+    @Override
+    SortedMap<K, V> computeIfAbsent(
+            K key,
+            Function<? super K, ? extends V> function);
+
+    @Override
+    SortedMap<K, V> computeIfPresent(
+            K key,
+            BiFunction<? super K, ? super V, ? extends V> function);
+
+    @Override
+    SortedMap<K, V> merge(
+            K key,
+            V value,
+            BiFunction<? super V, ? super V, ? extends V> function);
+
+    @Override
+    SortedMap<K, V> putIfAbsent(K key, V value);
+
+    @Override
+    SortedMap<K, V> merge(
+            Map<? extends K, ? extends V> other,
+            BiFunction<? super V, ? super V, ? extends V> function);
+
+    @Override
+    SortedMap<K, V> intersect(
+            Map<? extends K, ? extends V> other,
+            BiFunction<? super V, ? super V, ? extends V> function);
+
+    @Override
+    SortedMap<K, V> difference(Map<?, ?> other);
+
+    @Override
+    SortedMap<K, V> retainKeys(Set<?> keys);
+
+    @Override
+    Builder<K, V> toBuilder();
+
+    /**
+     * Returns the entry with the lowest key in this map, in constant time.
+     *
+     * @return the entry with the lowest key, or null if this map is empty
+     */
+    Entry<K, V> firstEntry();
+
+    /**
+     * Returns the entry with the highest key in this map, in constant time.
+     *
+     * @return the entry with the highest key, or null if this map is empty
+     */
+    Entry<K, V> lastEntry();
+
+    /**
+     * Returns the lowest key in this map, in constant time.
+     *
+     * @return the lowest key in this map
+     * @throws NoSuchElementException if this map is empty
+     */
+    K firstKey();
+
+    /**
+     * Returns the highest key in this map, in constant time.
+     *
+     * @return the highest key in this map
+     * @throws NoSuchElementException if this map is empty
+     */
+    K lastKey();
+
+    /**
+     * Returns the entry with the highest key less than or equal to the given
+     * key.
+     *
+     * @param key the key to search for
+     * @return the matching entry, or null if there is none
+     * @throws NullPointerException if key is null
+     */
+    Entry<K, V> floorEntry(K key);
+
+    /**
+     * Returns the entry with the lowest key greater than or equal to the
+     * given key.
+     *
+     * @param key the key to search for
+     * @return the matching entry, or null if there is none
+     * @throws NullPointerException if key is null
+     */
+    Entry<K, V> ceilingEntry(K key);
+
+    /**
+     * Returns the entry with the highest key strictly less than the given
+     * key.
+     *
+     * @param key the key to search for
+     * @return the matching entry, or null if there is none
+     * @throws NullPointerException if key is null
+     */
+    Entry<K, V> lowerEntry(K key);
+
+    /**
+     * Returns the entry with the lowest key strictly greater than the given
+     * key.
+     *
+     * @param key the key to search for
+     * @return the matching entry, or null if there is none
+     * @throws NullPointerException if key is null
+     */
+    Entry<K, V> higherEntry(K key);
+
+    /**
+     * Returns the highest key less than or equal to the given key.
+     *
+     * @param key the key to search for
+     * @return the matching key, or null if there is none
+     * @throws NullPointerException if key is null
+     */
+    K floorKey(K key);
+
+    /**
+     * Returns the lowest key greater than or equal to the given key.
+     *
+     * @param key the key to search for
+     * @return the matching key, or null if there is none
+     * @throws NullPointerException if key is null
+     */
+    K ceilingKey(K key);
+
+    /**
+     * Returns the highest key strictly less than the given key.
+     *
+     * @param key the key to search for
+     * @return the matching key, or null if there is none
+     * @throws NullPointerException if key is null
+     */
+    K lowerKey(K key);
+
+    /**
+     * Returns the lowest key strictly greater than the given key.
+     *
+     * @param key the key to search for
+     * @return the matching key, or null if there is none
+     * @throws NullPointerException if key is null
+     */
+    K higherKey(K key);
+
+    /**
+     * Creates a new map containing the mappings in this map whose keys are
+     * less than (or equal to, if {@code inclusive}) the given key, in
+     * logarithmic time.
+     *
+     * @param toKey the upper bound on keys
+     * @param inclusive whether to include a mapping for {@code toKey}
+     * @return the new map
+     * @throws NullPointerException if toKey is null
+     * @see java.util.NavigableMap#headMap(Object, boolean)
+     */
+    SortedMap<K, V> headMap(K toKey, boolean inclusive);
+
+    /**
+     * Creates a new map containing the mappings in this map whose keys are
+     * strictly less than the given key, in logarithmic time.
+     *
+     * @param toKey the (exclusive) upper bound on keys
+     * @return the new map
+     * @throws NullPointerException if toKey is null
+     * @see java.util.SortedMap#headMap(Object)
+     */
+    default SortedMap<K, V> headMap(K toKey) {
+        return headMap(toKey, false);
+    }
+
+    /**
+     * Creates a new map containing the mappings in this map whose keys are
+     * greater than (or equal to, if {@code inclusive}) the given key, in
+     * logarithmic time.
+     *
+     * @param fromKey the lower bound on keys
+     * @param inclusive whether to include a mapping for {@code fromKey}
+     * @return the new map
+     * @throws NullPointerException if fromKey is null
+     * @see java.util.NavigableMap#tailMap(Object, boolean)
+     */
+    SortedMap<K, V> tailMap(K fromKey, boolean inclusive);
+
+    /**
+     * Creates a new map containing the mappings in this map whose keys are
+     * greater than or equal to the given key, in logarithmic time.
+     *
+     * @param fromKey the (inclusive) lower bound on keys
+     * @return the new map
+     * @throws NullPointerException if fromKey is null
+     * @see java.util.SortedMap#tailMap(Object)
+     */
+    default SortedMap<K, V> tailMap(K fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    /**
+     * Creates a new map containing the mappings in this map whose keys lie
+     * between the given bounds, in logarithmic time.
+     *
+     * @param fromKey the lower bound on keys
+     * @param fromInclusive whether to include a mapping for {@code fromKey}
+     * @param toKey the upper bound on keys
+     * @param toInclusive whether to include a mapping for {@code toKey}
+     * @return the new map
+     * @throws NullPointerException if fromKey or toKey is null
+     * @throws IllegalArgumentException if fromKey is greater than toKey
+     * @see java.util.NavigableMap#subMap(Object, boolean, Object, boolean)
+     */
+    SortedMap<K, V> subMap(
+            K fromKey,
+            boolean fromInclusive,
+            K toKey,
+            boolean toInclusive);
+
+    /**
+     * Creates a new map containing the mappings in this map whose keys are
+     * greater than or equal to {@code fromKey} and strictly less than
+     * {@code toKey}, in logarithmic time.
+     *
+     * @param fromKey the (inclusive) lower bound on keys
+     * @param toKey the (exclusive) upper bound on keys
+     * @return the new map
+     * @throws NullPointerException if fromKey or toKey is null
+     * @throws IllegalArgumentException if fromKey is greater than toKey
+     * @see java.util.SortedMap#subMap(Object, Object)
+     */
+    default SortedMap<K, V> subMap(K fromKey, K toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    /**
+     * A builder for a {@code SortedMap}.
+     *
+     * @param <K> the type of keys in the map
+     * @param <V> the type of values in the map
+     */
+    public static interface Builder<K, V> extends Map.Builder<K, V> {
+
+        @Override
+        Builder<K, V> put(K key, V value);
+
+        @Override
+        Builder<K, V> putAll(Map<? extends K, ? extends V> map);
+
+        @Override
+        Builder<K, V> putAll(java.util.Map<? extends K, ? extends V> map);
+
+        @Override
+        Builder<K, V> remove(Object key);
+
+        @Override
+        Builder<K, V> compute(
+                K key,
+                BiFunction<? super K, ? super V, ? extends V> function);
+
+        @Override
+        SortedMap<K, V> build();
+    }
+}
@@ -0,0 +1,1545 @@
+package io.coronet.pico;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * An implementation of the {@code SortedMap} interface based on a
+ * weight-balanced binary search tree, as described in Adams' "Implementing
+ * Sets Efficiently in a Functional Language" (and used by Haskell's
+ * {@code Data.Map}). Each node records the size of its subtree, and the
+ * sizes of a node's two subtrees are kept within a constant factor of each
+ * other, so the height of the tree is logarithmic in its size.
+ * <p>
+ * Besides balancing, the subtree sizes let two trees be joined around a key
+ * in time logarithmic in their sizes; head, tail and sub maps are built by
+ * splitting the tree along the path to their bounds and joining the pieces
+ * back together, so they take logarithmic time and share everything off
+ * that path with this map. The sizes also let a {@code Spliterator} split
+ * by position, so parallel streams divide the map evenly.
+ * <p>
+ * The lowest and highest nodes are found when a map is created, which makes
+ * {@link #firstEntry()} and {@link #lastEntry()} constant-time.
+ */
+final class SortedMapImpl<K, V>
+        extends AbstractMap<K, V, SortedMapImpl<K, V>>
+        implements SortedMap<K, V> {
+
+    // Neither subtree of a node may be more than DELTA times the size of the
+    // other; when rebalancing, RATIO picks a single or double rotation.
+    // These are the values from Data.Map, which are proven to keep the tree
+    // balanced.
+    private static final int DELTA = 3;
+    private static final int RATIO = 2;
+
+    private static final SortedMapImpl<Object, Object> EMPTY =
+            new SortedMapImpl<>(natural(), null);
+
+    // Passed to and returned from update functions in place of a value
+    // when there is no mapping.
+    private static final Object NOT_FOUND = new Object();
+
+    /**
+     * @return the empty map, ordered by the natural ordering of its keys
+     */
+    public static <K, V> SortedMapImpl<K, V> empty() {
+        @SuppressWarnings("unchecked")
+        SortedMapImpl<K, V> cast = (SortedMapImpl<K, V>) EMPTY;
+        return cast;
+    }
+
+    /**
+     * @param comparator the comparator to order keys with
+     * @return the empty map, ordered by the given comparator
+     */
+    public static <K, V> SortedMapImpl<K, V> empty(
+            Comparator<? super K> comparator) {
+
+        if (comparator == null) {
+            throw new NullPointerException("comparator");
+        }
+        if (comparator == natural()) {
+            return empty();
+        }
+        return new SortedMapImpl<>(comparator, null);
+    }
+
+    /**
+     * @return the natural ordering, as a comparator of any type
+     */
+    static <K> Comparator<K> natural() {
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Comparator<K> cast = (Comparator) Comparator.naturalOrder();
+        return cast;
+    }
+
+    private final Comparator<? super K> comparator;
+    private final Node<K, V> root;
+    private final Node<K, V> first;
+    private final Node<K, V> last;
+
+    /**
+     * @param comparator the comparator to order keys with
+     * @param root the root of the tree, or null if this map is empty
+     */
+    private SortedMapImpl(Comparator<? super K> comparator, Node<K, V> root) {
+        this.comparator = comparator;
+        this.root = root;
+        this.first = min(root);
+        this.last = max(root);
+    }
+
+    /**
+     * Returns a map with the same comparator as this one and the given tree.
+     *
+     * @param newRoot the root of the new tree
+     * @return the new map, or this map if the tree hasn't changed
+     */
+    private SortedMapImpl<K, V> withRoot(Node<K, V> newRoot) {
+        if (newRoot == root) {
+            return this;
+        }
+        if (newRoot == null) {
+            return empty(comparator);
+        }
+        return new SortedMapImpl<>(comparator, newRoot);
+    }
+
+    @Override
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return (find(key) != null);
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        Node<K, V> node = find(key);
+        return (node == null ? defaultValue : node.value);
+    }
+
+    /**
+     * Finds the node for the given key.
+     *
+     * @param key the key to look for
+     * @return the node for the key, or null if there is none
+     * @throws ClassCastException if the key can't be compared to our keys
+     */
+    private Node<K, V> find(Object key) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+
+        @SuppressWarnings("unchecked")
+        K cast = (K) key;
+
+        Node<K, V> node = root;
+        while (node != null) {
+            int c = comparator.compare(cast, node.key);
+            if (c == 0) {
+                return node;
+            }
+            node = (c < 0 ? node.left : node.right);
+        }
+
+        return null;
+    }
+
+    @Override
+    public SortedMapImpl<K, V> put(K key, V value) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+
+        Node<K, V> newRoot = insert(comparator, root, key, value);
+        if (newRoot.size < 0) {
+            // Can't grow the underlying data structure any more.
+            throw new OutOfMemoryError();
+        }
+
+        return withRoot(newRoot);
+    }
+
+    @Override
+    public SortedMapImpl<K, V> remove(Object key) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+
+        @SuppressWarnings("unchecked")
+        K cast = (K) key;
+
+        return withRoot(delete(comparator, root, cast));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Finds, recomputes and replaces (or removes) the mapping in a single
+     * descent of the tree.
+     */
+    @Override
+    public SortedMapImpl<K, V> compute(
+            K key,
+            BiFunction<? super K, ? super V, ? extends V> function) {
+
+        if (function == null) {
+            throw new NullPointerException("function");
+        }
+
+        return update(key, (value) -> {
+            V newValue = function.apply(key, orNull(value));
+            return (newValue == null ? notFound() : newValue);
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Finds and adds the mapping in a single descent of the tree.
+     */
+    @Override
+    public SortedMapImpl<K, V> computeIfAbsent(
+            K key,
+            Function<? super K, ? extends V> function) {
+
+        if (function == null) {
+            throw new NullPointerException("function");
+        }
+
+        return update(key, (value) -> {
+            if (orNull(value) != null) {
+                return value;
+            }
+            V newValue = function.apply(key);
+            return (newValue == null ? value : newValue);
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Finds, recomputes and replaces the mapping in a single descent of the
+     * tree.
+     */
+    @Override
+    public SortedMapImpl<K, V> computeIfPresent(
+            K key,
+            BiFunction<? super K, ? super V, ? extends V> function) {
+
+        if (function == null) {
+            throw new NullPointerException("function");
+        }
+
+        return update(key, (value) -> {
+            if (orNull(value) == null) {
+                return value;
+            }
+            V newValue = function.apply(key, value);
+            return (newValue == null ? notFound() : newValue);
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Finds, combines and replaces the mapping in a single descent of the
+     * tree.
+     */
+    @Override
+    public SortedMapImpl<K, V> merge(
+            K key,
+            V value,
+            BiFunction<? super V, ? super V, ? extends V> function) {
+
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        if (function == null) {
+            throw new NullPointerException("function");
+        }
+
+        return update(key, (oldValue) -> {
+            if (orNull(oldValue) == null) {
+                return value;
+            }
+            V newValue = function.apply(oldValue, value);
+            return (newValue == null ? notFound() : newValue);
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Checks for and adds the mapping in a single descent of the tree.
+     */
+    @Override
+    public SortedMapImpl<K, V> putIfAbsent(K key, V value) {
+        return update(key, (oldValue) -> {
+            return (orNull(oldValue) == null ? value : oldValue);
+        });
+    }
+
+    /**
+     * Updates the mapping for the given key in a single descent of the
+     * tree; see {@link #update(Comparator, Node, Object, UnaryOperator)}.
+     *
+     * @param key the key to update the mapping for
+     * @param function computes the new value (or {@code NOT_FOUND}) from
+     *                 the current value (or {@code NOT_FOUND})
+     * @return the new map, or this map if nothing changed
+     */
+    private SortedMapImpl<K, V> update(K key, UnaryOperator<V> function) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+
+        Node<K, V> newRoot = update(comparator, root, key, function);
+        if (newRoot != null && newRoot.size < 0) {
+            // Can't grow the underlying data structure any more.
+            throw new OutOfMemoryError();
+        }
+
+        return withRoot(newRoot);
+    }
+
+    /**
+     * @return the {@code NOT_FOUND} marker, as a value
+     */
+    private static <V> V notFound() {
+        @SuppressWarnings("unchecked")
+        V notFound = (V) NOT_FOUND;
+        return notFound;
+    }
+
+    /**
+     * @param value a value, or {@code NOT_FOUND}
+     * @return the value, or null if it's {@code NOT_FOUND}
+     */
+    private static <V> V orNull(V value) {
+        return (value == NOT_FOUND ? null : value);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Each mapping in the other map is combined with this one's in a single
+     * descent of the tree.
+     */
+    @Override
+    public SortedMapImpl<K, V> merge(
+            Map<? extends K, ? extends V> other,
+            BiFunction<? super V, ? super V, ? extends V> function) {
+
+        if (function == null) {
+            throw new NullPointerException("function");
+        }
+
+        SortedMapImpl<K, V> result = this;
+        for (Entry<? extends K, ? extends V> entry : other.entrySet()) {
+            V value = entry.getValue();
+            result = result.update(entry.getKey(), (oldValue) -> {
+                if (oldValue == NOT_FOUND || oldValue == value) {
+                    return value;
+                }
+                return function.apply(oldValue, value);
+            });
+        }
+        return result;
+    }
+
+    @Override
+    public SortedMapImpl<K, V> intersect(
+            Map<? extends K, ? extends V> other,
+            BiFunction<? super V, ? super V, ? extends V> function) {
+
+        if (function == null) {
+            throw new NullPointerException("function");
+        }
+
+        SortedMapImpl<K, V> result = this;
+        for (Node<K, V> node : (Iterable<Node<K, V>>) () -> nodes(root)) {
+            if (!other.containsKey(node.key)) {
+                result = result.remove(node.key);
+                continue;
+            }
+
+            V otherValue = other.get(node.key);
+            if (node.value != otherValue) {
+                result = result.put(
+                        node.key,
+                        function.apply(node.value, otherValue));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public SortedMapImpl<K, V> difference(Map<?, ?> other) {
+        SortedMapImpl<K, V> result = this;
+        for (Object key : other.keySet()) {
+            result = result.remove(key);
+        }
+        return result;
+    }
+
+    @Override
+    public SortedMapImpl<K, V> retainKeys(Set<?> keys) {
+        SortedMapImpl<K, V> result = this;
+        for (Node<K, V> node : (Iterable<Node<K, V>>) () -> nodes(root)) {
+            if (!keys.contains(node.key)) {
+                result = result.remove(node.key);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Builder<K, V> toBuilder() {
+        return new Builder<>(this);
+    }
+
+    @Override
+    public Entry<K, V> firstEntry() {
+        return entry(first);
+    }
+
+    @Override
+    public Entry<K, V> lastEntry() {
+        return entry(last);
+    }
+
+    @Override
+    public K firstKey() {
+        if (first == null) {
+            throw new NoSuchElementException();
+        }
+        return first.key;
+    }
+
+    @Override
+    public K lastKey() {
+        if (last == null) {
+            throw new NoSuchElementException();
+        }
+        return last.key;
+    }
+
+    @Override
+    public Entry<K, V> floorEntry(K key) {
+        return entry(below(key, true));
+    }
+
+    @Override
+    public Entry<K, V> ceilingEntry(K key) {
+        return entry(above(key, true));
+    }
+
+    @Override
+    public Entry<K, V> lowerEntry(K key) {
+        return entry(below(key, false));
+    }
+
+    @Override
+    public Entry<K, V> higherEntry(K key) {
+        return entry(above(key, false));
+    }
+
+    @Override
+    public K floorKey(K key) {
+        return key(below(key, true));
+    }
+
+    @Override
+    public K ceilingKey(K key) {
+        return key(above(key, true));
+    }
+
+    @Override
+    public K lowerKey(K key) {
+        return key(below(key, false));
+    }
+
+    @Override
+    public K higherKey(K key) {
+        return key(above(key, false));
+    }
+
+    private Node<K, V> below(K key, boolean inclusive) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        return below(comparator, root, key, inclusive);
+    }
+
+    private Node<K, V> above(K key, boolean inclusive) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        return above(comparator, root, key, inclusive);
+    }
+
+    @Override
+    public SortedMapImpl<K, V> headMap(K toKey, boolean inclusive) {
+        if (toKey == null) {
+            throw new NullPointerException("toKey");
+        }
+        return withRoot(splitBelow(comparator, root, toKey, inclusive));
+    }
+
+    @Override
+    public SortedMapImpl<K, V> tailMap(K fromKey, boolean inclusive) {
+        if (fromKey == null) {
+            throw new NullPointerException("fromKey");
+        }
+        return withRoot(splitAbove(comparator, root, fromKey, inclusive));
+    }
+
+    @Override
+    public SortedMapImpl<K, V> subMap(
+            K fromKey,
+            boolean fromInclusive,
+            K toKey,
+            boolean toInclusive) {
+
+        if (fromKey == null) {
+            throw new NullPointerException("fromKey");
+        }
+        if (toKey == null) {
+            throw new NullPointerException("toKey");
+        }
+        if (comparator.compare(fromKey, toKey) > 0) {
+            throw new IllegalArgumentException("fromKey > toKey");
+        }
+
+        Node<K, V> head = splitBelow(comparator, root, toKey, toInclusive);
+        return withRoot(splitAbove(comparator, head, fromKey, fromInclusive));
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> entrySet() {
+        return new Iterable<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new NodeIterator<>(root, 0, SortedMapImpl::entry);
+            }
+
+            @Override
+            public void forEach(Consumer<? super Entry<K, V>> action) {
+                SortedMapImpl.forEach(root, (key, value) -> {
+                    action.accept(new Entry<>(key, value));
+                });
+            }
+
+            @Override
+            public Spliterator<Entry<K, V>> spliterator() {
+                return SortedMapImpl.this.spliterator();
+            }
+        };
+    }
+
+    @Override
+    public Iterable<K> keySet() {
+        return new Iterable<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new NodeIterator<>(root, 0, SortedMapImpl::key);
+            }
+
+            @Override
+            public void forEach(Consumer<? super K> action) {
+                forEachKey(action);
+            }
+
+            @Override
+            public Spliterator<K> spliterator() {
+                return new NodeSpliterator<>(
+                        root,
+                        0,
+                        size(),
+                        SortedMapImpl::key,
+                        (comparator == natural() ? null : comparator));
+            }
+        };
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        forEach(root, action);
+    }
+
+    @Override
+    public void forEachKey(Consumer<? super K> action) {
+        forEach(root, (key, value) -> action.accept(key));
+    }
+
+    @Override
+    public void forEachValue(Consumer<? super V> action) {
+        forEach(root, (key, value) -> action.accept(value));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The {@code Spliterator} is also {@linkplain Spliterator#ORDERED
+     * ordered} and {@linkplain Spliterator#SORTED sorted} by key, and splits
+     * its range of the map in half by position, so every split is exactly
+     * {@linkplain Spliterator#SUBSIZED sized}.
+     */
+    @Override
+    public Spliterator<Entry<K, V>> spliterator() {
+        Comparator<? super K> keys = comparator;
+        return new NodeSpliterator<>(
+                root,
+                0,
+                size(),
+                SortedMapImpl::entry,
+                (a, b) -> keys.compare(a.getKey(), b.getKey()));
+    }
+
+    @Override
+    public int hashCode() {
+        return hash(root);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof SortedMapImpl<?, ?>)) {
+            return super.equals(obj);
+        }
+
+        SortedMapImpl<?, ?> that = (SortedMapImpl<?, ?>) obj;
+        if (this.size() != that.size()) {
+            return false;
+        }
+        if (this.root == that.root) {
+            return true;
+        }
+        if (!this.comparator.equals(that.comparator)) {
+            return super.equals(obj);
+        }
+
+        // Same order, so walk the two maps side by side. The trees may be
+        // shaped differently depending on how they were built.
+        Iterator<Node<K, V>> mine = nodes(this.root);
+        Iterator<? extends Node<?, ?>> theirs = nodes(that.root);
+
+        try {
+            while (mine.hasNext()) {
+                Node<K, V> a = mine.next();
+                Node<?, ?> b = theirs.next();
+
+                @SuppressWarnings("unchecked")
+                K key = (K) b.key;
+
+                if (comparator.compare(a.key, key) != 0
+                        || !Objects.equals(a.value, b.value)) {
+                    return false;
+                }
+            }
+        } catch (ClassCastException unused) {
+            return false;
+        }
+
+        return true;
+    }
+
+    private static <K, V> Iterator<Node<K, V>> nodes(Node<K, V> root) {
+        return new NodeIterator<>(root, 0, Function.identity());
+    }
+
+    private static <K, V> Entry<K, V> entry(Node<K, V> node) {
+        return (node == null ? null : new Entry<>(node.key, node.value));
+    }
+
+    private static <K> K key(Node<K, ?> node) {
+        return (node == null ? null : node.key);
+    }
+
+    /**
+     * Gets the size of a (possibly empty) tree.
+     *
+     * @param node the root of the tree, or null
+     * @return the number of nodes in the tree
+     */
+    static int size(Node<?, ?> node) {
+        return (node == null ? 0 : node.size);
+    }
+
+    /**
+     * @param node the root of a tree, or null
+     * @return the node with the lowest key, or null if the tree is empty
+     */
+    static <K, V> Node<K, V> min(Node<K, V> node) {
+        if (node != null) {
+            while (node.left != null) {
+                node = node.left;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * @param node the root of a tree, or null
+     * @return the node with the highest key, or null if the tree is empty
+     */
+    static <K, V> Node<K, V> max(Node<K, V> node) {
+        if (node != null) {
+            while (node.right != null) {
+                node = node.right;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Finds the node in a tree with the highest key below the given key.
+     *
+     * @param comparator the comparator ordering the tree
+     * @param node the root of the tree, or null
+     * @param key the key to search for
+     * @param inclusive whether a node for the key itself counts
+     * @return the matching node, or null if there is none
+     */
+    static <K, V> Node<K, V> below(
+            Comparator<? super K> comparator,
+            Node<K, V> node,
+            K key,
+            boolean inclusive) {
+
+        Node<K, V> best = null;
+
+        while (node != null) {
+            int c = comparator.compare(key, node.key);
+            if (c == 0 && inclusive) {
+                return node;
+            }
+            if (c > 0) {
+                best = node;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Finds the node in a tree with the lowest key above the given key.
+     *
+     * @param comparator the comparator ordering the tree
+     * @param node the root of the tree, or null
+     * @param key the key to search for
+     * @param inclusive whether a node for the key itself counts
+     * @return the matching node, or null if there is none
+     */
+    static <K, V> Node<K, V> above(
+            Comparator<? super K> comparator,
+            Node<K, V> node,
+            K key,
+            boolean inclusive) {
+
+        Node<K, V> best = null;
+
+        while (node != null) {
+            int c = comparator.compare(key, node.key);
+            if (c == 0 && inclusive) {
+                return node;
+            }
+            if (c < 0) {
+                best = node;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Counts the nodes in a tree whose keys are below the given key.
+     *
+     * @param comparator the comparator ordering the tree
+     * @param node the root of the tree, or null
+     * @param key the key to search for
+     * @param inclusive whether a node for the key itself counts
+     * @return the number of matching nodes
+     */
+    static <K> int rank(
+            Comparator<? super K> comparator,
+            Node<K, ?> node,
+            K key,
+            boolean inclusive) {
+
+        int rank = 0;
+        while (node != null) {
+            int c = comparator.compare(key, node.key);
+            if (c == 0) {
+                return rank + size(node.left) + (inclusive ? 1 : 0);
+            }
+            if (c > 0) {
+                rank += size(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Finds the node at the given position in a tree.
+     *
+     * @param node the root of the tree
+     * @param index the position of the node, which must be in range
+     * @return the node at that position
+     */
+    static <K, V> Node<K, V> select(Node<K, V> node, int index) {
+        for (;;) {
+            int left = size(node.left);
+            if (index < left) {
+                node = node.left;
+            } else if (index == left) {
+                return node;
+            } else {
+                index -= left + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Executes the given action for each node in a tree, in order.
+     *
+     * @param node the root of the tree, or null
+     * @param action the action to execute
+     */
+    static <K, V> void forEach(
+            Node<K, V> node,
+            BiConsumer<? super K, ? super V> action) {
+
+        while (node != null) {
+            forEach(node.left, action);
+            action.accept(node.key, node.value);
+            node = node.right;
+        }
+    }
+
+    /**
+     * Sums the hash codes of the entries in a tree, as {@link Entry} would
+     * compute them.
+     */
+    private static int hash(Node<?, ?> node) {
+        int hash = 0;
+        while (node != null) {
+            hash += hash(node.left);
+            hash += 31 * (31 + node.key.hashCode())
+                    + Objects.hashCode(node.value);
+            node = node.right;
+        }
+        return hash;
+    }
+
+    /**
+     * Puts a mapping into a tree.
+     *
+     * @param comparator the comparator ordering the tree
+     * @param node the root of the tree, or null
+     * @param key the key
+     * @param value the value
+     * @return the new root, or the given root if the key was already mapped
+     *         to the value
+     */
+    static <K, V> Node<K, V> insert(
+            Comparator<? super K> comparator,
+            Node<K, V> node,
+            K key,
+            V value) {
+
+        if (node == null) {
+            return new Node<>(key, value, null, null);
+        }
+
+        int c = comparator.compare(key, node.key);
+        if (c < 0) {
+            Node<K, V> left = insert(comparator, node.left, key, value);
+            if (left == node.left) {
+                return node;
+            }
+            return balance(node.key, node.value, left, node.right);
+        }
+        if (c > 0) {
+            Node<K, V> right = insert(comparator, node.right, key, value);
+            if (right == node.right) {
+                return node;
+            }
+            return balance(node.key, node.value, node.left, right);
+        }
+
+        if (value == node.value) {
+            return node;
+        }
+        return new Node<>(node.key, value, node.left, node.right);
+    }
+
+    /**
+     * Updates the mapping for a key in a tree in a single descent. The
+     * function is called exactly once, with the key's current value, or
+     * {@code NOT_FOUND} if it isn't mapped; returning {@code NOT_FOUND}
+     * removes the mapping, and returning the current value leaves the tree
+     * as it is.
+     *
+     * @param comparator the comparator ordering the tree
+     * @param node the root of the tree, or null
+     * @param key the key
+     * @param function computes the new value from the current value
+     * @return the new root, or the given root if nothing changed
+     */
+    static <K, V> Node<K, V> update(
+            Comparator<? super K> comparator,
+            Node<K, V> node,
+            K key,
+            UnaryOperator<V> function) {
+
+        if (node == null) {
+            V newValue = function.apply(notFound());
+            if (newValue == NOT_FOUND) {
+                return null;
+            }
+            return new Node<>(key, newValue, null, null);
+        }
+
+        int c = comparator.compare(key, node.key);
+        if (c < 0) {
+            Node<K, V> left = update(comparator, node.left, key, function);
+            if (left == node.left) {
+                return node;
+            }
+            return balance(node.key, node.value, left, node.right);
+        }
+        if (c > 0) {
+            Node<K, V> right = update(comparator, node.right, key, function);
+            if (right == node.right) {
+                return node;
+            }
+            return balance(node.key, node.value, node.left, right);
+        }
+
+        V newValue = function.apply(node.value);
+        if (newValue == node.value) {
+            return node;
+        }
+        if (newValue == NOT_FOUND) {
+            return glue(node.left, node.right);
+        }
+        return new Node<>(node.key, newValue, node.left, node.right);
+    }
+
+    /**
+     * Removes a mapping from a tree.
+     *
+     * @param comparator the comparator ordering the tree
+     * @param node the root of the tree, or null
+     * @param key the key
+     * @return the new root, or the given root if there was no mapping
+     */
+    static <K, V> Node<K, V> delete(
+            Comparator<? super K> comparator,
+            Node<K, V> node,
+            K key) {
+
+        if (node == null) {
+            return null;
+        }
+
+        int c = comparator.compare(key, node.key);
+        if (c < 0) {
+            Node<K, V> left = delete(comparator, node.left, key);
+            if (left == node.left) {
+                return node;
+            }
+            return balance(node.key, node.value, left, node.right);
+        }
+        if (c > 0) {
+            Node<K, V> right = delete(comparator, node.right, key);
+            if (right == node.right) {
+                return node;
+            }
+            return balance(node.key, node.value, node.left, right);
+        }
+
+        return glue(node.left, node.right);
+    }
+
+    /**
+     * Builds a tree containing the nodes of the given tree whose keys are
+     * below the given key.
+     *
+     * @param comparator the comparator ordering the tree
+     * @param node the root of the tree, or null
+     * @param key the key to split at
+     * @param inclusive whether to keep a node for the key itself
+     * @return the root of the new tree
+     */
+    static <K, V> Node<K, V> splitBelow(
+            Comparator<? super K> comparator,
+            Node<K, V> node,
+            K key,
+            boolean inclusive) {
+
+        if (node == null) {
+            return null;
+        }
+
+        int c = comparator.compare(key, node.key);
+        if (c < 0) {
+            return splitBelow(comparator, node.left, key, inclusive);
+        }
+        if (c == 0) {
+            if (inclusive) {
+                if (node.right == null) {
+                    return node;
+                }
+                return insertMax(node.key, node.value, node.left);
+            }
+            return node.left;
+        }
+
+        Node<K, V> right = splitBelow(comparator, node.right, key, inclusive);
+        if (right == node.right) {
+            return node;
+        }
+        return link(node.key, node.value, node.left, right);
+    }
+
+    /**
+     * Builds a tree containing the nodes of the given tree whose keys are
+     * above the given key.
+     *
+     * @param comparator the comparator ordering the tree
+     * @param node the root of the tree, or null
+     * @param key the key to split at
+     * @param inclusive whether to keep a node for the key itself
+     * @return the root of the new tree
+     */
+    static <K, V> Node<K, V> splitAbove(
+            Comparator<? super K> comparator,
+            Node<K, V> node,
+            K key,
+            boolean inclusive) {
+
+        if (node == null) {
+            return null;
+        }
+
+        int c = comparator.compare(key, node.key);
+        if (c > 0) {
+            return splitAbove(comparator, node.right, key, inclusive);
+        }
+        if (c == 0) {
+            if (inclusive) {
+                if (node.left == null) {
+                    return node;
+                }
+                return insertMin(node.key, node.value, node.right);
+            }
+            return node.right;
+        }
+
+        Node<K, V> left = splitAbove(comparator, node.left, key, inclusive);
+        if (left == node.left) {
+            return node;
+        }
+        return link(node.key, node.value, left, node.right);
+    }
+
+    /**
+     * Joins two trees around a key that's above every key in the left tree
+     * and below every key in the right tree, regardless of their relative
+     * sizes. Takes time proportional to the difference in their heights.
+     *
+     * @param key the middle key
+     * @param value the value for the middle key
+     * @param left the left tree, or null
+     * @param right the right tree, or null
+     * @return the root of the joined tree
+     */
+    static <K, V> Node<K, V> link(
+            K key,
+            V value,
+            Node<K, V> left,
+            Node<K, V> right) {
+
+        if (left == null) {
+            return insertMin(key, value, right);
+        }
+        if (right == null) {
+            return insertMax(key, value, left);
+        }
+
+        if (DELTA * (long) left.size < right.size) {
+            return balance(
+                    right.key,
+                    right.value,
+                    link(key, value, left, right.left),
+                    right.right);
+        }
+        if (DELTA * (long) right.size < left.size) {
+            return balance(
+                    left.key,
+                    left.value,
+                    left.left,
+                    link(key, value, left.right, right));
+        }
+
+        return new Node<>(key, value, left, right);
+    }
+
+    /**
+     * Adds a key below every key in a tree.
+     */
+    private static <K, V> Node<K, V> insertMin(
+            K key,
+            V value,
+            Node<K, V> node) {
+
+        if (node == null) {
+            return new Node<>(key, value, null, null);
+        }
+        return balance(
+                node.key,
+                node.value,
+                insertMin(key, value, node.left),
+                node.right);
+    }
+
+    /**
+     * Adds a key above every key in a tree.
+     */
+    private static <K, V> Node<K, V> insertMax(
+            K key,
+            V value,
+            Node<K, V> node) {
+
+        if (node == null) {
+            return new Node<>(key, value, null, null);
+        }
+        return balance(
+                node.key,
+                node.value,
+                node.left,
+                insertMax(key, value, node.right));
+    }
+
+    /**
+     * Joins the two subtrees of a removed node, which are already balanced
+     * with respect to each other, by promoting the nearest key from the
+     * larger of them.
+     */
+    private static <K, V> Node<K, V> glue(Node<K, V> left, Node<K, V> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+
+        if (left.size > right.size) {
+            Node<K, V> max = max(left);
+            return balance(max.key, max.value, deleteMax(left), right);
+        } else {
+            Node<K, V> min = min(right);
+            return balance(min.key, min.value, left, deleteMin(right));
+        }
+    }
+
+    private static <K, V> Node<K, V> deleteMin(Node<K, V> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return balance(node.key, node.value, deleteMin(node.left), node.right);
+    }
+
+    private static <K, V> Node<K, V> deleteMax(Node<K, V> node) {
+        if (node.right == null) {
+            return node.left;
+        }
+        return balance(node.key, node.value, node.left, deleteMax(node.right));
+    }
+
+    /**
+     * Creates a node from a key and two subtrees which were balanced before
+     * a single key was added to or removed from one of them, rotating if
+     * they're no longer balanced.
+     */
+    private static <K, V> Node<K, V> balance(
+            K key,
+            V value,
+            Node<K, V> left,
+            Node<K, V> right) {
+
+        int sl = size(left);
+        int sr = size(right);
+
+        if (sl + sr <= 1) {
+            return new Node<>(key, value, left, right);
+        }
+
+        if (sr > DELTA * (long) sl) {
+            // Too heavy on the right; rotate left.
+            Node<K, V> rl = right.left;
+            Node<K, V> rr = right.right;
+
+            if (size(rl) < RATIO * (long) size(rr)) {
+                return new Node<>(
+                        right.key,
+                        right.value,
+                        new Node<>(key, value, left, rl),
+                        rr);
+            } else {
+                return new Node<>(
+                        rl.key,
+                        rl.value,
+                        new Node<>(key, value, left, rl.left),
+                        new Node<>(right.key, right.value, rl.right, rr));
+            }
+        }
+
+        if (sl > DELTA * (long) sr) {
+            // Too heavy on the left; rotate right.
+            Node<K, V> ll = left.left;
+            Node<K, V> lr = left.right;
+
+            if (size(lr) < RATIO * (long) size(ll)) {
+                return new Node<>(
+                        left.key,
+                        left.value,
+                        ll,
+                        new Node<>(key, value, lr, right));
+            } else {
+                return new Node<>(
+                        lr.key,
+                        lr.value,
+                        new Node<>(left.key, left.value, ll, lr.left),
+                        new Node<>(key, value, lr.right, right));
+            }
+        }
+
+        return new Node<>(key, value, left, right);
+    }
+
+    /**
+     * A node in the tree.
+     */
+    static final class Node<K, V> {
+
+        final K key;
+        final V value;
+        final Node<K, V> left;
+        final Node<K, V> right;
+
+        /**
+         * The number of nodes in the subtree rooted here. Negative if it's
+         * overflowed.
+         */
+        final int size;
+
+        /**
+         * @param key the key
+         * @param value the value
+         * @param left the subtree of lower keys, or null
+         * @param right the subtree of higher keys, or null
+         */
+        public Node(K key, V value, Node<K, V> left, Node<K, V> right) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + size(right) + 1;
+        }
+    }
+
+    /**
+     * An in-order iterator over (a suffix of) a tree.
+     */
+    static final class NodeIterator<K, V, T> implements Iterator<T> {
+
+        private final Function<? super Node<K, V>, ? extends T> extractor;
+
+        // The nodes still to visit, next on top. Each is followed by its
+        // right subtree.
+        private Node<?, ?>[] stack = new Node<?, ?>[32];
+        private int depth;
+
+        /**
+         * @param root the root of the tree, or null
+         * @param index the position of the first node to visit
+         * @param extractor extracts the element for a node
+         */
+        public NodeIterator(
+                Node<K, V> root,
+                int index,
+                Function<? super Node<K, V>, ? extends T> extractor) {
+
+            this.extractor = extractor;
+
+            Node<K, V> node = root;
+            while (node != null) {
+                int left = size(node.left);
+                if (index < left) {
+                    push(node);
+                    node = node.left;
+                } else if (index == left) {
+                    push(node);
+                    break;
+                } else {
+                    index -= left + 1;
+                    node = node.right;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return (depth > 0);
+        }
+
+        @Override
+        public T next() {
+            if (depth == 0) {
+                throw new NoSuchElementException();
+            }
+
+            @SuppressWarnings("unchecked")
+            Node<K, V> next = (Node<K, V>) stack[--depth];
+            stack[depth] = null;
+
+            for (Node<K, V> node = next.right; node != null; node = node.left) {
+                push(node);
+            }
+
+            return extractor.apply(next);
+        }
+
+        private void push(Node<K, V> node) {
+            if (depth == stack.length) {
+                stack = Arrays.copyOf(stack, depth * 2);
+            }
+            stack[depth++] = node;
+        }
+    }
+
+    /**
+     * A {@code Spliterator} over a range of positions in a tree, which
+     * splits the range in half.
+     */
+    static final class NodeSpliterator<K, V, T> implements Spliterator<T> {
+
+        private final Node<K, V> root;
+        private final Function<? super Node<K, V>, ? extends T> extractor;
+        private final Comparator<? super T> comparator;
+
+        private int index;
+        private final int end;
+
+        // Positioned at index once traversal starts.
+        private NodeIterator<K, V, T> iterator;
+
+        /**
+         * @param root the root of the tree
+         * @param index the position of the first node to traverse
+         * @param end the position after the last node to traverse
+         * @param extractor extracts the element for a node
+         * @param comparator the order of the elements, or null if it's
+         *                   their natural order
+         */
+        public NodeSpliterator(
+                Node<K, V> root,
+                int index,
+                int end,
+                Function<? super Node<K, V>, ? extends T> extractor,
+                Comparator<? super T> comparator) {
+
+            this.root = root;
+            this.index = index;
+            this.end = end;
+            this.extractor = extractor;
+            this.comparator = comparator;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (action == null) {
+                throw new NullPointerException("action");
+            }
+            if (index >= end) {
+                return false;
+            }
+            if (iterator == null) {
+                iterator = new NodeIterator<>(root, index, extractor);
+            }
+
+            index += 1;
+            action.accept(iterator.next());
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            if (action == null) {
+                throw new NullPointerException("action");
+            }
+            if (index >= end) {
+                return;
+            }
+            if (iterator == null) {
+                iterator = new NodeIterator<>(root, index, extractor);
+            }
+
+            while (index < end) {
+                index += 1;
+                action.accept(iterator.next());
+            }
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            int split = index + ((end - index) >>> 1);
+            if (split == index) {
+                return null;
+            }
+
+            // The prefix picks up wherever we've got to.
+            NodeSpliterator<K, V, T> prefix = new NodeSpliterator<>(
+                    root,
+                    index,
+                    split,
+                    extractor,
+                    comparator);
+            prefix.iterator = iterator;
+
+            index = split;
+            iterator = null;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return (end - index);
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED
+                    | Spliterator.SORTED
+                    | Spliterator.DISTINCT
+                    | Spliterator.SIZED
+                    | Spliterator.SUBSIZED
+                    | Spliterator.NONNULL
+                    | Spliterator.IMMUTABLE;
+        }
+
+        @Override
+        public Comparator<? super T> getComparator() {
+            return comparator;
+        }
+    }
+
+    /**
+     * A builder for a {@code SortedMapImpl}. The tree has no edit tokens,
+     * so each update copies its path just as the map's own methods do; this
+     * just gives sorted maps the same builder interface as other maps.
+     */
+    static final class Builder<K, V> implements SortedMap.Builder<K, V> {
+
+        private SortedMapImpl<K, V> map;
+
+        /**
+         * @param map the map to start from
+         */
+        public Builder(SortedMapImpl<K, V> map) {
+            this.map = map;
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return map.containsKey(key);
+        }
+
+        @Override
+        public V get(Object key) {
+            return map.get(key);
+        }
+
+        @Override
+        public Builder<K, V> put(K key, V value) {
+            map = map.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Builder<K, V> putAll(Map<? extends K, ? extends V> map) {
+            this.map = this.map.putAll(map);
+            return this;
+        }
+
+        @Override
+        public Builder<K, V> putAll(
+                java.util.Map<? extends K, ? extends V> map) {
+
+            this.map = this.map.putAll(map);
+            return this;
+        }
+
+        @Override
+        public Builder<K, V> remove(Object key) {
+            map = map.remove(key);
+            return this;
+        }
+
+        @Override
+        public Builder<K, V> compute(
+                K key,
+                BiFunction<? super K, ? super V, ? extends V> function) {
+
+            if (key == null) {
+                throw new NullPointerException("key");
+            }
+
+            map = map.compute(key, function);
+            return this;
+        }
+
+        @Override
+        public SortedMapImpl<K, V> build() {
+            return map;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package io.coronet.pico;
+
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+
+/**
+ * A persistent set whose elements are kept in order, either by their
+ * natural ordering or by a {@code Comparator}. Similar to a
+ * {@link java.util.NavigableSet}, but modifications return a new set instead
+ * of mutating this one, and {@linkplain #headSet(Object) head},
+ * {@linkplain #tailSet(Object) tail} and {@linkplain #subSet(Object, Object)
+ * sub} sets are independent persistent sets rather than views.
+ * <p>
+ * Sorted sets also answer order-statistic queries in logarithmic time: the
+ * {@linkplain #rank(Object) rank} of an element, the element at a given
+ * {@linkplain #get(int) position}, and the {@linkplain #count(Object,
+ * Object) number of elements} in a range.
+ */
+public interface SortedSet<E> extends Set<E> {
+
+    /**
+     * Returns the empty set, ordered by the natural ordering of its
+     * elements.
+     *
+     * @return the empty set
+     */
+    public static <E extends Comparable<? super E>> SortedSet<E> empty() {
+        return SortedSetImpl.empty();
+    }
+
+    /**
+     * Returns the empty set, ordered by the given comparator.
+     *
+     * @param comparator the comparator to order elements with
+     * @return the empty set
+     * @throws NullPointerException if comparator is null
+     */
+    public static <E> SortedSet<E> empty(Comparator<? super E> comparator) {
+        return SortedSetImpl.empty(comparator);
+    }
+
+    /**
+     * Returns a new builder, initially empty, for a set ordered by the
+     * natural ordering of its elements.
+     *
+     * @return a new, empty builder
+     */
+    public static <E extends Comparable<? super E>> Builder<E> builder() {
+        return SortedSetImpl.<E>empty().toBuilder();
+    }
+
+    /**
+     * Returns a new builder, initially empty, for a set ordered by the given
+     * comparator.
+     *
+     * @param comparator the comparator to order elements with
+     * @return a new, empty builder
+     * @throws NullPointerException if comparator is null
+     */
+    public static <E> Builder<E> builder(Comparator<? super E> comparator) {
+        return SortedSetImpl.<E>empty(comparator).toBuilder();
+    }
+
+    /**
+     * Returns the comparator used to order the elements in this set. For a
+     * set ordered by the natural ordering of its elements, this is
+     * {@link Comparator#naturalOrder()}.
+     *
+     * @return the comparator used to order the elements in this set
+     */
+    Comparator<? super E> comparator();
+
+    @Override
+    SortedSet<E> add(E e);
+
+    @Override
+    SortedSet<E> addAll(java.util.Collection<? extends E> c);
+
+    @Override
+    SortedSet<E> addAll(Collection<? extends E> c);
+
+    @Override
+    SortedSet<E> remove(Object o);
+
+    @Override
+    Builder<E> toBuilder();
+
+    /**
+     * Returns the lowest element in this set, in constant time.
+     *
+     * @return the lowest element in this set
+     * @throws NoSuchElementException if this set is empty
+     */
+    E first();
+
+    /**
+     * Returns the highest element in this set, in constant time.
+     *
+     * @return the highest element in this set
+     * @throws NoSuchElementException if this set is empty
+     */
+    E last();
+
+    /**
+     * Returns the highest element less than or equal to the given element.
+     *
+     * @param e the element to search for
+     * @return the matching element, or null if there is none
+     * @throws NullPointerException if {@code e} is null
+     */
+    E floor(E e);
+
+    /**
+     * Returns the lowest element greater than or equal to the given element.
+     *
+     * @param e the element to search for
+     * @return the matching element, or null if there is none
+     * @throws NullPointerException if {@code e} is null
+     */
+    E ceiling(E e);
+
+    /**
+     * Returns the highest element strictly less than the given element.
+     *
+     * @param e the element to search for
+     * @return the matching element, or null if there is none
+     * @throws NullPointerException if {@code e} is null
+     */
+    E lower(E e);
+
+    /**
+     * Returns the lowest element strictly greater than the given element.
+     *
+     * @param e the element to search for
+     * @return the matching element, or null if there is none
+     * @throws NullPointerException if {@code e} is null
+     */
+    E higher(E e);
+
+    /**
+     * Returns the element at the given position in this set's order, in
+     * logarithmic time.
+     *
+     * @param index the position of the element
+     * @return the element
+     * @throws IndexOutOfBoundsException if index is out of bounds
+     */
+    E get(int index);
+
+    /**
+     * Returns the number of elements in this set that are strictly less than
+     * the given element, in logarithmic time. If this set contains the
+     * element, this is its position in this set's order.
+     *
+     * @param e the element to rank
+     * @return the number of elements less than {@code e}
+     * @throws NullPointerException if {@code e} is null
+     */
+    int rank(E e);
+
+    /**
+     * Counts the elements in this set that are greater than or equal to
+     * {@code fromElement} and strictly less than {@code toElement}, in
+     * logarithmic time.
+     *
+     * @param fromElement the (inclusive) lower bound
+     * @param toElement the (exclusive) upper bound
+     * @return the number of elements in the range
+     * @throws NullPointerException if fromElement or toElement is null
+     * @throws IllegalArgumentException if fromElement is greater than
+     *         toElement
+     */
+    int count(E fromElement, E toElement);
+
+    /**
+     * Creates a new set containing the elements of this set that are less
+     * than (or equal to, if {@code inclusive}) the given element, in
+     * logarithmic time.
+     *
+     * @param toElement the upper bound
+     * @param inclusive whether to include {@code toElement}
+     * @return the new set
+     * @throws NullPointerException if toElement is null
+     * @see java.util.NavigableSet#headSet(Object, boolean)
+     */
+    SortedSet<E> headSet(E toElement, boolean inclusive);
+
+    /**
+     * Creates a new set containing the elements of this set that are
+     * strictly less than the given element, in logarithmic time.
+     *
+     * @param toElement the (exclusive) upper bound
+     * @return the new set
+     * @throws NullPointerException if toElement is null
+     * @see java.util.SortedSet#headSet(Object)
+     */
+    default SortedSet<E> headSet(E toElement) {
+        return headSet(toElement, false);
+    }
+
+    /**
+     * Creates a new set containing the elements of this set that are greater
+     * than (or equal to, if {@code inclusive}) the given element, in
+     * logarithmic time.
+     *
+     * @param fromElement the lower bound
+     * @param inclusive whether to include {@code fromElement}
+     * @return the new set
+     * @throws NullPointerException if fromElement is null
+     * @see java.util.NavigableSet#tailSet(Object, boolean)
+     */
+    SortedSet<E> tailSet(E fromElement, boolean inclusive);
+
+    /**
+     * Creates a new set containing the elements of this set that are greater
+     * than or equal to the given element, in logarithmic time.
+     *
+     * @param fromElement the (inclusive) lower bound
+     * @return the new set
+     * @throws NullPointerException if fromElement is null
+     * @see java.util.SortedSet#tailSet(Object)
+     */
+    default SortedSet<E> tailSet(E fromElement) {
+        return tailSet(fromElement, true);
+    }
+
+    /**
+     * Creates a new set containing the elements of this set that lie between
+     * the given bounds, in logarithmic time.
+     *
+     * @param fromElement the lower bound
+     * @param fromInclusive whether to include {@code fromElement}
+     * @param toElement the upper bound
+     * @param toInclusive whether to include {@code toElement}
+     * @return the new set
+     * @throws NullPointerException if fromElement or toElement is null
+     * @throws IllegalArgumentException if fromElement is greater than
+     *         toElement
+     * @see java.util.NavigableSet#subSet(Object, boolean, Object, boolean)
+     */
+    SortedSet<E> subSet(
+            E fromElement,
+            boolean fromInclusive,
+            E toElement,
+            boolean toInclusive);
+
+    /**
+     * Creates a new set containing the elements of this set that are greater
+     * than or equal to {@code fromElement} and strictly less than
+     * {@code toElement}, in logarithmic time.
+     *
+     * @param fromElement the (inclusive) lower bound
+     * @param toElement the (exclusive) upper bound
+     * @return the new set
+     * @throws NullPointerException if fromElement or toElement is null
+     * @throws IllegalArgumentException if fromElement is greater than
+     *         toElement
+     * @see java.util.SortedSet#subSet(Object, Object)
+     */
+    default SortedSet<E> subSet(E fromElement, E toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    /**
+     * A builder for a {@code SortedSet}.
+     *
+     * @param <E> the type of elements in the set
+     */
+    public static interface Builder<E> extends Set.Builder<E> {
+
+        @Override
+        Builder<E> add(E e);
+
+        @Override
+        Builder<E> addAll(Iterable<? extends E> c);
+
+        @Override
+        Builder<E> remove(Object o);
+
+        @Override
+        SortedSet<E> build();
+    }
+}
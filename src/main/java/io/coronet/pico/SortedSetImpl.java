@@ -0,0 +1,394 @@
+package io.coronet.pico;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import io.coronet.pico.SetImpl.SetAdapter;
+import io.coronet.pico.SortedMapImpl.Node;
+import io.coronet.pico.SortedMapImpl.NodeIterator;
+import io.coronet.pico.SortedMapImpl.NodeSpliterator;
+
+/**
+ * An implementation of the {@code SortedSet} interface using the same
+ * weight-balanced tree as {@link SortedMapImpl}, with each element stored as
+ * a key and the value left null. The subtree sizes the tree keeps for
+ * balancing double as order statistics: the rank of an element is the sum
+ * of the sizes of the left subtrees on the path to it, and the element at a
+ * position is found by steering by those same sizes.
+ */
+final class SortedSetImpl<E> extends AbstractCollection<E, SortedSetImpl<E>>
+        implements SortedSet<E> {
+
+    private static final SortedSetImpl<Object> EMPTY =
+            new SortedSetImpl<>(SortedMapImpl.natural(), null);
+
+    /**
+     * @return the empty set, ordered by the natural ordering of its elements
+     */
+    public static <E> SortedSetImpl<E> empty() {
+        @SuppressWarnings("unchecked")
+        SortedSetImpl<E> cast = (SortedSetImpl<E>) EMPTY;
+        return cast;
+    }
+
+    /**
+     * @param comparator the comparator to order elements with
+     * @return the empty set, ordered by the given comparator
+     */
+    public static <E> SortedSetImpl<E> empty(
+            Comparator<? super E> comparator) {
+
+        if (comparator == null) {
+            throw new NullPointerException("comparator");
+        }
+        if (comparator == SortedMapImpl.natural()) {
+            return empty();
+        }
+        return new SortedSetImpl<>(comparator, null);
+    }
+
+    private final Comparator<? super E> comparator;
+    private final Node<E, Object> root;
+    private final Node<E, Object> first;
+    private final Node<E, Object> last;
+
+    /**
+     * @param comparator the comparator to order elements with
+     * @param root the root of the tree, or null if this set is empty
+     */
+    private SortedSetImpl(
+            Comparator<? super E> comparator,
+            Node<E, Object> root) {
+
+        this.comparator = comparator;
+        this.root = root;
+        this.first = SortedMapImpl.min(root);
+        this.last = SortedMapImpl.max(root);
+    }
+
+    /**
+     * Returns a set with the same comparator as this one and the given tree.
+     *
+     * @param newRoot the root of the new tree
+     * @return the new set, or this set if the tree hasn't changed
+     */
+    private SortedSetImpl<E> withRoot(Node<E, Object> newRoot) {
+        if (newRoot == root) {
+            return this;
+        }
+        if (newRoot == null) {
+            return empty(comparator);
+        }
+        return new SortedSetImpl<>(comparator, newRoot);
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public int size() {
+        return SortedMapImpl.size(root);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (o == null) {
+            throw new NullPointerException("o");
+        }
+
+        @SuppressWarnings("unchecked")
+        E e = (E) o;
+
+        Node<E, Object> node = root;
+        while (node != null) {
+            int c = comparator.compare(e, node.key);
+            if (c == 0) {
+                return true;
+            }
+            node = (c < 0 ? node.left : node.right);
+        }
+
+        return false;
+    }
+
+    @Override
+    public SortedSetImpl<E> add(E e) {
+        if (e == null) {
+            throw new NullPointerException("e");
+        }
+
+        Node<E, Object> newRoot =
+                SortedMapImpl.insert(comparator, root, e, null);
+        if (newRoot.size < 0) {
+            // Can't grow the underlying data structure any more.
+            throw new OutOfMemoryError();
+        }
+
+        return withRoot(newRoot);
+    }
+
+    @Override
+    public SortedSetImpl<E> remove(Object o) {
+        if (o == null) {
+            throw new NullPointerException("o");
+        }
+
+        @SuppressWarnings("unchecked")
+        E e = (E) o;
+
+        return withRoot(SortedMapImpl.delete(comparator, root, e));
+    }
+
+    @Override
+    public Builder<E> toBuilder() {
+        return new Builder<>(this);
+    }
+
+    @Override
+    public E first() {
+        if (first == null) {
+            throw new NoSuchElementException();
+        }
+        return first.key;
+    }
+
+    @Override
+    public E last() {
+        if (last == null) {
+            throw new NoSuchElementException();
+        }
+        return last.key;
+    }
+
+    @Override
+    public E floor(E e) {
+        return key(SortedMapImpl.below(comparator, root, check(e), true));
+    }
+
+    @Override
+    public E ceiling(E e) {
+        return key(SortedMapImpl.above(comparator, root, check(e), true));
+    }
+
+    @Override
+    public E lower(E e) {
+        return key(SortedMapImpl.below(comparator, root, check(e), false));
+    }
+
+    @Override
+    public E higher(E e) {
+        return key(SortedMapImpl.above(comparator, root, check(e), false));
+    }
+
+    @Override
+    public E get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException();
+        }
+        return SortedMapImpl.select(root, index).key;
+    }
+
+    @Override
+    public int rank(E e) {
+        return SortedMapImpl.rank(comparator, root, check(e), false);
+    }
+
+    @Override
+    public int count(E fromElement, E toElement) {
+        if (fromElement == null) {
+            throw new NullPointerException("fromElement");
+        }
+        if (toElement == null) {
+            throw new NullPointerException("toElement");
+        }
+        if (comparator.compare(fromElement, toElement) > 0) {
+            throw new IllegalArgumentException("fromElement > toElement");
+        }
+
+        return SortedMapImpl.rank(comparator, root, toElement, false)
+                - SortedMapImpl.rank(comparator, root, fromElement, false);
+    }
+
+    @Override
+    public SortedSetImpl<E> headSet(E toElement, boolean inclusive) {
+        if (toElement == null) {
+            throw new NullPointerException("toElement");
+        }
+        return withRoot(SortedMapImpl.splitBelow(
+                comparator,
+                root,
+                toElement,
+                inclusive));
+    }
+
+    @Override
+    public SortedSetImpl<E> tailSet(E fromElement, boolean inclusive) {
+        if (fromElement == null) {
+            throw new NullPointerException("fromElement");
+        }
+        return withRoot(SortedMapImpl.splitAbove(
+                comparator,
+                root,
+                fromElement,
+                inclusive));
+    }
+
+    @Override
+    public SortedSetImpl<E> subSet(
+            E fromElement,
+            boolean fromInclusive,
+            E toElement,
+            boolean toInclusive) {
+
+        if (fromElement == null) {
+            throw new NullPointerException("fromElement");
+        }
+        if (toElement == null) {
+            throw new NullPointerException("toElement");
+        }
+        if (comparator.compare(fromElement, toElement) > 0) {
+            throw new IllegalArgumentException("fromElement > toElement");
+        }
+
+        Node<E, Object> head = SortedMapImpl.splitBelow(
+                comparator,
+                root,
+                toElement,
+                toInclusive);
+
+        return withRoot(SortedMapImpl.splitAbove(
+                comparator,
+                head,
+                fromElement,
+                fromInclusive));
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new NodeIterator<>(root, 0, SortedSetImpl::key);
+    }
+
+    @Override
+    public void forEach(Consumer<? super E> action) {
+        SortedMapImpl.forEach(root, (key, value) -> action.accept(key));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The {@code Spliterator} is also {@linkplain Spliterator#ORDERED
+     * ordered} and {@linkplain Spliterator#SORTED sorted}, and splits its
+     * range of the set in half by position, so every split is exactly
+     * {@linkplain Spliterator#SUBSIZED sized}.
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        return new NodeSpliterator<>(
+                root,
+                0,
+                size(),
+                SortedSetImpl::key,
+                (comparator == SortedMapImpl.natural() ? null : comparator));
+    }
+
+    @Override
+    public java.util.Set<E> asJavaCollection() {
+        return new SetAdapter<>(this);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (E e : this) {
+            hash += e.hashCode();
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Set<?>)) {
+            return false;
+        }
+
+        Set<?> that = (Set<?>) obj;
+        if (this.size() != that.size()) {
+            return false;
+        }
+
+        try {
+            return containsAll(that);
+        } catch (ClassCastException unused) {
+            return false;
+        }
+    }
+
+    private static <E> E key(Node<E, ?> node) {
+        return (node == null ? null : node.key);
+    }
+
+    private static <E> E check(E e) {
+        if (e == null) {
+            throw new NullPointerException("e");
+        }
+        return e;
+    }
+
+    /**
+     * A builder for a {@code SortedSetImpl}; see {@link SortedMapImpl.Builder}.
+     */
+    static final class Builder<E> implements SortedSet.Builder<E> {
+
+        private SortedSetImpl<E> set;
+
+        /**
+         * @param set the set to start from
+         */
+        public Builder(SortedSetImpl<E> set) {
+            this.set = set;
+        }
+
+        @Override
+        public int size() {
+            return set.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return set.contains(o);
+        }
+
+        @Override
+        public Builder<E> add(E e) {
+            set = set.add(e);
+            return this;
+        }
+
+        @Override
+        public Builder<E> addAll(Iterable<? extends E> c) {
+            for (E e : c) {
+                add(e);
+            }
+            return this;
+        }
+
+        @Override
+        public Builder<E> remove(Object o) {
+            set = set.remove(o);
+            return this;
+        }
+
+        @Override
+        public SortedSetImpl<E> build() {
+            return set;
+        }
+    }
+}
@@ -15,6 +15,27 @@ public interface Vector<E> extends List<E> {
         return VectorImpl.<E>empty();
     }
 
+    /**
+     * Returns a new builder, initially empty, for efficiently constructing a
+     * vector by appending elements one at a time.
+     *
+     * @return a new, empty builder
+     */
+    public static <E> Builder<E> builder() {
+        return VectorImpl.<E>empty().toBuilder();
+    }
+
+    /**
+     * Returns a new builder initially containing the elements of this vector.
+     * Appending to the builder is significantly cheaper than repeatedly
+     * calling {@link #add(Object)}, since the builder mutates the nodes it
+     * has allocated in place rather than copying them on every append. This
+     * vector is unaffected by any changes made through the builder.
+     *
+     * @return a new builder initialized with the contents of this vector
+     */
+    Builder<E> toBuilder();
+
     @Override
     Vector<E> first(int n);
 
@@ -48,6 +69,41 @@ public interface Vector<E> extends List<E> {
     @Override
     Vector<E> addAll(Collection<? extends E> c);
 
+    /**
+     * "Prepends" an element to the beginning of this vector, returning a new
+     * vector with the element in front of all the others. Takes amortized
+     * constant time: prepended elements are gathered in a small head buffer,
+     * which is only pushed into the tree once it fills up.
+     *
+     * @param e the element to prepend
+     * @return a new vector with the element at the beginning
+     */
+    Vector<E> prepend(E e);
+
+    /**
+     * "Prepends" all of the elements in the given collection to the
+     * beginning of this vector, returning a new vector with the elements
+     * in front of all the others. Elements keep the order returned by the
+     * collection's iterator (so the first element returned by the iterator
+     * is the first element in the combined vector).
+     *
+     * @param c the elements to prepend
+     * @return a new vector with the elements at the beginning
+     */
+    Vector<E> prependAll(java.util.Collection<? extends E> c);
+
+    /**
+     * "Prepends" all of the elements in the given collection to the
+     * beginning of this vector, returning a new vector with the elements
+     * in front of all the others. Elements keep the order returned by the
+     * collection's iterator (so the first element returned by the iterator
+     * is the first element in the combined vector).
+     *
+     * @param c the elements to prepend
+     * @return a new vector with the elements at the beginning
+     */
+    Vector<E> prependAll(Collection<? extends E> c);
+
     @Override
     Vector<E> set(int index, E e);
 
@@ -56,4 +112,151 @@ public interface Vector<E> extends List<E> {
 
     @Override
     Vector<E> remove(int n);
+
+    /**
+     * "Concatenates" the given vector on to the end of this one, returning a
+     * new vector containing the elements of this vector followed by the
+     * elements of the given vector. Takes O(log n) time when both vectors
+     * are {@code Vector} implementations from this package; nodes on the
+     * seam between the two are rebalanced so that the result stays shallow.
+     *
+     * @param v the vector to append
+     * @return the concatenated vector
+     * @throws NullPointerException if {@code v} is null
+     */
+    Vector<E> concat(Vector<? extends E> v);
+
+    /**
+     * "Inserts" an element at the given index, returning a new vector with
+     * the element inserted and all subsequent elements shifted right by one.
+     *
+     * @param index the index to insert the element at
+     * @param e the element to insert
+     * @return a new vector with the element inserted
+     * @throws IndexOutOfBoundsException if {@code index < 0} or
+     *             {@code index > size()}
+     */
+    Vector<E> insert(int index, E e);
+
+    /**
+     * "Removes" the element at the given index, returning a new vector with
+     * the element removed and all subsequent elements shifted left by one.
+     *
+     * @param index the index of the element to remove
+     * @return a new vector with the element removed
+     * @throws IndexOutOfBoundsException if {@code index < 0} or
+     *             {@code index >= size()}
+     */
+    Vector<E> removeAt(int index);
+
+    /**
+     * Returns the elements in the range {@code [from, to)} as a new vector.
+     * Equivalent to {@code first(to).last(to - from)}.
+     *
+     * @param from the index of the first element to include
+     * @param to the index after the last element to include
+     * @return a new vector containing the given range of elements
+     * @throws IndexOutOfBoundsException if {@code from < 0},
+     *             {@code to > size()} or {@code from > to}
+     */
+    Vector<E> slice(int from, int to);
+
+    /**
+     * Splits this vector in two at the given index. The left vector contains
+     * the first {@code index} elements, and the right vector contains the
+     * rest; concatenating them gives back an equivalent vector.
+     *
+     * @param index the index to split at
+     * @return the two halves of this vector
+     * @throws IndexOutOfBoundsException if {@code index < 0} or
+     *             {@code index > size()}
+     */
+    Split<E> splitAt(int index);
+
+    /**
+     * The result of {@linkplain Vector#splitAt(int) splitting} a vector.
+     *
+     * @param <E> the type of elements in the vector
+     */
+    public static final class Split<E> {
+
+        private final Vector<E> left;
+        private final Vector<E> right;
+
+        /**
+         * @param left the left half
+         * @param right the right half
+         */
+        public Split(Vector<E> left, Vector<E> right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        /**
+         * @return the elements before the split point
+         */
+        public Vector<E> getLeft() {
+            return left;
+        }
+
+        /**
+         * @return the elements from the split point on
+         */
+        public Vector<E> getRight() {
+            return right;
+        }
+
+        @Override
+        public String toString() {
+            return ("(" + left + ", " + right + ")");
+        }
+    }
+
+    /**
+     * A transient, mutable builder for a {@code Vector}. Elements are
+     * appended in place to nodes owned by the builder; calling
+     * {@link #build()} freezes the current contents into an immutable
+     * vector in (effectively) constant time. The builder may continue to be
+     * used after {@code build()} without affecting vectors it has already
+     * built.
+     * <p>
+     * Builders are <em>not</em> thread-safe.
+     *
+     * @param <E> the type of elements in the vector
+     */
+    public static interface Builder<E> {
+
+        /**
+         * Returns the number of elements currently in this builder.
+         *
+         * @return the number of elements in this builder
+         */
+        int size();
+
+        /**
+         * Appends an element to the end of the vector being built.
+         *
+         * @param e the element to append
+         * @return this builder
+         */
+        Builder<E> add(E e);
+
+        /**
+         * Appends all of the given elements, in iteration order, to the end
+         * of the vector being built.
+         *
+         * @param c the elements to append
+         * @return this builder
+         * @throws NullPointerException if {@code c} is null
+         */
+        Builder<E> addAll(Iterable<? extends E> c);
+
+        /**
+         * Freezes the current contents of this builder into an immutable
+         * vector.
+         *
+         * @return a vector containing the elements added to this builder
+         */
+        Vector<E> build();
+    }
 }
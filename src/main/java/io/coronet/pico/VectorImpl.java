@@ -3,6 +3,10 @@ package io.coronet.pico;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * A persistent vector - AKA a persistent list that supports efficient adding to
@@ -14,10 +18,52 @@ import java.util.NoSuchElementException;
  * the vector are stored separately to optimize appends - elements are appended
  * to the tail, which is then periodically "flushed" into the tree when it
  * grows large enough.
+ * <p>
+ * To support efficient concatenation, insertion and removal at arbitrary
+ * indices, the tree is a Relaxed Radix Balanced (RRB) tree: interior nodes
+ * built by those operations may contain non-full children, in which case
+ * they carry a table of the cumulative sizes of their children in an extra
+ * {@code int[]} slot at the end of the node array, and lookups search the
+ * table rather than slicing bits out of the index. Nodes without a size
+ * table are radix-balanced. If the root has no size table, the whole tree is
+ * a regular radix-balanced tree with full leaves, and all operations take
+ * the original fast path.
+ * <p>
+ * The tail array is allocated with room for 32 elements and shared between
+ * successive versions of the vector, each of which only looks at the first
+ * {@code tailSize} slots. The tail carries a marker counting how many of its
+ * slots have been claimed; {@link #add(Object)} advances the marker with a
+ * compare-and-set, so the first version to append at a given slot writes to
+ * it in place, and any other version appending from the same point (or
+ * setting an element in the tail) copies the tail instead. Filling a tail
+ * one element at a time therefore only allocates the new vectors, rather
+ * than a new, one-larger array for every append.
+ * <p>
+ * Elements prepended to the vector are gathered the same way, in a head
+ * array that mirrors the tail: it has room for 32 elements, fills from the
+ * right, and is shared between versions using its own marker. When the head
+ * fills up, it's flushed into the null padding that {@link #last(int)}
+ * leaves at the start of the tree, lowering the offset; if there isn't
+ * enough padding, the tree first grows a level to the left, with the old
+ * root as its second child and nothing but padding before it. Relaxed trees
+ * have no padding, and are concatenated on to instead. Operations that walk
+ * the whole vector flush (a copy of) a partial head first, so they only ever
+ * deal with the tree and the tail.
+ * <p>
+ * The hash code is cached along with a summary of the tree that records the
+ * partial hash code (the hash polynomial, without its leading power of 31)
+ * of every interior node and every leaf, which versions of the vector share
+ * just like the nodes themselves. Two polynomials combine by multiplying
+ * the first by 31 to the power of the length of the second and adding, so
+ * the hash code of a version derived by slicing or concatenation is put
+ * together from the summaries of the nodes it shares with the original.
  */
 final class VectorImpl<E> extends AbstractList<E, VectorImpl<E>>
         implements Vector<E> {
 
+    // The multiplier for a full leaf's worth of hash code.
+    private static final int POW31_32 = pow31(31) * 31;
+
     private static final VectorImpl<Object> EMPTY =
             new VectorImpl<>(0, 0, null, 0, new Object[0]);
 
@@ -37,13 +83,35 @@ final class VectorImpl<E> extends AbstractList<E, VectorImpl<E>>
     private final Object[] treeRoot;
     private final int treeDepth;
     private final Object[] tail;
+    private final int tailSize;
+    private final AtomicInteger tailMarker;
+    private final Object[] head;
+    private final int headSize;
+    private final AtomicInteger headMarker;
+
+    /**
+     * The cached hash code of this vector, or zero if it hasn't been
+     * computed yet. Like {@link String#hashCode()}, racing threads may
+     * compute it more than once, but will always get the same answer.
+     */
+    private int hash;
+
+    /**
+     * A summary of the partial hash codes of this vector's tree, or of the
+     * tree of a vector this one was derived from, or null. A summary of some
+     * other tree is used as a hint when computing the hash code: any node
+     * the two trees share has its partial hash code reused rather than
+     * recomputed. Published racily, like {@link #hash}; the summaries
+     * themselves are immutable.
+     */
+    private HashNode hashes;
 
     /**
      * @param offset the offset of the first element of this vector
      * @param totalSize the total size of this vector
      * @param treeRoot the root node of the tree portion of this vector
      * @param treeDepth the depth of the tree portion of this vector
-     * @param tail the tail of the vector
+     * @param tail the tail of the vector, which it doesn't share
      */
     private VectorImpl(
             int offset,
@@ -52,11 +120,83 @@ final class VectorImpl<E> extends AbstractList<E, VectorImpl<E>>
             int treeDepth,
             Object[] tail) {
 
+        this(offset, totalSize, treeRoot, treeDepth, tail, tail.length, null);
+    }
+
+    /**
+     * @param offset the offset of the first element of this vector
+     * @param totalSize the total size of this vector
+     * @param treeRoot the root node of the tree portion of this vector
+     * @param treeDepth the depth of the tree portion of this vector
+     * @param tail the tail of the vector, possibly shared with others
+     * @param tailSize the number of elements of the tail in use
+     * @param tailMarker the number of slots in the tail that have been
+     *            claimed by some version of the vector, or null if the tail
+     *            may not be appended to in place
+     */
+    private VectorImpl(
+            int offset,
+            int totalSize,
+            Object[] treeRoot,
+            int treeDepth,
+            Object[] tail,
+            int tailSize,
+            AtomicInteger tailMarker) {
+
+        this(
+                offset,
+                totalSize,
+                treeRoot,
+                treeDepth,
+                tail,
+                tailSize,
+                tailMarker,
+                null,
+                0,
+                null);
+    }
+
+    /**
+     * The head is never non-empty unless the rest of the vector is too.
+     *
+     * @param offset the offset of the first element of this vector
+     * @param totalSize the total size of this vector
+     * @param treeRoot the root node of the tree portion of this vector
+     * @param treeDepth the depth of the tree portion of this vector
+     * @param tail the tail of the vector, possibly shared with others
+     * @param tailSize the number of elements of the tail in use
+     * @param tailMarker the number of slots in the tail that have been
+     *            claimed by some version of the vector, or null if the tail
+     *            may not be appended to in place
+     * @param head the head of the vector, possibly shared with others, or
+     *            null if it has no head
+     * @param headSize the number of elements at the end of the head in use
+     * @param headMarker the number of slots at the end of the head that have
+     *            been claimed by some version of the vector, or null if the
+     *            head may not be prepended to in place
+     */
+    private VectorImpl(
+            int offset,
+            int totalSize,
+            Object[] treeRoot,
+            int treeDepth,
+            Object[] tail,
+            int tailSize,
+            AtomicInteger tailMarker,
+            Object[] head,
+            int headSize,
+            AtomicInteger headMarker) {
+
         this.offset = offset;
         this.totalSize = totalSize;
         this.treeRoot = treeRoot;
         this.treeDepth = treeDepth;
         this.tail = tail;
+        this.tailSize = tailSize;
+        this.tailMarker = tailMarker;
+        this.head = head;
+        this.headSize = headSize;
+        this.headMarker = headMarker;
     }
 
     @Override
@@ -64,7 +204,7 @@ final class VectorImpl<E> extends AbstractList<E, VectorImpl<E>>
         // We may have some nulls at the beginning of the tree if elements have
         // been "removed" from the head of the vector; subtract them out from
         // the total size of the data structure to get the user-facing size.
-        return (totalSize - offset);
+        return (totalSize - offset + headSize);
     }
 
     @Override
@@ -75,29 +215,51 @@ final class VectorImpl<E> extends AbstractList<E, VectorImpl<E>>
 
         // We may have some nulls at the beginning of the tree if elements have
         // been "removed" from the head of the vector; add them in to get the
-        // real index in the data structure.
-
-        int realIndex = index + offset;
-        Object[] array = getArray(realIndex);
+        // real index in the data structure. Anything before them is in the
+        // head.
+
+        int realIndex = index - headSize + offset;
+        int treeSize = getTreeSize();
+
+        Object e;
+        if (index < headSize) {
+            e = head[head.length - headSize + index];
+        } else if (realIndex >= treeSize) {
+            e = tail[realIndex - treeSize];
+        } else if (isRelaxed()) {
+            e = getRelaxed(treeRoot, treeDepth, realIndex);
+        } else {
+            e = getArray(treeRoot, treeDepth, realIndex)[realIndex & 0x1F];
+        }
 
         @SuppressWarnings("unchecked")
-        E e = (E) array[realIndex & 0x1F];
-        return e;
+        E cast = (E) e;
+        return cast;
+    }
+
+    /**
+     * Gets the number of elements (including any leading nulls) in the tree
+     * portion of this vector. The tail is never empty unless the vector is,
+     * so this is everything that isn't in the tail.
+     *
+     * @return the size of the tree
+     */
+    private int getTreeSize() {
+        return (totalSize - tailSize);
     }
 
     /**
-     * Gets the array that the element with the given (real) index belongs
-     * to. Returns either the tail or the contents of a leaf node of the tree.
+     * Gets the tail, trimmed to exactly {@code tailSize} elements if it's a
+     * (possibly shared) array with room to grow. Used anywhere the tail is
+     * about to become a leaf of a tree.
      *
-     * @param index the real index of an element
-     * @return the array it belongs to
+     * @return the tail
      */
-    private Object[] getArray(int index) {
-        if (index >= getTreeSize(totalSize)) {
+    private Object[] getTail() {
+        if (tail.length == tailSize) {
             return tail;
-        } else {
-            return getArray(treeRoot, treeDepth, index);
         }
+        return Arrays.copyOf(tail, tailSize);
     }
 
     @Override
@@ -114,21 +276,61 @@ final class VectorImpl<E> extends AbstractList<E, VectorImpl<E>>
             return this;
         }
 
+        return sliced(prefix(n));
+    }
+
+    /**
+     * Returns the first {@code n} elements of this vector, without carrying
+     * over the hash code.
+     *
+     * @param n the number of elements to keep, at least one and fewer than
+     *            the size of this vector
+     * @return a vector containing the first {@code n} elements
+     */
+    private VectorImpl<E> prefix(int n) {
+        if (headSize > 0) {
+            if (n > headSize) {
+                return withBody(body().prefix(n - headSize));
+            }
+
+            // Just (some of) the head; it becomes the tail of the new vector.
+            int from = head.length - headSize;
+            Object[] newTail = Arrays.copyOfRange(head, from, from + n);
+            return new VectorImpl<>(0, n, null, 0, newTail);
+        }
+
         // We're carrying over the offset, so figure out the real size of the
         // new data structure.
 
         int newSize = n + offset;
+        int treeSize = getTreeSize();
 
-        if (newSize > getTreeSize(totalSize)) {
+        if (newSize > treeSize) {
 
-            // Easy case - just squish the tail.
-            Object[] newTail = Arrays.copyOf(tail, newSize & 0x1F);
+            // Easy case - just squish the tail. The new vector can share the
+            // tail array, it'll just look at fewer elements.
             return new VectorImpl<>(
                     offset,
                     newSize,
                     treeRoot,
                     treeDepth,
-                    newTail);
+                    tail,
+                    newSize - treeSize,
+                    tailMarker);
+
+        } else if (isRelaxed()) {
+
+            // Slice the tree, and turn its last leaf into the new tail.
+            Object[] root = sliceRight(treeRoot, treeDepth, newSize);
+            Object[] newTail = getLastLeaf(root, treeDepth);
+
+            if (newSize == newTail.length) {
+                root = null;
+            } else {
+                root = sliceRight(root, treeDepth, newSize - newTail.length);
+            }
+
+            return create(root, treeDepth, newTail);
 
         } else {
 
@@ -160,23 +362,60 @@ final class VectorImpl<E> extends AbstractList<E, VectorImpl<E>>
             return this;
         }
 
+        return sliced(suffix(n));
+    }
+
+    /**
+     * Returns the last {@code n} elements of this vector, without carrying
+     * over the hash code.
+     *
+     * @param n the number of elements to keep, at least one and fewer than
+     *            the size of this vector
+     * @return a vector containing the last {@code n} elements
+     */
+    private VectorImpl<E> suffix(int n) {
+        int size = size();
+
+        if (headSize > 0) {
+            int bodySize = size - headSize;
+            if (n <= bodySize) {
+                return body().suffix(n);
+            }
+
+            // Easy case - just look at fewer elements of the head. The new
+            // vector can share the head array; the marker still counts the
+            // slots it's dropping, so it'll copy the head rather than
+            // prepend over them.
+            return withHead(head, n - bodySize, headMarker);
+        }
+
         int newOffset = offset + (size - n);
 
-        if (newOffset >= getTreeSize(totalSize)) {
+        if (newOffset >= getTreeSize()) {
 
             // Easy case - just return the corresponding portion of the tail.
-            Object[] newTail;
-            if (n == tail.length) {
-                newTail = tail;
-            } else {
-                newTail = Arrays.copyOfRange(
-                    tail,
-                    tail.length - n,
-                    tail.length);
+            if (n == tailSize) {
+                return new VectorImpl<>(
+                        0,
+                        n,
+                        null,
+                        0,
+                        tail,
+                        tailSize,
+                        tailMarker);
             }
 
+            Object[] newTail =
+                    Arrays.copyOfRange(tail, tailSize - n, tailSize);
+
             return new VectorImpl<>(0, n, null, 0, newTail);
 
+        } else if (isRelaxed()) {
+
+            // Slice the tree; there's no need for padding with nulls.
+            Object[] root = sliceLeft(treeRoot, treeDepth, newOffset);
+            return create(root, treeDepth, tail, tailSize, tailMarker);
+
         } else {
 
             PruneLeftResult result =
@@ -187,28 +426,101 @@ final class VectorImpl<E> extends AbstractList<E, VectorImpl<E>>
                     result.offset + n,
                     result.root,
                     result.depth,
-                    tail);
+                    tail,
+                    tailSize,
+                    tailMarker);
+        }
+    }
+
+    /**
+     * Hands this vector's hash summary on to a vector sliced out of it. If
+     * the slice still uses most of the summarized tree, the summary is left
+     * as a hint for whenever its hash code is needed. Otherwise, holding on
+     * to the summary would keep nodes the slice no longer uses alive, so if
+     * the summary is up to date, the slice's hash code is worked out from it
+     * straight away; this only revisits the nodes along the cut.
+     *
+     * @param result a vector sliced out of this one
+     * @return the same vector
+     */
+    private VectorImpl<E> sliced(VectorImpl<E> result) {
+        HashNode summary = hashes;
+        if (summary == null) {
+            return result;
+        }
+
+        if (2L * result.size() >= summary.size) {
+            result.hashes = summary;
+        } else if (summary.node == treeRoot) {
+            result.hashes = summary;
+            result.hash = result.computeHash();
         }
+        return result;
     }
 
     @Override
     public VectorImpl<E> add(E e) {
-        if (totalSize == Integer.MAX_VALUE) {
+        VectorImpl<E> result = append(e);
+        if (hash != 0) {
+            // Appending an element just adds another term to the end of
+            // the hash polynomial.
+            result.hash = 31 * hash + Objects.hashCode(e);
+        }
+        result.hashes = hashes;
+        return result;
+    }
+
+    /**
+     * Appends an element, without carrying over the hash code.
+     *
+     * @param e the element to append
+     * @return a copy of this vector with the element appended
+     */
+    private VectorImpl<E> append(E e) {
+        if (totalSize == Integer.MAX_VALUE || size() == Integer.MAX_VALUE) {
             // Can't grow the underlying data structure any more.
             throw new OutOfMemoryError();
         }
 
-        if (tail.length < 32) {
+        if (headSize > 0) {
+            return withBody(body().append(e));
+        }
+
+        if (tailSize < 32) {
             // Easy case - there's room in the tail.
-            Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
-            newTail[tail.length] = e;
+
+            if (tailMarker != null
+                    && tailMarker.compareAndSet(tailSize, tailSize + 1)) {
+
+                // Nobody else has appended to the shared tail from here;
+                // we've claimed the next slot and can write to it in place.
+                tail[tailSize] = e;
+
+                return new VectorImpl<>(
+                        offset,
+                        totalSize + 1,
+                        treeRoot,
+                        treeDepth,
+                        tail,
+                        tailSize + 1,
+                        tailMarker);
+            }
+
+            // Someone else got there first (or the tail isn't shareable);
+            // copy it into a new, full-sized array that we'll share with
+            // our own successors.
+            Object[] newTail = new Object[32];
+            System.arraycopy(tail, 0, newTail, 0, tailSize);
+            newTail[tailSize] = e;
 
             return new VectorImpl<>(
                     offset,
                     totalSize + 1,
                     treeRoot,
                     treeDepth,
-                    newTail);
+                    newTail,
+                    tailSize + 1,
+                    new AtomicInteger(tailSize + 1));
         }
 
         // Less easy case - the tail is full. Push it into the tree and start
@@ -219,7 +531,7 @@ final class VectorImpl<E> extends AbstractList<E, VectorImpl<E>>
 
     /**
      * Pushes the current tail into the tree and starts a new tail with the
-     * given element. Called by {@code add()} when the tail is full.
+     * given element. Called by {@code append()} when the tail is full.
      *
      * @param e the element to add to the new tail
      * @return a copy of this vector with the element appended
@@ -234,6 +546,18 @@ final class VectorImpl<E> extends AbstractList<E, VectorImpl<E>>
             // the current tail in as the new root.
             newRoot = tail;
 
+        } else if (isRelaxed()) {
+
+            // The tree isn't radix-balanced, push the tail down the right
+            // edge using the size tables.
+            newRoot = pushLeaf(treeRoot, treeDepth, tail);
+            if (newRoot == null) {
+                newRoot = makeNode(
+                        new Object[] { treeRoot, newPath(treeDepth, tail) },
+                        treeDepth + 5);
+                newDepth += 5;
+            }
+
         } else if (isTreeFull()) {
 
             // Tree is completely full, push the root up a level and create a
@@ -250,12 +574,17 @@ final class VectorImpl<E> extends AbstractList<E, VectorImpl<E>>
 
         }
 
+        Object[] newTail = new Object[32];
+        newTail[0] = e;
+
         return new VectorImpl<>(
                 offset,
                 totalSize + 1,
                 newRoot,
                 newDepth,
-                new Object[] { e });
+                newTail,
+                1,
+                new AtomicInteger(1));
     }
 
     /**
@@ -266,6 +595,18 @@ final class VectorImpl<E> extends AbstractList<E, VectorImpl<E>>
      * @return true if the tree portions if the data structure is full
      */
     private boolean isTreeFull() {
+        return isTreeFull(totalSize, treeDepth);
+    }
+
+    /**
+     * Returns whether the tree portion of a vector with the given total size
+     * and tree depth is full.
+     *
+     * @param totalSize the total size of the data structure
+     * @param treeDepth the depth of its tree
+     * @return true if the tree portion of the data structure is full
+     */
+    private static boolean isTreeFull(int totalSize, int treeDepth) {
         // The number of leaf nodes required to store the whole vector
         // (each leaf node stores 32 elements).
         int requiredLeafNodes = (totalSize >>> 5);
@@ -278,476 +619,2608 @@ final class VectorImpl<E> extends AbstractList<E, VectorImpl<E>>
     }
 
     @Override
-    public VectorImpl<E> set(int index, E e) {
-        if (index < 0 || index > size()) {
-            throw new IndexOutOfBoundsException();
+    public VectorImpl<E> addAll(java.util.Collection<? extends E> c) {
+        if (c.isEmpty()) {
+            return this;
+        }
+        if (headSize > 0) {
+            return withBody(body().addAll(c));
         }
+        return toBuilder().addAll(c).build();
+    }
 
-        int realIndex = index + offset;
-        if (realIndex == totalSize) {
+    @Override
+    public VectorImpl<E> addAll(Collection<? extends E> c) {
+        if (c.isEmpty()) {
+            return this;
+        }
+        if (headSize > 0) {
+            return withBody(body().addAll(c));
+        }
+        return toBuilder().addAll(c).build();
+    }
 
-            // Just treat this like an add.
+    @Override
+    public VectorImpl<E> prepend(E e) {
+        if (isEmpty()) {
             return add(e);
+        }
+        if (size() == Integer.MAX_VALUE) {
+            // Can't grow the underlying data structure any more.
+            throw new OutOfMemoryError();
+        }
 
-        } else if (realIndex >= getTreeSize(totalSize)) {
-
-            // Easy case; it's in the tail.
-            Object[] newTail = tail.clone();
-            newTail[realIndex & 0x1F] = e;
-            return new VectorImpl<>(
-                    offset,
-                    totalSize,
-                    treeRoot,
-                    treeDepth,
-                    newTail);
+        VectorImpl<E> result;
 
+        if (headSize < 32) {
+            // Easy case - there's room in the head.
+            result = prependToHead(e);
         } else {
+            // Less easy case - the head is full. Flush it into the tree and
+            // start a new head with the single element being prepended.
+            result = withoutHead().prependToHead(e);
+        }
 
-            // Slightly harder case - it's in the tree.
-            Object[] newRoot = set(treeRoot, treeDepth, e, realIndex);
-            return new VectorImpl<>(
-                    offset,
-                    totalSize,
-                    newRoot,
-                    treeDepth,
-                    tail);
-
+        if (hash != 0) {
+            // Prepending an element shifts the rest of the hash polynomial
+            // (including its leading 1) up by a power of 31.
+            int n = size();
+            result.hash = hash + (30 + Objects.hashCode(e)) * pow31(n);
         }
+        result.hashes = hashes;
+        return result;
     }
 
     /**
-     * Recursively modifies an element of the tree by index.
+     * Prepends an element to a head with room for it, in place if no other
+     * version of the vector has claimed the slot.
      *
-     * @param root the root of the tree to modify
-     * @param depth the depth of the tree
-     * @param value the new value of the element
-     * @param index the index of the element to modify
-     * @return a copy of the tree with the modification applied
+     * @param e the element to prepend
+     * @return a copy of this vector with the element prepended
      */
-    private static Object[] set(
-            Object[] root,
-            int depth,
-            Object value,
-            int index) {
-
-        Object[] newRoot = root.clone();
+    private VectorImpl<E> prependToHead(E e) {
+        if (headMarker != null
+                && headMarker.compareAndSet(headSize, headSize + 1)) {
+
+            // Nobody else has prepended to the shared head from here; we've
+            // claimed the next slot and can write to it in place.
+            head[head.length - headSize - 1] = e;
+            return withHead(head, headSize + 1, headMarker);
+        }
 
-        if (depth == 0) {
-            // Base case; directly insert the value.
-            newRoot[index & 0x1F] = value;
-        } else {
-            // Recurse, then swap the result in for the appropriate place in
-            // this node.
-            int nodeIndex = getNodeIndex(index, depth);
-            Object[] child = (Object[]) root[nodeIndex];
-            newRoot[nodeIndex] = set(child, depth - 5, value, index);
+        Object[] newHead = new Object[32];
+        if (headSize > 0) {
+            System.arraycopy(
+                    head,
+                    head.length - headSize,
+                    newHead,
+                    32 - headSize,
+                    headSize);
         }
+        newHead[31 - headSize] = e;
 
-        return newRoot;
+        return withHead(newHead, headSize + 1, new AtomicInteger(headSize + 1));
     }
 
     @Override
-    public Iterator<E> iterator() {
-        return new Iterator<E>() {
-
-            private int index = offset;
-            private Object[] array;
-
-            {
-                // Pre-warm the array if we're not starting on an even
-                // multiple of 32.
-                if ((offset & 0x1F) != 0) {
-                    array = getArray(offset);
-                }
-            }
-
-            @Override
-            public boolean hasNext() {
-                return index < totalSize;
-            }
-
-            @Override
-            public E next() {
-                if (index >= totalSize) {
-                    throw new NoSuchElementException();
-                }
-
-                // Roll over to the next array.
-                if ((index & 0x1F) == 0) {
-                    array = getArray(index);
-                }
+    public VectorImpl<E> prependAll(java.util.Collection<? extends E> c) {
+        if (c.isEmpty()) {
+            return this;
+        }
+        if (c.size() > 32 || isEmpty()) {
+            return VectorImpl.<E>empty().addAll(c).concat(this);
+        }
+        return prependAll(c.toArray());
+    }
 
-                @SuppressWarnings("unchecked")
-                E e = (E) array[index & 0x1F];
-                index += 1;
-                return e;
-            }
-        };
+    @Override
+    public VectorImpl<E> prependAll(Collection<? extends E> c) {
+        if (c.isEmpty()) {
+            return this;
+        }
+        if (c.size() > 32 || isEmpty()) {
+            return VectorImpl.<E>empty().addAll(c).concat(this);
+        }
+        return prependAll(c.toArray());
     }
 
     /**
-     * Gets the size of the tree for a vector of a given (total) size. The
-     * tree stores elements in blocks of 32, and the tail always stores less
-     * than or equal to 32 elements, so we round down from the total size to
-     * find the number of elements in the tree.
+     * Prepends a small number of elements one at a time, last to first.
      *
-     * @param totalSize the total size of a data structure
-     * @return the size of the tree for a data structure of the given size
+     * @param array the elements to prepend
+     * @return a copy of this vector with the elements prepended
      */
-    private static int getTreeSize(int totalSize) {
-        if (totalSize <= 32) {
-            return 0;
-        } else {
-            // TODO: Clojure does ((realSize - 1) >>> 5) << 5); is that faster?
-            return ((totalSize - 1) & (~0x1F));
+    private VectorImpl<E> prependAll(Object[] array) {
+        VectorImpl<E> result = this;
+        for (int i = array.length - 1; i >= 0; --i) {
+            @SuppressWarnings("unchecked")
+            E e = (E) array[i];
+            result = result.prepend(e);
         }
+        return result;
     }
 
     /**
-     * Gets the index within a particular node of the path to the element
-     * with the given index. At depth 0 (the leaf node), this is the low 5 bits
-     * of the index, and is the direct index of the element within the leaf
-     * node. At the next depth (5) it's bits 5-9 of the index, containing the
-     * index of the leaf node, and so forth.
+     * Returns a copy of this vector with the given head in place of its own.
      *
-     * @param index the index of an element
-     * @param depth the depth of the tree from the given node
-     * @return the index of the path to the given element in this node
+     * @param newHead the new head
+     * @param newHeadSize the number of elements at the end of the new head
+     *            in use
+     * @param newHeadMarker the new head's fill marker, or null
+     * @return the new vector
      */
-    private static int getNodeIndex(int index, int depth) {
-        return (index >>> depth) & 0x1F;
+    private VectorImpl<E> withHead(
+            Object[] newHead,
+            int newHeadSize,
+            AtomicInteger newHeadMarker) {
+
+        return new VectorImpl<>(
+                offset,
+                totalSize,
+                treeRoot,
+                treeDepth,
+                tail,
+                tailSize,
+                tailMarker,
+                newHead,
+                newHeadSize,
+                newHeadMarker);
     }
 
     /**
-     * Gets the array that the element with the given index belongs to. Always
-     * returns the contents of a leaf node of the tree; called recursively
-     * from the root to traverse the tree to find the appropriate leaf node.
+     * Returns everything in this vector but the head.
      *
-     * @param root the root of a tree
-     * @param depth the depth of the tree starting from this node
-     * @param index the index of an element to get the array for
-     * @return the array the given element belongs in
+     * @return a copy of this vector with no head
      */
-    private static Object[] getArray(Object[] root, int depth, int index) {
-        if (depth == 0) {
+    private VectorImpl<E> body() {
+        return new VectorImpl<>(
+                offset,
+                totalSize,
+                treeRoot,
+                treeDepth,
+                tail,
+                tailSize,
+                tailMarker);
+    }
 
-            // This is a leaf node, return the array.
-            return root;
+    /**
+     * Puts this vector's head in front of the given vector, which must not
+     * have a head of its own (or be empty).
+     *
+     * @param body the new body for the head
+     * @return a vector with this vector's head and the given body
+     */
+    private VectorImpl<E> withBody(VectorImpl<E> body) {
+        return body.withHead(head, headSize, headMarker);
+    }
 
-        } else {
+    /**
+     * Returns an equivalent vector with no head, by flushing (a copy of) the
+     * head into the tree.
+     *
+     * @return an equivalent vector with no head
+     */
+    private VectorImpl<E> withoutHead() {
+        if (headSize == 0) {
+            return this;
+        }
 
-            // This is an internal node; recurse into the appropriate child.
-            int nodeIndex = getNodeIndex(index, depth);
-            Object[] child = (Object[]) root[nodeIndex];
-            return getArray(child, depth - 5, index);
+        Object[] elements = Arrays.copyOfRange(
+                head,
+                head.length - headSize,
+                head.length);
 
-        }
+        VectorImpl<E> result = body().pushHead(elements);
+        result.hash = hash;
+        result.hashes = hashes;
+        return result;
     }
 
     /**
-     * Grows this tree by allocating a new two-element root node, using the
-     * existing tree as its leftmost node and a singleton path to the given
-     * leaf node as its rightmost node.
+     * Pushes the given elements into the padding at the start of this
+     * vector's tree. If there isn't enough padding, a radix-balanced tree is
+     * first grown by a level to the left; a relaxed tree is concatenated on
+     * to instead.
      * <p>
      * <code>
      *              (new root)
-     *             /         \
-     *       (old root)      (node)
-     *        / ... \         /
-     *     (node)  (node)    (node)
-     *     /   |    |  \      /
-     *   (L)  (L)  (L) (L)  (leaf)
+     *             /          \
+     *        (padding)    (old root)
+     *             \         / ... \
+     *            (node)  (node)  (node)
+     *             /  \    /  \    /  \
+     *          ... (leaf) (L) (L) (L) (L)
      * </code>
      *
-     * @param root the array for the root node
-     * @param depth the depth of the tree
-     * @param leaf the leaf node to append
-     * @return a new root node containing the old root and the new leaf
+     * @param elements the elements to push
+     * @return a copy of this vector with the elements at the start
      */
-    private static Object[] grow(Object[] root, int depth, Object[] leaf) {
-        Object[] newArray = new Object[2];
-        newArray[0] = root;
-        newArray[1] = newPath(depth, leaf);
-        return newArray;
+    private VectorImpl<E> pushHead(Object[] elements) {
+        int count = elements.length;
+
+        if (isRelaxed() || offset > getTreeSize()) {
+            // No room at the start of the tree; fall back to concatenating.
+            return new VectorImpl<E>(0, count, null, 0, elements).concat(this);
+        }
+
+        Object[] root = treeRoot;
+        int depth = treeDepth;
+        int newOffset = offset;
+        int newSize = totalSize;
+
+        if (newOffset < count) {
+            // Not enough padding; grow the tree to the left. An empty tree
+            // grows a single leaf.
+            long width = (root == null ? 32 : 1L << (depth + 5));
+            if (width + totalSize > Integer.MAX_VALUE) {
+                return new VectorImpl<E>(0, count, null, 0, elements)
+                        .concat(this);
+            }
+
+            if (root != null) {
+                root = new Object[] { null, root };
+                depth += 5;
+            }
+            newOffset += (int) width;
+            newSize += (int) width;
+        }
+
+        newOffset -= count;
+        root = fillLeft(root, depth, 0, elements, newOffset);
+
+        return new VectorImpl<>(
+                newOffset,
+                newSize,
+                root,
+                depth,
+                tail,
+                tailSize,
+                tailMarker);
     }
 
     /**
-     * Appends the given leaf node into the tree rooted at this node. Assumes
-     * the tree has room - the caller is responsible for tracking the size of
-     * the tree and {@linkplain #grow(Object[], int, Object[]) growing} it if
-     * need be instead of calling this method.
+     * Recursively copies elements into the padding at the start of a
+     * radix-balanced tree, allocating any nodes that the padding has
+     * nulled out.
      *
-     * @param root the root node of a tree
+     * @param node the root of the (sub)tree, or null if it's all padding
+     * @param depth the depth of the (sub)tree
+     * @param start the (real) index of the first slot in the (sub)tree
+     * @param elements the elements to copy
+     * @param from the (real) index to copy the first element to
+     * @return a copy of the (sub)tree with the elements copied in
+     */
+    private static Object[] fillLeft(
+            Object[] node,
+            int depth,
+            int start,
+            Object[] elements,
+            int from) {
+
+        Object[] newNode = (node == null ? new Object[32] : node.clone());
+        int lo = Math.max(from, start);
+        int hi = from + elements.length;
+
+        if (depth == 0) {
+            // Base case; copy in the part of the elements that lands here.
+            int to = Math.min(hi, start + 32);
+            System.arraycopy(elements, lo - from, newNode, lo - start, to - lo);
+            return newNode;
+        }
+
+        // The elements may start before this subtree and end after it; only
+        // visit the children they land in.
+        int first = (lo - start) >>> depth;
+        int last = Math.min((hi - 1 - start) >>> depth, 31);
+
+        for (int i = first; i <= last; ++i) {
+            Object[] child = (Object[]) newNode[i];
+            newNode[i] = fillLeft(
+                    child,
+                    depth - 5,
+                    start + (i << depth),
+                    elements,
+                    from);
+        }
+
+        return newNode;
+    }
+
+    @Override
+    public Builder<E> toBuilder() {
+        return new Builder<>(withoutHead());
+    }
+
+    @Override
+    public VectorImpl<E> concat(Vector<? extends E> v) {
+        if (v.isEmpty()) {
+            return this;
+        }
+        if (!(v instanceof VectorImpl<?>)) {
+            return addAll(v);
+        }
+
+        @SuppressWarnings("unchecked")
+        VectorImpl<E> that = (VectorImpl<E>) v;
+
+        if (isEmpty()) {
+            return that;
+        }
+        if (size() > Integer.MAX_VALUE - that.size()) {
+            // Can't grow the underlying data structure any more.
+            throw new OutOfMemoryError();
+        }
+
+        VectorImpl<E> result = concatenate(that);
+        if (hash != 0 && that.hash != 0) {
+            // The other vector's hash polynomial (less its leading 1) goes
+            // on the end of ours, shifted up by its length.
+            result.hash = (hash - 1) * pow31(that.size()) + that.hash;
+        }
+        result.hashes = (size() >= that.size() ? hashes : that.hashes);
+        return result;
+    }
+
+    /**
+     * Concatenates the given non-empty vector on to the end of this
+     * non-empty one, without carrying over the hash code.
+     *
+     * @param that the vector to append
+     * @return the concatenated vector
+     */
+    private VectorImpl<E> concatenate(VectorImpl<E> that) {
+        if (headSize > 0) {
+            // Our head stays where it is, in front of everything else.
+            return withBody(body().concatenate(that));
+        }
+
+        that = that.withoutHead();
+        if (that.offset >= that.getTreeSize()) {
+            // The other vector is all tail, just append it.
+            return addAll(that);
+        }
+
+        // Concatenate the trees, treating our tail as a (possibly partial)
+        // leaf at the end of our tree; the other vector's tail becomes the
+        // new tail.
+
+        VectorImpl<E> left = this.withoutOffset();
+        VectorImpl<E> right = that.withoutOffset();
+
+        Object[] leftRoot = left.treeRoot;
+        int leftDepth = left.treeDepth;
+
+        Object[] leftTail = left.getTail();
+
+        if (leftRoot == null) {
+            leftRoot = leftTail;
+        } else {
+            Object[] pushed = pushLeaf(leftRoot, leftDepth, leftTail);
+            if (pushed == null) {
+                pushed = makeNode(
+                        new Object[] { leftRoot, newPath(leftDepth, leftTail) },
+                        leftDepth + 5);
+                leftDepth += 5;
+            }
+            leftRoot = pushed;
+        }
+
+        Object[] root = concat(
+                leftRoot,
+                leftDepth,
+                right.treeRoot,
+                right.treeDepth,
+                true);
+
+        int depth = Math.max(leftDepth, right.treeDepth) + 5;
+        return create(
+                root,
+                depth,
+                right.tail,
+                right.tailSize,
+                right.tailMarker);
+    }
+
+    @Override
+    public VectorImpl<E> insert(int index, E e) {
+        int size = size();
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (index == size) {
+            return add(e);
+        }
+
+        return first(index).add(e).concat(last(size - index));
+    }
+
+    @Override
+    public VectorImpl<E> removeAt(int index) {
+        int size = size();
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (index == 0) {
+            return remove();
+        }
+        if (index == size - 1) {
+            return first(index);
+        }
+
+        return first(index).concat(last(size - index - 1));
+    }
+
+    @Override
+    public Split<E> splitAt(int index) {
+        int size = size();
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        return new Split<>(first(index), last(size - index));
+    }
+
+    @Override
+    public VectorImpl<E> slice(int from, int to) {
+        if (from < 0 || from > to || to > size()) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (from == to) {
+            return empty();
+        }
+        if (from == 0 && to == size()) {
+            return this;
+        }
+
+        // Slice both ends off before handing on the hash summary, rather
+        // than leaving it to the intermediate vector.
+        VectorImpl<E> result = (to == size() ? this : prefix(to));
+        if (from > 0) {
+            result = result.suffix(to - from);
+        }
+        return sliced(result);
+    }
+
+    /**
+     * Returns an equivalent vector with no leading nulls in its tree, so it
+     * can be safely concatenated with another. Any padding is sliced off,
+     * leaving a relaxed tree.
+     *
+     * @return an equivalent vector with a zero offset
+     */
+    private VectorImpl<E> withoutOffset() {
+        if (offset == 0) {
+            return this;
+        }
+
+        int treeSize = getTreeSize();
+        if (offset >= treeSize) {
+            // The tree is nothing but padding.
+            Object[] newTail = Arrays.copyOfRange(
+                    tail,
+                    offset - treeSize,
+                    tailSize);
+
+            return new VectorImpl<>(0, newTail.length, null, 0, newTail);
+        }
+
+        Object[] root = sliceLeft(treeRoot, treeDepth, offset);
+        return create(root, treeDepth, tail, tailSize, tailMarker);
+    }
+
+    @Override
+    public VectorImpl<E> set(int index, E e) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (index == size()) {
+
+            // Just treat this like an add.
+            return add(e);
+
+        }
+
+        int realIndex = index - headSize + offset;
+
+        VectorImpl<E> result;
+        if (index < headSize) {
+
+            // Easy case; it's in the head. Take a private copy of just the
+            // part of it we're using, since it may be shared.
+            Object[] newHead = Arrays.copyOfRange(
+                    head,
+                    head.length - headSize,
+                    head.length);
+            newHead[index] = e;
+            result = withHead(newHead, headSize, null);
+
+        } else if (headSize > 0) {
+
+            result = withBody(body().set(index - headSize, e));
+
+        } else if (realIndex >= getTreeSize()) {
+
+            // Easy case; it's in the tail. Take a private copy of just the
+            // part of it we're using, since it may be shared.
+            Object[] newTail = Arrays.copyOf(tail, tailSize);
+            newTail[realIndex - getTreeSize()] = e;
+            result = new VectorImpl<>(
+                    offset,
+                    totalSize,
+                    treeRoot,
+                    treeDepth,
+                    newTail);
+
+        } else {
+
+            // Slightly harder case - it's in the tree.
+            Object[] newRoot = set(treeRoot, treeDepth, e, realIndex);
+            result = new VectorImpl<>(
+                    offset,
+                    totalSize,
+                    newRoot,
+                    treeDepth,
+                    tail,
+                    tailSize,
+                    tailMarker);
+
+        }
+
+        if (hash != 0) {
+            // Swap out the old element's term of the hash polynomial.
+            int delta = Objects.hashCode(e) - Objects.hashCode(get(index));
+            result.hash = hash + delta * pow31(totalSize - 1 - realIndex);
+        }
+        result.hashes = hashes;
+        return result;
+    }
+
+    /**
+     * Recursively modifies an element of the tree by index.
+     *
+     * @param root the root of the tree to modify
      * @param depth the depth of the tree
-     * @param leaf the leaf node to append
-     * @param index the index of the last element in the leaf
-     * @return a copy of this tree with the new leaf appended
+     * @param value the new value of the element
+     * @param index the index of the element to modify
+     * @return a copy of the tree with the modification applied
      */
-    private static Object[] append(
+    private static Object[] set(
             Object[] root,
             int depth,
-            Object[] leaf,
+            Object value,
             int index) {
 
-        // The index in this node where the path to the new leaf lives. It will
-        // be either the last element in the array or one element past the end;
-        // this turns out to be the easiest way to tell.
-        int nodeIndex = getNodeIndex(index, depth);
+        Object[] newRoot = root.clone();
 
-        // Clone the array, growing if need be.
-        Object[] newArray;
-        if (nodeIndex == root.length) {
-            newArray = Arrays.copyOf(root, root.length + 1);
+        if (depth == 0) {
+            // Base case; directly insert the value.
+            newRoot[index & 0x1F] = value;
+        } else if (isRelaxed(root)) {
+            // Find the right child using the size table (which can be
+            // shared, since the sizes don't change).
+            int[] sizes = getSizes(root);
+            int nodeIndex = getRelaxedIndex(sizes, index, depth);
+            if (nodeIndex > 0) {
+                index -= sizes[nodeIndex - 1];
+            }
+            Object[] child = (Object[]) root[nodeIndex];
+            newRoot[nodeIndex] = set(child, depth - 5, value, index);
         } else {
-            newArray = root.clone();
+            // Recurse, then swap the result in for the appropriate place in
+            // this node.
+            int nodeIndex = getNodeIndex(index, depth);
+            Object[] child = (Object[]) root[nodeIndex];
+            newRoot[nodeIndex] = set(child, depth - 5, value, index);
         }
 
-        Object[] toInsert;
-        if (depth == 5) {
-            // Base case - directly insert the leaf.
-            toInsert = leaf;
-        } else if (nodeIndex == root.length) {
-            // If we're off the right edge of the tree, construct a new path
-            // and graft it in.
-            toInsert = newPath(depth - 5, leaf);
-        } else {
-            // Recurse into the appropriate child node.
-            Object[] child = (Object[]) root[nodeIndex];
-            toInsert = append(child, depth - 5, leaf, index);
+        return newRoot;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        if (headSize > 0) {
+            return withoutHead().iterator();
         }
 
-        // Set/overwrite the path in the new array
-        newArray[nodeIndex] = toInsert;
-        return newArray;
+        return new Iterator<E>() {
+
+            private final Cursor cursor = new Cursor();
+            private int index = offset;
+
+            @Override
+            public boolean hasNext() {
+                return index < totalSize;
+            }
+
+            @Override
+            public E next() {
+                if (index >= totalSize) {
+                    throw new NoSuchElementException();
+                }
+
+                // Roll over to the next array.
+                if (index >= cursor.end) {
+                    cursor.seek(index);
+                }
+
+                @SuppressWarnings("unchecked")
+                E e = (E) cursor.array[index - cursor.start];
+                index += 1;
+                return e;
+            }
+        };
     }
 
     /**
-     * Creates a new path of the appropriate depth to a leaf. Each interior
-     * node in the path has its 0th element pointing to the next node down,
-     * until the final node points to the given leaf node.
+     * {@inheritDoc}
      * <p>
-     * <code>
-     *        ...
-     *        /
-     *     (node)
-     *     /
-     * (leaf)
-     * </code>
+     * Walks the leaf arrays directly, finding each one only once.
+     */
+    @Override
+    public void forEach(Consumer<? super E> action) {
+        if (headSize > 0) {
+            withoutHead().forEach(action);
+            return;
+        }
+        new VectorSpliterator(offset, totalSize).forEachRemaining(action);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return (indexOf(o) >= 0);
+    }
+
+    /**
+     * {@inheritDoc}
      * <p>
-     * This path will then be welded on to the appropriate place on the tree,
-     * constructing a new tree that's slightly more full.
+     * Scans the leaf arrays directly, from first to last.
+     */
+    @Override
+    public int indexOf(Object o) {
+        if (headSize > 0) {
+            return withoutHead().indexOf(o);
+        }
+
+        Cursor cursor = new Cursor();
+
+        for (int i = offset; i < totalSize; i = cursor.end) {
+            cursor.seek(i);
+
+            Object[] array = cursor.array;
+            int to = cursor.end - cursor.start;
+            for (int j = i - cursor.start; j < to; ++j) {
+                if (o == null ? array[j] == null : o.equals(array[j])) {
+                    return (cursor.start + j - offset);
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * {@inheritDoc}
      * <p>
-     * <code>
-     *     \
-     *  (existing)
-     *    /   \
-     *  ...  (path)
-     *        /
-     *      ...
-     * </code>
+     * Scans the leaf arrays directly, from last to first.
+     */
+    @Override
+    public int lastIndexOf(Object o) {
+        if (headSize > 0) {
+            return withoutHead().lastIndexOf(o);
+        }
+
+        Cursor cursor = new Cursor();
+
+        for (int i = totalSize - 1; i >= offset; i = cursor.start - 1) {
+            cursor.seek(i);
+
+            Object[] array = cursor.array;
+            int from = Math.max(offset - cursor.start, 0);
+            for (int j = i - cursor.start; j >= from; --j) {
+                if (o == null ? array[j] == null : o.equals(array[j])) {
+                    return (cursor.start + j - offset);
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Copies the elements a leaf array at a time.
+     */
+    @Override
+    public Object[] toArray() {
+        if (headSize > 0) {
+            return withoutHead().toArray();
+        }
+
+        Object[] result = new Object[size()];
+        Cursor cursor = new Cursor();
+
+        for (int i = offset; i < totalSize; i = cursor.end) {
+            cursor.seek(i);
+            System.arraycopy(
+                    cursor.array,
+                    i - cursor.start,
+                    result,
+                    i - offset,
+                    cursor.end - i);
+        }
+
+        return result;
+    }
+
+    /**
+     * A position in the sequence of leaf arrays (followed by the tail) that
+     * make up this vector. Used to walk the arrays in order without having
+     * to find each element individually.
+     */
+    private final class Cursor {
+
+        /**
+         * The current leaf array, or the tail.
+         */
+        public Object[] array;
+
+        /**
+         * The (real) index of the first element of the current array.
+         */
+        public int start;
+
+        /**
+         * The (real) index one past the last element of the current array.
+         */
+        public int end;
+
+        /**
+         * Moves this cursor to the array containing the element with the
+         * given (real) index.
+         *
+         * @param index the real index of an element
+         */
+        public void seek(int index) {
+            int treeSize = getTreeSize();
+            if (index >= treeSize) {
+                array = tail;
+                start = treeSize;
+                end = totalSize;
+                return;
+            }
+
+            // Walk down the tree, tracking the index of the element within
+            // the current subtree. Radix-balanced nodes simply slice bits
+            // out of it, so the position within the leaf is the low five
+            // bits either way.
+
+            Object[] node = treeRoot;
+            int local = index;
+            for (int depth = treeDepth; depth > 0; depth -= 5) {
+                int nodeIndex;
+                if (isRelaxed(node)) {
+                    int[] sizes = getSizes(node);
+                    nodeIndex = getRelaxedIndex(sizes, local, depth);
+                    if (nodeIndex > 0) {
+                        local -= sizes[nodeIndex - 1];
+                    }
+                } else {
+                    nodeIndex = getNodeIndex(local, depth);
+                }
+                node = (Object[]) node[nodeIndex];
+            }
+
+            array = node;
+            start = index - (local & 0x1F);
+            end = start + node.length;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The {@code Spliterator} is additionally
+     * {@linkplain Spliterator#SUBSIZED subsized}, splits along the boundaries
+     * of the tree, and traverses the leaf arrays directly.
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        if (headSize > 0) {
+            return withoutHead().spliterator();
+        }
+        return new VectorSpliterator(offset, totalSize);
+    }
+
+    /**
+     * A {@code Spliterator} over a range of (real) indices in this vector.
+     * Splits at the coarsest tree boundary near the middle of the range -
+     * between children of the root first, then between children of lower
+     * levels, and finally between leaves (or the last leaf and the tail) -
+     * so each half covers whole subtrees wherever possible.
+     */
+    private final class VectorSpliterator implements Spliterator<E> {
+
+        private final Cursor cursor = new Cursor();
+        private int index;
+        private final int end;
+
+        /**
+         * @param index the (real) index of the first element to traverse
+         * @param end the (real) index one past the last element to traverse
+         */
+        public VectorSpliterator(int index, int end) {
+            this.index = index;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super E> action) {
+            if (action == null) {
+                throw new NullPointerException("action");
+            }
+            if (index >= end) {
+                return false;
+            }
+
+            if (index < cursor.start || index >= cursor.end) {
+                cursor.seek(index);
+            }
+
+            @SuppressWarnings("unchecked")
+            E e = (E) cursor.array[index - cursor.start];
+            index += 1;
+
+            action.accept(e);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super E> action) {
+            if (action == null) {
+                throw new NullPointerException("action");
+            }
+
+            int i = index;
+            index = end;
+
+            // Walk one leaf (or the tail) at a time, finding each array
+            // only once.
+            while (i < end) {
+                cursor.seek(i);
+
+                Object[] leaf = cursor.array;
+                int from = i - cursor.start;
+                int to = Math.min(cursor.end, end) - cursor.start;
+
+                for (int j = from; j < to; ++j) {
+                    @SuppressWarnings("unchecked")
+                    E e = (E) leaf[j];
+                    action.accept(e);
+                }
+
+                i += (to - from);
+            }
+        }
+
+        @Override
+        public Spliterator<E> trySplit() {
+            long lo = index;
+            long hi = end;
+            long mid = (lo + hi) >>> 1;
+
+            // Try to split on the boundary between children of the root,
+            // then successively lower levels of the tree, down to the
+            // boundaries between individual leaves. Above the leaf level,
+            // only take a boundary that leaves each half with at least a
+            // quarter of the elements; otherwise look one level lower.
+
+            for (int shift = Math.max(treeDepth, 5); shift >= 5; shift -= 5) {
+                long width = (1L << shift);
+                long slack = (shift == 5 ? 1 : Math.max((hi - lo) >>> 2, 1));
+
+                long down = mid & ~(width - 1);
+                long up = down + width;
+
+                long split;
+                if (mid - down <= up - mid) {
+                    split = (down >= lo + slack ? down : up);
+                } else {
+                    split = (up <= hi - slack ? up : down);
+                }
+
+                if (split >= lo + slack && split <= hi - slack) {
+                    Spliterator<E> prefix =
+                            new VectorSpliterator(index, (int) split);
+
+                    index = (int) split;
+                    return prefix;
+                }
+            }
+
+            // All remaining elements are in a single leaf (or the tail).
+            return null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return (end - index);
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.SIZED
+                    | Spliterator.SUBSIZED
+                    | Spliterator.ORDERED
+                    | Spliterator.IMMUTABLE;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The hash code is cached, along with a summary of the partial hash
+     * codes of each node in the tree. Vectors derived from one whose hash
+     * code is already known by {@link #add(Object)}, {@link #prepend(Object)},
+     * {@link #set(int, Object)} or {@link #concat(Vector)} work out their
+     * own hash codes from it directly, without looking at any elements.
+     * Vectors derived by {@link #first(int)} or {@link #last(int)} reuse the
+     * partial hash code of every node they share with the original, so only
+     * the nodes along the cut are revisited.
+     */
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = computeHash();
+            hash = h;
+        }
+        return h;
+    }
+
+    /**
+     * Computes the hash code of this vector, same as a
+     * {@code java.util.List} with the same elements: 31 to the power of the
+     * size, plus the polynomial with each element's hash code as a
+     * coefficient. The polynomial for the tree comes from a summary of its
+     * nodes, reusing whatever the current summary (if any) shares with it;
+     * the new summary replaces it.
+     *
+     * @return the hash code of this vector
+     */
+    private int computeHash() {
+        int treeSize = getTreeSize();
+        int treeCount = Math.max(treeSize - offset, 0);
+
+        int treePoly = 0;
+        HashNode summary = null;
+        if (treeCount > 0) {
+            if (treeDepth == 0) {
+                treePoly = poly(treeRoot, offset, treeSize);
+            } else {
+                HashNode hint = align(hashes, treeRoot, treeDepth);
+                summary = summarize(treeRoot, treeDepth, hint);
+                treePoly = summary.poly;
+            }
+        }
+        hashes = summary;
+
+        // Any padding in front of the tree's elements is null, so it adds
+        // nothing to the tree's polynomial; it may spill into the tail.
+        int tailFrom = Math.max(offset - treeSize, 0);
+
+        int h = 0;
+        if (headSize > 0) {
+            h = poly(head, head.length - headSize, head.length);
+        }
+        h = h * pow31(treeCount) + treePoly;
+        h = h * pow31(tailSize - tailFrom) + poly(tail, tailFrom, tailSize);
+
+        return pow31(size()) + h;
+    }
+
+    /**
+     * Computes the hash polynomial of a range of an array, with each
+     * element's hash code as a coefficient.
+     *
+     * @param array the array
+     * @param from the index of the first element
+     * @param to the index after the last element
+     * @return the polynomial of the given elements, evaluated at 31
+     */
+    private static int poly(Object[] array, int from, int to) {
+        int poly = 0;
+        for (int i = from; i < to; ++i) {
+            poly = 31 * poly + Objects.hashCode(array[i]);
+        }
+        return poly;
+    }
+
+    /**
+     * Summarizes the partial hash codes of a (sub)tree. Any node the given
+     * hint shares with the tree keeps its summary; only the nodes that
+     * aren't shared are visited.
+     *
+     * @param node the root of the (sub)tree, an interior node
+     * @param depth the depth of the (sub)tree
+     * @param hint the summary of a node at the same depth that may share
+     *            children with this one, or of a node at a shallower depth
+     *            that may appear somewhere in this (sub)tree, or null
+     * @return the summary of the (sub)tree
+     */
+    private static HashNode summarize(
+            Object[] node,
+            int depth,
+            HashNode hint) {
+
+        if (hint != null && hint.node == node) {
+            return hint;
+        }
+
+        HashNode shared = null;
+        HashNode deeper = null;
+        if (hint != null && hint.depth == depth) {
+            shared = hint;
+        } else if (hint != null && hint.depth < depth) {
+            deeper = hint;
+        }
+
+        int count = getChildCount(node);
+
+        // Slicing shifts the children a node keeps over by a constant, so
+        // the first child that's shared says where to look for the rest
+        // (and for hints for the ones that aren't).
+        int shift = 0;
+        for (int i = 0; shared != null && i < count; ++i) {
+            int j = shared.indexOf(node[i], i);
+            if (j >= 0) {
+                shift = j - i;
+                break;
+            }
+        }
+
+        int[] polys = new int[count];
+        HashNode[] children = (depth > 5 ? new HashNode[count] : null);
+        int size = 0;
+        int poly = 0;
+
+        for (int i = 0; i < count; ++i) {
+            Object[] child = (Object[]) node[i];
+            int j = (shared == null ? -1 : shared.indexOf(child, i + shift));
+
+            int childSize;
+            if (child == null) {
+                // Padding, which has all (1 << depth) of its slots nulled.
+                childSize = (1 << depth);
+            } else if (depth == 5) {
+                childSize = child.length;
+                polys[i] = (j >= 0
+                        ? shared.polys[j]
+                        : poly(child, 0, child.length));
+            } else {
+                HashNode summary;
+                if (j >= 0) {
+                    summary = shared.children[j];
+                } else if (shared != null) {
+                    summary = summarize(
+                            child,
+                            depth - 5,
+                            shared.getChild(i + shift));
+                } else {
+                    summary = summarize(child, depth - 5, deeper);
+                }
+                children[i] = summary;
+                childSize = summary.size;
+                polys[i] = summary.poly;
+            }
+
+            poly = poly * pow31(childSize) + polys[i];
+            size += childSize;
+        }
+
+        return new HashNode(node, depth, size, poly, polys, children);
+    }
+
+    /**
+     * Lines up a hint with the root of a tree. If the hint summarizes a
+     * deeper tree, the root was cut from one of its edges and the levels
+     * above it collapsed out, so look for a node down either edge of the
+     * hint that shares children with the root.
+     *
+     * @param hint the hint, or null
+     * @param root the root of the tree
+     * @param depth the depth of the tree
+     * @return a hint for the root, or null
+     */
+    private static HashNode align(HashNode hint, Object[] root, int depth) {
+        if (hint == null || hint.depth <= depth) {
+            return hint;
+        }
+
+        HashNode left = hint;
+        HashNode right = hint;
+        while (left != null && left.depth > depth) {
+            left = left.getFirstChild();
+        }
+        while (right != null && right.depth > depth) {
+            right = right.getChild(right.polys.length - 1);
+        }
+
+        if (right != null && right.sharesChildren(root)) {
+            return right;
+        }
+        if (left != null && left.sharesChildren(root)) {
+            return left;
+        }
+        return null;
+    }
+
+    /**
+     * Raises 31 to the given power, modulo 2^32.
+     *
+     * @param n the power to raise 31 to
+     * @return 31 to the power of {@code n}
+     */
+    private static int pow31(int n) {
+        if (n == 32) {
+            return POW31_32;
+        }
+
+        int result = 1;
+        int base = 31;
+        for (; n != 0; n >>>= 1) {
+            if ((n & 1) != 0) {
+                result *= base;
+            }
+            base *= base;
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Two {@code VectorImpl}s are compared leaf array by leaf array, skipping
+     * any leaf the two vectors share. If both trees are radix-balanced with
+     * the same offset and size, they have the same shape, and are compared
+     * node by node instead, skipping whole shared subtrees.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof VectorImpl<?>)) {
+            if (obj instanceof List<?> && ((List<?>) obj).size() != size()) {
+                return false;
+            }
+            return super.equals(obj);
+        }
+
+        VectorImpl<?> that = (VectorImpl<?>) obj;
+        if (this.size() != that.size()) {
+            return false;
+        }
+        if (this.headSize > 0 || that.headSize > 0) {
+            return this.withoutHead().equals(that.withoutHead());
+        }
+
+        if (this.offset == that.offset
+                && this.treeDepth == that.treeDepth
+                && this.getTreeSize() == that.getTreeSize()
+                && !this.isRelaxed()
+                && !that.isRelaxed()) {
+
+            if (getTreeSize() > 0 && !equal(
+                    this.treeRoot,
+                    that.treeRoot,
+                    treeDepth,
+                    0,
+                    offset)) {
+                return false;
+            }
+            return equal(this.tail, 0, that.tail, 0, tailSize);
+        }
+
+        Cursor mine = this.new Cursor();
+        VectorImpl<?>.Cursor theirs = that.new Cursor();
+        int i = this.offset;
+        int j = that.offset;
+
+        while (i < totalSize) {
+            if (i >= mine.end) {
+                mine.seek(i);
+            }
+            if (j >= theirs.end) {
+                theirs.seek(j);
+            }
+
+            int length = Math.min(mine.end - i, theirs.end - j);
+            if (!equal(
+                    mine.array,
+                    i - mine.start,
+                    theirs.array,
+                    j - theirs.start,
+                    length)) {
+                return false;
+            }
+
+            i += length;
+            j += length;
+        }
+
+        return true;
+    }
+
+    /**
+     * Compares two radix-balanced subtrees at the same position in two
+     * trees of the same shape. Slots before the offset are ignored.
+     *
+     * @param a the root of a subtree of one tree
+     * @param b the root of the corresponding subtree of the other tree
+     * @param depth the depth of the subtrees
+     * @param start the (real) index of the first element of the subtrees
+     * @param offset the offset of the first element of the vectors
+     * @return true if the subtrees contain equal elements
+     */
+    private static boolean equal(
+            Object[] a,
+            Object[] b,
+            int depth,
+            int start,
+            int offset) {
+
+        if (a == b) {
+            return true;
+        }
+        if (a.length != b.length) {
+            return false;
+        }
+
+        if (depth == 0) {
+            if (start >= offset) {
+                return Arrays.equals(a, b);
+            }
+            int from = offset - start;
+            return equal(a, from, b, from, a.length - from);
+        }
+
+        for (int i = 0; i < a.length; ++i) {
+            int childStart = start + (i << depth);
+            if (childStart + (1 << depth) <= offset) {
+                // Entirely before the offset, and possibly nulled out.
+                continue;
+            }
+            if (!equal(
+                    (Object[]) a[i],
+                    (Object[]) b[i],
+                    depth - 5,
+                    childStart,
+                    offset)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares ranges of two arrays of elements.
+     *
+     * @param a the first array
+     * @param from the index of the first element to compare in {@code a}
+     * @param b the second array
+     * @param otherFrom the index of the first element to compare in
+     *            {@code b}
+     * @param length the number of elements to compare
+     * @return true if the ranges contain equal elements
+     */
+    private static boolean equal(
+            Object[] a,
+            int from,
+            Object[] b,
+            int otherFrom,
+            int length) {
+
+        if (a == b && from == otherFrom) {
+            return true;
+        }
+        if (from == 0 && otherFrom == 0
+                && a.length == length && b.length == length) {
+            return Arrays.equals(a, b);
+        }
+
+        for (int i = 0; i < length; ++i) {
+            Object x = a[from + i];
+            Object y = b[otherFrom + i];
+            if (x == null ? y != null : !x.equals(y)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the index within a particular node of the path to the element
+     * with the given index. At depth 0 (the leaf node), this is the low 5 bits
+     * of the index, and is the direct index of the element within the leaf
+     * node. At the next depth (5) it's bits 5-9 of the index, containing the
+     * index of the leaf node, and so forth.
+     *
+     * @param index the index of an element
+     * @param depth the depth of the tree from the given node
+     * @return the index of the path to the given element in this node
+     */
+    private static int getNodeIndex(int index, int depth) {
+        return (index >>> depth) & 0x1F;
+    }
+
+    /**
+     * Gets the array that the element with the given index belongs to. Always
+     * returns the contents of a leaf node of the tree; called recursively
+     * from the root to traverse the tree to find the appropriate leaf node.
+     *
+     * @param root the root of a tree
+     * @param depth the depth of the tree starting from this node
+     * @param index the index of an element to get the array for
+     * @return the array the given element belongs in
+     */
+    private static Object[] getArray(Object[] root, int depth, int index) {
+        if (depth == 0) {
+
+            // This is a leaf node, return the array.
+            return root;
+
+        } else {
+
+            // This is an internal node; recurse into the appropriate child.
+            int nodeIndex = getNodeIndex(index, depth);
+            Object[] child = (Object[]) root[nodeIndex];
+            return getArray(child, depth - 5, index);
+
+        }
+    }
+
+    /**
+     * Grows this tree by allocating a new two-element root node, using the
+     * existing tree as its leftmost node and a singleton path to the given
+     * leaf node as its rightmost node.
+     * <p>
+     * <code>
+     *              (new root)
+     *             /         \
+     *       (old root)      (node)
+     *        / ... \         /
+     *     (node)  (node)    (node)
+     *     /   |    |  \      /
+     *   (L)  (L)  (L) (L)  (leaf)
+     * </code>
+     *
+     * @param root the array for the root node
+     * @param depth the depth of the tree
+     * @param leaf the leaf node to append
+     * @return a new root node containing the old root and the new leaf
+     */
+    private static Object[] grow(Object[] root, int depth, Object[] leaf) {
+        Object[] newArray = new Object[2];
+        newArray[0] = root;
+        newArray[1] = newPath(depth, leaf);
+        return newArray;
+    }
+
+    /**
+     * Appends the given leaf node into the tree rooted at this node. Assumes
+     * the tree has room - the caller is responsible for tracking the size of
+     * the tree and {@linkplain #grow(Object[], int, Object[]) growing} it if
+     * need be instead of calling this method.
+     *
+     * @param root the root node of a tree
+     * @param depth the depth of the tree
+     * @param leaf the leaf node to append
+     * @param index the index of the last element in the leaf
+     * @return a copy of this tree with the new leaf appended
+     */
+    private static Object[] append(
+            Object[] root,
+            int depth,
+            Object[] leaf,
+            int index) {
+
+        // The index in this node where the path to the new leaf lives. It will
+        // be either the last element in the array or one element past the end;
+        // this turns out to be the easiest way to tell.
+        int nodeIndex = getNodeIndex(index, depth);
+
+        // Clone the array, growing if need be.
+        Object[] newArray;
+        if (nodeIndex == root.length) {
+            newArray = Arrays.copyOf(root, root.length + 1);
+        } else {
+            newArray = root.clone();
+        }
+
+        Object[] toInsert;
+        if (depth == 5) {
+            // Base case - directly insert the leaf.
+            toInsert = leaf;
+        } else if (nodeIndex == root.length) {
+            // If we're off the right edge of the tree, construct a new path
+            // and graft it in.
+            toInsert = newPath(depth - 5, leaf);
+        } else {
+            // Recurse into the appropriate child node.
+            Object[] child = (Object[]) root[nodeIndex];
+            toInsert = append(child, depth - 5, leaf, index);
+        }
+
+        // Set/overwrite the path in the new array
+        newArray[nodeIndex] = toInsert;
+        return newArray;
+    }
+
+    /**
+     * Creates a new path of the appropriate depth to a leaf. Each interior
+     * node in the path has its 0th element pointing to the next node down,
+     * until the final node points to the given leaf node.
+     * <p>
+     * <code>
+     *        ...
+     *        /
+     *     (node)
+     *     /
+     * (leaf)
+     * </code>
+     * <p>
+     * This path will then be welded on to the appropriate place on the tree,
+     * constructing a new tree that's slightly more full.
+     * <p>
+     * <code>
+     *     \
+     *  (existing)
+     *    /   \
+     *  ...  (path)
+     *        /
+     *      ...
+     * </code>
+     *
+     * @param length the length of the path (in increments of 5)
+     * @param block the block at the
+     * @return a path to the current tail node
+     */
+    private static Object[] newPath(int length, Object[] leaf) {
+        Object[] node = leaf;
+        for (int i = 0; i < length; i += 5) {
+            node = new Object[] { node };
+        }
+        return node;
+    }
+
+    /**
+     * Recursively prunes elements from the right side of the tree as part of
+     * a call to {@link #first(int)}. Returns a reduced tree and a new tail.
+     *
+     * @param root the root of the tree
+     * @param depth the depth of the tree
+     * @param index the (real) index of the last element to keep
+     * @param leftEdge true if this node is on the left edge of the tree
+     * @return the pruned tree and tail
+     */
+    private static PruneRightResult pruneRight(
+            Object[] root,
+            int depth,
+            int index,
+            boolean leftEdge) {
+
+        if (depth == 0) {
+            // Leaf node - chomp it down and it becomes the new tail.
+            int newSize = (index & 0x1F) + 1;
+            Object[] newTail = Arrays.copyOf(root, newSize);
+            return new PruneRightResult(newTail);
+        }
+
+        // An interior node. Find the index of the path to the last element
+        // we want to keep in this node.
+
+        int nodeIndex = getNodeIndex(index, depth);
+
+        // If we're on the left edge of the tree and the child branch we're
+        // pruning is too, then this node is redundant and may be collapsed
+        // out, reducing the depth of the resulting tree.
+
+        boolean childOnLeftEdge = leftEdge && (nodeIndex == 0);
+
+        // Recursively prune it.
+        Object[] child = (Object[]) root[nodeIndex];
+        PruneRightResult result = pruneRight(
+                child,
+                depth - 5,
+                index,
+                childOnLeftEdge);
+
+        if (childOnLeftEdge) {
+            return result;
+        } else {
+            return finishPruneRight(root, nodeIndex, result);
+        }
+    }
+
+    /**
+     * Finishes pruning a tree from the right after making a recursive call
+     * to {@code pruneRight} on a child.
+     *
+     * @param root the root of the tree
+     * @param nodeIndex the index of the child branch that was pruned
+     * @param result the result of pruning the child branch
+     * @return the result of pruning the overall tree
+     */
+    private static PruneRightResult finishPruneRight(
+            Object[] root,
+            int nodeIndex,
+            PruneRightResult result) {
+
+        if (result.root == null) {
+
+            // The child was totally pruned.
+
+            if (nodeIndex == 0) {
+
+                // That was our only child; prune this node too (but we're
+                // not on the left edge, so can't totally collapse).
+                result.depth += 5;
+                return result;
+
+            } else {
+
+                // Only some children pruned, trim the block down.
+                result.root = Arrays.copyOf(root, nodeIndex);
+                result.depth += 5;
+                return result;
+
+            }
+
+        } else {
+
+            // Child was partially pruned, shrink this array and swap in the
+            // updated last node.
+            Object[] newRoot = Arrays.copyOf(root, nodeIndex + 1);
+            newRoot[nodeIndex] = result.root;
+
+            result.root = newRoot;
+            result.depth += 5;
+            return result;
+
+        }
+    }
+
+    /**
+     * Recursively prunes elements from the left side of the tree as part of a
+     * call to {@link #last(int)}. Returns a reduced tree and the offset of
+     * the first non-pruned element in the reduced tree.
+     *
+     * @param root the root of the tree to prune
+     * @param depth the depth of the tree
+     * @param index the index of the first element to keep
+     * @param rightEdge true if we're on the right edge of the tree
+     * @return the pruned tree and offset
+     */
+    private static PruneLeftResult pruneLeft(
+            Object[] root,
+            int depth,
+            int index,
+            boolean rightEdge) {
+
+        if (depth == 0) {
+
+            // Found the leaf node we're interested in. Can't shift it without
+            // messing up the tail, so null out the entries we're "removing"
+            // and set an appropriate offset.
+
+            int nodeIndex = index & 0x1F;
+            if (nodeIndex == 0) {
+                // Pruned on a node boundary; don't bother cloning.
+                return new PruneLeftResult(root, 0);
+            } else {
+                // Clone and null out stuff we don't need so it can be GC'd.
+                Object[] newRoot = root.clone();
+                for (int i = 0; i < nodeIndex; ++i) {
+                    newRoot[i] = null;
+                }
+                return new PruneLeftResult(newRoot, nodeIndex);
+            }
+        }
+
+        // An interior node. Find the index of the path to the last element
+        // we want to keep in this node.
+
+        int nodeIndex = getNodeIndex(index, depth);
+
+        // If we're on the right edge of the tree and the child branch we're
+        // pruning is too, then this node is redundant and may be collapsed
+        // out, reducing the depth of the resulting tree.
+
+        boolean childOnRightEdge = rightEdge && (nodeIndex == root.length - 1);
+
+        // Recursively prune it.
+        Object[] child = (Object[]) root[nodeIndex];
+        PruneLeftResult result = pruneLeft(
+                child,
+                depth - 5,
+                index,
+                childOnRightEdge);
+
+        if (childOnRightEdge) {
+            // Prune this node out entirely.
+            return result;
+        }
+
+        if (nodeIndex == 0 && result.root == child) {
+            // Pruned on a boundary; don't bother cloning.
+            result.root = root;
+            result.depth += 5;
+            return result;
+        }
+
+        if (rightEdge) {
+            // We can safely shift things over if there's space.
+            Object[] newRoot = Arrays.copyOfRange(
+                    root,
+                    nodeIndex,
+                    root.length);
+
+            newRoot[0] = result.root;
+
+            result.root = newRoot;
+            result.depth += 5;
+            return result;
+        }
+
+        // Can't shift, null things out and increase the offset.
+        Object[] newRoot = root.clone();
+        for (int i = 0; i < nodeIndex; ++i) {
+            newRoot[i] = null;
+        }
+        newRoot[nodeIndex] = result.root;
+        result.root = newRoot;
+        result.depth += 5;
+
+        result.offset += (nodeIndex * (1 << depth));
+        return result;
+    }
+
+    /**
+     * Returns whether the given interior node is relaxed - that is, whether
+     * it carries a table of the cumulative sizes of its children in its last
+     * slot. Must not be called on leaf nodes, whose slots hold elements.
+     *
+     * @param node an interior node
+     * @return true if the node has a size table
+     */
+    private static boolean isRelaxed(Object[] node) {
+        return (node[node.length - 1] instanceof int[]);
+    }
+
+    /**
+     * Returns whether the root of this vector's tree is relaxed. If not, the
+     * tree is a regular radix-balanced tree.
+     *
+     * @return true if the root has a size table
+     */
+    private boolean isRelaxed() {
+        return (treeDepth > 0 && isRelaxed(treeRoot));
+    }
+
+    /**
+     * Gets the table of cumulative child sizes from a relaxed node.
+     *
+     * @param node a relaxed interior node
+     * @return its size table
+     */
+    private static int[] getSizes(Object[] node) {
+        return (int[]) node[node.length - 1];
+    }
+
+    /**
+     * Gets the number of children of the given interior node, not counting
+     * the size table of a relaxed node.
+     *
+     * @param node an interior node
+     * @return the number of children it has
+     */
+    private static int getChildCount(Object[] node) {
+        return (isRelaxed(node) ? node.length - 1 : node.length);
+    }
+
+    /**
+     * Gets the number of slots in use in the given node: the number of
+     * elements for a leaf, or the number of children for an interior node.
+     *
+     * @param node a node
+     * @param depth the depth of the node
+     * @return the number of slots it uses
+     */
+    private static int getSlotCount(Object[] node, int depth) {
+        return (depth == 0 ? node.length : getChildCount(node));
+    }
+
+    /**
+     * Gets the index of the child of a relaxed node that contains the
+     * element with the given index. No child holds more than
+     * {@code 1 << depth} elements, so the radix index is a lower bound; the
+     * size table is scanned forward from there.
+     *
+     * @param sizes the size table of a relaxed node
+     * @param index the index of an element within the node
+     * @param depth the depth of the node
+     * @return the index of the child containing the element
+     */
+    private static int getRelaxedIndex(int[] sizes, int index, int depth) {
+        int nodeIndex = (index >>> depth);
+        while (sizes[nodeIndex] <= index) {
+            nodeIndex += 1;
+        }
+        return nodeIndex;
+    }
+
+    /**
+     * Gets the element with the given index from a (possibly) relaxed tree,
+     * using the size tables to navigate relaxed nodes and slicing bits out
+     * of the index for radix-balanced ones.
+     *
+     * @param root the root of the tree
+     * @param depth the depth of the tree
+     * @param index the index of the element
+     * @return the element
+     */
+    private static Object getRelaxed(Object[] root, int depth, int index) {
+        Object[] node = root;
+        for (int d = depth; d > 0; d -= 5) {
+            int nodeIndex;
+            if (isRelaxed(node)) {
+                int[] sizes = getSizes(node);
+                nodeIndex = getRelaxedIndex(sizes, index, d);
+                if (nodeIndex > 0) {
+                    index -= sizes[nodeIndex - 1];
+                }
+            } else {
+                nodeIndex = getNodeIndex(index, d);
+            }
+            node = (Object[]) node[nodeIndex];
+        }
+        return node[index & 0x1F];
+    }
+
+    /**
+     * Gets the number of elements in the (sub)tree rooted at the given
+     * node. Constant time for leaves and relaxed nodes; radix-balanced nodes
+     * are full except along their right edge, so only that is walked.
+     *
+     * @param node the root of a (sub)tree
+     * @param depth the depth of the (sub)tree
+     * @return the number of elements in it
+     */
+    private static int sizeOf(Object[] node, int depth) {
+        if (depth == 0) {
+            return node.length;
+        }
+        if (isRelaxed(node)) {
+            int[] sizes = getSizes(node);
+            return sizes[sizes.length - 1];
+        }
+
+        int last = node.length - 1;
+        return (last << depth) + sizeOf((Object[]) node[last], depth - 5);
+    }
+
+    /**
+     * Computes the table of cumulative sizes for the given children.
+     *
+     * @param children the children of an interior node
+     * @param depth the depth of the interior node
+     * @return the cumulative sizes of the children
+     */
+    private static int[] computeSizes(Object[] children, int depth) {
+        int[] sizes = new int[children.length];
+        int total = 0;
+        for (int i = 0; i < children.length; ++i) {
+            total += sizeOf((Object[]) children[i], depth - 5);
+            sizes[i] = total;
+        }
+        return sizes;
+    }
+
+    /**
+     * Creates an interior node with the given children. If every child but
+     * the last is full, and none of them are relaxed, the node can be
+     * navigated by radix and is returned as-is; otherwise a size table is
+     * appended.
+     *
+     * @param children the children of the new node
+     * @param depth the depth of the new node
+     * @return the new node
+     */
+    private static Object[] makeNode(Object[] children, int depth) {
+        int[] sizes = computeSizes(children, depth);
+
+        int full = (1 << depth);
+        boolean balanced = true;
+
+        for (int i = 0; i < children.length && balanced; ++i) {
+            if (depth > 5 && isRelaxed((Object[]) children[i])) {
+                balanced = false;
+            } else if (i < children.length - 1 && sizes[i] != full * (i + 1)) {
+                balanced = false;
+            }
+        }
+
+        if (balanced) {
+            return children;
+        }
+
+        return withSizes(children, sizes);
+    }
+
+    /**
+     * Appends the given size table to a copy of the given children.
+     *
+     * @param children the children of the node
+     * @param sizes their cumulative sizes
+     * @return the new relaxed node
+     */
+    private static Object[] withSizes(Object[] children, int[] sizes) {
+        Object[] node = Arrays.copyOf(children, children.length + 1);
+        node[children.length] = sizes;
+        return node;
+    }
+
+    /**
+     * Appends the given (possibly partial) leaf to the right edge of a
+     * (possibly) relaxed tree, updating size tables along the way. The
+     * equivalent of {@link #append(Object[], int, Object[], int)} for trees
+     * that can't be navigated by radix.
+     *
+     * @param node the root of the (sub)tree
+     * @param depth the depth of the (sub)tree
+     * @param leaf the leaf to append
+     * @return the new root, or null if the (sub)tree has no room
+     */
+    private static Object[] pushLeaf(Object[] node, int depth, Object[] leaf) {
+        boolean relaxed = isRelaxed(node);
+        int count = (relaxed ? node.length - 1 : node.length);
+
+        if (depth > 5) {
+            // Try to push it into the rightmost child first.
+            Object[] last = (Object[]) node[count - 1];
+            Object[] newLast = pushLeaf(last, depth - 5, leaf);
+
+            if (newLast != null) {
+                if (relaxed) {
+                    Object[] newNode = node.clone();
+                    newNode[count - 1] = newLast;
+
+                    int[] sizes = getSizes(node).clone();
+                    sizes[count - 1] += leaf.length;
+                    newNode[count] = sizes;
+                    return newNode;
+                }
+
+                Object[] children = node.clone();
+                children[count - 1] = newLast;
+                return makeNode(children, depth);
+            }
+        }
+
+        if (count == 32) {
+            // No room in this node.
+            return null;
+        }
+
+        // Graft a new path to the leaf on to the right of this node.
+        Object[] path = newPath(depth - 5, leaf);
+
+        if (relaxed) {
+            Object[] newNode = Arrays.copyOf(node, count + 2);
+            newNode[count] = path;
+
+            int[] sizes = Arrays.copyOf(getSizes(node), count + 1);
+            sizes[count] = sizes[count - 1] + leaf.length;
+            newNode[count + 1] = sizes;
+            return newNode;
+        }
+
+        Object[] children = Arrays.copyOf(node, count + 1);
+        children[count] = path;
+
+        if (sizeOf((Object[]) node[count - 1], depth - 5) == (1 << depth)) {
+            // Still radix-balanced.
+            return children;
+        }
+        return makeNode(children, depth);
+    }
+
+    /**
+     * Slices the given (sub)tree, keeping only its first {@code n}
+     * elements.
+     *
+     * @param node the root of the (sub)tree
+     * @param depth the depth of the (sub)tree
+     * @param n the number of elements to keep; must be positive
+     * @return the root of the sliced (sub)tree
+     */
+    private static Object[] sliceRight(Object[] node, int depth, int n) {
+        if (depth == 0) {
+            return (n == node.length ? node : Arrays.copyOf(node, n));
+        }
+
+        int nodeIndex;
+        int remaining;
+
+        if (isRelaxed(node)) {
+            int[] sizes = getSizes(node);
+            if (n == sizes[sizes.length - 1]) {
+                return node;
+            }
+            nodeIndex = getRelaxedIndex(sizes, n - 1, depth);
+            remaining = (nodeIndex == 0 ? n : n - sizes[nodeIndex - 1]);
+        } else {
+            nodeIndex = ((n - 1) >>> depth);
+            remaining = n - (nodeIndex << depth);
+        }
+
+        Object[] child = (Object[]) node[nodeIndex];
+        Object[] newChild = sliceRight(child, depth - 5, remaining);
+
+        Object[] children = Arrays.copyOf(node, nodeIndex + 1);
+        children[nodeIndex] = newChild;
+        return makeNode(children, depth);
+    }
+
+    /**
+     * Slices the given (sub)tree, dropping its first {@code n} elements.
+     *
+     * @param node the root of the (sub)tree
+     * @param depth the depth of the (sub)tree
+     * @param n the number of elements to drop; must be less than the size
+     * @return the root of the sliced (sub)tree
+     */
+    private static Object[] sliceLeft(Object[] node, int depth, int n) {
+        if (n == 0) {
+            return node;
+        }
+        if (depth == 0) {
+            return Arrays.copyOfRange(node, n, node.length);
+        }
+
+        int nodeIndex;
+        int remaining;
+
+        if (isRelaxed(node)) {
+            int[] sizes = getSizes(node);
+            nodeIndex = getRelaxedIndex(sizes, n, depth);
+            remaining = (nodeIndex == 0 ? n : n - sizes[nodeIndex - 1]);
+        } else {
+            nodeIndex = (n >>> depth);
+            remaining = n - (nodeIndex << depth);
+        }
+
+        Object[] child = (Object[]) node[nodeIndex];
+        Object[] newChild = sliceLeft(child, depth - 5, remaining);
+
+        Object[] children = Arrays.copyOfRange(
+                node,
+                nodeIndex,
+                getChildCount(node));
+
+        children[0] = newChild;
+        return makeNode(children, depth);
+    }
+
+    /**
+     * Gets the rightmost leaf of the given tree.
      *
-     * @param length the length of the path (in increments of 5)
-     * @param block the block at the
-     * @return a path to the current tail node
+     * @param root the root of the tree
+     * @param depth the depth of the tree
+     * @return its rightmost leaf
      */
-    private static Object[] newPath(int length, Object[] leaf) {
-        Object[] node = leaf;
-        for (int i = 0; i < length; i += 5) {
-            node = new Object[] { node };
+    private static Object[] getLastLeaf(Object[] root, int depth) {
+        Object[] node = root;
+        for (int d = depth; d > 0; d -= 5) {
+            node = (Object[]) node[getChildCount(node) - 1];
         }
         return node;
     }
 
     /**
-     * Recursively prunes elements from the right side of the tree as part of
-     * a call to {@link #first(int)}. Returns a reduced tree and a new tail.
+     * Creates a vector (with no offset) from the given tree and tail,
+     * collapsing any redundant single-child nodes off the top of the tree.
+     * A radix-balanced root is only allowed if every leaf is full, so the
+     * original (non-relaxed) algorithms can be used on it; otherwise the
+     * root is given a size table.
      *
-     * @param root the root of the tree
+     * @param root the root of the tree, or null for an empty tree
      * @param depth the depth of the tree
-     * @param index the (real) index of the last element to keep
-     * @param leftEdge true if this node is on the left edge of the tree
-     * @return the pruned tree and tail
+     * @param tail the tail
+     * @return a new vector
      */
-    private static PruneRightResult pruneRight(
+    private static <E> VectorImpl<E> create(
             Object[] root,
             int depth,
-            int index,
-            boolean leftEdge) {
+            Object[] tail) {
+
+        return create(root, depth, tail, tail.length, null);
+    }
+
+    /**
+     * Creates a vector (with no offset) from the given tree and a (possibly
+     * shared) tail.
+     *
+     * @param root the root of the tree, or null for an empty tree
+     * @param depth the depth of the tree
+     * @param tail the tail
+     * @param tailSize the number of elements of the tail in use
+     * @param tailMarker the tail's fill marker, or null
+     * @return a new vector
+     * @see #create(Object[], int, Object[])
+     */
+    private static <E> VectorImpl<E> create(
+            Object[] root,
+            int depth,
+            Object[] tail,
+            int tailSize,
+            AtomicInteger tailMarker) {
+
+        if (root == null) {
+            return new VectorImpl<>(
+                    0,
+                    tailSize,
+                    null,
+                    0,
+                    tail,
+                    tailSize,
+                    tailMarker);
+        }
+
+        while (depth > 0 && getChildCount(root) == 1) {
+            root = (Object[]) root[0];
+            depth -= 5;
+        }
+
+        int treeSize = sizeOf(root, depth);
 
         if (depth == 0) {
-            // Leaf node - chomp it down and it becomes the new tail.
-            int newSize = (index & 0x1F) + 1;
-            Object[] newTail = Arrays.copyOf(root, newSize);
-            return new PruneRightResult(newTail);
+            if (treeSize != 32) {
+                root = withSizes(new Object[] { root }, new int[] { treeSize });
+                depth = 5;
+            }
+        } else if ((treeSize & 0x1F) != 0 && !isRelaxed(root)) {
+            root = withSizes(root, computeSizes(root, depth));
         }
 
-        // An interior node. Find the index of the path to the last element
-        // we want to keep in this node.
+        return new VectorImpl<>(
+                0,
+                treeSize + tailSize,
+                root,
+                depth,
+                tail,
+                tailSize,
+                tailMarker);
+    }
 
-        int nodeIndex = getNodeIndex(index, depth);
+    /**
+     * Concatenates two trees, rebalancing nodes along the seam between them
+     * so that the result stays shallow. Returns a node one level above the
+     * deeper of the two trees, which may have a single child.
+     *
+     * @param left the root of the left tree
+     * @param leftDepth the depth of the left tree
+     * @param right the root of the right tree
+     * @param rightDepth the depth of the right tree
+     * @param top true if these are the roots of the trees being concatenated
+     * @return the root of the concatenated tree
+     */
+    private static Object[] concat(
+            Object[] left,
+            int leftDepth,
+            Object[] right,
+            int rightDepth,
+            boolean top) {
+
+        if (leftDepth > rightDepth) {
+            Object[] last = (Object[]) left[getChildCount(left) - 1];
+            Object[] center =
+                    concat(last, leftDepth - 5, right, rightDepth, false);
+            return rebalance(left, center, null, leftDepth);
+        }
 
-        // If we're on the left edge of the tree and the child branch we're
-        // pruning is too, then this node is redundant and may be collapsed
-        // out, reducing the depth of the resulting tree.
+        if (leftDepth < rightDepth) {
+            Object[] first = (Object[]) right[0];
+            Object[] center =
+                    concat(left, leftDepth, first, rightDepth - 5, false);
+            return rebalance(null, center, right, rightDepth);
+        }
 
-        boolean childOnLeftEdge = leftEdge && (nodeIndex == 0);
+        if (leftDepth == 0) {
+            int length = left.length + right.length;
+            if (top && length <= 32) {
+                // Two small leaves; just merge them.
+                Object[] merged = Arrays.copyOf(left, length);
+                System.arraycopy(right, 0, merged, left.length, right.length);
+                return new Object[] { merged };
+            }
+            return makeNode(new Object[] { left, right }, 5);
+        }
 
-        // Recursively prune it.
-        Object[] child = (Object[]) root[nodeIndex];
-        PruneRightResult result = pruneRight(
-                child,
-                depth - 5,
-                index,
-                childOnLeftEdge);
+        Object[] last = (Object[]) left[getChildCount(left) - 1];
+        Object[] first = (Object[]) right[0];
+        Object[] center = concat(last, leftDepth - 5, first, leftDepth - 5, false);
+        return rebalance(left, center, right, leftDepth);
+    }
 
-        if (childOnLeftEdge) {
-            return result;
-        } else {
-            return finishPruneRight(root, nodeIndex, result);
+    /**
+     * Merges the children of the given nodes (all but the last child of the
+     * left node, all children of the center node, and all but the first
+     * child of the right node), redistributing their contents if there are
+     * too many of them. Returns a node one level above the given nodes.
+     *
+     * @param left the left node, or null
+     * @param center the center node, one level above the given nodes
+     * @param right the right node, or null
+     * @param depth the depth of the left and right nodes
+     * @return a node at {@code depth + 5} containing the merged children
+     */
+    private static Object[] rebalance(
+            Object[] left,
+            Object[] center,
+            Object[] right,
+            int depth) {
+
+        int leftCount = (left == null ? 0 : getChildCount(left) - 1);
+        int centerCount = getChildCount(center);
+        int rightCount = (right == null ? 0 : getChildCount(right) - 1);
+
+        Object[] all = new Object[leftCount + centerCount + rightCount];
+        if (leftCount > 0) {
+            System.arraycopy(left, 0, all, 0, leftCount);
+        }
+        System.arraycopy(center, 0, all, leftCount, centerCount);
+        if (rightCount > 0) {
+            System.arraycopy(right, 1, all, leftCount + centerCount, rightCount);
+        }
+
+        Object[] nodes = executeConcatPlan(all, depth - 5);
+
+        if (nodes.length <= 32) {
+            return makeNode(
+                    new Object[] { makeNode(nodes, depth) },
+                    depth + 5);
         }
+
+        Object[] newLeft = makeNode(Arrays.copyOf(nodes, 32), depth);
+        Object[] newRight =
+                makeNode(Arrays.copyOfRange(nodes, 32, nodes.length), depth);
+
+        return makeNode(new Object[] { newLeft, newRight }, depth + 5);
     }
 
     /**
-     * Finishes pruning a tree from the right after making a recursive call
-     * to {@code pruneRight} on a child.
+     * Redistributes the slots of the given nodes so that there are at most
+     * two more nodes than the minimum needed to hold them all. Nodes that
+     * are (nearly) full are left alone; the contents of the first
+     * under-full node are shuffled rightwards into its neighbors until it's
+     * eliminated, and the process is repeated until there are few enough
+     * nodes.
      *
-     * @param root the root of the tree
-     * @param nodeIndex the index of the child branch that was pruned
-     * @param result the result of pruning the child branch
-     * @return the result of pruning the overall tree
+     * @param nodes the nodes to redistribute
+     * @param depth the depth of the nodes
+     * @return the redistributed nodes
      */
-    private static PruneRightResult finishPruneRight(
-            Object[] root,
-            int nodeIndex,
-            PruneRightResult result) {
+    private static Object[] executeConcatPlan(Object[] nodes, int depth) {
+        int count = nodes.length;
+        int[] plan = new int[count];
+        int total = 0;
+
+        for (int i = 0; i < count; ++i) {
+            plan[i] = getSlotCount((Object[]) nodes[i], depth);
+            total += plan[i];
+        }
 
-        if (result.root == null) {
+        int optimal = ((total + 31) >>> 5);
+        if (optimal + 2 >= count) {
+            // Good enough already.
+            return nodes;
+        }
 
-            // The child was totally pruned.
+        int i = 0;
+        while (optimal + 2 < count) {
+            while (plan[i] > 31) {
+                i += 1;
+            }
 
-            if (nodeIndex == 0) {
+            // Spread this node's slots over the following nodes.
+            int remaining = plan[i];
+            while (remaining > 0) {
+                int size = Math.min(remaining + plan[i + 1], 32);
+                remaining = remaining + plan[i + 1] - size;
+                plan[i] = size;
+                i += 1;
+            }
 
-                // That was our only child; prune this node too (but we're
-                // not on the left edge, so can't totally collapse).
-                result.depth += 5;
-                return result;
+            // Drop the (now-empty) last node we touched.
+            System.arraycopy(plan, i + 1, plan, i, count - i - 1);
+            count -= 1;
+            i -= 1;
+            if (i < 0) {
+                i = 0;
+            }
+        }
 
-            } else {
+        // Now build the nodes described by the plan, reusing any original
+        // nodes that fit.
 
-                // Only some children pruned, trim the block down.
-                result.root = Arrays.copyOf(root, nodeIndex);
-                result.depth += 5;
-                return result;
+        Object[] result = new Object[count];
+        int source = 0;
+        int sourceOffset = 0;
 
+        for (int j = 0; j < count; ++j) {
+            Object[] node = (Object[]) nodes[source];
+            if (sourceOffset == 0 && getSlotCount(node, depth) == plan[j]) {
+                result[j] = node;
+                source += 1;
+                continue;
             }
 
-        } else {
+            Object[] slots = new Object[plan[j]];
+            int filled = 0;
 
-            // Child was partially pruned, shrink this array and swap in the
-            // updated last node.
-            Object[] newRoot = Arrays.copyOf(root, nodeIndex + 1);
-            newRoot[nodeIndex] = result.root;
+            while (filled < slots.length) {
+                node = (Object[]) nodes[source];
+                int available = getSlotCount(node, depth) - sourceOffset;
+                int taken = Math.min(available, slots.length - filled);
 
-            result.root = newRoot;
-            result.depth += 5;
-            return result;
+                System.arraycopy(node, sourceOffset, slots, filled, taken);
+                filled += taken;
+                sourceOffset += taken;
+
+                if (sourceOffset == getSlotCount(node, depth)) {
+                    source += 1;
+                    sourceOffset = 0;
+                }
+            }
 
+            result[j] = (depth == 0 ? slots : makeNode(slots, depth));
         }
+
+        return result;
     }
 
     /**
-     * Recursively prunes elements from the left side of the tree as part of a
-     * call to {@link #last(int)}. Returns a reduced tree and the offset of
-     * the first non-pruned element in the reduced tree.
-     *
-     * @param root the root of the tree to prune
-     * @param depth the depth of the tree
-     * @param index the index of the first element to keep
-     * @param rightEdge true if we're on the right edge of the tree
-     * @return the pruned tree and offset
+     * A transient builder for a {@code VectorImpl}, along the lines of
+     * Clojure's {@code TransientVector}.
+     * <p>
+     * Appends only ever modify the tail and the rightmost path through the
+     * tree, so rather than tagging every node with an edit token the builder
+     * keeps track of the nodes on that path that it allocated itself (one
+     * per level of the tree). Those nodes are not yet visible to any
+     * persistent vector, so they can safely be modified in place; anything
+     * else is copied the first time it needs to change. The tail is kept in
+     * a full 32-element array that is filled in place and pushed directly
+     * into the tree as a new leaf once full.
+     * <p>
+     * {@link #build()} hands the tail over to the vector (which may append to
+     * it in place through its fill marker) and relinquishes ownership of
+     * every node, so vectors that have been built never observe later
+     * modifications made through the builder.
      */
-    private static PruneLeftResult pruneLeft(
-            Object[] root,
-            int depth,
-            int index,
-            boolean rightEdge) {
+    static final class Builder<E> implements Vector.Builder<E> {
+
+        private final int offset;
+        private int totalSize;
+        private Object[] treeRoot;
+        private int treeDepth;
+
+        private Object[] tail;
+        private int tailSize;
+        private boolean tailOwned;
+
+        /**
+         * The nodes on the rightmost path of the tree that this builder has
+         * allocated and may modify in place, indexed by (depth / 5).
+         */
+        private final Object[][] owned = new Object[7][];
+
+        /**
+         * @param vector the vector to start from
+         */
+        public Builder(VectorImpl<E> vector) {
+            this.offset = vector.offset;
+            this.totalSize = vector.totalSize;
+            this.treeRoot = vector.treeRoot;
+            this.treeDepth = vector.treeDepth;
+            this.tail = vector.tail;
+            this.tailSize = vector.tailSize;
+        }
 
-        if (depth == 0) {
+        @Override
+        public int size() {
+            return (totalSize - offset);
+        }
 
-            // Found the leaf node we're interested in. Can't shift it without
-            // messing up the tail, so null out the entries we're "removing"
-            // and set an appropriate offset.
+        @Override
+        public Builder<E> add(E e) {
+            if (totalSize == Integer.MAX_VALUE) {
+                // Can't grow the underlying data structure any more.
+                throw new OutOfMemoryError();
+            }
 
-            int nodeIndex = index & 0x1F;
-            if (nodeIndex == 0) {
-                // Pruned on a node boundary; don't bother cloning.
-                return new PruneLeftResult(root, 0);
-            } else {
-                // Clone and null out stuff we don't need so it can be GC'd.
-                Object[] newRoot = root.clone();
-                for (int i = 0; i < nodeIndex; ++i) {
-                    newRoot[i] = null;
+            if (tailSize == 32) {
+                // The tail is full; push it into the tree as a new leaf and
+                // start a fresh one.
+                pushTail();
+                tail = new Object[32];
+                tailSize = 0;
+                tailOwned = true;
+            } else if (!tailOwned) {
+                // The tail is (potentially) shared with a persistent vector;
+                // take a private copy with room to grow.
+                Object[] newTail = new Object[32];
+                System.arraycopy(tail, 0, newTail, 0, tailSize);
+                tail = newTail;
+                tailOwned = true;
+            }
+
+            tail[tailSize] = e;
+            tailSize += 1;
+            totalSize += 1;
+            return this;
+        }
+
+        @Override
+        public Builder<E> addAll(Iterable<? extends E> c) {
+            for (E e : c) {
+                add(e);
+            }
+            return this;
+        }
+
+        @Override
+        public VectorImpl<E> build() {
+            if (totalSize == offset) {
+                return empty();
+            }
+
+            // Anything we've handed out is now shared and must be copied
+            // before it's modified again.
+            Arrays.fill(owned, null);
+
+            // If the tail array is ours, the vector takes it over and can
+            // keep appending to it in place. If not, it came from another
+            // vector, which may still be appending to it.
+            AtomicInteger marker = null;
+            if (tailOwned) {
+                marker = new AtomicInteger(tailSize);
+                tailOwned = false;
+            }
+
+            return new VectorImpl<>(
+                    offset,
+                    totalSize,
+                    treeRoot,
+                    treeDepth,
+                    tail,
+                    tailSize,
+                    marker);
+        }
+
+        /**
+         * Pushes the (full) tail into the tree as a new leaf node.
+         */
+        private void pushTail() {
+            if (treeRoot == null) {
+
+                // First leaf; it becomes the root.
+                treeRoot = tail;
+
+            } else if (treeDepth > 0 && isRelaxed(treeRoot)) {
+
+                // Relaxed trees are pushed into persistently; the size
+                // tables make in-place updates more trouble than they're
+                // worth.
+                Object[] newRoot = pushLeaf(treeRoot, treeDepth, tail);
+                if (newRoot == null) {
+                    newRoot = makeNode(
+                            new Object[] {
+                                    treeRoot,
+                                    VectorImpl.newPath(treeDepth, tail) },
+                            treeDepth + 5);
+                    treeDepth += 5;
                 }
-                return new PruneLeftResult(newRoot, nodeIndex);
+                treeRoot = newRoot;
+
+            } else if (isTreeFull(totalSize, treeDepth)) {
+
+                // Push the root up a level.
+                Object[] newRoot = new Object[] {
+                        treeRoot,
+                        newPath(treeDepth, tail) };
+
+                treeDepth += 5;
+                treeRoot = newRoot;
+                owned[treeDepth / 5] = newRoot;
+
+            } else {
+
+                treeRoot = append(treeRoot, treeDepth, tail, totalSize - 1);
+
             }
         }
 
-        // An interior node. Find the index of the path to the last element
-        // we want to keep in this node.
+        /**
+         * Appends the given leaf to the tree rooted at the given node,
+         * modifying owned nodes in place and copying any others.
+         *
+         * @param node the root of the (sub)tree
+         * @param depth the depth of the (sub)tree
+         * @param leaf the leaf node to append
+         * @param index the index of the last element in the leaf
+         * @return the root of the updated (sub)tree; possibly the same node
+         */
+        private Object[] append(
+                Object[] node,
+                int depth,
+                Object[] leaf,
+                int index) {
 
-        int nodeIndex = getNodeIndex(index, depth);
+            int nodeIndex = getNodeIndex(index, depth);
 
-        // If we're on the right edge of the tree and the child branch we're
-        // pruning is too, then this node is redundant and may be collapsed
-        // out, reducing the depth of the resulting tree.
+            if (nodeIndex == node.length) {
 
-        boolean childOnRightEdge = rightEdge && (nodeIndex == root.length - 1);
+                // Off the right edge of this node; grow it by one and graft
+                // on a new path to the leaf. Arrays are exactly sized, so
+                // this always allocates - but only once per new child.
+                Object[] newNode = Arrays.copyOf(node, nodeIndex + 1);
+                newNode[nodeIndex] = newPath(depth - 5, leaf);
+                owned[depth / 5] = newNode;
+                return newNode;
 
-        // Recursively prune it.
-        Object[] child = (Object[]) root[nodeIndex];
-        PruneLeftResult result = pruneLeft(
-                child,
-                depth - 5,
-                index,
-                childOnRightEdge);
+            }
 
-        if (childOnRightEdge) {
-            // Prune this node out entirely.
-            return result;
+            // Recurse into the rightmost child.
+            Object[] child = (Object[]) node[nodeIndex];
+            Object[] newChild = append(child, depth - 5, leaf, index);
+            if (newChild == child) {
+                return node;
+            }
+
+            Object[] editable = node;
+            if (owned[depth / 5] != node) {
+                editable = node.clone();
+                owned[depth / 5] = editable;
+            }
+
+            editable[nodeIndex] = newChild;
+            return editable;
         }
 
-        if (nodeIndex == 0 && result.root == child) {
-            // Pruned on a boundary; don't bother cloning.
-            result.root = root;
-            result.depth += 5;
-            return result;
+        /**
+         * Creates a new path of the given length to a leaf, taking ownership
+         * of every interior node along the way.
+         *
+         * @param length the length of the path (in increments of 5)
+         * @param leaf the leaf at the end of the path
+         * @return the root of the new path
+         */
+        private Object[] newPath(int length, Object[] leaf) {
+            Object[] node = leaf;
+            for (int i = 5; i <= length; i += 5) {
+                node = new Object[] { node };
+                owned[i / 5] = node;
+            }
+            return node;
         }
+    }
 
-        if (rightEdge) {
-            // We can safely shift things over if there's space.
-            Object[] newRoot = Arrays.copyOfRange(
-                    root,
-                    nodeIndex,
-                    root.length);
+    /**
+     * A summary of the hash polynomial of a (sub)tree: the polynomial of
+     * each of an interior node's children, and of the node as a whole. The
+     * summary of a node at depth 5 just records the polynomials of its
+     * leaves. Nodes are never modified once shared, so a summary stays
+     * valid for as long as its node does, whichever vectors it ends up in.
+     */
+    private static final class HashNode {
+
+        public final Object[] node;
+        public final int depth;
+        public final int size;
+        public final int poly;
+        public final int[] polys;
+        public final HashNode[] children;
+
+        /**
+         * @param node the node summarized
+         * @param depth the depth of the node
+         * @param size the number of slots (including padding) under the
+         *            node
+         * @param poly the polynomial of the node
+         * @param polys the polynomials of its children
+         * @param children the summaries of its children, or null at depth 5
+         */
+        public HashNode(
+                Object[] node,
+                int depth,
+                int size,
+                int poly,
+                int[] polys,
+                HashNode[] children) {
+
+            this.node = node;
+            this.depth = depth;
+            this.size = size;
+            this.poly = poly;
+            this.polys = polys;
+            this.children = children;
+        }
 
-            newRoot[0] = result.root;
+        /**
+         * Finds the given child of the summarized node, trying the given
+         * index before searching the rest.
+         *
+         * @param child a node, or null
+         * @param guess the index to try first
+         * @return the index of the child, or -1 if it isn't one
+         */
+        public int indexOf(Object child, int guess) {
+            if (child == null) {
+                return -1;
+            }
+            if (guess >= 0 && guess < polys.length && node[guess] == child) {
+                return guess;
+            }
+            for (int i = 0; i < polys.length; ++i) {
+                if (node[i] == child) {
+                    return i;
+                }
+            }
+            return -1;
+        }
 
-            result.root = newRoot;
-            result.depth += 5;
-            return result;
+        /**
+         * @param index the index of a child
+         * @return the summary of the child, or null if there isn't one
+         */
+        public HashNode getChild(int index) {
+            if (children == null || index < 0 || index >= children.length) {
+                return null;
+            }
+            return children[index];
         }
 
-        // Can't shift, null things out and increase the offset.
-        Object[] newRoot = root.clone();
-        for (int i = 0; i < nodeIndex; ++i) {
-            newRoot[i] = null;
+        /**
+         * @return the summary of the first child that isn't padding, or null
+         */
+        public HashNode getFirstChild() {
+            for (int i = 0; children != null && i < children.length; ++i) {
+                if (children[i] != null) {
+                    return children[i];
+                }
+            }
+            return null;
         }
-        newRoot[nodeIndex] = result.root;
-        result.root = newRoot;
-        result.depth += 5;
 
-        result.offset += (nodeIndex * (1 << depth));
-        return result;
+        /**
+         * @param other an interior node at the same depth
+         * @return true if the two nodes have a child in common
+         */
+        public boolean sharesChildren(Object[] other) {
+            int count = getChildCount(other);
+            for (int i = 0; i < count; ++i) {
+                if (indexOf(other[i], i) >= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
     }
 
     /**
@@ -0,0 +1,218 @@
+package io.coronet.pico;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DequeTest {
+
+    @Test
+    public void test_empty() {
+        Deque<String> deque = Deque.empty();
+        Assert.assertTrue(deque.isEmpty());
+        Assert.assertEquals(0, deque.size());
+        Assert.assertFalse(deque.iterator().hasNext());
+        Assert.assertEquals("[]", deque.toString());
+        Assert.assertEquals(Vector.empty(), deque);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void test_empty_first() {
+        Deque.empty().first();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void test_empty_last() {
+        Deque.empty().last();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void test_empty_removeFirst() {
+        Deque.empty().removeFirst();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void test_empty_removeLast() {
+        Deque.empty().removeLast();
+    }
+
+    @Test
+    public void test_bothEnds() {
+        Deque<String> deque = Deque.<String>empty()
+                .add("c")
+                .addFirst("b")
+                .addLast("d")
+                .addFirst("a");
+
+        Assert.assertEquals(4, deque.size());
+        Assert.assertEquals("a", deque.first());
+        Assert.assertEquals("d", deque.last());
+        Assert.assertEquals("[a, b, c, d]", deque.toString());
+        Assert.assertEquals(
+                Arrays.asList("a", "b", "c", "d"),
+                deque.asJavaCollection());
+
+        Assert.assertEquals("[b, c, d]", deque.removeFirst().toString());
+        Assert.assertEquals("[a, b, c]", deque.removeLast().toString());
+    }
+
+    @Test
+    public void test_slidingWindow() {
+        Deque<Integer> deque = Deque.empty();
+        for (int i = 0; i < 10000; ++i) {
+            deque = deque.add(i);
+            if (deque.size() > 100) {
+                deque = deque.removeFirst();
+            }
+
+            Assert.assertEquals(Math.max(0, i - 99), (int) deque.first());
+            Assert.assertEquals(i, (int) deque.last());
+        }
+        Assert.assertEquals(100, deque.size());
+    }
+
+    @Test
+    public void test_stack() {
+        Deque<Integer> deque = Deque.empty();
+        for (int i = 0; i < 1000; ++i) {
+            deque = deque.addFirst(i);
+        }
+
+        for (int i = 0; i < 1000; ++i) {
+            Assert.assertEquals(i, (int) deque.last());
+            deque = deque.removeLast();
+        }
+        Assert.assertTrue(deque.isEmpty());
+    }
+
+    @Test
+    public void test_random() {
+        Deque<Integer> deque = Deque.empty();
+        java.util.List<Integer> expected = new ArrayList<>();
+
+        Random random = new Random(1234);
+        for (int i = 0; i < 20000; ++i) {
+            switch (random.nextInt(expected.isEmpty() ? 2 : 5)) {
+            case 0:
+                deque = deque.add(i);
+                expected.add(i);
+                break;
+            case 1:
+                deque = deque.addFirst(i);
+                expected.add(0, i);
+                break;
+            case 2:
+                deque = deque.removeFirst();
+                expected.remove(0);
+                break;
+            case 3:
+                deque = deque.removeLast();
+                expected.remove(expected.size() - 1);
+                break;
+            case 4:
+                int index = random.nextInt(expected.size());
+                Assert.assertEquals(expected.get(index), deque.get(index));
+                deque = deque.set(index, -i);
+                expected.set(index, -i);
+                break;
+            }
+
+            Assert.assertEquals(expected.size(), deque.size());
+            if (!expected.isEmpty()) {
+                Assert.assertEquals(expected.get(0), deque.first());
+                Assert.assertEquals(
+                        expected.get(expected.size() - 1),
+                        deque.last());
+            }
+        }
+
+        Assert.assertEquals(expected, deque.asJavaCollection());
+    }
+
+    @Test
+    public void test_indexed_large() {
+        Deque<Integer> deque = Deque.empty();
+        for (int i = 0; i < 50000; ++i) {
+            deque = deque.add(i).addFirst(-1 - i);
+        }
+
+        Assert.assertEquals(100000, deque.size());
+        for (int i = 0; i < 100000; ++i) {
+            Assert.assertEquals(i - 50000, (int) deque.get(i));
+        }
+
+        Deque<Integer> middle = deque.first(75000).last(50000);
+        Assert.assertEquals(-25000, (int) middle.first());
+        Assert.assertEquals(24999, (int) middle.last());
+        Assert.assertEquals(-7, (int) middle.set(25007, -7).get(25007));
+
+        // Removing from the same version over and over again doesn't
+        // disturb it.
+        for (int i = 0; i < 1000; ++i) {
+            Assert.assertEquals(-49999, (int) deque.removeFirst().first());
+            Assert.assertEquals(49998, (int) deque.removeLast().last());
+        }
+        Assert.assertEquals(0, (int) middle.get(25000));
+    }
+
+    @Test
+    public void test_firstLast() {
+        Deque<Integer> deque = Deque.empty();
+        Vector<Integer> vector = Vector.empty();
+        for (int i = 0; i < 50; ++i) {
+            deque = (i % 2 == 0 ? deque.add(i) : deque.addFirst(i));
+        }
+        for (Integer i : deque) {
+            vector = vector.add(i);
+        }
+
+        for (int n = 0; n <= 50; ++n) {
+            Assert.assertEquals(vector.first(n), deque.first(n));
+            Assert.assertEquals(vector.last(n), deque.last(n));
+            Assert.assertEquals(vector.last(50 - n), deque.remove(n));
+        }
+        Assert.assertSame(deque, deque.first(50));
+        Assert.assertSame(deque, deque.last(50));
+    }
+
+    @Test
+    public void test_indexOf() {
+        Deque<String> deque = Deque.<String>empty()
+                .add("b")
+                .add("a")
+                .addFirst("a")
+                .add(null);
+
+        Assert.assertEquals(0, deque.indexOf("a"));
+        Assert.assertEquals(2, deque.lastIndexOf("a"));
+        Assert.assertEquals(3, deque.indexOf(null));
+        Assert.assertEquals(-1, deque.indexOf("c"));
+        Assert.assertEquals(-1, deque.lastIndexOf("c"));
+        Assert.assertTrue(deque.contains("b"));
+        Assert.assertFalse(deque.contains("c"));
+    }
+
+    @Test
+    public void test_persistent() {
+        Deque<String> one = Deque.<String>empty().add("a").add("b");
+        Deque<String> two = one.removeFirst().addFirst("c");
+        Deque<String> three = one.removeLast().add("d");
+
+        Assert.assertEquals("[a, b]", one.toString());
+        Assert.assertEquals("[c, b]", two.toString());
+        Assert.assertEquals("[a, d]", three.toString());
+    }
+
+    @Test
+    public void test_equals() {
+        Deque<Integer> deque = Deque.<Integer>empty().add(2).addFirst(1);
+        Vector<Integer> vector = Vector.<Integer>empty().add(1).add(2);
+
+        Assert.assertEquals(vector, deque);
+        Assert.assertEquals(deque, vector);
+        Assert.assertEquals(vector.hashCode(), deque.hashCode());
+    }
+}
@@ -0,0 +1,156 @@
+package io.coronet.pico;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LinkedListTest {
+
+    @Test
+    public void test_empty() {
+        LinkedList<String> list = LinkedList.empty();
+        Assert.assertTrue(list.isEmpty());
+        Assert.assertEquals(0, list.size());
+        Assert.assertFalse(list.iterator().hasNext());
+        Assert.assertEquals(-1, list.indexOf(null));
+        Assert.assertEquals("[]", list.toString());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void test_empty_peek() {
+        LinkedList.empty().peek();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void test_empty_pop() {
+        LinkedList.empty().pop();
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void test_empty_iteratorNext() {
+        LinkedList.empty().iterator().next();
+    }
+
+    @Test
+    public void test_stack() {
+        LinkedList<Integer> stack = LinkedList.empty();
+        for (int i = 0; i < 1000; ++i) {
+            stack = stack.push(i);
+        }
+        Assert.assertEquals(1000, stack.size());
+
+        LinkedList<Integer> popped = stack;
+        for (int i = 999; i >= 0; --i) {
+            Assert.assertEquals(i, (int) popped.peek());
+            popped = popped.pop();
+        }
+        Assert.assertTrue(popped.isEmpty());
+        Assert.assertEquals(1000, stack.size());
+    }
+
+    @Test
+    public void test_sharing() {
+        LinkedList<String> base = LinkedList.<String>empty().push("c").push("b");
+        LinkedList<String> one = base.push("a");
+        LinkedList<String> two = base.push("z");
+
+        Assert.assertEquals("[a, b, c]", one.toString());
+        Assert.assertEquals("[z, b, c]", two.toString());
+        Assert.assertSame(one.pop(), two.pop());
+    }
+
+    @Test
+    public void test_addAll() {
+        LinkedList<Integer> list = LinkedList.<Integer>empty()
+                .push(4)
+                .addAll(Arrays.asList(1, 2, 3));
+
+        Assert.assertEquals(Arrays.asList(1, 2, 3, 4), list.asJavaCollection());
+
+        list = list.addAll(Vector.<Integer>empty().add(-1).add(0));
+        Assert.assertEquals(
+                Arrays.asList(-1, 0, 1, 2, 3, 4),
+                list.asJavaCollection());
+    }
+
+    @Test
+    public void test_firstAndLast() {
+        LinkedList<Integer> list = LinkedList.<Integer>empty()
+                .addAll(Arrays.asList(0, 1, 2, 3, 4, 5));
+
+        Assert.assertEquals(Arrays.asList(0, 1, 2), list.first(3).asJavaCollection());
+        Assert.assertEquals(Arrays.asList(4, 5), list.last(2).asJavaCollection());
+        Assert.assertEquals(Arrays.asList(2, 3, 4, 5), list.remove(2).asJavaCollection());
+        Assert.assertSame(list, list.first(6));
+        Assert.assertTrue(list.first(0).isEmpty());
+        Assert.assertEquals(5, (int) list.last());
+    }
+
+    @Test
+    public void test_set() {
+        LinkedList<Integer> list = LinkedList.<Integer>empty()
+                .addAll(Arrays.asList(0, 1, 2, 3));
+
+        LinkedList<Integer> set = list.set(2, -2);
+        Assert.assertEquals(Arrays.asList(0, 1, -2, 3), set.asJavaCollection());
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3), list.asJavaCollection());
+        Assert.assertSame(list.last(1), set.last(1));
+    }
+
+    @Test
+    public void test_indexOf() {
+        LinkedList<String> list = LinkedList.<String>empty()
+                .addAll(Arrays.asList("a", null, "b", "a"));
+
+        Assert.assertEquals(0, list.indexOf("a"));
+        Assert.assertEquals(3, list.lastIndexOf("a"));
+        Assert.assertEquals(1, list.indexOf(null));
+        Assert.assertEquals(-1, list.indexOf("c"));
+        Assert.assertTrue(list.contains("b"));
+    }
+
+    @Test
+    public void test_equals() {
+        LinkedList<Integer> list = LinkedList.<Integer>empty()
+                .addAll(Arrays.asList(1, 2, 3));
+
+        Assert.assertEquals(Vector.<Integer>empty().add(1).add(2).add(3), list);
+        Assert.assertEquals(Arrays.asList(1, 2, 3).hashCode(), list.hashCode());
+    }
+
+    @Test
+    public void test_spliterator() {
+        java.util.List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 10000; ++i) {
+            expected.add(i);
+        }
+        LinkedList<Integer> list = LinkedList.<Integer>empty().addAll(expected);
+
+        Spliterator<Integer> suffix = list.spliterator();
+        Spliterator<Integer> prefix = suffix.trySplit();
+        Assert.assertEquals(5000, prefix.estimateSize());
+        Assert.assertEquals(5000, suffix.estimateSize());
+
+        java.util.List<Integer> seen = new ArrayList<>();
+        Assert.assertTrue(prefix.tryAdvance(seen::add));
+        prefix.forEachRemaining(seen::add);
+        suffix.forEachRemaining(seen::add);
+        Assert.assertEquals(expected, seen);
+
+        Assert.assertEquals(
+                expected,
+                list.parallelStream().collect(Collectors.toList()));
+
+        Iterator<Integer> iter = list.iterator();
+        for (int i = 0; i < 10000; ++i) {
+            Assert.assertEquals(i, (int) iter.next());
+        }
+        Assert.assertFalse(iter.hasNext());
+    }
+}
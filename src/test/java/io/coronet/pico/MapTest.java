@@ -1,10 +1,20 @@
 package io.coronet.pico;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.Spliterator;
 import java.util.TreeSet;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import java.util.stream.Collectors;
 
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
 public class MapTest {
@@ -87,6 +97,8 @@ public class MapTest {
     public void test_empty_forEach() {
         Map.empty().forEach((e) -> { Assert.fail("Unexpected action!"); });
         Map.empty().forEach((k, v) -> { Assert.fail("Unexpected action!"); });
+        Map.empty().forEachKey((k) -> { Assert.fail("Unexpected action!"); });
+        Map.empty().forEachValue((v) -> { Assert.fail("Unexpected action!"); });
     }
 
     @Test
@@ -222,4 +234,678 @@ public class MapTest {
             Assert.assertTrue(seen.contains(Integer.toString(i)));
         }
     }
+
+    @Test
+    public void test_forEach_lots() {
+        Map<String, Integer> map = Map.empty();
+        for (int i = 0; i < 12345; ++i) {
+            map = map.put(Integer.toString(i), i);
+        }
+
+        HashMap<String, Integer> seen = new HashMap<>();
+        map.forEach((k, v) -> Assert.assertNull(seen.put(k, v)));
+        Assert.assertEquals(12345, seen.size());
+        for (Map.Entry<String, Integer> entry : map.entrySet()) {
+            Assert.assertEquals(entry.getValue(), seen.get(entry.getKey()));
+        }
+
+        Set<String> keys = new TreeSet<>();
+        map.forEachKey((k) -> Assert.assertTrue(keys.add(k)));
+        Assert.assertEquals(seen.keySet(), keys);
+
+        Set<String> iterated = new TreeSet<>();
+        for (String key : map.keySet()) {
+            Assert.assertTrue(iterated.add(key));
+        }
+        Assert.assertEquals(keys, iterated);
+
+        long[] sum = new long[1];
+        map.forEachValue((v) -> sum[0] += v);
+        Assert.assertEquals(12344L * 12345 / 2, sum[0]);
+    }
+
+    @Test
+    public void test_forEach_allocation() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        Assume.assumeTrue(threads.isThreadAllocatedMemoryEnabled());
+
+        Map<Integer, Integer> map = Map.empty();
+        for (int i = 0; i < 100000; ++i) {
+            map = map.put(i, i);
+        }
+
+        long[] sum = new long[1];
+        BiConsumer<Integer, Integer> entries = (k, v) -> sum[0] += k + v;
+        Consumer<Integer> keys = (k) -> sum[0] += k;
+        Consumer<Integer> values = (v) -> sum[0] += v;
+
+        // Warm up, so the walk is compiled before it's measured.
+        for (int i = 0; i < 20; ++i) {
+            map.forEach(entries);
+            map.forEachKey(keys);
+            map.forEachValue(values);
+        }
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        map.forEach(entries);
+        map.forEachKey(keys);
+        map.forEachValue(values);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        // Leave a little slack for the measurement itself.
+        Assert.assertTrue(allocated + " bytes allocated", allocated < 1024);
+    }
+
+    @Test
+    public void test_remove_lots() {
+        Map<String, Integer> map = Map.empty();
+        for (int i = 0; i < 12345; ++i) {
+            map = map.put(Integer.toString(i), i);
+        }
+
+        Map<String, Integer> map2 = map;
+        for (int i = 0; i < 12345; i += 2) {
+            map2 = map2.remove(Integer.toString(i));
+        }
+
+        Assert.assertEquals(12345, map.size());
+        Assert.assertEquals(6172, map2.size());
+
+        for (int i = 0; i < 12345; ++i) {
+            Assert.assertEquals((Integer) i, map.get(Integer.toString(i)));
+            Assert.assertEquals(
+                    (i % 2) == 1,
+                    map2.containsKey(Integer.toString(i)));
+        }
+
+        for (int i = 1; i < 12345; i += 2) {
+            map2 = map2.remove(Integer.toString(i));
+        }
+
+        Assert.assertTrue(map2.isEmpty());
+    }
+
+    @Test
+    public void test_remove_canonical() {
+        Map<String, Integer> map = Map.empty();
+        for (int i = 0; i < 5000; ++i) {
+            map = map.put(Integer.toString(i), i);
+        }
+
+        Map<String, Integer> expected = Map.empty();
+        for (int i = 0; i < 5000; i += 3) {
+            expected = expected.put(Integer.toString(i), i);
+        }
+
+        Map.Builder<String, Integer> builder = map.toBuilder();
+        for (int i = 0; i < 5000; ++i) {
+            if (i % 3 != 0) {
+                map = map.remove(Integer.toString(i));
+                builder.remove(Integer.toString(i));
+            }
+        }
+
+        // Same contents, so the same shape and hence the same iteration
+        // order regardless of how we got here.
+        Assert.assertEquals(keys(expected), keys(map));
+        Assert.assertEquals(keys(expected), keys(builder.build()));
+    }
+
+    @Test
+    public void test_hashCollisions() {
+        Map<Colliding, Integer> map = Map.empty();
+        for (int i = 0; i < 100; ++i) {
+            map = map.put(new Colliding(i), i);
+        }
+
+        Assert.assertEquals(100, map.size());
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertEquals((Integer) i, map.get(new Colliding(i)));
+        }
+
+        for (int i = 0; i < 100; ++i) {
+            map = map.remove(new Colliding(i));
+            Assert.assertEquals(99 - i, map.size());
+            Assert.assertFalse(map.containsKey(new Colliding(i)));
+        }
+
+        Assert.assertSame(Map.empty(), map);
+    }
+
+    @Test
+    public void test_compute() {
+        Map<String, Integer> map = Map.<String, Integer>empty()
+                .put("Hello", 1)
+                .put("World", null);
+
+        Assert.assertEquals((Integer) 2,
+                map.compute("Hello", (k, v) -> v + 1).get("Hello"));
+        Assert.assertEquals((Integer) 0,
+                map.compute("World", (k, v) -> 0).get("World"));
+        Assert.assertFalse(
+                map.compute("World", (k, v) -> null).containsKey("World"));
+        Assert.assertSame(map, map.compute("oog", (k, v) -> null));
+        Assert.assertSame(map, map.compute("Hello", (k, v) -> v));
+        Assert.assertSame(Map.empty(), map
+                .compute("Hello", (k, v) -> null)
+                .compute("World", (k, v) -> null));
+    }
+
+    @Test
+    public void test_computeIfAbsent() {
+        Map<String, Integer> map = Map.<String, Integer>empty()
+                .put("Hello", 1)
+                .put("World", null);
+
+        Assert.assertSame(map, map.computeIfAbsent("Hello", String::length));
+        Assert.assertSame(map, map.computeIfAbsent("oog", (k) -> null));
+        Assert.assertSame(map, map.computeIfAbsent("World", (k) -> null));
+        Assert.assertEquals((Integer) 5,
+                map.computeIfAbsent("World", String::length).get("World"));
+        Assert.assertEquals(3,
+                map.computeIfAbsent("oog", String::length).size());
+    }
+
+    @Test
+    public void test_computeIfPresent() {
+        Map<String, Integer> map = Map.<String, Integer>empty()
+                .put("Hello", 1)
+                .put("World", null);
+
+        Assert.assertSame(map, map.computeIfPresent("oog", (k, v) -> 1));
+        Assert.assertSame(map, map.computeIfPresent("World", (k, v) -> 1));
+        Assert.assertEquals((Integer) 2,
+                map.computeIfPresent("Hello", (k, v) -> v + 1).get("Hello"));
+        Assert.assertFalse(map.computeIfPresent("Hello", (k, v) -> null)
+                .containsKey("Hello"));
+    }
+
+    @Test
+    public void test_merge_value() {
+        Map<String, Integer> map = Map.empty();
+        for (int i = 0; i < 1000; ++i) {
+            map = map.merge(Integer.toString(i % 100), 1, Integer::sum);
+        }
+
+        Assert.assertEquals(100, map.size());
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertEquals((Integer) 10, map.get(Integer.toString(i)));
+        }
+
+        for (int i = 0; i < 100; ++i) {
+            map = map.merge(Integer.toString(i), 1, (a, b) -> null);
+        }
+        Assert.assertSame(Map.empty(), map);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void test_merge_value_null() {
+        Map.<String, Integer>empty().merge("Hello", null, Integer::sum);
+    }
+
+    @Test
+    public void test_putIfAbsent() {
+        Map<String, Integer> map = Map.<String, Integer>empty()
+                .put("Hello", 1)
+                .put("World", null);
+
+        Assert.assertSame(map, map.putIfAbsent("Hello", 2));
+        Assert.assertEquals((Integer) 2,
+                map.putIfAbsent("World", 2).get("World"));
+        Assert.assertEquals((Integer) 3, map.putIfAbsent("oog", 3).get("oog"));
+        Assert.assertEquals(map.put("oog", 3), map.putIfAbsent("oog", 3));
+        Assert.assertEquals(
+                map.put("oog", 3).hashCode(),
+                map.putIfAbsent("oog", 3).hashCode());
+    }
+
+    @Test
+    public void test_compute_hashCollisions() {
+        Map<Colliding, Integer> map = Map.empty();
+        for (int i = 0; i < 100; ++i) {
+            map = map.merge(new Colliding(i % 50), 1, Integer::sum);
+        }
+
+        Assert.assertEquals(50, map.size());
+        for (int i = 0; i < 50; ++i) {
+            Assert.assertEquals((Integer) 2, map.get(new Colliding(i)));
+        }
+
+        for (int i = 0; i < 50; ++i) {
+            map = map.computeIfPresent(new Colliding(i), (k, v) -> null);
+            Assert.assertEquals(49 - i, map.size());
+        }
+        Assert.assertSame(Map.empty(), map);
+    }
+
+    @Test
+    public void test_merge() {
+        Map<String, Integer> map1 = Map.empty();
+        Map<String, Integer> map2 = Map.empty();
+        for (int i = 0; i < 1000; ++i) {
+            map1 = map1.put(Integer.toString(i), i);
+            map2 = map2.put(Integer.toString(i + 500), i + 500);
+        }
+        map2 = map2.put("0", 1);
+
+        Map<String, Integer> merged = map1.merge(map2, Integer::sum);
+        Assert.assertEquals(1500, merged.size());
+        Assert.assertEquals((Integer) 1, merged.get("0"));
+        Assert.assertEquals((Integer) 1, merged.get("1"));
+        Assert.assertEquals((Integer) 1998, merged.get("999"));
+        Assert.assertEquals((Integer) 1499, merged.get("1499"));
+
+        Assert.assertSame(map1, map1.merge(map1, Integer::sum));
+        Assert.assertSame(map1, map1.merge(Map.empty(), Integer::sum));
+        Assert.assertSame(map1, Map.<String, Integer>empty().merge(map1, Integer::sum));
+    }
+
+    @Test
+    public void test_merge_shared() {
+        Map<Integer, Integer> map = Map.empty();
+        for (int i = 0; i < 10000; ++i) {
+            map = map.put(i, i);
+        }
+
+        Map<Integer, Integer> left = map.put(1, -1).remove(2);
+        Map<Integer, Integer> right = map.put(3, -3).put(10000, 10000);
+
+        Map<Integer, Integer> merged = left.merge(right, (a, b) -> a);
+        Assert.assertEquals(10001, merged.size());
+        Assert.assertEquals((Integer) (-1), merged.get(1));
+        Assert.assertEquals((Integer) 2, merged.get(2));
+        Assert.assertEquals((Integer) 3, merged.get(3));
+        Assert.assertEquals((Integer) 10000, merged.get(10000));
+    }
+
+    @Test
+    public void test_intersect() {
+        Map<String, Integer> map1 = Map.empty();
+        Map<String, Integer> map2 = Map.empty();
+        for (int i = 0; i < 1000; ++i) {
+            map1 = map1.put(Integer.toString(i), i);
+            map2 = map2.put(Integer.toString(i + 500), i + 500);
+        }
+
+        Map<String, Integer> intersected =
+                map1.intersect(map2.put("999", 0), Integer::sum);
+
+        Assert.assertEquals(500, intersected.size());
+        Assert.assertFalse(intersected.containsKey("499"));
+        Assert.assertEquals((Integer) 1000, intersected.get("500"));
+        Assert.assertEquals((Integer) 999, intersected.get("999"));
+
+        Assert.assertTrue(map1.intersect(Map.empty(), Integer::sum).isEmpty());
+        Assert.assertSame(map1, map1.intersect(map1, Integer::sum));
+    }
+
+    @Test
+    public void test_difference() {
+        Map<String, Integer> map1 = Map.empty();
+        Map<String, Object> map2 = Map.empty();
+        for (int i = 0; i < 1000; ++i) {
+            map1 = map1.put(Integer.toString(i), i);
+            map2 = map2.put(Integer.toString(i + 500), "x");
+        }
+
+        Map<String, Integer> difference = map1.difference(map2);
+        Assert.assertEquals(500, difference.size());
+        Assert.assertEquals((Integer) 499, difference.get("499"));
+        Assert.assertFalse(difference.containsKey("500"));
+
+        Assert.assertSame(map1, map1.difference(Map.empty()));
+        Assert.assertTrue(map1.difference(map1).isEmpty());
+    }
+
+    @Test
+    public void test_retainKeys() {
+        Map<Integer, String> map = Map.empty();
+        io.coronet.pico.Set<Integer> keys = io.coronet.pico.Set.empty();
+        for (int i = 0; i < 1000; ++i) {
+            map = map.put(i, Integer.toString(i));
+            if (i % 3 == 0) {
+                keys = keys.add(i);
+            }
+        }
+
+        Map<Integer, String> retained = map.retainKeys(keys.add(5000));
+        Assert.assertEquals(334, retained.size());
+        for (int i = 0; i < 1000; ++i) {
+            Assert.assertEquals(i % 3 == 0, retained.containsKey(i));
+        }
+
+        Assert.assertTrue(
+                map.retainKeys(io.coronet.pico.Set.empty()).isEmpty());
+    }
+
+    @Test
+    public void test_equals() {
+        Map<Integer, String> one = Map.empty();
+        Map<Integer, String> two = Map.empty();
+        for (int i = 0; i < 1000; ++i) {
+            one = one.put(i, Integer.toString(i));
+            two = two.put(999 - i, Integer.toString(999 - i));
+        }
+
+        Assert.assertEquals(one, two);
+        Assert.assertEquals(one, one.put(5, "five").put(5, "5"));
+        Assert.assertNotEquals(one, one.put(5, "five"));
+        Assert.assertNotEquals(one, one.remove(5).put(1000, "5"));
+        Assert.assertNotEquals(one, one.put(5, null));
+
+        Map<Colliding, Integer> three = Map.empty();
+        Map<Colliding, Integer> four = Map.empty();
+        for (int i = 0; i < 100; ++i) {
+            three = three.put(new Colliding(i), i);
+            four = four.put(new Colliding(99 - i), 99 - i);
+        }
+        Assert.assertEquals(three, four);
+        Assert.assertNotEquals(three, four.put(new Colliding(7), -7));
+    }
+
+    @Test
+    public void test_hashCode() {
+        Map<Integer, String> map = Map.empty();
+        Assert.assertEquals(0, map.hashCode());
+
+        for (int i = 0; i < 1000; ++i) {
+            map = map.put(i, Integer.toString(i));
+        }
+        map = map.put(7, null).put(8, "eight").remove(9);
+
+        Map.Builder<Integer, String> builder = map.toBuilder();
+        builder.put(1000, "1000").remove(10).put(11, "eleven");
+        Map<Integer, String> built = builder.build();
+
+        Map<Integer, String> merged = map.merge(
+                Map.<Integer, String>empty().put(12, "x").put(2000, "y"),
+                (a, b) -> a + b);
+        Map<Integer, String> intersected = map.intersect(
+                Map.<Integer, String>empty().put(12, "x").put(2000, "y"),
+                (a, b) -> b);
+        Map<Integer, String> difference = map.difference(built);
+
+        for (Map<Integer, String> m : java.util.Arrays.asList(
+                map, built, merged, intersected, difference)) {
+            int expected = 0;
+            for (Map.Entry<Integer, String> entry : m.entrySet()) {
+                expected += entry.hashCode();
+            }
+            Assert.assertEquals(expected, m.hashCode());
+        }
+
+        Assert.assertEquals(map.hashCode(), map.put(8, "eight").hashCode());
+        Assert.assertEquals(
+                map.hashCode(),
+                built.put(10, "10").put(11, "11").remove(1000).put(9, "9")
+                        .remove(9).hashCode());
+    }
+
+    @Test
+    public void test_hashCode_sharedSubtrees() {
+        Map<Object, Integer> map = Map.empty();
+        for (int i = 0; i < 10000; ++i) {
+            map = map.put(i, i);
+        }
+        for (int i = 0; i < 100; ++i) {
+            map = map.put(new Colliding(i), i);
+        }
+
+        Map<Object, Integer> small = Map.<Object, Integer>empty()
+                .put(-1, -1)
+                .put(new Colliding(200), 200);
+
+        Map<Object, Integer> merged = small.merge(map, (a, b) -> a);
+        Map<Object, Integer> built = map.toBuilder()
+                .put(-1, -1)
+                .put(new Colliding(200), 200)
+                .build();
+
+        Assert.assertEquals(built.size(), merged.size());
+        Assert.assertEquals(built.hashCode(), merged.hashCode());
+        Assert.assertEquals(built, merged);
+
+        Assert.assertEquals(
+                map.hashCode(),
+                merged.difference(small).hashCode());
+        Assert.assertEquals(
+                small.hashCode(),
+                merged.intersect(small, (a, b) -> a).hashCode());
+        Assert.assertEquals(0, map.difference(map).hashCode());
+    }
+
+    @Test
+    public void test_diff() {
+        Map<Integer, String> map = Map.empty();
+        for (int i = 0; i < 10000; ++i) {
+            map = map.put(i, Integer.toString(i));
+        }
+
+        Map<Integer, String> map2 = map
+                .put(5, "five")
+                .put(10000, "10000")
+                .remove(42)
+                .put(7, new String("7"));
+
+        Map.Diff<Integer, String> diff = map.diff(map2);
+        Assert.assertEquals(1, diff.getAdded().size());
+        Assert.assertEquals("10000", diff.getAdded().get(10000));
+        Assert.assertEquals(1, diff.getRemoved().size());
+        Assert.assertEquals("42", diff.getRemoved().get(42));
+        Assert.assertEquals(1, diff.getChanged().size());
+        Assert.assertEquals("five", diff.getChanged().get(5));
+
+        Map.Diff<Integer, String> reverse = map2.diff(map);
+        Assert.assertEquals("42", reverse.getAdded().get(42));
+        Assert.assertEquals("10000", reverse.getRemoved().get(10000));
+        Assert.assertEquals("5", reverse.getChanged().get(5));
+
+        Assert.assertTrue(map.diff(map).isEmpty());
+        Assert.assertEquals(10000, Map.empty().diff(map).getAdded().size());
+        Assert.assertEquals(10000, map.diff(Map.empty()).getRemoved().size());
+    }
+
+    @Test
+    public void test_diff_hashCollisions() {
+        Map<Colliding, Integer> map = Map.empty();
+        for (int i = 0; i < 100; ++i) {
+            map = map.put(new Colliding(i), i);
+        }
+
+        Map<Colliding, Integer> map2 = map
+                .remove(new Colliding(3))
+                .put(new Colliding(4), -4)
+                .put(new Colliding(100), 100);
+
+        Map.Diff<Colliding, Integer> diff = map.diff(map2);
+        Assert.assertEquals(
+                Integer.valueOf(100),
+                diff.getAdded().get(new Colliding(100)));
+        Assert.assertEquals(
+                Integer.valueOf(3),
+                diff.getRemoved().get(new Colliding(3)));
+        Assert.assertEquals(
+                Integer.valueOf(-4),
+                diff.getChanged().get(new Colliding(4)));
+        Assert.assertEquals(1, diff.getAdded().size());
+        Assert.assertEquals(1, diff.getRemoved().size());
+        Assert.assertEquals(1, diff.getChanged().size());
+    }
+
+    @Test
+    public void test_builder_empty() {
+        Assert.assertSame(Map.empty(), Map.builder().build());
+    }
+
+    @Test
+    public void test_builder() {
+        Map.Builder<String, Integer> builder = Map.builder();
+        for (int i = 0; i < 12345; ++i) {
+            builder.put(Integer.toString(i), i);
+        }
+        for (int i = 0; i < 12345; i += 3) {
+            builder.remove(Integer.toString(i));
+        }
+        for (int i = 0; i < 10; ++i) {
+            builder.compute("counter", (k, v) -> (v == null ? 1 : v + 1));
+        }
+
+        Assert.assertEquals(8231, builder.size());
+
+        Map<String, Integer> map = builder.build();
+        Assert.assertEquals(8231, map.size());
+        Assert.assertEquals((Integer) 10, map.get("counter"));
+
+        for (int i = 0; i < 12345; ++i) {
+            if (i % 3 == 0) {
+                Assert.assertFalse(map.containsKey(Integer.toString(i)));
+            } else {
+                Assert.assertEquals((Integer) i, map.get(Integer.toString(i)));
+            }
+        }
+    }
+
+    @Test
+    public void test_builder_compute_remove() {
+        Map<String, Integer> map = Map.<String, Integer>empty()
+                .put("Hello", 1)
+                .toBuilder()
+                .compute("Hello", (k, v) -> null)
+                .compute("World", (k, v) -> null)
+                .build();
+
+        Assert.assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void test_builder_reuse() {
+        Map<String, Integer> map = Map.<String, Integer>empty().put("a", 1);
+        Map.Builder<String, Integer> builder = map.toBuilder();
+
+        Assert.assertSame(map, builder.build());
+
+        builder.put("b", 2);
+        Map<String, Integer> one = builder.build();
+
+        builder.put("a", 3).remove("b");
+        Map<String, Integer> two = builder.build();
+
+        Assert.assertEquals(1, map.size());
+        Assert.assertEquals((Integer) 1, map.get("a"));
+
+        Assert.assertEquals(2, one.size());
+        Assert.assertEquals((Integer) 1, one.get("a"));
+        Assert.assertEquals((Integer) 2, one.get("b"));
+
+        Assert.assertEquals(1, two.size());
+        Assert.assertEquals((Integer) 3, two.get("a"));
+    }
+
+    @Test
+    public void test_putAll() {
+        java.util.Map<String, Integer> source = new HashMap<>();
+        for (int i = 0; i < 1234; ++i) {
+            source.put(Integer.toString(i), i);
+        }
+
+        Map<String, Integer> map = Map.<String, Integer>empty()
+                .put("Hello", -1)
+                .putAll(source);
+
+        Assert.assertEquals(1235, map.size());
+
+        Map<String, Integer> map2 = Map.<String, Integer>empty()
+                .put("0", -1)
+                .putAll(map);
+
+        Assert.assertEquals(1235, map2.size());
+        for (int i = 0; i < 1234; ++i) {
+            Assert.assertEquals((Integer) i, map2.get(Integer.toString(i)));
+        }
+
+        Assert.assertSame(map2, map2.putAll(map));
+        Assert.assertSame(map2, map2.putAll(new HashMap<>()));
+    }
+
+    @Test
+    public void test_empty_stream() {
+        Assert.assertEquals(0, Map.empty().stream().count());
+        Assert.assertEquals(0, Map.empty().parallelStream().count());
+    }
+
+    @Test
+    public void test_stream() {
+        Map.Builder<String, Integer> builder = Map.builder();
+        java.util.Map<String, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 12345; ++i) {
+            builder.put(Integer.toString(i), i);
+            expected.put(Integer.toString(i), i);
+        }
+        Map<String, Integer> map = builder.build();
+
+        Assert.assertEquals(12345, map.stream().count());
+        Assert.assertEquals(
+                expected,
+                map.parallelStream().collect(Collectors.toMap(
+                        Map.Entry::getKey,
+                        Map.Entry::getValue)));
+    }
+
+    @Test
+    public void test_spliterator() {
+        Map<String, Integer> map = Map.empty();
+        for (int i = 0; i < 1234; ++i) {
+            map = map.put(Integer.toString(i), i);
+        }
+
+        Spliterator<Map.Entry<String, Integer>> suffix = map.spliterator();
+        Assert.assertTrue(suffix.hasCharacteristics(Spliterator.SIZED));
+        Assert.assertEquals(1234, suffix.estimateSize());
+
+        Spliterator<Map.Entry<String, Integer>> prefix = suffix.trySplit();
+        Assert.assertNotNull(prefix);
+
+        Set<String> seen = new TreeSet<>();
+        prefix.forEachRemaining(e -> Assert.assertTrue(seen.add(e.getKey())));
+        while (suffix.tryAdvance(e -> Assert.assertTrue(seen.add(e.getKey())))) {
+            // Keep going.
+        }
+
+        Assert.assertEquals(1234, seen.size());
+    }
+
+    private static <K> java.util.List<K> keys(Map<K, ?> map) {
+        java.util.List<K> keys = new ArrayList<>();
+        for (Map.Entry<K, ?> entry : map.entrySet()) {
+            keys.add(entry.getKey());
+        }
+        return keys;
+    }
+
+    /**
+     * A key whose hash code only has a few distinct values.
+     */
+    private static final class Colliding {
+
+        private final int id;
+
+        public Colliding(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return (id % 7) << 10;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return (obj instanceof Colliding && ((Colliding) obj).id == id);
+        }
+    }
 }
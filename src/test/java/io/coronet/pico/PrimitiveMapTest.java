@@ -0,0 +1,185 @@
+package io.coronet.pico;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PrimitiveMapTest {
+
+    @Test
+    public void test_empty() {
+        IntMap<String> map = IntMap.empty();
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertEquals(0, map.size());
+        Assert.assertNull(map.get(0));
+        Assert.assertFalse(map.containsKey(0));
+        Assert.assertEquals("oog", map.getOrDefault(0, "oog"));
+        Assert.assertFalse(map.keyIterator().hasNext());
+        Assert.assertSame(map, map.remove(0));
+        Assert.assertEquals("{}", map.toString());
+        Assert.assertEquals(0, map.hashCode());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void test_empty_keyIteratorNext() {
+        LongMap.empty().keyIterator().nextLong();
+    }
+
+    @Test
+    public void test_int_put() {
+        IntMap<String> map = IntMap.<String>empty()
+                .put(1, "Hello")
+                .put(-1, "World")
+                .put(0, null);
+
+        Assert.assertEquals(3, map.size());
+        Assert.assertEquals("Hello", map.get(1));
+        Assert.assertEquals("World", map.get(-1));
+        Assert.assertNull(map.get(0));
+        Assert.assertTrue(map.containsKey(0));
+        Assert.assertFalse(map.containsKey(2));
+        Assert.assertEquals("{-1=World, 0=null, 1=Hello}", map.toString());
+
+        Assert.assertSame(map, map.put(1, "Hello"));
+        Assert.assertSame(map, map.put(0, null));
+        Assert.assertEquals("oog", map.put(1, "oog").get(1));
+        Assert.assertEquals("Hello", map.get(1));
+    }
+
+    @Test
+    public void test_int_putRemoveMany() {
+        Random random = new Random(20);
+        java.util.Map<Integer, Integer> expected = new HashMap<>();
+
+        IntMap<Integer> map = IntMap.empty();
+        for (int i = 0; i < 20000; ++i) {
+            int key = random.nextInt();
+            if (i % 3 == 0) {
+                key = random.nextInt(100) - 50;
+            }
+
+            if (i % 5 == 4) {
+                map = map.remove(key);
+                expected.remove(key);
+            } else {
+                map = map.put(key, i);
+                expected.put(key, i);
+            }
+            Assert.assertEquals(expected.size(), map.size());
+        }
+
+        for (java.util.Map.Entry<Integer, Integer> entry
+                : expected.entrySet()) {
+
+            Assert.assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        Assert.assertEquals(expected.hashCode(), map.hashCode());
+
+        for (int key : expected.keySet()) {
+            map = map.remove(key);
+            Assert.assertFalse(map.containsKey(key));
+        }
+        Assert.assertSame(IntMap.empty(), map);
+    }
+
+    @Test
+    public void test_int_ordered() {
+        Random random = new Random(21);
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+
+        IntMap<Integer> map = IntMap.empty();
+        for (int key : new int[] {
+                Integer.MIN_VALUE, Integer.MAX_VALUE, -1, 0, 1 }) {
+
+            map = map.put(key, key);
+            expected.put(key, key);
+        }
+        for (int i = 0; i < 1000; ++i) {
+            int key = random.nextInt();
+            map = map.put(key, i);
+            expected.put(key, i);
+        }
+
+        PrimitiveIterator.OfInt iter = map.keyIterator();
+        for (int key : expected.keySet()) {
+            Assert.assertEquals(key, iter.nextInt());
+        }
+        Assert.assertFalse(iter.hasNext());
+
+        java.util.List<Integer> keys = new ArrayList<>();
+        map.forEachKey(keys::add);
+        Assert.assertEquals(new ArrayList<>(expected.keySet()), keys);
+
+        java.util.List<Integer> values = new ArrayList<>();
+        map.forEach((key, value) -> {
+            Assert.assertEquals(expected.get(key), value);
+            values.add(value);
+        });
+        Assert.assertEquals(new ArrayList<>(expected.values()), values);
+    }
+
+    @Test
+    public void test_long_putRemoveMany() {
+        Random random = new Random(22);
+        TreeMap<Long, Long> expected = new TreeMap<>();
+
+        LongMap<Long> map = LongMap.empty();
+        for (int i = 0; i < 20000; ++i) {
+            long key = random.nextLong();
+            if (i % 3 == 0) {
+                key = random.nextInt(100) - 50;
+            }
+
+            if (i % 5 == 4) {
+                map = map.remove(key);
+                expected.remove(key);
+            } else {
+                map = map.put(key, key * 2);
+                expected.put(key, key * 2);
+            }
+            Assert.assertEquals(expected.size(), map.size());
+        }
+
+        PrimitiveIterator.OfLong iter = map.keyIterator();
+        for (long key : expected.keySet()) {
+            Assert.assertEquals(key, iter.nextLong());
+            Assert.assertEquals((Long) (key * 2), map.get(key));
+        }
+        Assert.assertFalse(iter.hasNext());
+        Assert.assertEquals(expected.hashCode(), map.hashCode());
+
+        map = map.put(Long.MIN_VALUE, 0L).put(Long.MAX_VALUE, 0L);
+        Assert.assertEquals(Long.MIN_VALUE, map.keyIterator().nextLong());
+        Assert.assertTrue(map.containsKey(Long.MAX_VALUE));
+        Assert.assertFalse(map.containsKey(Long.MAX_VALUE - 1));
+    }
+
+    @Test
+    public void test_equals() {
+        IntMap<String> map1 = IntMap.empty();
+        IntMap<String> map2 = IntMap.empty();
+        for (int i = 0; i < 100; ++i) {
+            map1 = map1.put(i * 7, Integer.toString(i));
+            map2 = map2.put((99 - i) * 7, Integer.toString(99 - i));
+        }
+
+        Assert.assertEquals(map1, map2);
+        Assert.assertEquals(map1.hashCode(), map2.hashCode());
+        Assert.assertNotEquals(map1, map2.remove(0));
+        Assert.assertNotEquals(map1, map2.put(0, "oog"));
+        Assert.assertNotEquals(map1, map2.remove(0).put(1, "0"));
+
+        Assert.assertEquals(
+                LongMap.empty().put(1L, "Hello"),
+                LongMap.empty().put(1L, "Hello"));
+        Assert.assertNotEquals(
+                LongMap.empty().put(1L, "Hello"),
+                IntMap.empty().put(1, "Hello"));
+    }
+}
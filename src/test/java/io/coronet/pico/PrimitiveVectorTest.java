@@ -0,0 +1,143 @@
+package io.coronet.pico;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PrimitiveVectorTest {
+
+    @Test
+    public void test_empty() {
+        IntVector vec = IntVector.empty();
+        Assert.assertTrue(vec.isEmpty());
+        Assert.assertEquals(0, vec.size());
+        Assert.assertFalse(vec.iterator().hasNext());
+        Assert.assertEquals("[]", vec.toString());
+        Assert.assertEquals(0, vec.toArray().length);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void test_empty_get0() {
+        IntVector.empty().get(0);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void test_empty_iteratorNext() {
+        LongVector.empty().iterator().nextLong();
+    }
+
+    @Test
+    public void test_int_addMany() {
+        IntVector vec = IntVector.empty();
+        for (int i = 0; i < 40000; ++i) {
+            vec = vec.add(i * 3);
+        }
+
+        Assert.assertEquals(40000, vec.size());
+        for (int i = 0; i < 40000; ++i) {
+            Assert.assertEquals(i * 3, vec.get(i));
+        }
+
+        PrimitiveIterator.OfInt iter = vec.iterator();
+        for (int i = 0; i < 40000; ++i) {
+            Assert.assertEquals(i * 3, iter.nextInt());
+        }
+        Assert.assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void test_int_addAll() {
+        int[] values = IntStream.range(0, 12345).toArray();
+
+        IntVector vec = IntVector.of(1, 2, 3).addAll(values);
+        Assert.assertEquals(12348, vec.size());
+        Assert.assertEquals(3, vec.get(2));
+        Assert.assertEquals(0, vec.get(3));
+        Assert.assertEquals(12344, vec.get(12347));
+
+        IntVector one = IntVector.empty();
+        for (int i = 0; i < values.length; ++i) {
+            one = one.add(values[i]);
+        }
+        Assert.assertEquals(one, IntVector.of(values));
+        Assert.assertArrayEquals(values, IntVector.of(values).toArray());
+    }
+
+    @Test
+    public void test_long_set() {
+        LongVector vec = LongVector.of(LongStream.range(0, 2000).toArray());
+
+        LongVector changed = vec;
+        for (int i = 0; i < 2000; i += 7) {
+            changed = changed.set(i, -i);
+        }
+
+        for (int i = 0; i < 2000; ++i) {
+            Assert.assertEquals(i, vec.get(i));
+            Assert.assertEquals(i % 7 == 0 ? -i : i, changed.get(i));
+        }
+    }
+
+    @Test
+    public void test_double_stream() {
+        DoubleVector vec = DoubleVector.empty();
+        for (int i = 0; i < 10000; ++i) {
+            vec = vec.add(i / 2.0);
+        }
+
+        Assert.assertEquals(24997500.0, vec.stream().sum(), 0.0);
+        Assert.assertEquals(24997500.0, vec.parallelStream().sum(), 0.0);
+        Assert.assertArrayEquals(
+                vec.stream().toArray(),
+                vec.parallelStream().toArray(),
+                0.0);
+    }
+
+    @Test
+    public void test_spliterator() {
+        IntVector vec = IntVector.of(IntStream.range(0, 1000).toArray());
+
+        Spliterator.OfInt suffix = vec.spliterator();
+        Spliterator.OfInt prefix = suffix.trySplit();
+        Assert.assertEquals(480, prefix.estimateSize());
+        Assert.assertEquals(520, suffix.estimateSize());
+
+        java.util.List<Integer> seen = new ArrayList<>();
+        Assert.assertTrue(prefix.tryAdvance((int i) -> seen.add(i)));
+        prefix.forEachRemaining((int i) -> seen.add(i));
+        suffix.forEachRemaining((int i) -> seen.add(i));
+
+        Assert.assertEquals(1000, seen.size());
+        for (int i = 0; i < 1000; ++i) {
+            Assert.assertEquals(i, (int) seen.get(i));
+        }
+    }
+
+    @Test
+    public void test_hashCode() {
+        Assert.assertEquals(
+                Arrays.asList(1, 2, 3).hashCode(),
+                IntVector.of(1, 2, 3).hashCode());
+        Assert.assertEquals(
+                Arrays.asList(1L, -2L).hashCode(),
+                LongVector.of(1, -2).hashCode());
+        Assert.assertEquals(
+                Arrays.asList(0.5, 1.5).hashCode(),
+                DoubleVector.of(0.5, 1.5).hashCode());
+    }
+
+    @Test
+    public void test_equals() {
+        Assert.assertEquals(IntVector.of(1, 2, 3), IntVector.of(1).add(2).add(3));
+        Assert.assertNotEquals(IntVector.of(1, 2, 3), IntVector.of(1, 2));
+        Assert.assertNotEquals(IntVector.of(1, 2, 3), LongVector.of(1, 2, 3));
+        Assert.assertEquals("[1.0, 2.5]", DoubleVector.of(1, 2.5).toString());
+    }
+}
@@ -0,0 +1,163 @@
+package io.coronet.pico;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PriorityQueueTest {
+
+    @Test
+    public void test_empty() {
+        PriorityQueue<String> queue = PriorityQueue.empty();
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertEquals(0, queue.size());
+        Assert.assertFalse(queue.iterator().hasNext());
+        Assert.assertEquals("[]", queue.toString());
+        Assert.assertSame(Comparator.naturalOrder(), queue.comparator());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void test_empty_peek() {
+        PriorityQueue.<String>empty().peek();
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void test_empty_remove() {
+        PriorityQueue.<String>empty().remove();
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void test_add_null() {
+        PriorityQueue.<String>empty().add(null);
+    }
+
+    @Test
+    public void test_ordered() {
+        PriorityQueue<Integer> queue = PriorityQueue.empty();
+        for (int i = 0; i < 1000; ++i) {
+            queue = queue.add((i * 7919) % 1000);
+        }
+        Assert.assertEquals(1000, queue.size());
+
+        for (int i = 0; i < 1000; ++i) {
+            Assert.assertEquals(i, (int) queue.peek());
+            queue = queue.remove();
+        }
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void test_interleaved() {
+        PriorityQueue<Integer> queue = PriorityQueue.empty();
+        java.util.PriorityQueue<Integer> expected =
+                new java.util.PriorityQueue<>();
+
+        Random random = new Random(1234);
+        for (int i = 0; i < 10000; ++i) {
+            if (!expected.isEmpty() && random.nextInt(3) == 0) {
+                Assert.assertEquals(expected.remove(), queue.peek());
+                queue = queue.remove();
+            } else {
+                int e = random.nextInt(100);
+                queue = queue.add(e);
+                expected.add(e);
+            }
+
+            Assert.assertEquals(expected.size(), queue.size());
+        }
+
+        java.util.List<Integer> actual = new ArrayList<>();
+        queue.forEach(actual::add);
+        Collections.sort(actual);
+
+        java.util.List<Integer> sorted = new ArrayList<>(expected);
+        Collections.sort(sorted);
+
+        Assert.assertEquals(sorted, actual);
+    }
+
+    @Test
+    public void test_comparator() {
+        PriorityQueue<String> queue =
+                PriorityQueue.empty(Comparator.comparing(String::length));
+
+        queue = queue.add("ccc").add("a").add("dddd").add("bb");
+
+        Assert.assertEquals("a", queue.peek());
+        Assert.assertEquals("bb", queue.remove().peek());
+        Assert.assertEquals("ccc", queue.remove().remove().peek());
+    }
+
+    @Test
+    public void test_from() {
+        Vector<Integer> elements = Vector.empty();
+        for (int i = 0; i < 1001; ++i) {
+            elements = elements.add((i * 7919) % 1001);
+        }
+
+        PriorityQueue<Integer> queue = PriorityQueue.from(elements);
+        Assert.assertEquals(1001, queue.size());
+        for (int i = 0; i < 1001; ++i) {
+            Assert.assertEquals(i, (int) queue.peek());
+            queue = queue.remove();
+        }
+
+        queue = PriorityQueue.from(Comparator.reverseOrder(), elements);
+        Assert.assertEquals(1000, (int) queue.peek());
+    }
+
+    @Test
+    public void test_meld() {
+        PriorityQueue<Integer> evens = PriorityQueue.empty();
+        PriorityQueue<Integer> odds = PriorityQueue.empty();
+        for (int i = 0; i < 100; ++i) {
+            evens = evens.add(i * 2);
+            odds = odds.add(i * 2 + 1);
+        }
+
+        PriorityQueue<Integer> queue = odds.meld(evens);
+        Assert.assertEquals(200, queue.size());
+        for (int i = 0; i < 200; ++i) {
+            Assert.assertEquals(i, (int) queue.peek());
+            queue = queue.remove();
+        }
+
+        Assert.assertSame(evens, evens.meld(PriorityQueue.empty()));
+        Assert.assertSame(evens, PriorityQueue.<Integer>empty().meld(evens));
+    }
+
+    @Test
+    public void test_meld_differentComparators() {
+        PriorityQueue<Integer> ascending = PriorityQueue.<Integer>empty()
+                .add(1)
+                .add(3);
+        PriorityQueue<Integer> descending =
+                PriorityQueue.<Integer>empty(Comparator.reverseOrder())
+                        .add(2)
+                        .add(4);
+
+        PriorityQueue<Integer> queue = descending.meld(ascending);
+        Assert.assertEquals(4, queue.size());
+        Assert.assertEquals(4, (int) queue.peek());
+        Assert.assertEquals(3, (int) queue.remove().peek());
+    }
+
+    @Test
+    public void test_persistent() {
+        PriorityQueue<Integer> one = PriorityQueue.<Integer>empty()
+                .add(2)
+                .add(1);
+        PriorityQueue<Integer> two = one.remove().add(3);
+
+        Assert.assertEquals(2, one.size());
+        Assert.assertEquals(1, (int) one.peek());
+        Assert.assertEquals(2, two.size());
+        Assert.assertEquals(2, (int) two.peek());
+        Assert.assertEquals(2, (int) one.remove().add(0).remove().peek());
+    }
+}
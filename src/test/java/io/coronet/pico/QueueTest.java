@@ -0,0 +1,140 @@
+package io.coronet.pico;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class QueueTest {
+
+    @Test
+    public void test_empty() {
+        Queue<String> queue = Queue.empty();
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertEquals(0, queue.size());
+        Assert.assertFalse(queue.iterator().hasNext());
+        Assert.assertEquals("[]", queue.toString());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void test_empty_peek() {
+        Queue.empty().peek();
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void test_empty_remove() {
+        Queue.empty().remove();
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void test_empty_iteratorNext() {
+        Queue.empty().iterator().next();
+    }
+
+    @Test
+    public void test_fifo() {
+        Queue<Integer> queue = Queue.empty();
+        for (int i = 0; i < 1000; ++i) {
+            queue = queue.enqueue(i);
+        }
+        Assert.assertEquals(1000, queue.size());
+
+        for (int i = 0; i < 1000; ++i) {
+            Assert.assertEquals(i, (int) queue.peek());
+            queue = queue.dequeue();
+        }
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void test_interleaved() {
+        Queue<Integer> queue = Queue.empty();
+        java.util.Queue<Integer> expected = new ArrayDeque<>();
+
+        int next = 0;
+        for (int i = 0; i < 5000; ++i) {
+            if (i % 3 == 2) {
+                Assert.assertEquals(expected.remove(), queue.peek());
+                queue = queue.remove();
+            } else {
+                queue = queue.add(next);
+                expected.add(next);
+                next += 1;
+            }
+
+            Assert.assertEquals(expected.size(), queue.size());
+        }
+
+        Assert.assertEquals(
+                new ArrayList<>(expected),
+                new ArrayList<>(queue.asJavaCollection()));
+    }
+
+    @Test
+    public void test_persistent() {
+        Queue<String> one = Queue.<String>empty().add("a").add("b");
+        Queue<String> two = one.remove().add("c");
+        Queue<String> three = one.add("d");
+
+        Assert.assertEquals("[a, b]", one.toString());
+        Assert.assertEquals("[b, c]", two.toString());
+        Assert.assertEquals("[a, b, d]", three.toString());
+        Assert.assertEquals("[d]", three.remove().remove().toString());
+    }
+
+    @Test
+    public void test_addAll() {
+        Queue<Integer> queue = Queue.<Integer>empty()
+                .addAll(Arrays.asList(1, 2, 3))
+                .remove()
+                .addAll(Vector.<Integer>empty().add(4).add(5));
+
+        Assert.assertEquals(4, queue.size());
+        Assert.assertTrue(queue.contains(5));
+
+        Iterator<Integer> iter = queue.iterator();
+        for (int i = 2; i <= 5; ++i) {
+            Assert.assertEquals(i, (int) iter.next());
+        }
+        Assert.assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void test_removeSameVersion() {
+        Queue<Integer> queue = Queue.empty();
+        for (int i = 0; i < 10000; ++i) {
+            queue = queue.add(i);
+        }
+        for (int i = 0; i < 9990; ++i) {
+            queue = queue.remove();
+        }
+
+        // Dequeueing from the same nearly-drained version over and over
+        // again doesn't disturb it.
+        Queue<Integer> more = queue.add(10000);
+        for (int i = 0; i < 1000; ++i) {
+            Assert.assertEquals(9991, (int) queue.remove().peek());
+            Assert.assertEquals(9, queue.remove().size());
+            Assert.assertEquals(10000, (int) more.remove().remove()
+                    .remove().remove().remove().remove().remove().remove()
+                    .remove().remove().peek());
+        }
+        Assert.assertEquals(9990, (int) queue.peek());
+        Assert.assertEquals(10, queue.size());
+    }
+
+    @Test
+    public void test_equals() {
+        Queue<Integer> one = Queue.<Integer>empty().add(0).add(1).add(2).remove();
+        Queue<Integer> two = Queue.<Integer>empty().add(1).add(2);
+
+        Assert.assertEquals(one, two);
+        Assert.assertEquals(one.hashCode(), two.hashCode());
+        Assert.assertEquals(Arrays.asList(1, 2).hashCode(), one.hashCode());
+        Assert.assertNotEquals(one, two.add(3));
+    }
+}
@@ -0,0 +1,166 @@
+package io.coronet.pico;
+
+import java.util.HashSet;
+import java.util.Spliterator;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SetTest {
+
+    @Test
+    public void test_empty() {
+        Set<String> set = Set.empty();
+        Assert.assertTrue(set.isEmpty());
+        Assert.assertEquals(0, set.size());
+        Assert.assertFalse(set.contains("Hello"));
+        Assert.assertFalse(set.iterator().hasNext());
+        Assert.assertSame(set, set.remove("Hello"));
+        Assert.assertEquals("[]", set.toString());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void test_add_null() {
+        Set.empty().add(null);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void test_contains_null() {
+        Set.empty().contains(null);
+    }
+
+    @Test
+    public void test_add() {
+        Set<String> set = Set.<String>empty().add("Hello").add("World");
+        Assert.assertEquals(2, set.size());
+        Assert.assertTrue(set.contains("Hello"));
+        Assert.assertTrue(set.contains("World"));
+        Assert.assertFalse(set.contains("oog"));
+
+        Assert.assertSame(set, set.add("Hello"));
+        Assert.assertSame(set, set.add(new String("World")));
+    }
+
+    @Test
+    public void test_add_remove_lots() {
+        Set<Integer> set = Set.empty();
+        for (int i = 0; i < 12345; ++i) {
+            set = set.add(i);
+        }
+        Assert.assertEquals(12345, set.size());
+
+        Set<Integer> set2 = set;
+        for (int i = 0; i < 12345; i += 2) {
+            set2 = set2.remove(i);
+        }
+
+        Assert.assertEquals(12345, set.size());
+        Assert.assertEquals(6172, set2.size());
+
+        for (int i = 0; i < 12345; ++i) {
+            Assert.assertTrue(set.contains(i));
+            Assert.assertEquals((i % 2) == 1, set2.contains(i));
+        }
+
+        for (int i = 1; i < 12345; i += 2) {
+            set2 = set2.remove(i);
+        }
+        Assert.assertSame(Set.empty(), set2);
+    }
+
+    @Test
+    public void test_iterator() {
+        Set<String> set = Set.empty();
+        for (int i = 0; i < 1234; ++i) {
+            set = set.add(Integer.toString(i));
+        }
+
+        java.util.Set<String> seen = new TreeSet<>();
+        for (String s : set) {
+            Assert.assertTrue(seen.add(s));
+        }
+        Assert.assertEquals(1234, seen.size());
+    }
+
+    @Test
+    public void test_builder() {
+        Set.Builder<Integer> builder = Set.builder();
+        for (int i = 0; i < 1000; ++i) {
+            builder.add(i % 500);
+        }
+        Assert.assertEquals(500, builder.size());
+
+        Set<Integer> set = builder.build();
+        Assert.assertEquals(500, set.size());
+
+        builder.remove(0).add(1000);
+        Assert.assertTrue(set.contains(0));
+        Assert.assertFalse(set.contains(1000));
+
+        Set<Integer> set2 = builder.build();
+        Assert.assertFalse(set2.contains(0));
+        Assert.assertTrue(set2.contains(1000));
+        Assert.assertEquals(500, set2.size());
+    }
+
+    @Test
+    public void test_addAll() {
+        Set<Integer> set = Set.<Integer>empty().add(1).add(2);
+        java.util.List<Integer> more = java.util.Arrays.asList(2, 3, 4);
+
+        Set<Integer> union = set.addAll(more);
+        Assert.assertEquals(4, union.size());
+        Assert.assertEquals(2, set.size());
+        Assert.assertSame(union, union.addAll(set));
+    }
+
+    @Test
+    public void test_equals() {
+        Set<Integer> set1 = Set.empty();
+        Set<Integer> set2 = Set.empty();
+        for (int i = 0; i < 100; ++i) {
+            set1 = set1.add(i);
+            set2 = set2.add(99 - i);
+        }
+
+        Assert.assertEquals(set1, set2);
+        Assert.assertEquals(set1.hashCode(), set2.hashCode());
+        Assert.assertNotEquals(set1, set2.remove(0));
+    }
+
+    @Test
+    public void test_asJavaCollection() {
+        Set<Integer> set = Set.empty();
+        java.util.Set<Integer> expected = new HashSet<>();
+        for (int i = 0; i < 100; ++i) {
+            set = set.add(i);
+            expected.add(i);
+        }
+
+        java.util.Set<Integer> view = set.asJavaCollection();
+        Assert.assertEquals(expected, view);
+        Assert.assertEquals(view, expected);
+        Assert.assertEquals(expected.hashCode(), view.hashCode());
+        Assert.assertTrue(view.contains(42));
+    }
+
+    @Test
+    public void test_spliterator() {
+        Set<Integer> set = Set.empty();
+        for (int i = 0; i < 12345; ++i) {
+            set = set.add(i);
+        }
+
+        Spliterator<Integer> spliterator = set.spliterator();
+        Assert.assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED));
+        Assert.assertTrue(spliterator.hasCharacteristics(Spliterator.DISTINCT));
+        Assert.assertEquals(12345, spliterator.estimateSize());
+
+        java.util.Set<Integer> seen =
+                set.parallelStream().collect(Collectors.toSet());
+        Assert.assertEquals(12345, seen.size());
+        Assert.assertEquals(set.asJavaCollection(), seen);
+    }
+}
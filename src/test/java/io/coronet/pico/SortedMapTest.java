@@ -0,0 +1,269 @@
+package io.coronet.pico;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SortedMapTest {
+
+    @Test
+    public void test_empty() {
+        SortedMap<String, String> map = SortedMap.empty();
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertEquals(0, map.size());
+        Assert.assertNull(map.get("Hello"));
+        Assert.assertNull(map.firstEntry());
+        Assert.assertNull(map.floorKey("Hello"));
+        Assert.assertFalse(map.entrySet().iterator().hasNext());
+        Assert.assertSame(map, map.remove("Hello"));
+        Assert.assertSame(map, map.headMap("Hello"));
+        Assert.assertEquals("{}", map.toString());
+        Assert.assertEquals(Map.empty(), map);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void test_empty_firstKey() {
+        SortedMap.<String, String>empty().firstKey();
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void test_put_null() {
+        SortedMap.<String, String>empty().put(null, "Hello");
+    }
+
+    @Test
+    public void test_put() {
+        SortedMap<String, Integer> map = SortedMap.<String, Integer>empty()
+                .put("World", 2)
+                .put("Hello", 1)
+                .put("oog", null);
+
+        Assert.assertEquals(3, map.size());
+        Assert.assertEquals((Integer) 1, map.get("Hello"));
+        Assert.assertTrue(map.containsKey("oog"));
+        Assert.assertFalse(map.containsKey("Oog"));
+        Assert.assertEquals("{Hello=1, World=2, oog=null}", map.toString());
+
+        Assert.assertSame(map, map.put("Hello", 1));
+        Assert.assertEquals((Integer) 3, map.put("Hello", 3).get("Hello"));
+        Assert.assertEquals((Integer) 1, map.get("Hello"));
+    }
+
+    @Test
+    public void test_put_remove_lots() {
+        SortedMap<Integer, Integer> map = SortedMap.empty();
+        for (int i = 0; i < 12345; ++i) {
+            map = map.put((i * 7919) % 12345, i);
+        }
+        Assert.assertEquals(12345, map.size());
+        Assert.assertEquals((Integer) 0, map.firstKey());
+        Assert.assertEquals((Integer) 12344, map.lastKey());
+
+        int expected = 0;
+        for (Integer key : map.keySet()) {
+            Assert.assertEquals((Integer) expected++, key);
+        }
+
+        for (int i = 0; i < 12345; i += 2) {
+            map = map.remove(i);
+        }
+        Assert.assertEquals(6172, map.size());
+        Assert.assertEquals((Integer) 1, map.firstKey());
+        Assert.assertEquals((Integer) 12343, map.lastKey());
+
+        for (int i = 1; i < 12345; i += 2) {
+            map = map.remove(i);
+        }
+        Assert.assertSame(SortedMap.empty(), map);
+    }
+
+    @Test
+    public void test_navigation() {
+        SortedMap<Integer, String> map = SortedMap.empty();
+        for (int i = 0; i < 100; i += 10) {
+            map = map.put(i, Integer.toString(i));
+        }
+
+        Assert.assertEquals((Integer) 20, map.floorKey(25));
+        Assert.assertEquals((Integer) 20, map.floorKey(20));
+        Assert.assertEquals((Integer) 10, map.lowerKey(20));
+        Assert.assertEquals((Integer) 30, map.ceilingKey(25));
+        Assert.assertEquals((Integer) 20, map.ceilingKey(20));
+        Assert.assertEquals((Integer) 30, map.higherKey(20));
+
+        Assert.assertNull(map.lowerKey(0));
+        Assert.assertNull(map.higherKey(90));
+        Assert.assertNull(map.floorEntry(-1));
+        Assert.assertEquals(new Map.Entry<>(90, "90"), map.floorEntry(1000));
+        Assert.assertEquals(new Map.Entry<>(0, "0"), map.firstEntry());
+        Assert.assertEquals(new Map.Entry<>(90, "90"), map.lastEntry());
+    }
+
+    @Test
+    public void test_subMaps() {
+        SortedMap<Integer, Integer> map = SortedMap.empty();
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        for (int i = 0; i < 1000; i += 3) {
+            map = map.put(i, i);
+            expected.put(i, i);
+        }
+
+        Assert.assertEquals(expected.headMap(500), asJava(map.headMap(500)));
+        Assert.assertEquals(
+                expected.headMap(501, true),
+                asJava(map.headMap(501, true)));
+        Assert.assertEquals(expected.tailMap(500), asJava(map.tailMap(500)));
+        Assert.assertEquals(
+                expected.tailMap(501, false),
+                asJava(map.tailMap(501, false)));
+        Assert.assertEquals(
+                expected.subMap(100, 900),
+                asJava(map.subMap(100, 900)));
+        Assert.assertEquals(
+                expected.subMap(99, false, 900, true),
+                asJava(map.subMap(99, false, 900, true)));
+
+        SortedMap<Integer, Integer> sub = map.subMap(100, 200);
+        Assert.assertEquals((Integer) 102, sub.firstKey());
+        Assert.assertEquals((Integer) 198, sub.lastKey());
+        Assert.assertFalse(sub.put(500, 0).containsKey(501));
+        Assert.assertTrue(map.subMap(200, 200).isEmpty());
+
+        Assert.assertSame(map, map.headMap(1000));
+        Assert.assertSame(map, map.tailMap(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_subMap_backwards() {
+        SortedMap.<Integer, Integer>empty().subMap(2, 1);
+    }
+
+    @Test
+    public void test_comparator() {
+        SortedMap<String, Integer> map =
+                SortedMap.empty(Comparator.<String>reverseOrder());
+        for (int i = 0; i < 10; ++i) {
+            map = map.put(Integer.toString(i), i);
+        }
+
+        Assert.assertEquals("9", map.firstKey());
+        Assert.assertEquals("0", map.lastKey());
+        Assert.assertEquals("4", map.higherKey("5"));
+        Assert.assertEquals(5, map.headMap("4").size());
+
+        SortedMap<String, Integer> natural = SortedMap.empty();
+        Assert.assertSame(Comparator.naturalOrder(), natural.comparator());
+        Assert.assertEquals(natural.putAll(map), map);
+    }
+
+    @Test
+    public void test_spliterator() {
+        SortedMap<Integer, Integer> map = SortedMap.empty();
+        for (int i = 0; i < 12345; ++i) {
+            map = map.put(i, i);
+        }
+
+        Spliterator<Map.Entry<Integer, Integer>> spliterator =
+                map.spliterator();
+        Assert.assertTrue(spliterator.hasCharacteristics(Spliterator.SORTED));
+        Assert.assertTrue(
+                spliterator.hasCharacteristics(Spliterator.SUBSIZED));
+        Assert.assertEquals(12345, spliterator.estimateSize());
+
+        Spliterator<Map.Entry<Integer, Integer>> prefix =
+                spliterator.trySplit();
+        Assert.assertEquals(6172, prefix.estimateSize());
+        Assert.assertEquals(6173, spliterator.estimateSize());
+
+        java.util.List<Integer> keys = map.parallelStream()
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        Assert.assertEquals(new ArrayList<>(asJava(map).keySet()), keys);
+    }
+
+    @Test
+    public void test_equals() {
+        SortedMap<Integer, Integer> map1 = SortedMap.empty();
+        SortedMap<Integer, Integer> map2 = SortedMap.empty();
+        Map<Integer, Integer> map3 = Map.empty();
+        for (int i = 0; i < 100; ++i) {
+            map1 = map1.put(i, i);
+            map2 = map2.put(99 - i, 99 - i);
+            map3 = map3.put(i, i);
+        }
+
+        Assert.assertEquals(map1, map2);
+        Assert.assertEquals(map1, map3);
+        Assert.assertEquals(map3, map1);
+        Assert.assertEquals(map1.hashCode(), map2.hashCode());
+        Assert.assertEquals(map1.hashCode(), map3.hashCode());
+        Assert.assertNotEquals(map1, map2.put(0, 1));
+        Assert.assertNotEquals(map1, map2.remove(0).put(100, 0));
+    }
+
+    @Test
+    public void test_builder() {
+        SortedMap.Builder<Integer, String> builder = SortedMap.builder();
+        for (int i = 0; i < 1000; ++i) {
+            builder.put(i % 500, Integer.toString(i));
+        }
+        Assert.assertEquals(500, builder.size());
+
+        SortedMap<Integer, String> map = builder.build();
+        builder.remove(0).compute(1, (k, v) -> v + "!");
+
+        Assert.assertEquals("500", map.get(0));
+        Assert.assertEquals("501", map.get(1));
+        Assert.assertEquals("501!", builder.build().get(1));
+        Assert.assertEquals((Integer) 1, builder.build().firstKey());
+    }
+
+    @Test
+    public void test_compute_chained() {
+        SortedMap<String, Integer> map = SortedMap.<String, Integer>empty()
+                .merge("b", 1, Integer::sum)
+                .merge("b", 1, Integer::sum)
+                .compute("d", (k, v) -> 4)
+                .computeIfAbsent("a", (k) -> 1)
+                .computeIfPresent("d", (k, v) -> v + 1)
+                .putIfAbsent("c", 3);
+
+        Assert.assertEquals("{a=1, b=2, c=3, d=5}", map.toString());
+        Assert.assertEquals((Integer) 2, map.get("b"));
+        Assert.assertEquals((Integer) 5, map.get("d"));
+        Assert.assertEquals("b", map.merge("b", 1, Integer::sum)
+                .floorKey("bz"));
+        Assert.assertEquals("c", map.compute("a", (k, v) -> null)
+                .computeIfPresent("b", (k, v) -> null)
+                .firstKey());
+
+        Assert.assertSame(map, map.computeIfAbsent("a", (k) -> 7));
+        Assert.assertSame(map, map.computeIfPresent("e", (k, v) -> 7));
+        Assert.assertSame(map, map.putIfAbsent("c", 7));
+        Assert.assertSame(map, map.compute("e", (k, v) -> null));
+
+        SortedMap<String, Integer> other = SortedMap.<String, Integer>empty()
+                .put("b", 10)
+                .put("e", 6);
+        Assert.assertEquals("{a=1, b=12, c=3, d=5, e=6}",
+                map.merge(other, Integer::sum).toString());
+        Assert.assertEquals("{b=20}",
+                map.intersect(other, (a, b) -> a * b).subMap("b", "c")
+                        .toString());
+        Set<String> keys = Set.<String>empty().add("a").add("b").add("d");
+        Assert.assertEquals("d",
+                map.difference(other).retainKeys(keys).lastKey());
+    }
+
+    private static <K, V> java.util.Map<K, V> asJava(SortedMap<K, V> map) {
+        java.util.Map<K, V> result = new TreeMap<>(map.comparator());
+        map.forEach(result::put);
+        return result;
+    }
+}
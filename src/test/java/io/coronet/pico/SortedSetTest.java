@@ -0,0 +1,231 @@
+package io.coronet.pico;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SortedSetTest {
+
+    @Test
+    public void test_empty() {
+        SortedSet<String> set = SortedSet.empty();
+        Assert.assertTrue(set.isEmpty());
+        Assert.assertEquals(0, set.size());
+        Assert.assertFalse(set.contains("Hello"));
+        Assert.assertFalse(set.iterator().hasNext());
+        Assert.assertSame(set, set.remove("Hello"));
+        Assert.assertEquals(0, set.rank("Hello"));
+        Assert.assertEquals(0, set.count("Hello", "World"));
+        Assert.assertNull(set.floor("Hello"));
+        Assert.assertEquals("[]", set.toString());
+        Assert.assertEquals(Set.empty(), set);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void test_empty_first() {
+        SortedSet.<String>empty().first();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void test_empty_get0() {
+        SortedSet.<String>empty().get(0);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void test_add_null() {
+        SortedSet.<String>empty().add(null);
+    }
+
+    @Test
+    public void test_add() {
+        SortedSet<String> set = SortedSet.<String>empty()
+                .add("World")
+                .add("Hello");
+
+        Assert.assertEquals(2, set.size());
+        Assert.assertTrue(set.contains("Hello"));
+        Assert.assertFalse(set.contains("oog"));
+        Assert.assertEquals("[Hello, World]", set.toString());
+        Assert.assertSame(set, set.add("Hello"));
+        Assert.assertSame(set, set.add(new String("World")));
+    }
+
+    @Test
+    public void test_add_remove_lots() {
+        SortedSet<Integer> set = SortedSet.empty();
+        for (int i = 0; i < 12345; ++i) {
+            set = set.add((i * 7919) % 12345);
+        }
+        Assert.assertEquals(12345, set.size());
+        Assert.assertEquals((Integer) 0, set.first());
+        Assert.assertEquals((Integer) 12344, set.last());
+
+        SortedSet<Integer> set2 = set;
+        for (int i = 0; i < 12345; i += 2) {
+            set2 = set2.remove(i);
+        }
+        Assert.assertEquals(6172, set2.size());
+
+        for (int i = 0; i < 12345; ++i) {
+            Assert.assertTrue(set.contains(i));
+            Assert.assertEquals((i % 2) == 1, set2.contains(i));
+        }
+
+        for (int i = 1; i < 12345; i += 2) {
+            set2 = set2.remove(i);
+        }
+        Assert.assertSame(SortedSet.empty(), set2);
+    }
+
+    @Test
+    public void test_orderStatistics() {
+        SortedSet<Integer> set = SortedSet.empty();
+        for (int i = 0; i < 1000; ++i) {
+            set = set.add(i * 2);
+        }
+
+        for (int i = 0; i < 1000; ++i) {
+            Assert.assertEquals((Integer) (i * 2), set.get(i));
+            Assert.assertEquals(i, set.rank(i * 2));
+            Assert.assertEquals(i + 1, set.rank(i * 2 + 1));
+        }
+        Assert.assertEquals(0, set.rank(-1));
+        Assert.assertEquals(1000, set.rank(5000));
+
+        Assert.assertEquals(50, set.count(100, 200));
+        Assert.assertEquals(50, set.count(99, 199));
+        Assert.assertEquals(0, set.count(101, 101));
+        Assert.assertEquals(1000, set.count(-100, 5000));
+
+        // The 90th percentile, say.
+        Assert.assertEquals((Integer) 1800, set.get(set.size() * 9 / 10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_count_backwards() {
+        SortedSet.<Integer>empty().count(2, 1);
+    }
+
+    @Test
+    public void test_navigation() {
+        SortedSet<Integer> set = SortedSet.empty();
+        for (int i = 0; i < 100; i += 10) {
+            set = set.add(i);
+        }
+
+        Assert.assertEquals((Integer) 20, set.floor(25));
+        Assert.assertEquals((Integer) 20, set.floor(20));
+        Assert.assertEquals((Integer) 10, set.lower(20));
+        Assert.assertEquals((Integer) 30, set.ceiling(25));
+        Assert.assertEquals((Integer) 30, set.higher(20));
+        Assert.assertNull(set.lower(0));
+        Assert.assertNull(set.higher(90));
+    }
+
+    @Test
+    public void test_subSets() {
+        SortedSet<Integer> set = SortedSet.empty();
+        java.util.TreeSet<Integer> expected = new java.util.TreeSet<>();
+        for (int i = 0; i < 1000; i += 3) {
+            set = set.add(i);
+            expected.add(i);
+        }
+
+        Assert.assertEquals(
+                expected.headSet(500),
+                set.headSet(500).asJavaCollection());
+        Assert.assertEquals(
+                expected.tailSet(501, false),
+                set.tailSet(501, false).asJavaCollection());
+        Assert.assertEquals(
+                expected.subSet(99, false, 900, true),
+                set.subSet(99, false, 900, true).asJavaCollection());
+
+        SortedSet<Integer> sub = set.subSet(100, 200);
+        Assert.assertEquals(set.count(100, 200), sub.size());
+        Assert.assertEquals((Integer) 102, sub.first());
+        Assert.assertEquals((Integer) 198, sub.last());
+        Assert.assertEquals(0, sub.rank(102));
+        Assert.assertSame(set, set.tailSet(0));
+    }
+
+    @Test
+    public void test_comparator() {
+        SortedSet<Integer> set = SortedSet.empty(Comparator.reverseOrder());
+        for (int i = 0; i < 10; ++i) {
+            set = set.add(i);
+        }
+
+        Assert.assertEquals((Integer) 9, set.first());
+        Assert.assertEquals((Integer) 9, set.get(0));
+        Assert.assertEquals(2, set.rank(7));
+        Assert.assertEquals(
+                Arrays.asList(9, 8, 7, 6, 5, 4, 3, 2, 1, 0),
+                new ArrayList<>(set.asJavaCollection()));
+    }
+
+    @Test
+    public void test_equals() {
+        SortedSet<Integer> set1 = SortedSet.empty();
+        SortedSet<Integer> set2 = SortedSet.empty();
+        Set<Integer> set3 = Set.empty();
+        for (int i = 0; i < 100; ++i) {
+            set1 = set1.add(i);
+            set2 = set2.add(99 - i);
+            set3 = set3.add(i);
+        }
+
+        Assert.assertEquals(set1, set2);
+        Assert.assertEquals(set1, set3);
+        Assert.assertEquals(set3, set1);
+        Assert.assertEquals(set1.hashCode(), set3.hashCode());
+        Assert.assertNotEquals(set1, set2.remove(0));
+        Assert.assertEquals(
+                new HashSet<>(set1.asJavaCollection()),
+                set1.asJavaCollection());
+    }
+
+    @Test
+    public void test_spliterator() {
+        SortedSet<Integer> set = SortedSet.empty();
+        for (int i = 0; i < 12345; ++i) {
+            set = set.add(i);
+        }
+
+        Spliterator<Integer> spliterator = set.spliterator();
+        Assert.assertTrue(spliterator.hasCharacteristics(Spliterator.SORTED));
+        Assert.assertNull(spliterator.getComparator());
+        Assert.assertEquals(12345, spliterator.estimateSize());
+
+        java.util.List<Integer> elements =
+                set.parallelStream().collect(Collectors.toList());
+        Assert.assertEquals(12345, elements.size());
+        for (int i = 0; i < 12345; ++i) {
+            Assert.assertEquals((Integer) i, elements.get(i));
+        }
+    }
+
+    @Test
+    public void test_builder() {
+        SortedSet.Builder<Integer> builder = SortedSet.builder();
+        for (int i = 0; i < 1000; ++i) {
+            builder.add(i % 500);
+        }
+        Assert.assertEquals(500, builder.size());
+
+        SortedSet<Integer> set = builder.build();
+        builder.remove(0).add(1000);
+        Assert.assertTrue(set.contains(0));
+
+        SortedSet<Integer> set2 = builder.build();
+        Assert.assertFalse(set2.contains(0));
+        Assert.assertEquals((Integer) 1000, set2.last());
+    }
+}
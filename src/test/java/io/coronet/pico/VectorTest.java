@@ -5,6 +5,8 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -248,6 +250,114 @@ public class VectorTest {
         Assert.assertEquals(list.hashCode(), plist.hashCode());
     }
 
+    @Test
+    public void test_hashCode_derived() {
+        java.util.List<Integer> list = new ArrayList<>();
+        Vector<Integer> vec = Vector.empty();
+        for (int i = 0; i < 1000; ++i) {
+            list.add(i);
+            vec = vec.add(i);
+        }
+        Assert.assertEquals(list.hashCode(), vec.hashCode());
+
+        // Derived from a vector whose hash code is already cached.
+        for (int i = 0; i < 100; ++i) {
+            list.add(-i);
+            vec = vec.add(-i);
+        }
+        list.set(3, null);
+        list.set(1050, 7);
+        vec = vec.set(3, null).set(1050, 7);
+        Assert.assertEquals(list.hashCode(), vec.hashCode());
+
+        Assert.assertEquals(
+                list.subList(500, 1100).hashCode(),
+                vec.last(600).hashCode());
+    }
+
+    @Test
+    public void test_hashCode_sliced() {
+        java.util.List<Integer> list = new ArrayList<>();
+        for (int i = 0; i < 40000; ++i) {
+            list.add(i % 7 == 0 ? null : i);
+        }
+        Vector<Integer> radix = Vector.<Integer>builder().addAll(list).build();
+        Vector<Integer> relaxed = Vector.empty();
+        for (int i = 0; i < list.size(); i += 1234) {
+            relaxed = relaxed.concat(Vector.<Integer>builder()
+                    .addAll(list.subList(i, Math.min(i + 1234, list.size())))
+                    .build());
+        }
+
+        for (Vector<Integer> vec : Arrays.asList(radix, relaxed)) {
+            Assert.assertEquals(list.hashCode(), vec.hashCode());
+
+            // Derived from a vector whose hash code is already cached.
+            for (int n : new int[] { 1, 31, 33, 1025, 20000, 39999 }) {
+                Assert.assertEquals(
+                        list.subList(0, n).hashCode(),
+                        vec.first(n).hashCode());
+                Assert.assertEquals(
+                        list.subList(40000 - n, 40000).hashCode(),
+                        vec.last(n).hashCode());
+                Assert.assertEquals(
+                        list.subList(n / 3, n).hashCode(),
+                        vec.slice(n / 3, n).hashCode());
+            }
+
+            Vector<Integer> twice = vec.concat(vec.last(5000));
+            java.util.List<Integer> expected = new ArrayList<>(list);
+            expected.addAll(list.subList(35000, 40000));
+            Assert.assertEquals(expected.hashCode(), twice.hashCode());
+
+            expected.set(12345, -1);
+            Assert.assertEquals(
+                    expected.subList(100, 44000).hashCode(),
+                    twice.set(12345, -1).first(44000).last(43900).hashCode());
+        }
+    }
+
+    @Test
+    public void test_indexOf_lots() {
+        Vector<Integer> vec = Vector.empty();
+        for (int i = 0; i < 3000; ++i) {
+            vec = vec.add(i % 1000);
+        }
+
+        Assert.assertEquals(123, vec.indexOf(123));
+        Assert.assertEquals(2123, vec.lastIndexOf(123));
+        Assert.assertEquals(-1, vec.indexOf(1000));
+        Assert.assertEquals(-1, vec.lastIndexOf(1000));
+        Assert.assertTrue(vec.contains(999));
+        Assert.assertFalse(vec.contains(null));
+
+        Vector<Integer> last = vec.last(2000);
+        Assert.assertEquals(123, last.indexOf(123));
+        Assert.assertEquals(1123, last.lastIndexOf(123));
+        Assert.assertEquals(1999, last.lastIndexOf(999));
+        Assert.assertEquals(-1, vec.last(10).indexOf(0));
+    }
+
+    @Test
+    public void test_toArray_forEach() {
+        java.util.List<Integer> list = new ArrayList<>();
+        Vector<Integer> vec = Vector.empty();
+        for (int i = 0; i < 1234; ++i) {
+            list.add(i);
+            vec = vec.add(i);
+        }
+
+        Assert.assertArrayEquals(list.toArray(), vec.toArray());
+        Assert.assertArrayEquals(
+                list.subList(100, 1234).toArray(),
+                vec.last(1134).toArray());
+        Assert.assertArrayEquals(new Object[0], Vector.empty().toArray());
+
+        java.util.List<Integer> seen = new ArrayList<>();
+        vec.last(1134).forEach(seen::add);
+        Assert.assertEquals(list.subList(100, 1234), seen);
+    }
+
     @Test
     public void test_null_hashCode() {
         Assert.assertEquals(
@@ -276,6 +386,33 @@ public class VectorTest {
         Assert.assertNotEquals(one, two.first(2));
     }
 
+    @Test
+    public void test_equals_large() {
+        Vector<Integer> one = Vector.empty();
+        for (int i = 0; i < 5000; ++i) {
+            one = one.add(i);
+        }
+
+        Vector<Integer> two = one.set(1234, -1).set(1234, 1234);
+        Assert.assertEquals(one, two);
+        Assert.assertNotEquals(one, two.set(4321, -1));
+        Assert.assertEquals(one.last(4000), two.last(4000));
+
+        // Different shapes: a relaxed tree and an offset tree.
+        Vector<Integer> three = one.first(2500).concat(one.last(2500));
+        Assert.assertEquals(one, three);
+        Assert.assertEquals(three, one);
+        Assert.assertNotEquals(three, one.set(4999, 0));
+
+        Vector<Integer> four = Vector.<Integer>empty().add(-1).concat(one);
+        Assert.assertEquals(one, four.last(5000));
+        Assert.assertEquals(four.last(4990), three.last(4990));
+
+        Assert.assertEquals(
+                one,
+                LinkedList.<Integer>empty().addAll(one.asJavaCollection()));
+    }
+
     @Test(expected = IndexOutOfBoundsException.class)
     public void test_empty_first() {
         Vector.empty().first();
@@ -366,4 +503,314 @@ public class VectorTest {
             }
         }
     }
+
+    @Test
+    public void test_builder_empty() {
+        Assert.assertSame(Vector.empty(), Vector.builder().build());
+    }
+
+    @Test
+    public void test_builder() {
+        Vector.Builder<Integer> builder = Vector.builder();
+        for (int i = 0; i < 123456; ++i) {
+            builder.add(i);
+        }
+
+        Assert.assertEquals(123456, builder.size());
+
+        Vector<Integer> vec = builder.build();
+        Assert.assertEquals(123456, vec.size());
+
+        for (int i = 0; i < 123456; ++i) {
+            Assert.assertEquals(i, (int) vec.get(i));
+        }
+    }
+
+    @Test
+    public void test_builder_reuse() {
+        Vector.Builder<Integer> builder = Vector.builder();
+        builder.addAll(Arrays.asList(0, 1, 2));
+
+        Vector<Integer> one = builder.build();
+        for (int i = 3; i < 1234; ++i) {
+            builder.add(i);
+        }
+        Vector<Integer> two = builder.build();
+        builder.add(1234);
+
+        Assert.assertEquals(3, one.size());
+        Assert.assertEquals(1234, two.size());
+        Assert.assertEquals(1235, builder.build().size());
+
+        for (int i = 0; i < 1234; ++i) {
+            Assert.assertEquals(i, (int) two.get(i));
+        }
+    }
+
+    @Test
+    public void test_toBuilder_doesNotModify() {
+        for (int size = 0; size < 1100; size += 31) {
+            Vector<Integer> vec = Vector.empty();
+            for (int i = 0; i < size; ++i) {
+                vec = vec.add(i);
+            }
+            Vector<Integer> dropped = vec.last(size / 2);
+
+            Vector<Integer> more = vec.toBuilder()
+                    .addAll(Arrays.asList(-1, -2, -3))
+                    .build();
+
+            Vector<Integer> moreDropped = dropped.toBuilder()
+                    .add(-1)
+                    .build();
+
+            Assert.assertEquals(size, vec.size());
+            Assert.assertEquals(size + 3, more.size());
+            Assert.assertEquals(size / 2 + 1, moreDropped.size());
+
+            for (int i = 0; i < size; ++i) {
+                Assert.assertEquals(i, (int) vec.get(i));
+                Assert.assertEquals(i, (int) more.get(i));
+            }
+            Assert.assertEquals(-3, (int) more.last());
+            Assert.assertEquals(-1, (int) moreDropped.last());
+            Assert.assertEquals(dropped, moreDropped.first(size / 2));
+        }
+    }
+
+    @Test
+    public void test_spliterator() {
+        Vector.Builder<Integer> builder = Vector.builder();
+        for (int i = 0; i < 32768; ++i) {
+            builder.add(i);
+        }
+        Vector<Integer> vec = builder.build();
+
+        Spliterator<Integer> suffix = vec.spliterator();
+        Assert.assertTrue(suffix.hasCharacteristics(
+                Spliterator.SIZED
+                | Spliterator.SUBSIZED
+                | Spliterator.ORDERED
+                | Spliterator.IMMUTABLE));
+
+        // Splits between the children of the root.
+        Spliterator<Integer> prefix = suffix.trySplit();
+        Assert.assertEquals(16384, prefix.estimateSize());
+        Assert.assertEquals(16384, suffix.estimateSize());
+
+        java.util.List<Integer> seen = new ArrayList<>();
+        Assert.assertTrue(prefix.tryAdvance(seen::add));
+        prefix.forEachRemaining(seen::add);
+        suffix.forEachRemaining(seen::add);
+
+        Assert.assertEquals(vec.asJavaCollection(), seen);
+    }
+
+    @Test
+    public void test_spliterator_small() {
+        Spliterator<Integer> split = Vector.<Integer>empty()
+                .addAll(Arrays.asList(1, 2, 3))
+                .spliterator();
+
+        Assert.assertNull(split.trySplit());
+        Assert.assertEquals(3, split.estimateSize());
+    }
+
+    @Test
+    public void test_parallelStream() {
+        Vector<Integer> vec = Vector.empty();
+        for (int i = 0; i < 12345; ++i) {
+            vec = vec.add(i);
+        }
+        vec = vec.last(12000).first(11000);
+
+        Assert.assertEquals(
+                vec.stream().collect(Collectors.toList()),
+                vec.parallelStream().collect(Collectors.toList()));
+
+        Assert.assertEquals(
+                vec.stream().mapToLong(Integer::longValue).sum(),
+                vec.parallelStream().mapToLong(Integer::longValue).sum());
+    }
+
+    @Test
+    public void test_concat() {
+        for (int left = 0; left < 1100; left += 97) {
+            for (int right = 0; right < 1100; right += 89) {
+                Vector<Integer> vec = range(0, left).concat(range(left, right));
+                Assert.assertEquals(range(0, left + right), vec);
+                Assert.assertEquals(left + right, vec.size());
+            }
+        }
+    }
+
+    @Test
+    public void test_concat_many() {
+        Vector<Integer> vec = Vector.empty();
+        int size = 0;
+        for (int i = 1; size < 50000; ++i) {
+            // Lots of odd-sized pieces, so few leaves are full.
+            vec = vec.concat(range(size, i % 45));
+            size += i % 45;
+        }
+
+        Assert.assertEquals(size, vec.size());
+        for (int i = 0; i < size; ++i) {
+            Assert.assertEquals(i, (int) vec.get(i));
+        }
+
+        // Appending, slicing and setting keep working on the relaxed tree.
+        for (int i = size; i < size + 100; ++i) {
+            vec = vec.add(i);
+        }
+        Assert.assertEquals(range(0, size + 100), vec);
+        Assert.assertEquals(range(1234, 40000), vec.slice(1234, 41234));
+        Assert.assertEquals(-1, (int) vec.set(31337, -1).get(31337));
+    }
+
+    @Test
+    public void test_insert() {
+        Vector<Integer> vec = range(0, 1000);
+        java.util.List<Integer> expected = new ArrayList<>(vec.asJavaCollection());
+
+        for (int i = 0; i < 1000; i += 7) {
+            vec = vec.insert(i, -i);
+            expected.add(i, -i);
+        }
+        vec = vec.insert(vec.size(), -1);
+        expected.add(-1);
+
+        Assert.assertEquals(expected, vec.asJavaCollection());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void test_insert_outOfBounds() {
+        range(0, 10).insert(11, 0);
+    }
+
+    @Test
+    public void test_removeAt() {
+        Vector<Integer> vec = range(0, 1000);
+        java.util.List<Integer> expected = new ArrayList<>(vec.asJavaCollection());
+
+        for (int i = 0; i < vec.size(); i += 5) {
+            vec = vec.removeAt(i);
+            expected.remove(i);
+        }
+        vec = vec.removeAt(0).removeAt(vec.size() - 2);
+        expected.remove(0);
+        expected.remove(expected.size() - 1);
+
+        Assert.assertEquals(expected, vec.asJavaCollection());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void test_removeAt_outOfBounds() {
+        range(0, 10).removeAt(10);
+    }
+
+    @Test
+    public void test_splitAt() {
+        Vector<Integer> vec = range(0, 2000);
+        for (int i = 0; i <= 2000; i += 123) {
+            Vector.Split<Integer> split = vec.splitAt(i);
+            Assert.assertEquals(range(0, i), split.getLeft());
+            Assert.assertEquals(range(i, 2000 - i), split.getRight());
+            Assert.assertEquals(vec, split.getLeft().concat(split.getRight()));
+        }
+    }
+
+    @Test
+    public void test_add_sharedTail() {
+        Vector<Integer> base = range(0, 40);
+
+        // Both of these start appending to the same (shared) tail; only the
+        // first can do so in place.
+        Vector<Integer> one = base.add(1).add(2);
+        Vector<Integer> two = base.add(-1).add(-2);
+        Vector<Integer> three = one.first(41).add(3);
+
+        Assert.assertEquals(range(0, 40), base);
+        Assert.assertEquals(Arrays.asList(1, 2), one.last(2).asJavaCollection());
+        Assert.assertEquals(Arrays.asList(-1, -2), two.last(2).asJavaCollection());
+        Assert.assertEquals(Arrays.asList(1, 3), three.last(2).asJavaCollection());
+
+        Vector<Integer> built = base.toBuilder().add(100).build();
+        Assert.assertEquals(
+                Arrays.asList(39, 100, 101),
+                built.add(101).last(3).asJavaCollection());
+        Assert.assertEquals(
+                Arrays.asList(39, -1),
+                base.toBuilder().build().add(-1).last(2).asJavaCollection());
+    }
+
+    @Test
+    public void test_prepend() {
+        Vector<Integer> vec = Vector.empty();
+        for (int i = 49999; i >= 0; --i) {
+            vec = vec.prepend(i);
+        }
+
+        Assert.assertEquals(50000, vec.size());
+        Assert.assertEquals(range(0, 50000), vec);
+        Assert.assertEquals(range(0, 50000).hashCode(), vec.hashCode());
+        for (int i = 0; i < 50000; ++i) {
+            Assert.assertEquals(i, (int) vec.get(i));
+        }
+
+        // Everything else keeps working with a partly-full head.
+        vec = vec.prepend(-1).add(50000);
+        Assert.assertEquals(-1, (int) vec.first());
+        Assert.assertEquals(50000, (int) vec.last());
+        Assert.assertEquals(range(0, 40000), vec.slice(1, 40001));
+        Assert.assertEquals(-2, (int) vec.set(0, -2).first());
+        Assert.assertEquals(-3, (int) vec.set(5000, -3).get(5000));
+        Assert.assertEquals(5001, vec.indexOf(5000));
+        Assert.assertEquals(range(0, 50001), vec.remove());
+    }
+
+    @Test
+    public void test_prepend_afterRemove() {
+        Vector<Integer> vec = range(0, 1000).last(900);
+        for (int i = 99; i >= 0; --i) {
+            vec = vec.prepend(i);
+        }
+        Assert.assertEquals(range(0, 1000), vec);
+    }
+
+    @Test
+    public void test_prepend_sharedHead() {
+        Vector<Integer> base = range(0, 40).prepend(-1);
+
+        // Both of these start prepending to the same (shared) head; only the
+        // first can do so in place.
+        Vector<Integer> one = base.prepend(1).prepend(2);
+        Vector<Integer> two = base.prepend(-2).prepend(-3);
+        Vector<Integer> three = one.last(42).prepend(3);
+
+        Assert.assertEquals(range(0, 40).prepend(-1), base);
+        Assert.assertEquals(Arrays.asList(2, 1, -1), one.first(3).asJavaCollection());
+        Assert.assertEquals(Arrays.asList(-3, -2, -1), two.first(3).asJavaCollection());
+        Assert.assertEquals(Arrays.asList(3, 1, -1), three.first(3).asJavaCollection());
+    }
+
+    @Test
+    public void test_prependAll() {
+        Vector<Integer> vec = range(100, 100);
+        vec = vec.prependAll(Arrays.asList(90, 91, 92));
+        vec = vec.prependAll(range(0, 90));
+
+        Assert.assertEquals(193, vec.size());
+        Assert.assertEquals(range(0, 93), vec.first(93));
+        Assert.assertEquals(range(100, 100), vec.last(100));
+        Assert.assertSame(vec, vec.prependAll(Vector.empty()));
+    }
+
+    private static Vector<Integer> range(int from, int count) {
+        Vector.Builder<Integer> builder = Vector.builder();
+        for (int i = from; i < from + count; ++i) {
+            builder.add(i);
+        }
+        return builder.build();
+    }
 }